@@ -0,0 +1,333 @@
+package net.phoenix.server.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the route table of an application at compile time. Every class annotated with <code>@WebHandler</code> is read for methods annotated with <code>@Route.StandardRoute</code> or <code>@Route.ProxyRoute</code>, and a <code>GeneratedRouteRegistry</code> class listing them is written to the package of the first handler. The registry is registered as a service, so the server loads it at startup instead of scanning the classpath. <br> <br>
+ * Standard routes in classes and methods the registry can see are registered with a method reference, which the server calls directly. Route methods that are not static or do not take a single <code>HttpRequest</code> are reported as compile errors, rather than being skipped at startup. <br> <br>
+ * To use the processor, add it to the annotation processor path of the application: <br>
+ * <code>annotationProcessor project(':processor')</code>
+ */
+public class RouteProcessor extends AbstractProcessor {
+    private static final String WEB_HANDLER = "net.phoenix.server.http.reflection.WebHandler";
+    private static final String STANDARD_ROUTE = "net.phoenix.server.http.reflection.Route.StandardRoute";
+    private static final String PROXY_ROUTE = "net.phoenix.server.http.reflection.Route.ProxyRoute";
+    private static final String COALESCE = "net.phoenix.server.http.reflection.Route.Coalesce";
+    private static final String HTTP_REQUEST = "net.phoenix.server.http.container.HttpRequest";
+    private static final String REGISTRY = "net.phoenix.server.http.reflection.RouteRegistry";
+    private static final String ROUTER = "net.phoenix.server.http.reflection.Router";
+    private static final String REGISTRY_NAME = "GeneratedRouteRegistry";
+
+    private Elements elements;
+    private Filer filer;
+    private Messager messager;
+    private boolean generated = false;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Set.of(WEB_HANDLER, STANDARD_ROUTE, PROXY_ROUTE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement webHandler = elements.getTypeElement(WEB_HANDLER);
+        if (webHandler == null || annotations.isEmpty()) return false;
+
+        warnOutsideHandlers(roundEnv, STANDARD_ROUTE);
+        warnOutsideHandlers(roundEnv, PROXY_ROUTE);
+
+        List<TypeElement> handlers = new ArrayList<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(webHandler)) {
+            if (element.getKind() == ElementKind.CLASS) {
+                handlers.add((TypeElement) element);
+            }
+        }
+        if (handlers.isEmpty()) return false;
+        if (generated) {
+            for (TypeElement handler : handlers) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Web handler was generated after the route registry was written, so its routes would not be registered", handler);
+            }
+            return false;
+        }
+        handlers.sort(Comparator.comparing(handler -> handler.getQualifiedName().toString()));
+
+        List<RouteMethod> routes = new ArrayList<>();
+        Map<String, ExecutableElement> seen = new HashMap<>();
+        for (TypeElement handler : handlers) {
+            String base = (String) value(find(handler, WEB_HANDLER), "path");
+            for (ExecutableElement method : ElementFilter.methodsIn(handler.getEnclosedElements())) {
+                AnnotationMirror standard = find(method, STANDARD_ROUTE);
+                AnnotationMirror proxy = find(method, PROXY_ROUTE);
+                // A method with both annotations is a standard route, as it is when the classpath is scanned
+                AnnotationMirror route = standard != null ? standard : proxy;
+                if (route == null) continue;
+                if (standard != null && !isValidRoute(standard, method)) continue;
+                if (standard == null && !isValidProxyRoute(proxy, method)) continue;
+                String path = base + value(route, "path");
+                String opCode = ((VariableElement) value(route, "opCode")).getSimpleName().toString();
+                ExecutableElement previous = seen.put(opCode + " " + path, method);
+                if (previous != null) {
+                    messager.printMessage(Diagnostic.Kind.WARNING, "Route " + opCode + " " + path + " is also declared by " + previous.getEnclosingElement() + "." + previous.getSimpleName() + " and replaces it", method);
+                }
+                routes.add(new RouteMethod(handler, method, opCode, path, standard == null));
+            }
+        }
+
+        PackageElement target = elements.getPackageOf(handlers.get(0));
+        try {
+            writeRegistry(target, handlers, routes);
+            generated = true;
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to write the route registry due to: " + e.getMessage(), handlers.get(0));
+        }
+        return false;
+    }
+
+    /**
+     * Warns about route methods declared in classes that are not web handlers, which the server never registers.
+     *
+     * @param roundEnv   The current round
+     * @param annotation The name of the route annotation
+     */
+    private void warnOutsideHandlers(RoundEnvironment roundEnv, String annotation) {
+        TypeElement type = elements.getTypeElement(annotation);
+        if (type == null) return;
+        for (Element method : roundEnv.getElementsAnnotatedWith(type)) {
+            if (find(method.getEnclosingElement(), WEB_HANDLER) == null) {
+                messager.printMessage(Diagnostic.Kind.WARNING, "Route is declared outside of a @WebHandler class and will not be registered", method);
+            }
+        }
+    }
+
+    /**
+     * Checks that a standard route method can be called by the server, reporting an error if it cannot.
+     *
+     * @param standard The standard route annotation
+     * @param method   The route method
+     * @return True if the method is static, takes a single HttpRequest and does not collapse its calls while running inline
+     */
+    private boolean isValidRoute(AnnotationMirror standard, ExecutableElement method) {
+        if (!method.getModifiers().contains(Modifier.STATIC)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Route methods must be static", method);
+            return false;
+        }
+        if (method.getParameters().size() != 1 || !method.getParameters().get(0).asType().toString().equals(HTTP_REQUEST)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Route methods must take a single " + HTTP_REQUEST, method);
+            return false;
+        }
+        if (find(method, COALESCE) != null && ((VariableElement) value(standard, "execution")).getSimpleName().contentEquals("INLINE")) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Coalesced routes must not run INLINE, as waiting requests would block I/O threads", method);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a proxy route can be run by the server, reporting an error if it cannot.
+     *
+     * @param proxy  The proxy route annotation
+     * @param method The annotated method
+     * @return True if the route does not run inline, as forwarding would block an I/O thread until the target answers
+     */
+    private boolean isValidProxyRoute(AnnotationMirror proxy, ExecutableElement method) {
+        if (((VariableElement) value(proxy, "execution")).getSimpleName().contentEquals("INLINE")) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Proxy routes must not run INLINE, as forwarding waits for the target", method);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the registry class and its service file.
+     *
+     * @param target   The package to write the registry to
+     * @param handlers The web handler classes, which the registry originates from
+     * @param routes   The routes to register
+     * @throws IOException If a file cannot be written
+     */
+    private void writeRegistry(PackageElement target, List<TypeElement> handlers, List<RouteMethod> routes) throws IOException {
+        String packageName = target.isUnnamed() ? "" : target.getQualifiedName().toString();
+        String className = packageName.isEmpty() ? REGISTRY_NAME : packageName + "." + REGISTRY_NAME;
+        Element[] origins = handlers.toArray(new Element[0]);
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * The routes of this application, generated by ").append(RouteProcessor.class.getName()).append(".\n */\n");
+        source.append("@javax.annotation.processing.Generated(\"").append(RouteProcessor.class.getName()).append("\")\n");
+        source.append("public final class ").append(REGISTRY_NAME).append(" implements ").append(REGISTRY).append(" {\n\n");
+        source.append("    @Override\n");
+        source.append("    public void registerRoutes() throws ReflectiveOperationException {\n");
+        for (RouteMethod route : routes) {
+            boolean classVisible = isVisible(route.handler(), target);
+            String handlerClass = classVisible
+                    ? route.handler().getQualifiedName() + ".class"
+                    : "Class.forName(\"" + elements.getBinaryName(route.handler()) + "\", false, getClass().getClassLoader())";
+            if (route.proxy()) {
+                // Proxy routes are looked up by name, as they are never called and may have any parameters
+                String method = "findMethod(" + handlerClass + ", \"" + route.method().getSimpleName() + "\")";
+                source.append("        ").append(ROUTER).append(".registerProxyRoute(\"").append(route.opCode()).append("\", ")
+                        .append(literal(route.path())).append(", ").append(method).append(");\n");
+            } else {
+                String method = handlerClass + ".getDeclaredMethod(\"" + route.method().getSimpleName() + "\", " + HTTP_REQUEST + ".class)";
+                String invoker = classVisible && isVisible(route.method(), target)
+                        ? route.handler().getQualifiedName() + "::" + route.method().getSimpleName()
+                        : "null";
+                source.append("        ").append(ROUTER).append(".registerStandardRoute(\"").append(route.opCode()).append("\", ")
+                        .append(literal(route.path())).append(", ").append(method).append(", ").append(invoker).append(");\n");
+            }
+        }
+        source.append("    }\n");
+        if (routes.stream().anyMatch(RouteMethod::proxy)) {
+            source.append("""
+
+                        /**
+                         * Finds a proxy route method by name.
+                         */
+                        private static java.lang.reflect.Method findMethod(Class<?> handler, String name) throws NoSuchMethodException {
+                            for (java.lang.reflect.Method method : handler.getDeclaredMethods()) {
+                                if (method.getName().equals(name) && method.isAnnotationPresent(net.phoenix.server.http.reflection.Route.ProxyRoute.class)) {
+                                    return method;
+                                }
+                            }
+                            throw new NoSuchMethodException(handler.getName() + "." + name);
+                        }
+                    """);
+        }
+        source.append("}\n");
+
+        JavaFileObject file = filer.createSourceFile(className, origins);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source.toString());
+        }
+        FileObject services = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + REGISTRY, origins);
+        try (Writer writer = services.openWriter()) {
+            writer.write(className + "\n");
+        }
+    }
+
+    /**
+     * Checks whether generated code in a package can refer to a class or method directly.
+     *
+     * @param element The class or method
+     * @param target  The package of the generated code
+     * @return True if the element and every class enclosing it are accessible from the package
+     */
+    private boolean isVisible(Element element, PackageElement target) {
+        for (Element e = element; e != null && e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) return false;
+            if (!modifiers.contains(Modifier.PUBLIC) && !elements.getPackageOf(e).equals(target)) return false;
+            if (e instanceof TypeElement type && type.getNestingKind() == NestingKind.LOCAL) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds an annotation on an element by name.
+     *
+     * @param element    The annotated element
+     * @param annotation The canonical name of the annotation
+     * @return The annotation, or null if the element is not annotated with it
+     */
+    private static AnnotationMirror find(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the value of an annotation attribute, falling back to its default.
+     *
+     * @param mirror The annotation
+     * @param name   The name of the attribute
+     * @return The value of the attribute
+     */
+    private Object value(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        throw new IllegalArgumentException("Annotation " + mirror + " has no attribute " + name);
+    }
+
+    /**
+     * Quotes a string as a Java string literal.
+     *
+     * @param value The string
+     * @return The literal, including its quotes
+     */
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> literal.append("\\\"");
+                case '\\' -> literal.append("\\\\");
+                case '\n' -> literal.append("\\n");
+                case '\r' -> literal.append("\\r");
+                case '\t' -> literal.append("\\t");
+                default -> literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * A route method found in a web handler.
+     *
+     * @param handler The web handler class
+     * @param method  The route method
+     * @param opCode  The name of the HTTP method of the route
+     * @param path    The full path of the route
+     * @param proxy   True for a proxy route, false for a standard route
+     */
+    private record RouteMethod(TypeElement handler, ExecutableElement method, String opCode, String path, boolean proxy) {
+    }
+}
@@ -0,0 +1,103 @@
+package net.phoenix.server.benchmark;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.Route;
+import net.phoenix.server.http.reflection.WebHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends batches of concurrent requests to a running server, once over HTTP/1.1, where the client opens a connection for each request in flight, and once over HTTP/2, where they are multiplexed on a single connection upgraded from cleartext. Run with <code>gradle jmh</code>.
+ */
+@WebHandler(path = "/bench")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Http2Benchmark {
+    @Param({"1", "16", "64"})
+    public int concurrency;
+
+    private URI uri;
+    private HttpClient http1;
+    private HttpClient http2;
+
+    /**
+     * The route being requested.
+     *
+     * @param request The request
+     * @return A short response
+     */
+    @Route.StandardRoute(path = "/hello")
+    public static HttpResponse hello(HttpRequest request) {
+        return new HttpResponseBuilder().setStatusCode(200).setEntity("hello").build();
+    }
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Server.accessLogFormat = null;
+        Server.maxKeepAliveRequests = Integer.MAX_VALUE;
+        new Server(port, Http2Benchmark.class).start();
+        uri = URI.create("http://127.0.0.1:" + port + "/bench/hello");
+        http1 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        http2 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        // Performs the upgrade, so the measured requests share the resulting connection
+        http2.send(java.net.http.HttpRequest.newBuilder(uri).build(), BodyHandlers.discarding());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (Server.socket != null) Server.socket.close();
+    }
+
+    /**
+     * A batch of requests over HTTP/1.1.
+     */
+    @Benchmark
+    public void http1() {
+        batch(http1);
+    }
+
+    /**
+     * A batch of requests multiplexed over HTTP/2.
+     */
+    @Benchmark
+    public void http2() {
+        batch(http2);
+    }
+
+    /**
+     * Sends {@link #concurrency} requests at once and waits for all of their responses.
+     *
+     * @param client The client to send them with
+     */
+    private void batch(HttpClient client) {
+        java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder(uri).build();
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            responses[i] = client.sendAsync(request, BodyHandlers.discarding());
+        }
+        CompletableFuture.allOf(responses).join();
+    }
+}
@@ -0,0 +1,87 @@
+package net.phoenix.server.benchmark;
+
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.processors.HttpRequestParser;
+import net.phoenix.server.http.processors.IncomingRequestDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the incremental request parser against the string based decoder it replaced. Run with <code>gradle jmh</code>.
+ */
+@SuppressWarnings("deprecation")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestParserBenchmark {
+    private static final String REQUEST = """
+            GET /api/users?id=42&sort=name HTTP/1.1\r
+            Host: localhost:8080\r
+            User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/119.0\r
+            Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r
+            Accept-Language: en-GB,en;q=0.5\r
+            Accept-Encoding: gzip, deflate, br\r
+            Connection: keep-alive\r
+            Cookie: session=8c6976e5b5410415bde908bd4dee15dfb167a9c873fc4bb8a81f6f2ab448a918\r
+            Upgrade-Insecure-Requests: 1\r
+            Sec-Fetch-Dest: document\r
+            Sec-Fetch-Mode: navigate\r
+            Sec-Fetch-Site: none\r
+            \r
+            """;
+
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private ByteBuffer firstHalf;
+    private ByteBuffer secondHalf;
+    private HttpRequestParser parser;
+
+    @Setup
+    public void setup() {
+        bytes = REQUEST.getBytes(StandardCharsets.UTF_8);
+        buffer = ByteBuffer.wrap(bytes);
+        firstHalf = ByteBuffer.wrap(bytes, 0, bytes.length / 2).slice();
+        secondHalf = ByteBuffer.wrap(bytes, bytes.length / 2, bytes.length - bytes.length / 2).slice();
+        parser = new HttpRequestParser("/127.0.0.1:50000", 1024 * 1024);
+    }
+
+    /**
+     * The previous decoder, including the conversion of the read buffer into a string.
+     */
+    @Benchmark
+    public String legacyDecoder() {
+        HttpRequest request = IncomingRequestDecoder.processRequest(new String(bytes, StandardCharsets.UTF_8), "/127.0.0.1:50000");
+        return request.headers().get("Host");
+    }
+
+    /**
+     * The incremental parser with the whole request in one read.
+     */
+    @Benchmark
+    public String parser() throws HttpRequestParser.HttpParseException {
+        buffer.clear();
+        HttpRequest request = parser.parse(buffer);
+        return request.getHeader("Host");
+    }
+
+    /**
+     * The incremental parser with the request split across two reads.
+     */
+    @Benchmark
+    public String parserSplitRead() throws HttpRequestParser.HttpParseException {
+        firstHalf.clear();
+        secondHalf.clear();
+        parser.parse(firstHalf);
+        HttpRequest request = parser.parse(secondHalf);
+        return request.getHeader("Host");
+    }
+}
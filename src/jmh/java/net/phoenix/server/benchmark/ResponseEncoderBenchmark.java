@@ -0,0 +1,55 @@
+package net.phoenix.server.benchmark;
+
+import net.phoenix.server.http.BufferPool;
+import net.phoenix.server.http.ResponseEncoder;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a typical small response by building it as a string and encoding that to UTF-8, as the server used to, against the {@link ResponseEncoder}, which writes it straight into a pooled buffer. Run with <code>gradle jmh</code> and add <code>-prof gc</code> to compare the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseEncoderBenchmark {
+    private HttpResponse response;
+
+    @Setup
+    public void setup() {
+        response = new HttpResponseBuilder().setStatusCode(200)
+                .addHeader("Content-Type", "application/json")
+                .setKeepAlive(5, 99)
+                .setEntity("{\"id\":42,\"name\":\"phoenix\",\"tags\":[\"http\",\"server\"]}")
+                .build();
+    }
+
+    /**
+     * The previous encoding through a string.
+     */
+    @Benchmark
+    public byte[] string() {
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The encoder, including returning the buffer to the pool.
+     */
+    @Benchmark
+    public int encoder() {
+        ByteBuffer buffer = ResponseEncoder.encode(response);
+        int length = buffer.remaining();
+        BufferPool.release(buffer);
+        return length;
+    }
+}
@@ -0,0 +1,88 @@
+package net.phoenix.server.benchmark;
+
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpRequestBody;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.RouteInvoker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways a route method can be called: the reflective {@link Method#invoke(Object, Object...)} the server used to dispatch with, a {@link MethodHandle} adapted to a generic signature, the {@link RouteInvoker} built for each route, and a direct call as the lower bound. Run with <code>gradle jmh</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouteDispatchBenchmark {
+    private static final HttpResponse RESPONSE = new HttpResponseBuilder().setStatusCode(200).setEntity("hello").build();
+
+    private HttpRequest request;
+    private Method method;
+    private MethodHandle handle;
+    private RouteInvoker invoker;
+
+    /**
+     * The route method being called.
+     *
+     * @param request The request
+     * @return A constant response
+     */
+    public static HttpResponse handler(HttpRequest request) {
+        return request.method() == HttpOpCode.GET ? RESPONSE : null;
+    }
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        request = new HttpRequest(Map.of("Host", "localhost"), HttpOpCode.GET, "/hello", HttpRequestBody.EMPTY, new HashMap<>(), "/127.0.0.1:50000", "HTTP/1.1");
+        method = RouteDispatchBenchmark.class.getMethod("handler", HttpRequest.class);
+        handle = MethodHandles.lookup().unreflect(method).asType(MethodType.methodType(Object.class, HttpRequest.class));
+        invoker = RouteInvoker.of(method);
+    }
+
+    /**
+     * The previous dispatch through reflection.
+     */
+    @Benchmark
+    public Object reflection() throws ReflectiveOperationException {
+        return method.invoke(null, request);
+    }
+
+    /**
+     * A method handle held in a non-constant field, which the JIT cannot inline through.
+     */
+    @Benchmark
+    public Object methodHandle() throws Throwable {
+        return (Object) handle.invokeExact(request);
+    }
+
+    /**
+     * The invoker generated for each route.
+     */
+    @Benchmark
+    public Object routeInvoker() throws Throwable {
+        return invoker.invoke(request);
+    }
+
+    /**
+     * A direct call to the route method.
+     */
+    @Benchmark
+    public Object direct() {
+        return handler(request);
+    }
+}
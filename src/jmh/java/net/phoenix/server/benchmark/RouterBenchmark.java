@@ -0,0 +1,83 @@
+package net.phoenix.server.benchmark;
+
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.reflection.RouteTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the route tree against the exact-match map the router used before, over route tables with thousands of entries. The map can only find static routes, so it is measured on those, while the tree is measured on both static routes and routes with path variables. Run with <code>gradle jmh</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouterBenchmark {
+    private static final HttpOpCode[] METHODS = {HttpOpCode.GET, HttpOpCode.POST, HttpOpCode.PUT, HttpOpCode.DELETE};
+
+    @Param({"1000", "5000"})
+    public int routes;
+
+    private Map<String, String> map;
+    private RouteTree<String> tree;
+    private String[] staticPaths;
+    private String[] variablePaths;
+    private int next;
+
+    @Setup
+    public void setup() {
+        map = new HashMap<>();
+        tree = new RouteTree<>();
+        staticPaths = new String[routes / 2];
+        variablePaths = new String[routes / 2];
+        for (int i = 0; i < routes / 2; i++) {
+            HttpOpCode method = METHODS[i % METHODS.length];
+            String path = "/api/v" + (i % 3) + "/resource" + i + "/items";
+            map.put(method.toString().concat(" ").concat(path), path);
+            tree.put(method, path, path);
+            staticPaths[i] = path;
+
+            String pattern = "/api/v" + (i % 3) + "/entity" + i + "/{id}/children/{child}";
+            tree.put(method, pattern, pattern);
+            variablePaths[i] = "/api/v" + (i % 3) + "/entity" + i + "/" + (i * 31) + "/children/" + (i * 17);
+        }
+    }
+
+    /**
+     * The previous lookup, which concatenates the method and path into a key for every request.
+     */
+    @Benchmark
+    public String mapStatic() {
+        int i = next++ % staticPaths.length;
+        return map.get(METHODS[i % METHODS.length].toString().concat(" ").concat(staticPaths[i]));
+    }
+
+    /**
+     * The route tree on static routes.
+     */
+    @Benchmark
+    public String treeStatic() {
+        int i = next++ % staticPaths.length;
+        RouteTree.Match<String> match = tree.get(METHODS[i % METHODS.length], staticPaths[i]);
+        return match == null ? null : match.value();
+    }
+
+    /**
+     * The route tree on routes with two path variables, including building the map of captured variables.
+     */
+    @Benchmark
+    public Map<String, String> treeVariables() {
+        int i = next++ % variablePaths.length;
+        RouteTree.Match<String> match = tree.get(METHODS[i % METHODS.length], variablePaths[i]);
+        return match == null ? null : match.params();
+    }
+}
@@ -1,19 +1,33 @@
 package net.phoenix.server;
 
 import net.phoenix.server.http.RequestHandler;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.reflection.ExecutionMode;
 import net.phoenix.server.http.reflection.Route;
 import net.phoenix.server.http.reflection.Router;
 import net.phoenix.server.http.reflection.WebHandler;
+import net.phoenix.server.logging.AccessLog;
 import net.phoenix.server.logging.Logger;
+import net.phoenix.server.logging.container.AccessLogFormat;
+import net.phoenix.server.logging.container.Priority;
+import net.phoenix.server.metrics.MetricsRegistry;
+import net.phoenix.server.metrics.ServerMetrics;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.net.URISyntaxException;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The core HTTP server class. <br> <br>
@@ -22,14 +36,159 @@ import java.util.Map;
  * <code>
  * Server server = new Server(port, Main.class); <br>
  * server.start();
- * </code>
+ * </code> <br> <br>
+ * The I/O threads, socket options and buffer sizes can be tuned with a {@link ServerConfig}, built in code or loaded from a properties file with {@link ServerConfigBuilder#load(java.nio.file.Path)}. <br> <br>
  * To create a route, simply annotate a method with the {@link Route} annotation and annotate the class with the {@link WebHandler} annotation. <br> <br>
  */
 public class Server {
 
     public static @Nullable AsynchronousServerSocketChannel socket = null;
+    /**
+     * The channel group whose threads accept connections and complete reads and writes.
+     */
+    public static @Nullable AsynchronousChannelGroup group = null;
+    /**
+     * The network configuration: I/O threads, the listening socket, socket options and buffer sizes.
+     */
+    public static ServerConfig config = new ServerConfigBuilder().build();
     public static Logger logger;
+    /**
+     * The access log, which is opened when the server starts, or null if it is disabled or the server has not started.
+     */
+    public static @Nullable AccessLog accessLog = null;
     public static Class<?> clazz;
+    /**
+     * The number of milliseconds an idle persistent connection is kept open before it is closed.
+     */
+    public static int keepAliveTimeout = 5000;
+    /**
+     * The maximum number of requests served on a single persistent connection before it is closed.
+     */
+    public static int maxKeepAliveRequests = 100;
+    /**
+     * The number of milliseconds a client has to send the request line and headers, counted from the first byte of the request, or from connecting for the first request. Slower clients are answered with 408 Request Timeout, so they cannot hold connections open by sending a few bytes at a time.
+     */
+    public static int requestHeaderTimeout = 20000;
+    /**
+     * The length in milliseconds of the windows in which the request body is checked against {@link #minRequestBodyRate}.
+     */
+    public static int requestBodyTimeout = 20000;
+    /**
+     * The minimum average rate, in bytes per second, at which a request body has to arrive within every window of {@link #requestBodyTimeout}. Slower clients are answered with 408 Request Timeout.
+     */
+    public static int minRequestBodyRate = 500;
+    /**
+     * The largest request body, in bytes, that will be accepted. Larger requests are answered with 413 Payload Too Large.
+     */
+    public static long maxBodySize = 10 * 1024 * 1024;
+    /**
+     * Whether clients may speak HTTP/2 over cleartext connections, either from their first byte or by upgrading an HTTP/1.1 request with "Upgrade: h2c". The requests of every stream are routed like HTTP/1.1 requests. On HTTP/2 connections, {@link #maxKeepAliveRequests} limits the streams a client may open before it has to reconnect.
+     */
+    public static boolean http2Enabled = true;
+    /**
+     * The number of streams a client may have in progress at once on a single HTTP/2 connection. Further streams are refused, and the client retries them once others have finished.
+     */
+    public static int http2MaxConcurrentStreams = 100;
+    /**
+     * The number of bytes of request bodies an HTTP/2 client may send on each stream, and on the whole connection, before the server acknowledges them. A larger window lets uploads go faster over links with a long round trip.
+     */
+    public static int http2WindowSize = 1024 * 1024;
+    /**
+     * The number of bytes of static file contents that are kept in memory.
+     */
+    public static long staticCacheSize = 64 * 1024 * 1024;
+    /**
+     * The smallest response body, in bytes, that is compressed. Smaller bodies are sent as they are, since compressing them saves little and costs a round of CPU work.
+     */
+    public static long compressionMinSize = 1024;
+    /**
+     * The number of bytes of compressed static file contents that are kept in memory.
+     */
+    public static long compressionCacheSize = 16 * 1024 * 1024;
+    /**
+     * The number of bytes of responses kept by the shared response cache of the routes that enable it.
+     */
+    public static long responseCacheSize = 32 * 1024 * 1024;
+    /**
+     * The largest response, in bytes, that the shared response cache stores, or that is shared between collapsed requests of a {@link net.phoenix.server.http.reflection.Route.Coalesce} route. Larger responses, and responses whose length is not known in advance, are always sent straight from their route.
+     */
+    public static long responseCacheMaxEntrySize = 1024 * 1024;
+    /**
+     * The number of milliseconds a request of a {@link net.phoenix.server.http.reflection.Route.Coalesce} or cached route waits for an identical request that is already calling the route. A request that has waited this long calls the route itself. A response being read into memory to be shared or stored in the response cache, including the answer of a proxy target, is given as long for its body to arrive.
+     */
+    public static int coalesceTimeout = 60000;
+    /**
+     * The content types that are compressed. A type ending in "/" matches every subtype, so "text/" matches "text/html" and "text/css". Types that are already compressed, such as images and archives, should not be listed.
+     */
+    public static List<String> compressibleTypes = new ArrayList<>(List.of("text/", "application/javascript", "application/json", "application/xml", "application/xhtml+xml", "image/svg+xml"));
+    /**
+     * Where route methods run when their route does not choose an execution mode.
+     */
+    public static ExecutionMode defaultExecutionMode = ExecutionMode.VIRTUAL;
+    /**
+     * The number of platform threads route methods run on in the {@link ExecutionMode#POOL} mode, which is also used for {@link ExecutionMode#VIRTUAL} on runtimes without virtual threads.
+     */
+    public static int handlerThreads = 64;
+    /**
+     * The number of requests that may wait for a thread of the handler pool. Further requests are answered with 503 Service Unavailable.
+     */
+    public static int handlerQueueSize = 1024;
+    /**
+     * The number of milliseconds to wait for a connection to the target of a proxy route. Targets that cannot be reached in time are answered with 504 Gateway Timeout.
+     */
+    public static int proxyConnectTimeout = 5000;
+    /**
+     * The number of milliseconds the target of a proxy route has to answer with its status and headers. Targets that answer too late are answered with 504 Gateway Timeout. A proxied body whose length the target did not announce is given this long again to be written to the client.
+     */
+    public static int proxyTimeout = 60000;
+    /**
+     * The number of consecutive failed requests after which a target of a proxy route is ejected, or 0 to never eject targets for failing requests. A request fails if the target cannot be reached, does not answer in time or answers with 502, 503 or 504.
+     */
+    public static int proxyMaxFailures = 3;
+    /**
+     * The number of milliseconds an ejected target of a proxy route receives no requests, unless every other target is unavailable too.
+     */
+    public static int proxyEjectionTime = 30000;
+    /**
+     * The number of milliseconds between two health checks of a target of a proxy route that has a health check path.
+     */
+    public static int proxyHealthCheckInterval = 10000;
+    /**
+     * The number of bytes of idle direct buffers kept for reuse by socket reads and writes. Buffers released while the pool is full are left to the garbage collector.
+     */
+    public static long bufferPoolSize = 32 * 1024 * 1024;
+    /**
+     * Whether buffers taken from the pool are tracked, so those that are never released or released twice are logged. Recording where every buffer is acquired is costly, so this is meant for debugging.
+     */
+    public static boolean bufferLeakDetection = false;
+    /**
+     * Whether the server records metrics about its connections, requests and responses in the {@link MetricsRegistry#shared() shared registry}.
+     */
+    public static boolean metricsEnabled = true;
+    /**
+     * The path of the built-in route exposing the metrics in the Prometheus text format, such as "/metrics", or null to not expose them.
+     */
+    public static @Nullable String metricsPath = null;
+    /**
+     * The format of the access log, or null to disable it.
+     */
+    public static @Nullable AccessLogFormat accessLogFormat = AccessLogFormat.COMBINED;
+    /**
+     * The path of the access log, or null for "./logs/access" with the extension of the {@link #accessLogFormat}.
+     */
+    public static @Nullable String accessLogFile = null;
+    /**
+     * The size in bytes at which the access log is rotated, or 0 to never rotate it by size.
+     */
+    public static long accessLogMaxSize = 64 * 1024 * 1024;
+    /**
+     * The number of milliseconds after which the access log is rotated, or 0 to never rotate it by age.
+     */
+    public static long accessLogRotationInterval = 24 * 60 * 60 * 1000;
+    /**
+     * Whether rotated access logs are compressed with gzip, which is done on a background thread.
+     */
+    public static boolean accessLogCompression = true;
 
     /**
      * Creates a new server instance.
@@ -38,11 +197,63 @@ public class Server {
      * @param clazz The class to scan for routes
      */
     public Server(int port, Class<?> clazz) {
+        this(port, clazz, keepAliveTimeout, maxKeepAliveRequests);
+    }
+
+    /**
+     * Creates a new server instance.
+     *
+     * @param port                 The port to start the server on
+     * @param clazz                The class to scan for routes
+     * @param keepAliveTimeout     The number of milliseconds an idle persistent connection is kept open, or 0 to close every connection after one response
+     * @param maxKeepAliveRequests The maximum number of requests served on a single persistent connection
+     */
+    public Server(int port, Class<?> clazz, int keepAliveTimeout, int maxKeepAliveRequests) {
+        this(new ServerConfigBuilder(config).setPort(port).build(), clazz, keepAliveTimeout, maxKeepAliveRequests);
+    }
+
+    /**
+     * Creates a new server instance.
+     *
+     * @param config The network configuration of the server
+     * @param clazz  The class to scan for routes
+     */
+    public Server(@NotNull ServerConfig config, Class<?> clazz) {
+        this(config, clazz, keepAliveTimeout, maxKeepAliveRequests);
+    }
+
+    /**
+     * Creates a new server instance.
+     *
+     * @param config               The network configuration of the server
+     * @param clazz                The class to scan for routes
+     * @param keepAliveTimeout     The number of milliseconds an idle persistent connection is kept open, or 0 to close every connection after one response
+     * @param maxKeepAliveRequests The maximum number of requests served on a single persistent connection
+     */
+    public Server(@NotNull ServerConfig config, Class<?> clazz, int keepAliveTimeout, int maxKeepAliveRequests) {
+        Server.config = config;
         Server.clazz = clazz;
+        Server.keepAliveTimeout = keepAliveTimeout;
+        Server.maxKeepAliveRequests = maxKeepAliveRequests;
         logger = new Logger(System.out);
         try {
-            socket = AsynchronousServerSocketChannel.open();
-            socket.bind(new InetSocketAddress(port));
+            if (config.channelExecutor() != null) {
+                group = AsynchronousChannelGroup.withThreadPool(config.channelExecutor());
+            } else {
+                AtomicInteger threads = new AtomicInteger();
+                group = AsynchronousChannelGroup.withFixedThreadPool(config.channelThreads(), runnable -> {
+                    Thread thread = new Thread(runnable, "IO-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            socket = AsynchronousServerSocketChannel.open(group);
+            socket.setOption(StandardSocketOptions.SO_REUSEADDR, config.reuseAddress());
+            if (config.receiveBufferSize() > 0) {
+                // Set before binding, so the window scale negotiated for accepted connections can use the full size
+                socket.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize());
+            }
+            socket.bind(new InetSocketAddress(config.port()), config.backlog());
         } catch (IOException e) {
             logger.logError("Failed to start server due to: " + e.getMessage());
             throw new RuntimeException(e);
@@ -92,31 +303,51 @@ public class Server {
         logger.logDebug("Scanning for routes in package \"" + clazz.getPackageName() + "\" initialised by " + clazz.getName());
         try {
             Router.generateRoutes();
-            for (Map.Entry<String, Route> entry : Router.getRoutes().entrySet()) {
-                assert entry.getValue().getMethod() != null;
-                logger.logDebug("Route: " + entry.getKey() + " -> function " + entry.getValue().getPath() + "()"
-                        + " in " + entry.getValue().getMethod().getDeclaringClass().getPackageName() + entry.getValue().getMethod().getDeclaringClass().getName());
+            if (metricsPath != null) {
+                Router.registerStandardRoute("GET", metricsPath, ServerMetrics.class.getMethod("scrape", HttpRequest.class), ServerMetrics::scrape);
+            }
+            if (logger.isEnabled(Priority.DEBUG)) {
+                for (Map.Entry<String, Route> entry : Router.getRoutes().entrySet()) {
+                    assert entry.getValue().getMethod() != null;
+                    logger.logDebug("Route: " + entry.getKey() + " -> function " + entry.getValue().getPath() + "()"
+                            + " in " + entry.getValue().getMethod().getDeclaringClass().getPackageName() + entry.getValue().getMethod().getDeclaringClass().getName());
+                }
             }
-        } catch (URISyntaxException | ClassNotFoundException e) {
+        } catch (URISyntaxException | ClassNotFoundException | NoSuchMethodException e) {
             logger.logError("Failed to create routes due to: " + e.getMessage());
             throw new RuntimeException(e);
         }
         logger.logDebug("Routes generated successfully");
+        if (accessLogFormat != null) {
+            Path path = Path.of(accessLogFile != null ? accessLogFile : "./logs/access" + accessLogFormat.getExtension());
+            accessLog = new AccessLog(path, accessLogFormat, accessLogMaxSize, accessLogRotationInterval, accessLogCompression, AccessLog.DEFAULT_CAPACITY);
+            logger.logDebug("Writing access log to " + path + " as " + accessLogFormat);
+        }
 
         logger.logInfo("Registering shutdown hooks");
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Route route : Router.getRoutes().values()) {
+                route.close();
+            }
             try {
                 assert socket != null;
                 socket.close();
             } catch (IOException e) {
                 logger.logError("Failed to close server socket due to: " + e.getMessage());
             }
+            try {
+                assert group != null;
+                group.shutdownNow();
+            } catch (IOException e) {
+                logger.logError("Failed to shut down channel group due to: " + e.getMessage());
+            }
             String stackTrace = checkStackTrace();
             if (stackTrace != null) {
                 logger.logWarn("Server stopped by use of System.exit() in " + stackTrace);
             } else {
                 logger.logInfo("Server stopped at " + new SimpleDateFormat("MM/dd/yyyy-HH:mm:ss").format(new Date()) + " by " + System.getProperty("user.name"));
             }
+            if (accessLog != null) accessLog.shutdown();
             logger.shutdown();
         }));
         logger.logInfo("Shutdown hooks registered successfully");
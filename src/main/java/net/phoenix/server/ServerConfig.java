@@ -0,0 +1,25 @@
+package net.phoenix.server;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The network configuration of a server: the threads that perform socket I/O, the listening socket, the options of every accepted connection and the sizes of the buffers used to read requests and write responses. Configurations are created with a {@link ServerConfigBuilder}, either in code or from a properties file.
+ *
+ * @param port              The port the server listens on
+ * @param channelThreads    The number of threads of the channel group that accepts connections and completes reads and writes
+ * @param channelExecutor   The executor the channel group runs on instead of its own fixed pool of channelThreads threads, or null to create the pool
+ * @param backlog           The maximum number of connections waiting to be accepted, or 0 for the operating system default
+ * @param reuseAddress      Whether SO_REUSEADDR is set on the listening socket, so the server can be restarted while old connections are in TIME_WAIT
+ * @param receiveBufferSize The SO_RCVBUF size of each socket in bytes, or 0 for the operating system default
+ * @param sendBufferSize    The SO_SNDBUF size of each socket in bytes, or 0 for the operating system default
+ * @param tcpNoDelay        Whether TCP_NODELAY is set on each connection, which sends small responses immediately instead of waiting to coalesce them
+ * @param keepAlive         Whether SO_KEEPALIVE is set on each connection, so dead peers are eventually detected by the operating system
+ * @param readBufferSize    The size in bytes of the buffer each connection reads requests into
+ * @param writeBufferSize   The size in bytes of the buffer streamed response bodies are written through
+ */
+public record ServerConfig(int port, int channelThreads, @Nullable ExecutorService channelExecutor, int backlog,
+                           boolean reuseAddress, int receiveBufferSize, int sendBufferSize, boolean tcpNoDelay,
+                           boolean keepAlive, int readBufferSize, int writeBufferSize) {
+}
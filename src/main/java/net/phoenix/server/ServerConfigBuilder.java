@@ -0,0 +1,253 @@
+package net.phoenix.server;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A builder for ServerConfig objects. Every setting has a default suited to a small server, with one I/O thread per core. <br> <br>
+ * A configuration can also be read from a properties file, using the keys <code>port</code>, <code>channel.threads</code>, <code>socket.backlog</code>, <code>socket.reuseAddress</code>, <code>socket.receiveBufferSize</code>, <code>socket.sendBufferSize</code>, <code>socket.tcpNoDelay</code>, <code>socket.keepAlive</code>, <code>buffer.read</code> and <code>buffer.write</code>. Keys that are missing keep their defaults.
+ */
+@SuppressWarnings("UnusedReturnValue")
+public class ServerConfigBuilder {
+    private int port = 8080;
+    private int channelThreads = Runtime.getRuntime().availableProcessors();
+    private @Nullable ExecutorService channelExecutor = null;
+    private int backlog = 1024;
+    private boolean reuseAddress = true;
+    private int receiveBufferSize = 0;
+    private int sendBufferSize = 0;
+    private boolean tcpNoDelay = true;
+    private boolean keepAlive = false;
+    private int readBufferSize = 8192;
+    private int writeBufferSize = 16 * 1024;
+
+    /**
+     * Creates a new ServerConfigBuilder with the default settings.
+     */
+    public ServerConfigBuilder() {
+    }
+
+    /**
+     * Creates a new ServerConfigBuilder initialised with the settings of an existing configuration.
+     *
+     * @param config The configuration to copy
+     */
+    public ServerConfigBuilder(@NotNull ServerConfig config) {
+        port = config.port();
+        channelThreads = config.channelThreads();
+        channelExecutor = config.channelExecutor();
+        backlog = config.backlog();
+        reuseAddress = config.reuseAddress();
+        receiveBufferSize = config.receiveBufferSize();
+        sendBufferSize = config.sendBufferSize();
+        tcpNoDelay = config.tcpNoDelay();
+        keepAlive = config.keepAlive();
+        readBufferSize = config.readBufferSize();
+        writeBufferSize = config.writeBufferSize();
+    }
+
+    /**
+     * Creates a new ServerConfigBuilder from a properties file.
+     *
+     * @param file The properties file
+     * @return A builder with the settings of the file
+     * @throws IOException              If the file cannot be read
+     * @throws IllegalArgumentException If a value is not a valid number
+     */
+    public static @NotNull ServerConfigBuilder load(@NotNull Path file) throws IOException, IllegalArgumentException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return load(properties);
+    }
+
+    /**
+     * Creates a new ServerConfigBuilder from properties.
+     *
+     * @param properties The properties
+     * @return A builder with the settings of the properties
+     * @throws IllegalArgumentException If a value is not a valid number
+     */
+    public static @NotNull ServerConfigBuilder load(@NotNull Properties properties) throws IllegalArgumentException {
+        ServerConfigBuilder builder = new ServerConfigBuilder();
+        builder.port = getInt(properties, "port", builder.port);
+        builder.channelThreads = getInt(properties, "channel.threads", builder.channelThreads);
+        builder.backlog = getInt(properties, "socket.backlog", builder.backlog);
+        builder.reuseAddress = Boolean.parseBoolean(properties.getProperty("socket.reuseAddress", String.valueOf(builder.reuseAddress)).trim());
+        builder.receiveBufferSize = getInt(properties, "socket.receiveBufferSize", builder.receiveBufferSize);
+        builder.sendBufferSize = getInt(properties, "socket.sendBufferSize", builder.sendBufferSize);
+        builder.tcpNoDelay = Boolean.parseBoolean(properties.getProperty("socket.tcpNoDelay", String.valueOf(builder.tcpNoDelay)).trim());
+        builder.keepAlive = Boolean.parseBoolean(properties.getProperty("socket.keepAlive", String.valueOf(builder.keepAlive)).trim());
+        builder.readBufferSize = getInt(properties, "buffer.read", builder.readBufferSize);
+        builder.writeBufferSize = getInt(properties, "buffer.write", builder.writeBufferSize);
+        return builder;
+    }
+
+    /**
+     * Reads a number from properties.
+     *
+     * @param properties   The properties
+     * @param key          The key of the number
+     * @param defaultValue The value to use if the key is missing
+     * @return The number
+     * @throws IllegalArgumentException If the value is not a valid number
+     */
+    private static int getInt(@NotNull Properties properties, @NotNull String key, int defaultValue) throws IllegalArgumentException {
+        String value = properties.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value \"" + value + "\" for " + key, e);
+        }
+    }
+
+    /**
+     * Sets the port the server listens on.
+     *
+     * @param port The port
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that accept connections and complete reads and writes.
+     *
+     * @param channelThreads The number of threads, usually the number of cores
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setChannelThreads(int channelThreads) {
+        this.channelThreads = channelThreads;
+        return this;
+    }
+
+    /**
+     * Sets an executor for the channel group to run on, instead of a fixed pool of {@link #setChannelThreads(int)} threads. The executor is shut down with the server.
+     *
+     * @param channelExecutor The executor, or null to use a fixed pool
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setChannelExecutor(@Nullable ExecutorService channelExecutor) {
+        this.channelExecutor = channelExecutor;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of connections waiting to be accepted.
+     *
+     * @param backlog The backlog, or 0 for the operating system default
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setBacklog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Sets whether SO_REUSEADDR is set on the listening socket.
+     *
+     * @param reuseAddress True to allow binding while old connections are in TIME_WAIT
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setReuseAddress(boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+        return this;
+    }
+
+    /**
+     * Sets the SO_RCVBUF size of each socket.
+     *
+     * @param receiveBufferSize The size in bytes, or 0 for the operating system default
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the SO_SNDBUF size of each socket.
+     *
+     * @param sendBufferSize The size in bytes, or 0 for the operating system default
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets whether TCP_NODELAY is set on each connection.
+     *
+     * @param tcpNoDelay True to disable Nagle's algorithm
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * Sets whether SO_KEEPALIVE is set on each connection.
+     *
+     * @param keepAlive True to enable TCP keep-alive probes
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Sets the size of the buffer each connection reads requests into.
+     *
+     * @param readBufferSize The size in bytes
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the size of the buffer streamed response bodies are written through.
+     *
+     * @param writeBufferSize The size in bytes
+     * @return This object for chaining.
+     */
+    public @NotNull ServerConfigBuilder setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+        return this;
+    }
+
+    /**
+     * Builds the ServerConfig object.
+     *
+     * @return A new ServerConfig object
+     * @throws IllegalArgumentException If a setting is out of range
+     */
+    public @NotNull ServerConfig build() throws IllegalArgumentException {
+        if (port < 0 || port > 65535) throw new IllegalArgumentException("Invalid port " + port);
+        if (channelThreads < 1) throw new IllegalArgumentException("At least one channel thread is required");
+        if (backlog < 0 || receiveBufferSize < 0 || sendBufferSize < 0) {
+            throw new IllegalArgumentException("The backlog and socket buffer sizes must not be negative");
+        }
+        if (readBufferSize < 256 || writeBufferSize < 256) {
+            throw new IllegalArgumentException("The read and write buffers must be at least 256 bytes");
+        }
+        return new ServerConfig(port, channelThreads, channelExecutor, backlog, reuseAddress, receiveBufferSize, sendBufferSize,
+                tcpNoDelay, keepAlive, readBufferSize, writeBufferSize);
+    }
+}
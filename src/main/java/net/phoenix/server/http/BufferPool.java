@@ -0,0 +1,364 @@
+package net.phoenix.server.http;
+
+import net.phoenix.server.Server;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct buffers for socket reads and writes. Direct buffers are read into and written from by the operating system without the copy a heap buffer needs, but they are expensive to allocate and are only freed by the garbage collector, so they are reused rather than allocated per connection or response. This class is for internal use and should not be modified or used by the end user. <br> <br>
+ * Buffers come in size classes, powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE}, and a request is served from the smallest class that fits, so a buffer may have more capacity than was asked for. Larger requests are allocated directly and not pooled. Each platform thread keeps a few released buffers of every class for itself, so most acquisitions never touch the shared pool, which holds up to {@link Server#bufferPoolSize} bytes of idle buffers. <br> <br>
+ * Every acquired buffer must be released exactly once, and must not be used afterwards. When {@link Server#bufferLeakDetection} is enabled, the pool records where each buffer was acquired, and logs buffers that are garbage collected without being released and buffers that are released twice.
+ */
+public class BufferPool {
+    /**
+     * The capacity of the smallest size class.
+     */
+    public static final int MIN_SIZE = 1024;
+    /**
+     * The capacity of the largest size class. Larger buffers are not pooled.
+     */
+    public static final int MAX_SIZE = 64 * 1024;
+    // The number of bytes of each size class a thread keeps for itself, with at least one buffer and at most LOCAL_CACHE_SIZE
+    private static final int LOCAL_CACHE_BYTES = 64 * 1024;
+    private static final int LOCAL_CACHE_SIZE = 8;
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ConcurrentLinkedQueue<ByteBuffer>[] pool = new ConcurrentLinkedQueue[CLASSES];
+    private static final AtomicLong idle = new AtomicLong();
+    private static final ThreadLocal<LocalCache> local = ThreadLocal.withInitial(LocalCache::new);
+    private static final @Nullable MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private static final LongAdder acquired = new LongAdder();
+    private static final LongAdder released = new LongAdder();
+    private static final LongAdder allocated = new LongAdder();
+    private static final LongAdder unpooled = new LongAdder();
+    private static final LongAdder discarded = new LongAdder();
+    private static final LongAdder leaks = new LongAdder();
+
+    private static final Map<Integer, List<Tracker>> tracked = new HashMap<>();
+    private static @Nullable Cleaner cleaner;
+
+    static {
+        for (int i = 0; i < CLASSES; i++) {
+            pool[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Acquires a cleared direct buffer.
+     *
+     * @param size The number of bytes the buffer must hold
+     * @return A buffer with a capacity of at least the size, which must be released once it is no longer used
+     */
+    public static @NotNull ByteBuffer acquire(int size) {
+        acquired.increment();
+        int index = sizeClass(size);
+        ByteBuffer buffer = null;
+        if (index < 0) {
+            unpooled.increment();
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            LocalCache cache = localCache();
+            if (cache != null) buffer = cache.poll(index);
+            if (buffer == null) {
+                buffer = pool[index].poll();
+                if (buffer != null) idle.addAndGet(-buffer.capacity());
+            }
+            if (buffer == null) {
+                allocated.increment();
+                buffer = ByteBuffer.allocateDirect(MIN_SIZE << index);
+            }
+            buffer.clear();
+        }
+        if (Server.bufferLeakDetection) track(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer A buffer acquired from the pool, which must not be used after this call
+     */
+    public static void release(@NotNull ByteBuffer buffer) {
+        if (Server.bufferLeakDetection && !untrack(buffer)) {
+            Server.logger.logWarn("A buffer of " + buffer.capacity() + " bytes was released twice, or was not acquired from the pool");
+            return;
+        }
+        released.increment();
+        int index = sizeClass(buffer.capacity());
+        if (index < 0 || buffer.capacity() != MIN_SIZE << index || !buffer.isDirect()) {
+            // Oversized buffers are left to the garbage collector
+            return;
+        }
+        LocalCache cache = localCache();
+        if (cache != null && cache.offer(index, buffer)) return;
+        if (idle.addAndGet(buffer.capacity()) > Server.bufferPoolSize) {
+            idle.addAndGet(-buffer.capacity());
+            discarded.increment();
+            return;
+        }
+        pool[index].offer(buffer);
+    }
+
+    /**
+     * Finds the size class of a buffer size.
+     *
+     * @param size The size in bytes
+     * @return The index of the smallest class holding the size, or -1 if the size is larger than {@link #MAX_SIZE}
+     */
+    private static int sizeClass(int size) {
+        if (size > MAX_SIZE) return -1;
+        if (size <= MIN_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * Gets the cache of the current thread.
+     *
+     * @return The cache, or null on virtual threads, which are too short-lived and numerous to keep buffers
+     */
+    private static @Nullable LocalCache localCache() {
+        if (IS_VIRTUAL != null) {
+            try {
+                if ((boolean) IS_VIRTUAL.invokeExact(Thread.currentThread())) return null;
+            } catch (Throwable ignored) {
+            }
+        }
+        return local.get();
+    }
+
+    /**
+     * Looks up {@code Thread.isVirtual()}, which only exists on runtimes with virtual threads.
+     *
+     * @return A handle to the method, or null if the runtime has no virtual threads
+     */
+    private static @Nullable MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts tracking an acquired buffer for leak detection.
+     *
+     * @param buffer The buffer
+     */
+    private static void track(@NotNull ByteBuffer buffer) {
+        Tracker tracker = new Tracker(buffer, new Throwable());
+        synchronized (tracked) {
+            if (cleaner == null) cleaner = Cleaner.create();
+            tracked.computeIfAbsent(tracker.hash, hash -> new ArrayList<>(1)).add(tracker);
+            tracker.cleanable = cleaner.register(buffer, tracker);
+        }
+    }
+
+    /**
+     * Stops tracking a released buffer.
+     *
+     * @param buffer The buffer
+     * @return False if the buffer was not being tracked, because it was already released or not acquired from the pool
+     */
+    private static boolean untrack(@NotNull ByteBuffer buffer) {
+        Tracker found = null;
+        synchronized (tracked) {
+            List<Tracker> trackers = tracked.get(System.identityHashCode(buffer));
+            if (trackers != null) {
+                for (Tracker tracker : trackers) {
+                    if (tracker.buffer.get() == buffer) {
+                        found = tracker;
+                        break;
+                    }
+                }
+            }
+            if (found != null) {
+                // Removed while holding the lock, so a concurrent second release cannot find it too
+                trackers.remove(found);
+                if (trackers.isEmpty()) tracked.remove(found.hash);
+            }
+        }
+        if (found == null) return false;
+        found.released = true;
+        assert found.cleanable != null;
+        found.cleanable.clean();
+        return true;
+    }
+
+    /**
+     * Gets the number of buffers acquired from the pool.
+     *
+     * @return The number of acquisitions
+     */
+    public static long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * Gets the number of buffers released to the pool.
+     *
+     * @return The number of releases
+     */
+    public static long getReleased() {
+        return released.sum();
+    }
+
+    /**
+     * Gets the number of buffers currently in use.
+     *
+     * @return The number of buffers acquired and not yet released
+     */
+    public static long getOutstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    /**
+     * Gets the number of pooled buffers that had to be allocated because no idle buffer of their class was available.
+     *
+     * @return The number of allocations
+     */
+    public static long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * Gets the number of buffers larger than {@link #MAX_SIZE}, which were allocated without the pool.
+     *
+     * @return The number of unpooled allocations
+     */
+    public static long getUnpooled() {
+        return unpooled.sum();
+    }
+
+    /**
+     * Gets the number of released buffers that were left to the garbage collector because the pool was full.
+     *
+     * @return The number of discarded buffers
+     */
+    public static long getDiscarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * Gets the number of bytes of idle buffers held in the shared pool, not counting those kept by threads for themselves.
+     *
+     * @return The size of the pool in bytes
+     */
+    public static long getIdleBytes() {
+        return idle.get();
+    }
+
+    /**
+     * Gets the number of buffers that were garbage collected without being released, while leak detection was enabled.
+     *
+     * @return The number of leaks
+     */
+    public static long getLeaks() {
+        return leaks.sum();
+    }
+
+    /**
+     * The released buffers a thread keeps for itself, as a stack per size class.
+     */
+    private static final class LocalCache {
+        private final ByteBuffer[][] buffers = new ByteBuffer[CLASSES][];
+        private final int[] counts = new int[CLASSES];
+
+        /**
+         * Creates a new cache.
+         */
+        private LocalCache() {
+            for (int i = 0; i < CLASSES; i++) {
+                buffers[i] = new ByteBuffer[Math.max(1, Math.min(LOCAL_CACHE_SIZE, LOCAL_CACHE_BYTES / (MIN_SIZE << i)))];
+            }
+        }
+
+        /**
+         * Takes a buffer from the cache.
+         *
+         * @param index The size class
+         * @return The buffer, or null if the cache has none of the class
+         */
+        private @Nullable ByteBuffer poll(int index) {
+            if (counts[index] == 0) return null;
+            ByteBuffer buffer = buffers[index][--counts[index]];
+            buffers[index][counts[index]] = null;
+            return buffer;
+        }
+
+        /**
+         * Adds a buffer to the cache.
+         *
+         * @param index  The size class
+         * @param buffer The buffer
+         * @return False if the cache is full for the class
+         */
+        private boolean offer(int index, @NotNull ByteBuffer buffer) {
+            if (counts[index] == buffers[index].length) return false;
+            buffers[index][counts[index]++] = buffer;
+            return true;
+        }
+    }
+
+    /**
+     * Records where a buffer was acquired, and reports it if the buffer is garbage collected before it is released. The tracker only holds a weak reference, so it does not keep the buffer alive.
+     */
+    private static final class Tracker implements Runnable {
+        private final WeakReference<ByteBuffer> buffer;
+        private final int hash;
+        private final int capacity;
+        private final Throwable acquiredAt;
+        private volatile boolean released = false;
+        private @Nullable Cleaner.Cleanable cleanable;
+
+        /**
+         * Creates a new tracker.
+         *
+         * @param buffer     The acquired buffer
+         * @param acquiredAt An exception whose stack trace shows where the buffer was acquired
+         */
+        private Tracker(@NotNull ByteBuffer buffer, @NotNull Throwable acquiredAt) {
+            this.buffer = new WeakReference<>(buffer);
+            this.hash = System.identityHashCode(buffer);
+            this.capacity = buffer.capacity();
+            this.acquiredAt = acquiredAt;
+        }
+
+        /**
+         * Invoked once the buffer is released or garbage collected. Reports a leak in the latter case.
+         */
+        @Override
+        public void run() {
+            synchronized (tracked) {
+                List<Tracker> trackers = tracked.get(hash);
+                if (trackers != null) {
+                    trackers.remove(this);
+                    if (trackers.isEmpty()) tracked.remove(hash);
+                }
+            }
+            if (released) return;
+            leaks.increment();
+            StringBuilder trace = new StringBuilder();
+            for (StackTraceElement element : acquiredAt.getStackTrace()) {
+                if (element.getClassName().equals(BufferPool.class.getName())) continue;
+                trace.append("\n\tat ").append(element);
+            }
+            Server.logger.logError("A pooled buffer of " + capacity + " bytes was garbage collected without being released. It was acquired" + trace);
+        }
+    }
+}
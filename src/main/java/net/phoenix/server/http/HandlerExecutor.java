@@ -0,0 +1,92 @@
+package net.phoenix.server.http;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.reflection.ExecutionMode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs route methods away from the I/O threads, according to the {@link ExecutionMode} of their route. This class is for internal use and should not be modified or used by the end user.
+ */
+public class HandlerExecutor {
+
+    /**
+     * Runs a task in an execution mode.
+     *
+     * @param mode The execution mode, which must not be {@link ExecutionMode#DEFAULT}
+     * @param task The task to run
+     * @throws RejectedExecutionException If the pool is saturated
+     */
+    public static void execute(@NotNull ExecutionMode mode, @NotNull Runnable task) throws RejectedExecutionException {
+        switch (mode) {
+            case INLINE -> task.run();
+            case VIRTUAL -> {
+                ExecutorService virtual = Virtual.EXECUTOR;
+                (virtual == null ? Pool.EXECUTOR : virtual).execute(task);
+            }
+            default -> Pool.EXECUTOR.execute(task);
+        }
+    }
+
+    /**
+     * Checks whether the runtime supports virtual threads.
+     *
+     * @return True if {@link ExecutionMode#VIRTUAL} runs tasks on virtual threads, false if it falls back to the pool
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return Virtual.EXECUTOR != null;
+    }
+
+    /**
+     * Holds the executor creating a virtual thread per task, created the first time it is used.
+     */
+    private static class Virtual {
+        private static final @Nullable ExecutorService EXECUTOR = create();
+
+        /**
+         * Creates the executor. Virtual threads are looked up reflectively, so the server still runs on runtimes that predate them.
+         *
+         * @return The executor, or null if the runtime has no virtual threads
+         */
+        private static @Nullable ExecutorService create() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                Server.logger.logWarn("Virtual threads are not available on this runtime, so routes will run on the handler pool");
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Holds the bounded pool of platform threads, created the first time it is used.
+     */
+    private static class Pool {
+        private static final ThreadPoolExecutor EXECUTOR = create();
+
+        /**
+         * Creates the pool. Idle threads are stopped after a minute, so an idle server holds no handler threads.
+         *
+         * @return The pool
+         */
+        private static @NotNull ThreadPoolExecutor create() {
+            AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(Server.handlerThreads, Server.handlerThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Server.handlerQueueSize), task -> {
+                Thread thread = new Thread(task, "Handler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+}
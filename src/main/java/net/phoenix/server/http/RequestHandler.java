@@ -1,27 +1,38 @@
 package net.phoenix.server.http;
 
 import net.phoenix.server.Server;
+import net.phoenix.server.ServerConfig;
 import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpRequest;
 import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.http2.Http2Connection;
 import net.phoenix.server.http.processors.IncomingRequest;
-import net.phoenix.server.http.processors.IncomingRequestDecoder;
+import net.phoenix.server.http.processors.HttpRequestParser;
+import net.phoenix.server.http.reflection.ExecutionMode;
+import net.phoenix.server.http.reflection.Route;
+import net.phoenix.server.http.reflection.RouteTree;
+import net.phoenix.server.logging.AccessLog;
+import net.phoenix.server.metrics.ServerMetrics;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
- * A class that handles incoming requests from the socket. This class is for internal use and should not be modified or used by the end user.
+ * A class that handles incoming requests from the socket. This class is for internal use and should not be modified or used by the end user. <br> <br>
+ * Every connection has a single deadline at a time on the shared {@link TimerWheel}, depending on what it is waiting for: the first byte of a request, the rest of the request line and headers, the next part of the body, or the client accepting the response. The header deadline is counted from the first byte and is not extended by further reads, and the body has to arrive at a minimum rate, so a client cannot hold a connection open by trickling a request in. Such clients are answered with 408 Request Timeout. <br> <br>
+ * A connection that starts with the HTTP/2 preface, or whose first request asks to upgrade with "Upgrade: h2c", is handed over to an {@link Http2Connection} along with the bytes already read, unless {@link Server#http2Enabled} is false.
  */
 public class RequestHandler implements CompletionHandler<AsynchronousSocketChannel, Object> {
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final ReadHandler readHandler = new ReadHandler();
 
     /**
      * Invoked when a connection is established and ready to accept I/O operations.
@@ -35,98 +46,689 @@ public class RequestHandler implements CompletionHandler<AsynchronousSocketChann
         if (Server.socket.isOpen()) {
             Server.socket.accept(null, this);
         }
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        result.read(buffer, null, new CompletionHandler<>() {
-            /**
-             * Process the incoming data that has completed
-             * @param r
-             *          The result of the I/O operation.
-             * @param attachment
-             *          The object attached to the I/O operation when it was initiated.
-             */
-            @Override
-            public void completed(Integer r, Object attachment) {
-                buffer.flip();
-                byte[] data = new byte[buffer.limit()];
-                buffer.get(data);
-                buffer.clear();
-                String request = new String(data, StandardCharsets.UTF_8);
-                HttpResponse response;
-                try {
-                    response = IncomingRequest.processRequest(IncomingRequestDecoder.processRequest(request, result.getRemoteAddress().toString()));
-                    if (response.responseHeaders().get("Upgrade") != null && response.responseHeaders().get("Upgrade").get(0).equals("h2c")) {
-                        response = new HttpResponseBuilder().setStatusCode(505).build();
+        try {
+            configure(result);
+            Connection connection = new Connection(result, result.getRemoteAddress().toString());
+            ServerMetrics.connectionOpened();
+            synchronized (connection) {
+                // A client that connects without sending anything is given as long as one that sends its headers slowly
+                idle(connection, Server.requestHeaderTimeout);
+            }
+            read(connection);
+        } catch (IOException e) {
+            Server.logger.logError("Failed to set up connection due to: " + e.getMessage());
+            try {
+                result.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Invoked when an I/O operation fails.
+     *
+     * @param exc        The exception that caused the I/O operation to fail.
+     * @param attachment The object attached to the I/O operation when it was initiated.
+     */
+    @Override
+    public void failed(@NotNull Throwable exc, Object attachment) {
+        Server.logger.logError("Failed to accept connection due to: " + exc.getMessage());
+    }
+
+    /**
+     * Applies the configured socket options to an accepted connection.
+     *
+     * @param channel The socket channel of the connection
+     * @throws IOException If an option cannot be set
+     */
+    private static void configure(@NotNull AsynchronousSocketChannel channel) throws IOException {
+        ServerConfig config = Server.config;
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.tcpNoDelay());
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, config.keepAlive());
+        if (config.sendBufferSize() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.sendBufferSize());
+        }
+        if (config.receiveBufferSize() > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize());
+        }
+    }
+
+    /**
+     * Starts reading more data from the connection. Data left unprocessed in the buffer is kept in front of the data read.
+     *
+     * @param connection The connection to read from
+     */
+    private void read(@NotNull Connection connection) {
+        synchronized (connection) {
+            // The buffer may already be back in the pool
+            if (connection.closed) return;
+            connection.reading = true;
+            connection.buffer.compact();
+            connection.channel.read(connection.buffer, connection, readHandler);
+        }
+    }
+
+    /**
+     * Goes back to reading once the buffered data has been processed, unless the deadline of the request has passed.
+     *
+     * @param connection The connection to read from
+     */
+    private void awaitData(@NotNull Connection connection) {
+        Phase expired;
+        synchronized (connection) {
+            connection.busy = false;
+            expired = checkDeadline(connection);
+            if (expired != null) connection.timedOut = true;
+        }
+        if (expired != null) {
+            timedOut(connection, expired);
+        } else {
+            read(connection);
+        }
+    }
+
+    /**
+     * Closes the connection. If a read is still pending, its buffer is returned to the pool once the read has failed.
+     *
+     * @param connection The connection to close
+     */
+    private void close(@NotNull Connection connection) {
+        boolean release;
+        synchronized (connection) {
+            if (connection.closed) return;
+            connection.closed = true;
+            release = !connection.reading;
+            setTimeout(connection, null);
+        }
+        ServerMetrics.connectionClosed();
+        connection.parser.discard();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            Server.logger.logError("Failed to close connection due to: " + e.getMessage());
+        }
+        if (release) BufferPool.release(connection.buffer);
+    }
+
+    /**
+     * Starts waiting for the next request. The caller must hold the connection's lock.
+     *
+     * @param connection The connection
+     * @param timeout    The number of milliseconds to wait for the first byte of the request
+     */
+    private void idle(@NotNull Connection connection, int timeout) {
+        connection.phase = Phase.IDLE;
+        setDeadline(connection, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    /**
+     * Moves the connection to the phase matching the progress of the parser, and checks whether the deadline of that phase has passed. If it has not, the deadline is scheduled on the timer wheel. The caller must hold the connection's lock.
+     *
+     * @param connection The connection
+     * @return The phase whose deadline has passed, or null if the connection can keep reading
+     */
+    private @Nullable Phase checkDeadline(@NotNull Connection connection) {
+        long now = System.nanoTime();
+        if (connection.parser.isReadingBody()) {
+            if (connection.phase != Phase.BODY) {
+                connection.phase = Phase.BODY;
+                startBodyWindow(connection, now);
+            } else if (now - connection.deadline >= 0) {
+                if (connection.bytesRead - connection.windowStart < (long) Server.minRequestBodyRate * Server.requestBodyTimeout / 1000) {
+                    return Phase.BODY;
+                }
+                startBodyWindow(connection, now);
+            }
+        } else if (connection.parser.isInProgress() || connection.phase != Phase.IDLE) {
+            if (connection.phase != Phase.HEADERS) {
+                connection.phase = Phase.HEADERS;
+                setDeadline(connection, now + TimeUnit.MILLISECONDS.toNanos(Server.requestHeaderTimeout));
+            } else if (now - connection.deadline >= 0) {
+                return Phase.HEADERS;
+            }
+        } else if (now - connection.deadline >= 0) {
+            return Phase.IDLE;
+        }
+        return null;
+    }
+
+    /**
+     * Starts a window in which the client has to send a minimum number of body bytes. The caller must hold the connection's lock.
+     *
+     * @param connection The connection
+     * @param now        The current value of {@link System#nanoTime()}
+     */
+    private void startBodyWindow(@NotNull Connection connection, long now) {
+        connection.windowStart = connection.bytesRead;
+        setDeadline(connection, now + TimeUnit.MILLISECONDS.toNanos(Server.requestBodyTimeout));
+    }
+
+    /**
+     * Sets the deadline of the connection and schedules it on the timer wheel, unless it is already scheduled. The caller must hold the connection's lock.
+     *
+     * @param connection The connection
+     * @param deadline   The deadline as a value of {@link System#nanoTime()}
+     */
+    private void setDeadline(@NotNull Connection connection, long deadline) {
+        if (connection.expiry != null && connection.deadline == deadline) return;
+        connection.deadline = deadline;
+        Expiry expiry = new Expiry(connection);
+        // The wheel's thread cannot run the task before the timeout is assigned, as it has to take the connection's lock first
+        expiry.timeout = TimerWheel.shared().schedule(expiry, Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        setTimeout(connection, expiry);
+    }
+
+    /**
+     * Replaces the scheduled timeout of the connection, cancelling the previous one. The caller must hold the connection's lock.
+     *
+     * @param connection The connection
+     * @param expiry     The new timeout, or null to leave the connection without one
+     */
+    private static void setTimeout(@NotNull Connection connection, @Nullable Expiry expiry) {
+        if (connection.expiry != null) {
+            assert connection.expiry.timeout != null;
+            connection.expiry.timeout.cancel();
+        }
+        connection.expiry = expiry;
+    }
+
+    /**
+     * Invoked on the timer wheel's thread when the deadline of a connection may have passed. Nothing is done while an I/O thread is processing data from the connection, as it checks the deadline itself before reading again.
+     *
+     * @param connection The connection
+     * @param expiry     The timeout that expired
+     */
+    private void expire(@NotNull Connection connection, @NotNull Expiry expiry) {
+        Phase expired;
+        synchronized (connection) {
+            if (connection.expiry != expiry || connection.closed) return;
+            connection.expiry = null;
+            if (connection.phase == Phase.WRITING) {
+                expired = Phase.WRITING;
+            } else if (connection.busy || connection.phase == Phase.HANDLING) {
+                return;
+            } else {
+                // The wheel may fire up to a tick early, in which case the deadline is scheduled again
+                expired = checkDeadline(connection);
+                if (expired == null) return;
+            }
+            connection.timedOut = true;
+        }
+        timedOut(connection, expired);
+    }
+
+    /**
+     * Handles a connection whose deadline has passed. An idle connection is closed, a client that is too slow to send its request is answered with 408 Request Timeout, and a client that is too slow to accept its response is disconnected, as part of the response may already have been sent.
+     *
+     * @param connection The connection
+     * @param phase      The phase whose deadline passed
+     */
+    private void timedOut(@NotNull Connection connection, @NotNull Phase phase) {
+        switch (phase) {
+            case IDLE -> close(connection);
+            case HEADERS, BODY -> {
+                Server.logger.logWarn("Timed out reading request " + (phase == Phase.HEADERS ? "headers" : "body") + " from " + connection.ip);
+                received(connection, null);
+                respond(connection, Route.getError(408).build(), false, true);
+            }
+            default -> {
+                Server.logger.logError("Response write operation timed out from client: " + connection.ip);
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * Parses the data buffered on the connection, and responds if it completes a request. If more data is needed, the connection goes back to reading.
+     *
+     * @param connection The connection to process, with its buffer flipped for reading
+     */
+    private void process(@NotNull Connection connection) {
+        if (Server.http2Enabled && connection.requests == 0 && !connection.parser.isInProgress()) {
+            if (startsWithPreface(connection.buffer)) {
+                handOff(connection, null, null);
+                return;
+            }
+            // Too few bytes to tell the preface from a request line, so they are kept until more arrive
+            if (isPartialPreface(connection.buffer)) {
+                awaitData(connection);
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        if (connection.requestStart == 0) connection.requestStart = start;
+        HttpRequest request;
+        try {
+            request = connection.parser.parse(connection.buffer);
+        } catch (HttpRequestParser.HttpParseException e) {
+            connection.parseNanos += System.nanoTime() - start;
+            Server.logger.logError("Failed to parse request from " + connection.ip + " due to: " + e.getMessage());
+            received(connection, null);
+            respond(connection, Route.getError(e.getStatusCode()).build(), false, true);
+            return;
+        }
+        connection.parseNanos += System.nanoTime() - start;
+        if (request == null) {
+            if (connection.parser.takeContinueExpected()) {
+                ResponseWriter.write(connection.channel, ByteBuffer.wrap(CONTINUE), new CompletionHandler<>() {
+                    @Override
+                    public void completed(Long result, Void attachment) {
+                        awaitData(connection);
                     }
-                } catch (IOException e) {
-                    Server.logger.logError("Failed to process request due to: " + e.getMessage());
-                    throw new RuntimeException(e);
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        Server.logger.logError("Failed to write response to client due to: " + exc.getMessage());
+                        close(connection);
+                    }
+                });
+            } else {
+                awaitData(connection);
+            }
+            return;
+        }
+        synchronized (connection) {
+            connection.phase = Phase.HANDLING;
+            connection.busy = false;
+            setTimeout(connection, null);
+        }
+        byte[] settings = upgradeSettings(connection, request);
+        if (settings != null) {
+            upgrade(connection, request, settings);
+            return;
+        }
+        received(connection, request);
+        connection.requests++;
+        boolean keepAlive = Server.keepAliveTimeout > 0 && connection.requests < Server.maxKeepAliveRequests && request.isKeepAlive();
+        RouteTree.Match<Route> match = IncomingRequest.match(request);
+        connection.route = match == null ? ServerMetrics.STATIC_ROUTE : match.value().getPath();
+        // Static files are served from the cache, so only route methods are moved off the I/O thread
+        ExecutionMode mode = match == null ? ExecutionMode.INLINE : match.value().getExecutionMode();
+        try {
+            HandlerExecutor.execute(mode, () -> handle(connection, request, match, keepAlive));
+        } catch (RejectedExecutionException e) {
+            Server.logger.logError("Rejected request from " + connection.ip + " as the handler pool is full");
+            closeBody(request);
+            respond(connection, Route.getError(503).build(), false, true);
+        }
+    }
+
+    /**
+     * Runs the route of a request and responds with its result. This runs on the thread chosen by the route's execution mode, while the response is written by the I/O threads.
+     *
+     * @param connection The connection the request was read from
+     * @param request    The request to handle
+     * @param match      The route matched for the request, or null to serve a static file
+     * @param keepAlive  Whether the connection should be kept open after the response
+     */
+    private void handle(@NotNull Connection connection, @NotNull HttpRequest request, @Nullable RouteTree.Match<Route> match, boolean keepAlive) {
+        HttpResponse response;
+        try {
+            response = IncomingRequest.processRequest(request, match);
+        } catch (RuntimeException e) {
+            Server.logger.logError("Failed to handle request from " + connection.ip + " due to: " + e.getMessage());
+            response = Route.getError(500).build();
+            keepAlive = false;
+        }
+        closeBody(request);
+        // HTTP/1.0 clients cannot decode the chunked transfer coding
+        respond(connection, response, keepAlive, !"HTTP/1.0".equals(request.version()));
+    }
+
+    /**
+     * Checks whether the data read from a new connection is the start of the HTTP/2 preface. No HTTP/1.1 method starts with "PRI ", so four bytes are enough to tell.
+     *
+     * @param buffer The buffer of the connection, flipped for reading
+     * @return True if the client speaks HTTP/2 from its first byte
+     */
+    private static boolean startsWithPreface(@NotNull ByteBuffer buffer) {
+        int length = Math.min(buffer.remaining(), Http2Connection.PREFACE.length);
+        if (length < 4) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(buffer.position() + i) != Http2Connection.PREFACE[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the data read from a new connection is too short to be told apart from the HTTP/2 preface, which happens when the first read returns fewer than four bytes.
+     *
+     * @param buffer The buffer of the connection, flipped for reading
+     * @return True if the buffer holds between one and three bytes, all matching the start of the preface
+     */
+    private static boolean isPartialPreface(@NotNull ByteBuffer buffer) {
+        int length = buffer.remaining();
+        if (length == 0 || length >= 4) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(buffer.position() + i) != Http2Connection.PREFACE[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a request asks to upgrade its connection to HTTP/2. Only the first request of a connection may, as the request is answered as the first stream.
+     *
+     * @param connection The connection the request was read from
+     * @param request    The request
+     * @return The settings the client sent in its HTTP2-Settings header, or null if the connection stays on HTTP/1.1
+     */
+    private static byte @Nullable [] upgradeSettings(@NotNull Connection connection, @NotNull HttpRequest request) {
+        if (!Server.http2Enabled || connection.requests > 0) return null;
+        String upgrade = request.getHeader("Upgrade");
+        String settings = request.getHeader("HTTP2-Settings");
+        if (upgrade == null || settings == null || !upgrade.trim().equalsIgnoreCase("h2c")) return null;
+        return Http2Connection.parseUpgradeSettings(settings);
+    }
+
+    /**
+     * Accepts a request's upgrade to HTTP/2 with 101 Switching Protocols, then hands the connection over, with the request as its first stream.
+     *
+     * @param connection The connection
+     * @param request    The request asking for the upgrade
+     * @param settings   The settings from the client's HTTP2-Settings header
+     */
+    private void upgrade(@NotNull Connection connection, @NotNull HttpRequest request, byte @NotNull [] settings) {
+        connection.parseNanos = 0;
+        ResponseWriter.write(connection.channel, Http2Connection.switchingProtocols(), new CompletionHandler<>() {
+            @Override
+            public void completed(Long result, Void attachment) {
+                handOff(connection, request, settings);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                Server.logger.logError("Failed to write response to client due to: " + exc.getMessage());
+                closeBody(request);
+                close(connection);
+            }
+        });
+    }
+
+    /**
+     * Hands a connection over to HTTP/2. The connection's deadline is cancelled and its buffer returned to the pool, while the bytes already read and not yet processed are passed on, as they may hold the client's first frames.
+     *
+     * @param connection The connection, with no read pending
+     * @param request    The request that asked for the upgrade, or null if the client sent the preface
+     * @param settings   The settings from the client's HTTP2-Settings header, or null
+     */
+    private void handOff(@NotNull Connection connection, @Nullable HttpRequest request, byte @Nullable [] settings) {
+        synchronized (connection) {
+            if (connection.closed) {
+                if (request != null) closeBody(request);
+                return;
+            }
+            connection.closed = true;
+            setTimeout(connection, null);
+        }
+        ByteBuffer leftover = ByteBuffer.allocate(connection.buffer.remaining());
+        leftover.put(connection.buffer).flip();
+        connection.parser.discard();
+        BufferPool.release(connection.buffer);
+        Http2Connection.start(connection.channel, connection.ip, leftover, request, settings);
+    }
+
+    /**
+     * Releases the body of a request once it has been handled.
+     *
+     * @param request The request
+     */
+    private static void closeBody(@NotNull HttpRequest request) {
+        try {
+            request.requestBody().close();
+        } catch (IOException e) {
+            Server.logger.logError("Failed to delete request body due to: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a response to the connection. Once it has been written, the connection either processes the next pipelined request, goes back to reading, or is closed.
+     *
+     * @param connection The connection to write to
+     * @param response   The response to write
+     * @param keepAlive  Whether the connection should be kept open after the response
+     * @param chunked    Whether an entity of unknown length may be sent chunked. If not, it is sent unframed and the connection is closed to end it
+     */
+    private void respond(@NotNull Connection connection, @NotNull HttpResponse response, boolean keepAlive, boolean chunked) {
+        long dataLength = response.inputStreamLength().orElse(0L);
+        if (!chunked && dataLength < 0) keepAlive = false;
+        if (keepAlive) {
+            response = new HttpResponseBuilder(response).setKeepAlive(Server.keepAliveTimeout / 1000, Server.maxKeepAliveRequests - connection.requests).build();
+        } else {
+            response = new HttpResponseBuilder(response).setConnectionClose().build();
+        }
+        final boolean persistent = keepAlive;
+        int status = response.statusCode();
+        synchronized (connection) {
+            connection.phase = Phase.WRITING;
+            connection.busy = false;
+            // A response of unknown length, such as a streamed proxy response, is given as long as its upstream is given to answer
+            long writeTimeout = dataLength < 0 ? Server.proxyTimeout : Math.max((int) (dataLength / 51.2), 5000);
+            setDeadline(connection, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeout));
+        }
+        connection.writeStart = System.nanoTime();
+        ResponseWriter.write(connection.channel, response, chunked, new CompletionHandler<>() {
+            @Override
+            public void completed(Long result, Void attachment) {
+                finished(connection, status, result);
+                if (!persistent || !connection.channel.isOpen()) {
+                    close(connection);
+                    return;
                 }
-                try {
-                    long dataLength = response.responseHeaders().get("Content-Length") != null ? Long.parseLong(response.responseHeaders().get("Content-Length").get(0)) : 0;
-                    scheduleTimeout(result, Math.max((int) (dataLength / 51.2), 5000));
-                    result.write(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.UTF_8))).get();
-                    response.writeInputStream(result);
-                } catch (IOException e) {
-                    Server.logger.logError("Failed to write response to client due to: " + e.getMessage());
-                    throw new RuntimeException(e);
-                } catch (InterruptedException | ExecutionException ignored) {
+                boolean pipelined = connection.buffer.hasRemaining();
+                synchronized (connection) {
+                    if (connection.closed || connection.timedOut) return;
+                    idle(connection, Server.keepAliveTimeout);
+                    connection.busy = pipelined;
                 }
-
-                try {
-                    result.close();
-                } catch (IOException e) {
-                    Server.logger.logError("Failed to close connection due to: " + e.getMessage());
-                    throw new RuntimeException(e);
+                if (pipelined) {
+                    process(connection);
+                } else {
+                    awaitData(connection);
                 }
             }
 
-            /**
-             * Invoked when an I/O operation fails.
-             * @param exc
-             *          The exception that caused the I/O operation to fail.
-             * @param attachment
-             *          The object attached to the I/O operation when it was initiated.
-             */
             @Override
-            public void failed(@NotNull Throwable exc, Object attachment) {
-                Server.logger.logError("Failed to read request from client due to: " + exc.getMessage());
+            public void failed(Throwable exc, Void attachment) {
+                finished(connection, status, 0);
+                if (!connection.timedOut) {
+                    Server.logger.logError("Failed to write response to client due to: " + exc.getMessage());
+                }
+                close(connection);
             }
         });
     }
 
     /**
-     * Invoked when an I/O operation fails.
+     * Marks the end of reading a request, from which the time taken to respond is measured.
      *
-     * @param exc        The exception that caused the I/O operation to fail.
-     * @param attachment The object attached to the I/O operation when it was initiated.
+     * @param connection The connection
+     * @param request    The request that was read, or null if it could not be read
      */
-    @Override
-    public void failed(@NotNull Throwable exc, Object attachment) {
-        Server.logger.logError("Failed to accept connection due to: " + exc.getMessage());
+    private static void received(@NotNull Connection connection, @Nullable HttpRequest request) {
+        long now = System.nanoTime();
+        connection.request = request;
+        connection.requestNanos = connection.requestStart == 0 ? 0 : now - connection.requestStart;
+        connection.requestStart = 0;
+        connection.responseStart = now;
+        connection.exchanges++;
+        connection.route = ServerMetrics.NO_ROUTE;
+        if (request != null) ServerMetrics.parsed(connection.parseNanos);
+        connection.parseNanos = 0;
     }
 
     /**
-     * Schedules a timeout for the socket channel.
+     * Records a written response in the metrics and the access log.
      *
-     * @param socketChannel The socket channel to schedule the timeout for
-     * @param timeout       The timeout duration
+     * @param connection The connection the response was written to
+     * @param status     The status code of the response
+     * @param bytes      The number of bytes written
      */
-    private void scheduleTimeout(@NotNull AsynchronousSocketChannel socketChannel, int timeout) {
-        executor.schedule(() -> {
-            if (!socketChannel.isOpen()) return;
-            try {
-                HttpResponse timeoutResponse = new HttpResponseBuilder().setStatusCode(408).build();
-                ByteBuffer responseBuffer = ByteBuffer.wrap(timeoutResponse.toString().getBytes(StandardCharsets.UTF_8));
-                socketChannel.write(responseBuffer).get();
-                Server.logger.logError("Response write operation timed out from client: " + socketChannel.getRemoteAddress().toString());
-                socketChannel.close();
-            } catch (IOException e) {
-                Server.logger.logError("Failed to close connection due to: " + e.getMessage());
-                throw new RuntimeException(e);
-            } catch (ExecutionException | InterruptedException e) {
-                Server.logger.logError("Failed to write response to client due to: " + e.getMessage());
-                throw new RuntimeException(e);
-            }
-        }, timeout, TimeUnit.MILLISECONDS);
-    }
-}
\ No newline at end of file
+    private static void finished(@NotNull Connection connection, int status, long bytes) {
+        long now = System.nanoTime();
+        HttpRequest request = connection.request;
+        connection.request = null;
+        ServerMetrics.responded(request == null ? null : request.method(), connection.route, status, bytes, now - connection.writeStart);
+        AccessLog accessLog = Server.accessLog;
+        if (accessLog == null) return;
+        long responseNanos = now - connection.responseStart;
+        if (request == null) {
+            accessLog.log(connection.ip, null, null, null, status, bytes, connection.requestNanos, responseNanos, connection.exchanges, null, null);
+        } else {
+            accessLog.log(connection.ip, request.method(), request.path(), request.version(), status, bytes, connection.requestNanos, responseNanos,
+                    connection.exchanges, request.getHeader("Referer"), request.getHeader("User-Agent"));
+        }
+    }
+
+    /**
+     * What a connection is waiting for, which decides its deadline.
+     */
+    private enum Phase {
+        /**
+         * Waiting for the first byte of a request.
+         */
+        IDLE,
+        /**
+         * Reading the request line and headers.
+         */
+        HEADERS,
+        /**
+         * Reading the request body.
+         */
+        BODY,
+        /**
+         * Running the route of a request, which has no deadline.
+         */
+        HANDLING,
+        /**
+         * Writing a response.
+         */
+        WRITING
+    }
+
+    /**
+     * The state of a single client connection, which may serve several requests when it is kept alive. Its read buffer is taken from the {@link BufferPool} and returned when the connection is closed. <br> <br>
+     * The fields that coordinate the I/O threads with the timer wheel are guarded by the connection's lock.
+     */
+    private static class Connection {
+        private final AsynchronousSocketChannel channel;
+        private final String ip;
+        private final HttpRequestParser parser;
+        private final ByteBuffer buffer = BufferPool.acquire(Server.config.readBufferSize());
+        private int requests = 0;
+        private long bytesRead = 0;
+        // The request being answered and its timing, for the metrics and the access log
+        private @Nullable HttpRequest request;
+        private int exchanges = 0;
+        private long requestStart = 0;
+        private long requestNanos;
+        private long responseStart;
+        private long parseNanos = 0;
+        private long writeStart;
+        private String route = ServerMetrics.NO_ROUTE;
+        private Phase phase = Phase.IDLE;
+        private long deadline;
+        private long windowStart;
+        private @Nullable Expiry expiry;
+        // Whether an I/O thread is processing data from the connection, during which the deadline is left to that thread
+        private boolean busy = false;
+        private boolean reading = false;
+        private volatile boolean timedOut = false;
+        private boolean closed = false;
+
+        /**
+         * Creates a new connection.
+         *
+         * @param channel The socket channel of the connection
+         * @param ip      The IP address of the client
+         */
+        private Connection(AsynchronousSocketChannel channel, String ip) {
+            this.channel = channel;
+            this.ip = ip;
+            this.parser = new HttpRequestParser(ip, Server.maxBodySize);
+            // Nothing has been read yet, so the first read keeps no data in front of its own
+            this.buffer.limit(0);
+        }
+    }
+
+    /**
+     * The task scheduled on the timer wheel for a connection's deadline.
+     */
+    private class Expiry implements Runnable {
+        private final Connection connection;
+        private @Nullable TimerWheel.Timeout timeout;
+
+        /**
+         * Creates a new expiry task.
+         *
+         * @param connection The connection
+         */
+        private Expiry(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Checks the deadline of the connection.
+         */
+        @Override
+        public void run() {
+            expire(connection, this);
+        }
+    }
+
+    /**
+     * Handles data read from a connection.
+     */
+    private class ReadHandler implements CompletionHandler<Integer, Connection> {
+
+        /**
+         * Process the incoming data that has completed
+         *
+         * @param r          The result of the I/O operation.
+         * @param connection The connection the data was read from.
+         */
+        @Override
+        public void completed(Integer r, Connection connection) {
+            synchronized (connection) {
+                connection.reading = false;
+                if (connection.closed) {
+                    BufferPool.release(connection.buffer);
+                    return;
+                }
+                // A 408 response is being written, after which the connection is closed
+                if (connection.timedOut) return;
+                if (r >= 0) {
+                    connection.busy = true;
+                    connection.bytesRead += r;
+                }
+            }
+            if (r < 0) {
+                close(connection);
+                return;
+            }
+            ServerMetrics.bytesReceived(r);
+            connection.buffer.flip();
+            process(connection);
+        }
+
+        /**
+         * Invoked when an I/O operation fails.
+         *
+         * @param exc        The exception that caused the I/O operation to fail.
+         * @param connection The connection the data was being read from.
+         */
+        @Override
+        public void failed(@NotNull Throwable exc, Connection connection) {
+            synchronized (connection) {
+                connection.reading = false;
+                if (connection.closed) {
+                    BufferPool.release(connection.buffer);
+                    return;
+                }
+            }
+            if (!connection.timedOut) {
+                Server.logger.logError("Failed to read request from client due to: " + exc.getMessage());
+            }
+            close(connection);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package net.phoenix.server.http;
+
+import net.phoenix.server.http.container.HttpDate;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.container.HttpStatusCode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the head of a response and its string entity straight into a pooled buffer. String entities larger than {@link #MAX_INLINE_BODY} are left out and encoded into a heap buffer of their own by {@link #encodeBody(HttpResponse)}, so the head still fits a pooled buffer and a large body is never copied into an unpooled direct buffer. The exact length is measured first, so the buffer is acquired once and never grown, and no intermediate strings or arrays are created: the status line and common header names are copied from pre-encoded constants, the Date header from the once-per-second cache of {@link HttpDate}, and everything else is encoded character by character. This class is for internal use and should not be modified or used by the end user.
+ */
+public class ResponseEncoder {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] SEPARATOR = {',', ' '};
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED = "Transfer-Encoding: chunked\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+    /**
+     * The largest string entity, in bytes, that is encoded into the same buffer as the head.
+     */
+    public static final int MAX_INLINE_BODY = BufferPool.MAX_SIZE / 2;
+
+    static {
+        for (String name : List.of("Accept-Ranges", "Cache-Control", "Connection", "Content-Encoding", "Content-Range", "Content-Type",
+                "ETag", "Keep-Alive", "Last-Modified", "Location", "Server", "Set-Cookie", "Vary")) {
+            HEADER_NAMES.put(name, (name + ": ").getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Encodes the head of a response for a client that can decode the chunked transfer coding.
+     *
+     * @param response The response to encode
+     * @return A buffer from the {@link BufferPool}, flipped for writing, which must be released once it has been written
+     * @see #encode(HttpResponse, boolean)
+     */
+    public static @NotNull ByteBuffer encode(@NotNull HttpResponse response) {
+        return encode(response, true);
+    }
+
+    /**
+     * Encodes the status line, the headers and the string entity of a response, unless the entity is too large to be encoded with the head. A Content-Length header is added for every response that may have a body, covering the string entity and any streamed entity, or "Transfer-Encoding: chunked" if the length of the streamed entity is not known and the client can decode it, and a Content-Length or Transfer-Encoding in the headers is ignored. Set-Cookie values are written as separate headers, as they cannot be joined with commas. The Date header is written as the second the response is encoded.
+     *
+     * @param response The response to encode
+     * @param chunked  Whether a streamed entity of unknown length is sent chunked. If not, as HTTP/1.0 clients cannot decode it, the entity is sent without framing and ends when the connection is closed
+     * @return A buffer from the {@link BufferPool}, flipped for writing, which must be released once it has been written
+     */
+    public static @NotNull ByteBuffer encode(@NotNull HttpResponse response, boolean chunked) {
+        final int statusCode = response.statusCode();
+        final byte[] statusLine = HttpStatusCode.getStatusLine(statusCode);
+        final byte[] date = HttpDate.nowHeader();
+        final String body = response.entity().orElse(null) instanceof String string ? string : null;
+        final int bodyLength = body == null ? 0 : utf8Length(body);
+        final boolean inline = bodyLength <= MAX_INLINE_BODY;
+        // The length has to be sent even without a body, otherwise a persistent connection cannot tell where the response ends. Responses that never have a body are the exception.
+        final long streamLength = response.inputStreamLength().orElse(0L);
+        final boolean unknownLength = streamLength < 0;
+        // An unchunked entity of unknown length has no framing at all, and is ended by closing the connection
+        final boolean hasLength = statusCode >= 200 && statusCode != 204 && statusCode != 304 && (chunked || !unknownLength);
+        final long contentLength = bodyLength + Math.max(streamLength, 0);
+
+        int length = statusLine.length + CRLF.length + (inline ? bodyLength : 0);
+        for (Map.Entry<String, List<String>> header : response.responseHeaders().entrySet()) {
+            String name = header.getKey();
+            if (isFraming(name)) continue;
+            if (name.equals("Date")) {
+                length += date.length;
+                continue;
+            }
+            byte[] encoded = HEADER_NAMES.get(name);
+            int nameLength = encoded == null ? utf8Length(name) + 2 : encoded.length;
+            List<String> values = header.getValue();
+            if (name.equals("Set-Cookie")) {
+                for (String value : values) {
+                    length += nameLength + utf8Length(value) + CRLF.length;
+                }
+                continue;
+            }
+            length += nameLength + CRLF.length;
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) length += SEPARATOR.length;
+                length += utf8Length(values.get(i));
+            }
+        }
+        if (hasLength) {
+            length += unknownLength ? CHUNKED.length : CONTENT_LENGTH.length + digits(contentLength) + CRLF.length;
+        }
+
+        ByteBuffer buffer = BufferPool.acquire(length);
+        buffer.put(statusLine);
+        for (Map.Entry<String, List<String>> header : response.responseHeaders().entrySet()) {
+            String name = header.getKey();
+            if (isFraming(name)) continue;
+            if (name.equals("Date")) {
+                buffer.put(date);
+                continue;
+            }
+            List<String> values = header.getValue();
+            if (name.equals("Set-Cookie")) {
+                for (String value : values) {
+                    putName(buffer, name);
+                    putUtf8(buffer, value);
+                    buffer.put(CRLF);
+                }
+                continue;
+            }
+            putName(buffer, name);
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) buffer.put(SEPARATOR);
+                putUtf8(buffer, values.get(i));
+            }
+            buffer.put(CRLF);
+        }
+        if (hasLength && unknownLength) {
+            buffer.put(CHUNKED);
+        } else if (hasLength) {
+            buffer.put(CONTENT_LENGTH);
+            putDecimal(buffer, contentLength);
+            buffer.put(CRLF);
+        }
+        buffer.put(CRLF);
+        if (body != null && inline) {
+            putUtf8(buffer, body);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Encodes the string entity of a response that {@link #encode(HttpResponse)} left out as it was too large.
+     *
+     * @param response The response
+     * @return A heap buffer holding the entity, or null if the entity is not a string or was encoded with the head
+     */
+    public static @Nullable ByteBuffer encodeBody(@NotNull HttpResponse response) {
+        if (!(response.entity().orElse(null) instanceof String body)) return null;
+        // A string of more chars than the limit is too large in any case, so only shorter strings are measured
+        if (body.length() <= MAX_INLINE_BODY && utf8Length(body) <= MAX_INLINE_BODY) return null;
+        return ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks whether a header frames the body, which the encoder always writes itself.
+     *
+     * @param name The name of the header
+     * @return True for Content-Length and Transfer-Encoding
+     */
+    private static boolean isFraming(@NotNull String name) {
+        return name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding");
+    }
+
+    /**
+     * Writes a header name followed by ": " into a buffer.
+     *
+     * @param buffer The buffer
+     * @param name   The name of the header
+     */
+    private static void putName(@NotNull ByteBuffer buffer, @NotNull String name) {
+        byte[] encoded = HEADER_NAMES.get(name);
+        if (encoded != null) {
+            buffer.put(encoded);
+        } else {
+            putUtf8(buffer, name);
+            buffer.put((byte) ':').put((byte) ' ');
+        }
+    }
+
+    /**
+     * Measures a string encoded as UTF-8. Unpaired surrogates count as the single "?" they are replaced with, as {@link String#getBytes(java.nio.charset.Charset)} does.
+     *
+     * @param string The string
+     * @return The number of bytes of the encoded string
+     */
+    static int utf8Length(@NotNull String string) {
+        final int length = string.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                bytes++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                // Two chars become four bytes
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes a string as UTF-8 into a buffer.
+     *
+     * @param buffer The buffer, which must have room for {@link #utf8Length(String)} bytes
+     * @param string The string
+     */
+    static void putUtf8(@NotNull ByteBuffer buffer, @NotNull String string) {
+        final int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Counts the decimal digits of a number.
+     *
+     * @param value The number, which must not be negative
+     * @return The number of digits
+     */
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes a number in decimal into a buffer.
+     *
+     * @param buffer The buffer
+     * @param value  The number, which must not be negative
+     */
+    private static void putDecimal(@NotNull ByteBuffer buffer, long value) {
+        int end = buffer.position() + digits(value);
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+}
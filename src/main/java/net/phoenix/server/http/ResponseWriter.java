@@ -0,0 +1,499 @@
+package net.phoenix.server.http;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.files.ByteRangesEntity;
+import net.phoenix.server.http.files.FileEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes responses to a socket without blocking. Each write is started from the completion of the previous one, so no thread ever waits for the client, and a streamed entity is only read once the client has accepted the previous chunk. This class is for internal use and should not be modified or used by the end user.
+ */
+public class ResponseWriter {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Writes a response to the channel. The head and the string entity are encoded into a single pooled buffer, or a string entity too large to share it into a heap buffer of its own, which is written together with any cached file contents in a single gathering write, along with the first chunk of a streamed entity. An InputStream entity is closed once it has been written, or once the write fails. A publisher entity is subscribed to once the parts before it have been collected, and each batch of buffers it publishes is written before the next one is requested, so a slow client slows the publisher down instead of the data piling up in memory. A publisher of unknown length is written with the chunked transfer coding.
+     *
+     * @param channel  The socket channel to write to
+     * @param response The response to write
+     * @param handler  The handler to notify with the number of bytes written once the whole response has been written, or when the write fails
+     */
+    public static void write(@NotNull AsynchronousSocketChannel channel, @NotNull HttpResponse response, @NotNull CompletionHandler<Long, Void> handler) {
+        write(channel, response, true, handler);
+    }
+
+    /**
+     * Writes a response to the channel, choosing how an entity of unknown length is framed.
+     *
+     * @param channel  The socket channel to write to
+     * @param response The response to write
+     * @param chunked  Whether a publisher of unknown length is written with the chunked transfer coding. If not, as HTTP/1.0 clients cannot decode it, it is written without framing and the connection has to be closed once it has been written
+     * @param handler  The handler to notify with the number of bytes written once the whole response has been written, or when the write fails
+     * @see #write(AsynchronousSocketChannel, HttpResponse, CompletionHandler)
+     */
+    public static void write(@NotNull AsynchronousSocketChannel channel, @NotNull HttpResponse response, boolean chunked, @NotNull CompletionHandler<Long, Void> handler) {
+        ByteBuffer head = ResponseEncoder.encode(response, chunked);
+        List<Object> parts = new ArrayList<>();
+        parts.add(head);
+        Object entity = response.entity().orElse(null);
+        if (entity instanceof String) {
+            ByteBuffer body = ResponseEncoder.encodeBody(response);
+            if (body != null) parts.add(body);
+        } else if (entity instanceof FileEntity) {
+            parts.add(entity);
+        } else if (entity instanceof ByteRangesEntity ranges) {
+            for (Object part : ranges.getParts()) {
+                parts.add(part instanceof ByteBuffer buffer ? buffer.duplicate() : part);
+            }
+        } else if (entity instanceof InputStream stream) {
+            parts.add(new StreamPart(stream, response.inputStreamLength().orElse(0L)));
+        } else if (entity instanceof Flow.Publisher<?> publisher) {
+            parts.add(new PublisherPart(publisher, response.inputStreamLength().orElse(0L), chunked));
+        }
+        new Write(channel, parts, head, handler).advance();
+    }
+
+    /**
+     * Writes raw bytes to the channel.
+     *
+     * @param channel The socket channel to write to
+     * @param buffer  The bytes to write
+     * @param handler The handler to notify once all bytes have been written, or when the write fails
+     */
+    public static void write(@NotNull AsynchronousSocketChannel channel, @NotNull ByteBuffer buffer, @NotNull CompletionHandler<Long, Void> handler) {
+        new Write(channel, List.of(buffer), null, handler).advance();
+    }
+
+    /**
+     * An InputStream entity, which is streamed until the announced number of bytes has been written.
+     *
+     * @param stream The stream to write
+     * @param length The number of bytes to write from the stream
+     */
+    private record StreamPart(InputStream stream, long length) {
+    }
+
+    /**
+     * Discards a publisher entity that will not be written, by subscribing to it and cancelling at once, so the publisher can release what it holds, such as the connection of a proxied response.
+     *
+     * @param publisher The publisher to discard
+     */
+    public static void discard(@NotNull Flow.Publisher<?> publisher) {
+        publisher.subscribe(new Flow.Subscriber<Object>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(Object item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    /**
+     * A publisher entity, which publishes lists of buffers.
+     *
+     * @param publisher The publisher of the entity
+     * @param length    The number of bytes the publisher will publish, or -1 if it is not known
+     * @param chunked   Whether an entity of unknown length is framed with the chunked transfer coding, rather than ended by closing the connection
+     */
+    private record PublisherPart(Flow.Publisher<?> publisher, long length, boolean chunked) {
+    }
+
+    /**
+     * The state of a single response being written. The response is made of parts: buffers, which are collected into gathering writes, and files or streams, which are streamed through a chunk buffer when their contents are not in memory. The head and the chunk buffer are taken from the {@link BufferPool} and returned once the response has been written.
+     */
+    private static class Write implements CompletionHandler<Long, Void> {
+        private final AsynchronousSocketChannel channel;
+        private final CompletionHandler<Long, Void> handler;
+        private final Iterator<Object> parts;
+        private final List<ByteBuffer> pending = new ArrayList<>();
+        private ByteBuffer[] buffers = new ByteBuffer[0];
+        private int offset = 0;
+        private @Nullable ReadableByteChannel source;
+        private @Nullable ByteBuffer chunk;
+        private @Nullable ByteBuffer head;
+        private @Nullable BodySubscriber body;
+        private long remaining = 0;
+        private long written = 0;
+
+        /**
+         * Creates a new write.
+         *
+         * @param channel The socket channel to write to
+         * @param parts   The parts to write, in order
+         * @param head    The pooled buffer holding the head of the response, released once the write is done, or null if there is none
+         * @param handler The handler to notify once the write is done
+         */
+        private Write(AsynchronousSocketChannel channel, List<Object> parts, @Nullable ByteBuffer head, CompletionHandler<Long, Void> handler) {
+            this.channel = channel;
+            this.parts = parts.iterator();
+            this.head = head;
+            this.handler = handler;
+        }
+
+        /**
+         * Collects buffers from the following parts until a part has to be streamed, then writes them together. Finishes the response once every part has been written.
+         */
+        private void advance() {
+            try {
+                while (parts.hasNext()) {
+                    Object part = parts.next();
+                    if (part instanceof ByteBuffer buffer) {
+                        pending.add(buffer);
+                        continue;
+                    }
+                    if (part instanceof FileEntity file) {
+                        ByteBuffer cached = file.getCachedBuffer();
+                        if (cached != null) {
+                            pending.add(cached);
+                            continue;
+                        }
+                        // Asynchronous sockets cannot be the target of FileChannel.transferTo, so files are read into a direct buffer, which avoids the copy through the heap
+                        source = file.open();
+                        remaining = file.getLength();
+                    } else if (part instanceof StreamPart stream) {
+                        source = Channels.newChannel(stream.stream());
+                        remaining = stream.length();
+                    } else if (part instanceof PublisherPart publisher) {
+                        if (publisher.length() == 0) {
+                            discard(publisher.publisher());
+                            continue;
+                        }
+                        // The buffers collected so far are written together with the first published batch
+                        remaining = publisher.length();
+                        body = new BodySubscriber(remaining < 0 && publisher.chunked(), remaining < 0);
+                        subscribe(publisher.publisher(), body);
+                        return;
+                    }
+                    if (remaining == 0) {
+                        closeSource();
+                        continue;
+                    }
+                    if (!fill()) return;
+                    pending.add(chunk);
+                    break;
+                }
+            } catch (IOException e) {
+                failed(e, null);
+                return;
+            }
+            if (pending.isEmpty()) {
+                release();
+                handler.completed(written, null);
+                return;
+            }
+            flush();
+        }
+
+        /**
+         * Writes the collected buffers.
+         */
+        private void flush() {
+            buffers = pending.toArray(new ByteBuffer[0]);
+            pending.clear();
+            offset = 0;
+            next();
+        }
+
+        /**
+         * Writes the remaining buffers.
+         */
+        private void next() {
+            channel.write(buffers, offset, buffers.length - offset, 0L, TimeUnit.MILLISECONDS, null, this);
+        }
+
+        /**
+         * Reads the next chunk of the source, never reading past the length announced in the response.
+         *
+         * @return False if the source failed or ended early, in which case the handler has been notified
+         */
+        private boolean fill() {
+            assert source != null;
+            if (chunk == null) {
+                chunk = BufferPool.acquire(Server.config.writeBufferSize());
+            }
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), remaining));
+            try {
+                while (chunk.hasRemaining()) {
+                    if (source.read(chunk) < 0) break;
+                }
+            } catch (IOException e) {
+                failed(e, null);
+                return false;
+            }
+            chunk.flip();
+            if (!chunk.hasRemaining()) {
+                // The entity is shorter than the Content-Length that was sent, so the connection cannot be reused
+                failed(new EOFException("Entity ended " + remaining + " bytes early"), null);
+                return false;
+            }
+            remaining -= chunk.remaining();
+            return true;
+        }
+
+        /**
+         * Invoked when a write has completed. Continues with the unwritten remainder, the next chunk of the source, or the next parts.
+         *
+         * @param result     The number of bytes written.
+         * @param attachment Unused.
+         */
+        @Override
+        public void completed(Long result, Void attachment) {
+            written += result;
+            while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+            if (offset < buffers.length) {
+                next();
+                return;
+            }
+            if (body != null) {
+                body.written();
+                return;
+            }
+            if (source != null) {
+                if (remaining > 0) {
+                    if (!fill()) return;
+                    buffers = new ByteBuffer[]{chunk};
+                    offset = 0;
+                    next();
+                    return;
+                }
+                closeSource();
+            }
+            advance();
+        }
+
+        /**
+         * Invoked when a write fails.
+         *
+         * @param exc        The exception that caused the write to fail.
+         * @param attachment Unused.
+         */
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            closeSource();
+            if (body != null) {
+                body.cancel();
+                body = null;
+            }
+            while (parts.hasNext()) {
+                Object part = parts.next();
+                if (part instanceof StreamPart stream) {
+                    try {
+                        stream.stream().close();
+                    } catch (IOException ignored) {
+                    }
+                } else if (part instanceof PublisherPart publisher) {
+                    discard(publisher.publisher());
+                }
+            }
+            release();
+            handler.failed(exc, null);
+        }
+
+        /**
+         * Returns the pooled buffers of the write.
+         */
+        private void release() {
+            if (head != null) {
+                BufferPool.release(head);
+                head = null;
+            }
+            if (chunk != null) {
+                BufferPool.release(chunk);
+                chunk = null;
+            }
+        }
+
+        /**
+         * Closes the source, if there is one.
+         */
+        private void closeSource() {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                }
+                source = null;
+            }
+        }
+
+        /**
+         * Subscribes to a publisher entity. Publisher entities are lists of buffers, as published by {@link java.net.http.HttpResponse.BodySubscribers#ofPublisher()}.
+         *
+         * @param publisher  The publisher
+         * @param subscriber The subscriber writing the entity
+         */
+        @SuppressWarnings("unchecked")
+        private static void subscribe(Flow.Publisher<?> publisher, BodySubscriber subscriber) {
+            ((Flow.Publisher<List<ByteBuffer>>) publisher).subscribe(subscriber);
+        }
+
+        /**
+         * Writes the batches of a publisher entity. A batch is requested only once the previous one has been written, and the publisher may end the entity at any time, including while a batch is being written, in which case the end is handled once the write completes.
+         */
+        private final class BodySubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+            private final boolean chunked;
+            private final boolean unbounded;
+            private final ByteBuffer chunkSize = ByteBuffer.allocate(18);
+            private @Nullable Flow.Subscription subscription;
+            private @Nullable Throwable error;
+            private boolean writing = false;
+            private boolean ended = false;
+
+            /**
+             * Creates a new subscriber.
+             *
+             * @param chunked   Whether the entity is written with the chunked transfer coding, as its length is not known
+             * @param unbounded Whether the length of the entity is not known, so it is written until the publisher ends it
+             */
+            private BodySubscriber(boolean chunked, boolean unbounded) {
+                this.chunked = chunked;
+                this.unbounded = unbounded;
+            }
+
+            /**
+             * Invoked when the subscription starts. Requests the first batch.
+             *
+             * @param subscription The subscription
+             */
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            /**
+             * Invoked with the next batch of the entity. Writes it, framed as a chunk if the entity is chunked, after any buffers still collected.
+             *
+             * @param batch The buffers of the batch
+             */
+            @Override
+            public void onNext(List<ByteBuffer> batch) {
+                long size = 0;
+                for (ByteBuffer buffer : batch) {
+                    size += buffer.remaining();
+                }
+                if (size == 0) {
+                    assert subscription != null;
+                    subscription.request(1);
+                    return;
+                }
+                if (chunked) {
+                    chunkSize.clear();
+                    chunkSize.put(Long.toHexString(size).getBytes(StandardCharsets.US_ASCII)).put(CRLF).flip();
+                    pending.add(chunkSize);
+                } else if (!unbounded) {
+                    if (size > remaining) {
+                        cancel();
+                        body = null;
+                        failed(new IOException("Entity is longer than the announced length"), null);
+                        return;
+                    }
+                    remaining -= size;
+                }
+                pending.addAll(batch);
+                if (chunked) pending.add(ByteBuffer.wrap(CRLF));
+                synchronized (this) {
+                    writing = true;
+                }
+                flush();
+            }
+
+            /**
+             * Invoked when the publisher fails.
+             *
+             * @param throwable The cause of the failure
+             */
+            @Override
+            public void onError(Throwable throwable) {
+                synchronized (this) {
+                    error = throwable;
+                    ended = true;
+                    if (writing) return;
+                }
+                end();
+            }
+
+            /**
+             * Invoked when the whole entity has been published.
+             */
+            @Override
+            public void onComplete() {
+                synchronized (this) {
+                    ended = true;
+                    if (writing) return;
+                }
+                end();
+            }
+
+            /**
+             * Invoked once a batch has been written. Requests the next batch, or finishes the entity if the publisher has ended it.
+             */
+            private void written() {
+                synchronized (this) {
+                    writing = false;
+                    if (!ended) {
+                        assert subscription != null;
+                        subscription.request(1);
+                        return;
+                    }
+                }
+                end();
+            }
+
+            /**
+             * Finishes the entity, writing the last chunk if it is chunked, and continues with the parts after it.
+             */
+            private void end() {
+                body = null;
+                if (error != null) {
+                    failed(error, null);
+                } else if (!unbounded && remaining > 0) {
+                    // The entity is shorter than the Content-Length that was sent, so the connection cannot be reused
+                    failed(new EOFException("Entity ended " + remaining + " bytes early"), null);
+                } else {
+                    if (chunked) pending.add(ByteBuffer.wrap(LAST_CHUNK));
+                    advance();
+                }
+            }
+
+            /**
+             * Cancels the subscription, so the publisher stops publishing.
+             */
+            private void cancel() {
+                if (subscription != null) subscription.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package net.phoenix.server.http;
+
+import net.phoenix.server.Server;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timer wheel, which schedules and cancels timeouts in constant time however many are pending. The wheel is a ring of buckets, each covering one tick; a timeout is placed in the bucket its deadline falls into, together with the number of full turns of the wheel left before it is due, and a single thread advances the wheel one bucket per tick, running the timeouts that are due. <br> <br>
+ * Deadlines are only as precise as the tick, and tasks run on the wheel's thread, so they must be short and must not block. This suits connection timeouts, which are nearly always cancelled before they expire and only need to fire roughly on time. This class is for internal use and should not be modified or used by the end user.
+ */
+public class TimerWheel {
+    private final long tick;
+    private final Timeout[] heads;
+    private final int mask;
+    private final long start = System.nanoTime();
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long ticks = 0;
+
+    /**
+     * Creates a new timer wheel and starts its thread.
+     *
+     * @param name         The name of the wheel's thread
+     * @param tickDuration The length of a tick, which is the precision of the deadlines
+     * @param unit         The unit of the tick duration
+     * @param buckets      The number of buckets, which is rounded up to a power of two. A turn of the wheel should cover the usual timeouts, so they need no extra turns
+     */
+    public TimerWheel(@NotNull String name, long tickDuration, @NotNull TimeUnit unit, int buckets) {
+        this.tick = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        int size = Integer.highestOneBit(Math.max(buckets, 2) - 1) << 1;
+        this.heads = new Timeout[size];
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Gets the timer wheel shared by the server's connections, which ticks every 100 milliseconds.
+     *
+     * @return The shared timer wheel
+     */
+    public static @NotNull TimerWheel shared() {
+        return Shared.WHEEL;
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task  The task to run once the delay has passed, on the wheel's thread
+     * @param delay The delay
+     * @param unit  The unit of the delay
+     * @return The timeout, which can be used to cancel the task
+     */
+    public @NotNull Timeout schedule(@NotNull Runnable task, long delay, @NotNull TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - start + unit.toNanos(Math.max(delay, 0)));
+        pending.incrementAndGet();
+        added.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * Gets the number of timeouts that have been scheduled but have neither expired nor been cancelled.
+     *
+     * @return The number of pending timeouts
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the wheel's thread. Pending timeouts never expire.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * Advances the wheel once per tick until it is stopped.
+     */
+    private void run() {
+        while (running) {
+            long deadline = tick * (ticks + 1);
+            long sleep = deadline - (System.nanoTime() - start);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null) {
+                unlink(timeout);
+            }
+            while ((timeout = added.poll()) != null) {
+                if (timeout.state.get() != Timeout.PENDING) continue;
+                long due = timeout.deadline / tick;
+                timeout.rounds = (due - ticks) / heads.length;
+                // Deadlines that have already passed go into the current bucket
+                link(timeout, (int) (Math.max(due, ticks) & mask));
+            }
+            expire(deadline);
+            ticks++;
+        }
+    }
+
+    /**
+     * Runs the timeouts of the current bucket that are due, and counts down the turns of the others.
+     *
+     * @param deadline The time of the end of the current tick, relative to the start of the wheel
+     */
+    private void expire(long deadline) {
+        Timeout timeout = heads[(int) (ticks & mask)];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+                unlink(timeout);
+                if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                    pending.decrementAndGet();
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable e) {
+                        Server.logger.logError("Timeout task failed due to: " + e.getMessage());
+                    }
+                }
+            } else {
+                timeout.rounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Adds a timeout to a bucket.
+     *
+     * @param timeout The timeout
+     * @param bucket  The index of the bucket
+     */
+    private void link(@NotNull Timeout timeout, int bucket) {
+        timeout.bucket = bucket;
+        timeout.next = heads[bucket];
+        if (timeout.next != null) timeout.next.prev = timeout;
+        heads[bucket] = timeout;
+    }
+
+    /**
+     * Removes a timeout from its bucket, if it is in one.
+     *
+     * @param timeout The timeout
+     */
+    private void unlink(@NotNull Timeout timeout) {
+        if (timeout.bucket < 0) return;
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            heads[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    /**
+     * A scheduled task. Its links to the other timeouts of its bucket are only touched by the wheel's thread, so cancelling only marks the timeout and leaves unlinking it to that thread.
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long rounds;
+        private int bucket = -1;
+        private @Nullable Timeout prev;
+        private @Nullable Timeout next;
+
+        /**
+         * Creates a new timeout.
+         *
+         * @param wheel    The wheel the timeout is scheduled on
+         * @param task     The task to run
+         * @param deadline The time the task is due, relative to the start of the wheel
+         */
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout, so its task is not run.
+         *
+         * @return False if the task has already run, or the timeout was already cancelled
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.offer(this);
+            return true;
+        }
+
+        /**
+         * Checks whether the task has run.
+         *
+         * @return True if the timeout expired
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    /**
+     * Holds the shared wheel, created the first time it is used.
+     */
+    private static class Shared {
+        private static final TimerWheel WHEEL = new TimerWheel("Timer", 100, TimeUnit.MILLISECONDS, 512);
+    }
+}
@@ -2,21 +2,26 @@ package net.phoenix.server.http.builder;
 
 import net.phoenix.server.http.container.HttpOpCode;
 import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpRequestBody;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A builder for HttpRequest objects. This class is used internally to process and serialize HTTP requests. It is not intended for use by the end user.
  */
 @SuppressWarnings({"UnusedReturnValue", "unused"})
 public class HttpRequestBuilder {
-    private HashMap<String, String> headers;
+    private Map<String, String> headers;
     private HttpOpCode method;
     private String path;
-    private String body;
+    private HttpRequestBody body = HttpRequestBody.EMPTY;
     private HashMap<String, String> params;
     private String ip;
+    private String version = "HTTP/1.1";
+    private Map<String, String> pathParams = Map.of();
+    private String query;
 
     /**
      * Creates a new HttpRequestBuilder.
@@ -30,7 +35,7 @@ public class HttpRequestBuilder {
      * @param headers The headers to change override the current headers with
      * @return This object for chaining.
      */
-    public @NotNull HttpRequestBuilder setHeaders(HashMap<String, String> headers) {
+    public @NotNull HttpRequestBuilder setHeaders(Map<String, String> headers) {
         this.headers = headers;
         return this;
     }
@@ -45,6 +50,8 @@ public class HttpRequestBuilder {
     public @NotNull HttpRequestBuilder addHeader(String key, String value) {
         if (headers == null) {
             headers = new HashMap<>();
+        } else if (!(headers instanceof HashMap)) {
+            headers = new HashMap<>(headers);
         }
         headers.put(key, value);
         return this;
@@ -79,6 +86,17 @@ public class HttpRequestBuilder {
      * @return This object for chaining.
      */
     public @NotNull HttpRequestBuilder setBody(String body) {
+        this.body = HttpRequestBody.of(body);
+        return this;
+    }
+
+    /**
+     * Sets the body of the HttpRequest.
+     *
+     * @param body The body of the request
+     * @return This object for chaining.
+     */
+    public @NotNull HttpRequestBuilder setBody(@NotNull HttpRequestBody body) {
         this.body = body;
         return this;
     }
@@ -109,6 +127,17 @@ public class HttpRequestBuilder {
         return this;
     }
 
+    /**
+     * Sets the raw query string of the HttpRequest. The parameters are not parsed from it, see {@link #addParam(String, String)}.
+     *
+     * @param query The query string as it was sent, without the leading "?"
+     * @return This object for chaining.
+     */
+    public @NotNull HttpRequestBuilder setQuery(String query) {
+        this.query = query;
+        return this;
+    }
+
     /**
      * Sets the IP of the HttpRequest.
      *
@@ -120,12 +149,34 @@ public class HttpRequestBuilder {
         return this;
     }
 
+    /**
+     * Sets the HTTP version of the HttpRequest.
+     *
+     * @param version The HTTP version from the request line
+     * @return This object for chaining.
+     */
+    public @NotNull HttpRequestBuilder setVersion(String version) {
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * Sets the path variables of the HttpRequest.
+     *
+     * @param pathParams The variables captured from the path by the route
+     * @return This object for chaining.
+     */
+    public @NotNull HttpRequestBuilder setPathParams(@NotNull Map<String, String> pathParams) {
+        this.pathParams = pathParams;
+        return this;
+    }
+
     /**
      * Builds the HttpRequest object.
      *
      * @return The HttpRequest object
      */
     public @NotNull HttpRequest build() {
-        return new HttpRequest(headers, method, path, body, params, ip);
+        return new HttpRequest(headers, method, path, body, params, ip, version, pathParams, query);
     }
 }
@@ -1,19 +1,24 @@
 package net.phoenix.server.http.builder;
 
+import net.phoenix.server.http.container.HttpDate;
 import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.files.ByteRangesEntity;
+import net.phoenix.server.http.files.FileEntity;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Flow;
 
 /**
  * A builder for HttpResponse objects. This class is used to create responses for HTTP requests. This can be used by the end user to create custom responses.
@@ -31,11 +36,23 @@ public class HttpResponseBuilder {
     public HttpResponseBuilder() {
         responseHeaders = new HashMap<>();
         responseHeaders.put("Server", List.of("localhost"));
-        responseHeaders.put("Date", List.of(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))));
+        responseHeaders.put("Date", List.of(HttpDate.now()));
 
         entity = Optional.empty();
     }
 
+    /**
+     * Creates a new HttpResponseBuilder initialised with the contents of an existing response.
+     *
+     * @param response The response to copy the status code, headers and entity from
+     */
+    public HttpResponseBuilder(final @NotNull HttpResponse response) {
+        responseHeaders = new HashMap<>(response.responseHeaders());
+        statusCode = response.statusCode();
+        entity = response.entity();
+        inputStreamLength = response.inputStreamLength();
+    }
+
     /**
      * Sets the status code of the HttpResponse.
      *
@@ -55,7 +72,7 @@ public class HttpResponseBuilder {
      */
     public @NotNull HttpResponseBuilder setHeaders(final Map<String, List<String>> headers) {
         responseHeaders = headers;
-        responseHeaders.put("Date", List.of(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))));
+        responseHeaders.put("Date", List.of(HttpDate.now()));
         if (!responseHeaders.containsKey("Server"))
             responseHeaders.put("Server", List.of("localhost"));
         return this;
@@ -73,6 +90,64 @@ public class HttpResponseBuilder {
         return this;
     }
 
+    /**
+     * Adds several headers to the HttpResponse, replacing any existing headers with the same names.
+     *
+     * @param headers The headers to add
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder addHeaders(final @NotNull Map<String, List<String>> headers) {
+        responseHeaders.putAll(headers);
+        return this;
+    }
+
+    /**
+     * Sets the entity tag of the HttpResponse. If a GET or HEAD request carries a matching If-None-Match header, the response is replaced with a 304 Not Modified response before it is sent.
+     *
+     * @param etag The entity tag, which will be quoted if it is not already
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setETag(final @NotNull String etag) {
+        boolean quoted = etag.endsWith("\"") && (etag.startsWith("\"") || etag.startsWith("W/\""));
+        responseHeaders.put("ETag", List.of(quoted ? etag : "\"" + etag + "\""));
+        return this;
+    }
+
+    /**
+     * Sets the modification time of the HttpResponse. If a GET or HEAD request carries an If-Modified-Since header that is not older than this time, the response is replaced with a 304 Not Modified response before it is sent.
+     *
+     * @param lastModified The modification time in milliseconds since the epoch
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setLastModified(final long lastModified) {
+        responseHeaders.put("Last-Modified", List.of(DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC))));
+        return this;
+    }
+
+    /**
+     * Marks the connection as persistent by adding the "Connection: keep-alive" and "Keep-Alive" headers.
+     *
+     * @param timeout     The number of seconds the server will keep the idle connection open
+     * @param maxRequests The number of further requests the server will accept on the connection
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setKeepAlive(final int timeout, final int maxRequests) {
+        responseHeaders.put("Connection", List.of("keep-alive"));
+        responseHeaders.put("Keep-Alive", List.of("timeout=" + timeout, "max=" + maxRequests));
+        return this;
+    }
+
+    /**
+     * Marks the connection to be closed after the response by adding the "Connection: close" header.
+     *
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setConnectionClose() {
+        responseHeaders.put("Connection", List.of("close"));
+        responseHeaders.remove("Keep-Alive");
+        return this;
+    }
+
     /**
      * Sets the entity of the HttpResponse. This entity will be served as a string to the client.
      *
@@ -87,15 +162,75 @@ public class HttpResponseBuilder {
     }
 
     /**
-     * Sets the entity of the HttpResponse. This entity will be fed to the client in buffers of 2048 bytes.
+     * Sets the entity of the HttpResponse. The file is always streamed from a FileChannel once the response is written, so it is never copied through the Java heap, but its contents are not cached. Files of the static resources folder are cached by {@link net.phoenix.server.http.files.StaticFileCache}, whose entities are set with {@link #setEntity(FileEntity)}.
      *
      * @param entity The entity to return to the client
      * @return This object for chaining.
+     * @throws FileNotFoundException If the file does not exist
      */
     public @NotNull HttpResponseBuilder setEntity(final @Nullable File entity) throws FileNotFoundException {
         if (entity != null) {
-            this.entity = Optional.of(new FileInputStream(entity));
-            inputStreamLength = Optional.of(entity.length());
+            FileEntity fileEntity = new FileEntity(entity);
+            this.entity = Optional.of(fileEntity);
+            inputStreamLength = Optional.of(fileEntity.getLength());
+        }
+        return this;
+    }
+
+    /**
+     * Sets the entity of the HttpResponse to a file whose contents may already be cached.
+     *
+     * @param entity The entity to return to the client
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setEntity(final @Nullable FileEntity entity) {
+        if (entity != null) {
+            this.entity = Optional.of(entity);
+            inputStreamLength = Optional.of(entity.getLength());
+        }
+        return this;
+    }
+
+    /**
+     * Sets the entity of the HttpResponse to several ranges of a file.
+     *
+     * @param entity The entity to return to the client
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setEntity(final @Nullable ByteRangesEntity entity) {
+        if (entity != null) {
+            this.entity = Optional.of(entity);
+            inputStreamLength = Optional.of(entity.getLength());
+        }
+        return this;
+    }
+
+    /**
+     * Sets the entity of the HttpResponse. This entity will be streamed to the client in chunks, and closed once it has been written.
+     *
+     * @param entity The entity to return to the client
+     * @param length The number of bytes the stream will provide
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setEntity(final @Nullable InputStream entity, final long length) {
+        if (entity != null) {
+            this.entity = Optional.of(entity);
+            inputStreamLength = Optional.of(length);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the entity of the HttpResponse to a publisher of buffers, such as the body of a response from {@link java.net.http.HttpClient} received with {@link java.net.http.HttpResponse.BodyHandlers#ofPublisher()}. The publisher is subscribed to when the response is written, and each batch it publishes is written to the client before the next one is requested.
+     *
+     * @param entity The entity to return to the client
+     * @param length The number of bytes the publisher will publish, or -1 if it is not known, in which case the entity is sent with the chunked transfer coding
+     * @return This object for chaining.
+     */
+    public @NotNull HttpResponseBuilder setEntity(final @Nullable Flow.Publisher<List<ByteBuffer>> entity, final long length) {
+        if (entity != null) {
+            this.entity = Optional.of(entity);
+            inputStreamLength = Optional.of(length);
         }
         return this;
     }
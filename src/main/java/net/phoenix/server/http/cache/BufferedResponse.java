@@ -0,0 +1,220 @@
+package net.phoenix.server.http.cache;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.ResponseWriter;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.files.FileEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A response held in memory, so it can be sent any number of times. A response whose entity is a string or a file is kept as it is, while a streamed entity is read into an array, each copy of the response streaming it again. This class is for internal use and should not be modified or used by the end user.
+ */
+public final class BufferedResponse {
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final @Nullable Object body;
+    private final long weight;
+
+    /**
+     * Creates a new buffered response.
+     *
+     * @param statusCode The status code of the response
+     * @param headers    The headers of the response
+     * @param body       The entity of the response: a string, a file, an array of bytes, or null if there is none
+     * @param weight     An estimate of the memory held by the response, in bytes
+     */
+    private BufferedResponse(int statusCode, Map<String, List<String>> headers, @Nullable Object body, long weight) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+        this.weight = weight;
+    }
+
+    /**
+     * Buffers a response. Streamed entities are only read if their length is known and within the limit, so a response that cannot be buffered is left untouched and can still be sent.
+     *
+     * @param response  The response to buffer
+     * @param maxLength The largest streamed entity, in bytes, that may be read into memory
+     * @return The buffered response, or null if the entity is too large, of unknown length or of a kind that cannot be buffered
+     * @throws IOException If the entity could not be read completely, in which case the response can no longer be sent
+     */
+    public static @Nullable BufferedResponse of(@NotNull HttpResponse response, long maxLength) throws IOException {
+        Map<String, List<String>> headers = new HashMap<>(response.responseHeaders());
+        long headerWeight = 64;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            headerWeight += 48 + header.getKey().length() * 2L;
+            for (String value : header.getValue()) {
+                headerWeight += 16 + value.length() * 2L;
+            }
+        }
+        Object entity = response.entity().orElse(null);
+        long length = response.inputStreamLength().orElse(0L);
+        if (entity == null) {
+            return new BufferedResponse(response.statusCode(), headers, null, headerWeight);
+        } else if (entity instanceof String string) {
+            if (string.length() > maxLength) return null;
+            return new BufferedResponse(response.statusCode(), headers, string, headerWeight + string.length() * 2L);
+        } else if (entity instanceof FileEntity file) {
+            // The contents are held, if at all, by the static file cache
+            return new BufferedResponse(response.statusCode(), headers, file, headerWeight);
+        } else if (entity instanceof InputStream stream) {
+            if (length < 0 || length > maxLength) return null;
+            byte[] bytes;
+            try (stream) {
+                bytes = stream.readNBytes((int) length);
+            }
+            if (bytes.length < length) throw new IOException("Entity ended " + (length - bytes.length) + " bytes early");
+            return new BufferedResponse(response.statusCode(), headers, bytes, headerWeight + bytes.length);
+        } else if (entity instanceof Flow.Publisher<?> publisher) {
+            if (length < 0 || length > maxLength) return null;
+            byte[] bytes = collect(publisher, (int) length);
+            return new BufferedResponse(response.statusCode(), headers, bytes, headerWeight + bytes.length);
+        }
+        return null;
+    }
+
+    /**
+     * Creates a copy of the response that can be sent.
+     *
+     * @return The response
+     */
+    public @NotNull HttpResponse toResponse() {
+        return toBuilder().build();
+    }
+
+    /**
+     * Creates a builder initialised with a copy of the response, so headers can be added before it is sent.
+     *
+     * @return The builder
+     */
+    public @NotNull HttpResponseBuilder toBuilder() {
+        HttpResponseBuilder builder = new HttpResponseBuilder().setStatusCode(statusCode).setHeaders(new HashMap<>(headers));
+        if (body instanceof String string) {
+            builder.setEntity(string);
+        } else if (body instanceof FileEntity file) {
+            builder.setEntity(file);
+        } else if (body instanceof byte[] bytes) {
+            builder.setEntity(new ByteArrayInputStream(bytes), bytes.length);
+        }
+        return builder;
+    }
+
+    /**
+     * Gets the status code of the response.
+     *
+     * @return The status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Gets the headers of the response.
+     *
+     * @return The headers, which must not be modified
+     */
+    public @NotNull Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Estimates the memory held by the response.
+     *
+     * @return The estimate in bytes
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Releases the streamed entity of a response that will not be sent.
+     *
+     * @param response The response
+     */
+    public static void discard(@NotNull HttpResponse response) {
+        Object entity = response.entity().orElse(null);
+        if (entity instanceof InputStream stream) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        } else if (entity instanceof Flow.Publisher<?> publisher) {
+            ResponseWriter.discard(publisher);
+        }
+    }
+
+    /**
+     * Reads a publisher entity into an array, waiting at most {@link Server#coalesceTimeout} milliseconds for it.
+     *
+     * @param publisher The publisher, which publishes lists of buffers
+     * @param length    The number of bytes the publisher announced
+     * @return The bytes of the entity
+     * @throws IOException If the publisher failed, published a different number of bytes or took too long
+     */
+    @SuppressWarnings("unchecked")
+    private static byte @NotNull [] collect(@NotNull Flow.Publisher<?> publisher, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        ((Flow.Publisher<List<ByteBuffer>>) publisher).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+            private int position = 0;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<ByteBuffer> batch) {
+                for (ByteBuffer buffer : batch) {
+                    if (buffer.remaining() > length - position) {
+                        subscription.cancel();
+                        done.completeExceptionally(new IOException("Entity is longer than the announced " + length + " bytes"));
+                        return;
+                    }
+                    int read = buffer.remaining();
+                    buffer.get(bytes, position, read);
+                    position += read;
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(position);
+            }
+        });
+        try {
+            int read = done.get(Server.coalesceTimeout, TimeUnit.MILLISECONDS);
+            if (read < length) throw new IOException("Entity ended " + (length - read) + " bytes early");
+            return bytes;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Entity was not received within " + Server.coalesceTimeout + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while receiving the entity");
+        }
+    }
+}
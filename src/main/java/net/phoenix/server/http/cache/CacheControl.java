@@ -0,0 +1,84 @@
+package net.phoenix.server.http.cache;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The directives of a Cache-Control response header that decide whether and for how long a shared cache may store a response (RFC 9111, section 5.2.2). Unknown directives are ignored.
+ *
+ * @param noStore              Whether the response must not be stored
+ * @param noCache              Whether the response must be revalidated before every use, which the cache does not do, so such responses are not stored
+ * @param isPrivate            Whether the response is meant for a single user, and so must not be stored by a shared cache
+ * @param isPublic             Whether the response may be stored even if the request was authorized
+ * @param maxAge               The number of seconds the response is fresh, or -1 if not given
+ * @param sMaxAge              The number of seconds the response is fresh in shared caches, overriding the max-age, or -1 if not given
+ * @param staleWhileRevalidate The number of seconds after the response has gone stale during which it may still be served while it is refreshed in the background
+ */
+public record CacheControl(boolean noStore, boolean noCache, boolean isPrivate, boolean isPublic, long maxAge, long sMaxAge, long staleWhileRevalidate) {
+    /**
+     * The directives of a response without a Cache-Control header.
+     */
+    public static final CacheControl NONE = new CacheControl(false, false, false, false, -1, -1, 0);
+
+    /**
+     * Parses the values of a Cache-Control header.
+     *
+     * @param values The values of the header, or null if there is none
+     * @return The directives
+     */
+    public static @NotNull CacheControl parse(@Nullable List<String> values) {
+        if (values == null || values.isEmpty()) return NONE;
+        boolean noStore = false, noCache = false, isPrivate = false, isPublic = false;
+        long maxAge = -1, sMaxAge = -1, staleWhileRevalidate = 0;
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                int equals = directive.indexOf('=');
+                String name = (equals < 0 ? directive : directive.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+                String argument = equals < 0 ? null : directive.substring(equals + 1).trim();
+                switch (name) {
+                    case "no-store" -> noStore = true;
+                    // A no-cache or private directive with a list of header names only restricts those headers, but the cache treats them as covering the whole response
+                    case "no-cache" -> noCache = true;
+                    case "private" -> isPrivate = true;
+                    case "public" -> isPublic = true;
+                    case "max-age" -> maxAge = seconds(argument);
+                    case "s-maxage" -> sMaxAge = seconds(argument);
+                    case "stale-while-revalidate" -> staleWhileRevalidate = Math.max(seconds(argument), 0);
+                    default -> {
+                    }
+                }
+            }
+        }
+        return new CacheControl(noStore, noCache, isPrivate, isPublic, maxAge, sMaxAge, staleWhileRevalidate);
+    }
+
+    /**
+     * Gets the number of seconds a response is fresh in a shared cache.
+     *
+     * @return The s-maxage if given, otherwise the max-age, or -1 if neither is given
+     */
+    public long lifetime() {
+        return sMaxAge >= 0 ? sMaxAge : maxAge;
+    }
+
+    /**
+     * Parses the argument of a directive giving a number of seconds.
+     *
+     * @param argument The argument, which may be quoted, or null if the directive had none
+     * @return The number of seconds, or -1 if the argument is missing or invalid
+     */
+    private static long seconds(@Nullable String argument) {
+        if (argument == null) return -1;
+        if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+            argument = argument.substring(1, argument.length() - 1);
+        }
+        try {
+            return Math.max(Long.parseLong(argument), 0);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package net.phoenix.server.http.cache;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.HandlerExecutor;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.ExecutionMode;
+import net.phoenix.server.metrics.ServerMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shared cache of the responses of the routes that opt into it. GET and HEAD responses are stored when their Cache-Control header allows a shared cache to, keyed by the method, path and raw query string of the request and by the request headers the Vary header of the response names. <br> <br>
+ * A response is served from the cache for its s-maxage, or its max-age if it has none, minus the Age the target gave it. Once stale, it is still served for its stale-while-revalidate period while a single background request refreshes it. A request that finds no usable response while another request with the same key is already being answered waits for that answer, for at most {@link Server#coalesceTimeout} milliseconds, instead of calling the route again, so only one request per key reaches the route or its target at a time unless it stalls. <br> <br>
+ * Responses are held in memory, and the cache is bounded by {@link Server#responseCacheSize}, evicting the least recently used responses first. Responses larger than {@link Server#responseCacheMaxEntrySize} or of unknown length are never stored.
+ */
+public class ResponseCache {
+    // The statuses a shared cache may store when the response carries an explicit lifetime (RFC 9110, section 15.1)
+    private static final Set<Integer> CACHEABLE_STATUSES = Set.of(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+
+    private static final Map<String, Entry> cache = new LinkedHashMap<>(64, 0.75f, true);
+    // The headers the stored responses of each primary key vary on, so the full key of a request can be built before a response is found. A primary key is forgotten with its last stored response
+    private static final Map<String, Variants> variants = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static long size = 0;
+
+    /**
+     * Answers a request from the cache, or from the loader if the cache holds no usable response for it.
+     *
+     * @param request The request
+     * @param loader  Produces the response when the cache cannot, by calling the route
+     * @return The response, which is a copy of the stored response if it came from the cache
+     * @throws InvocationTargetException If the loader fails, or the body of its response could not be read to store it
+     */
+    public static @NotNull HttpResponse get(@NotNull HttpRequest request, @NotNull Loader loader) throws InvocationTargetException {
+        if (request.method() != HttpOpCode.GET && request.method() != HttpOpCode.HEAD) {
+            return loader.load(request);
+        }
+        String primary = primaryKey(request);
+        Variants known = variants.get(primary);
+        String key = fullKey(primary, known == null ? List.of() : known.names, request);
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null && now - entry.freshUntil < 0) {
+            hits.increment();
+            ServerMetrics.responseCacheLookup("hit");
+            return entry.toResponse(now);
+        }
+        if (entry != null && now - entry.staleUntil < 0) {
+            hits.increment();
+            ServerMetrics.responseCacheLookup("stale");
+            revalidate(primary, key, request, loader, entry);
+            return entry.toResponse(now);
+        }
+
+        CompletableFuture<Entry> loading = new CompletableFuture<>();
+        CompletableFuture<Entry> leader = inFlight.putIfAbsent(key, loading);
+        if (leader != null) {
+            Entry shared = await(leader);
+            if (shared != null && shared.matches(request)) {
+                hits.increment();
+                ServerMetrics.responseCacheLookup("coalesced");
+                return shared.toResponse(System.nanoTime());
+            }
+            // The answer could not be stored, or was for other values of the headers it varies on
+            misses.increment();
+            ServerMetrics.responseCacheLookup("miss");
+            return load(primary, request, loader);
+        }
+        misses.increment();
+        ServerMetrics.responseCacheLookup("miss");
+        Entry stored = null;
+        try {
+            HttpResponse response = loader.load(request);
+            stored = store(primary, request, response);
+            return stored == null ? response : stored.toResponse(System.nanoTime());
+        } catch (IOException e) {
+            throw new InvocationTargetException(e);
+        } finally {
+            inFlight.remove(key, loading);
+            loading.complete(stored);
+        }
+    }
+
+    /**
+     * Calls the loader and stores its response if possible, without coalescing.
+     *
+     * @param primary The primary key of the request
+     * @param request The request
+     * @param loader  Produces the response
+     * @return The response
+     * @throws InvocationTargetException If the loader fails, or the body of its response could not be read to store it
+     */
+    private static @NotNull HttpResponse load(@NotNull String primary, @NotNull HttpRequest request, @NotNull Loader loader) throws InvocationTargetException {
+        HttpResponse response = loader.load(request);
+        try {
+            Entry stored = store(primary, request, response);
+            return stored == null ? response : stored.toResponse(System.nanoTime());
+        } catch (IOException e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Waits for the request that is already loading a key.
+     *
+     * @param leader The future completed with the stored entry, or null if the response could not be stored
+     * @return The entry, or null if it could not be stored or did not arrive within {@link Server#coalesceTimeout} milliseconds
+     */
+    private static @Nullable Entry await(@NotNull CompletableFuture<Entry> leader) {
+        try {
+            return leader.get(Server.coalesceTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Refreshes a stale entry in the background. Only one refresh of an entry runs at a time, and the stale entry is kept if the refresh fails.
+     *
+     * @param primary The primary key of the request
+     * @param key     The full key the entry is stored under
+     * @param request The request that found the entry stale
+     * @param loader  Produces the fresh response
+     * @param entry   The stale entry
+     */
+    private static void revalidate(@NotNull String primary, @NotNull String key, @NotNull HttpRequest request, @NotNull Loader loader, @NotNull Entry entry) {
+        if (!entry.revalidating.compareAndSet(false, true)) return;
+        try {
+            HandlerExecutor.execute(ExecutionMode.VIRTUAL, () -> {
+                try {
+                    HttpResponse response = loader.load(request);
+                    if (store(primary, request, response) == null) {
+                        BufferedResponse.discard(response);
+                        // The route no longer allows its response to be stored, so the stale one must not be served either
+                        remove(key, entry);
+                    }
+                } catch (InvocationTargetException | IOException e) {
+                    Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+                    Server.logger.logError("Failed to revalidate cached response for " + request.path() + " due to: " + (cause == null ? e : cause).getMessage());
+                } finally {
+                    entry.revalidating.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.revalidating.set(false);
+        }
+    }
+
+    /**
+     * Stores a response if its status and headers allow a shared cache to.
+     *
+     * @param primary  The primary key of the request
+     * @param request  The request the response answers
+     * @param response The response
+     * @return The stored entry, or null if the response may not be stored, in which case it has not been read and can still be sent
+     * @throws IOException If the body of the response failed while it was read, in which case the response can no longer be sent
+     */
+    private static @Nullable Entry store(@NotNull String primary, @NotNull HttpRequest request, @NotNull HttpResponse response) throws IOException {
+        if (!CACHEABLE_STATUSES.contains(response.statusCode())) return null;
+        Map<String, List<String>> headers = response.responseHeaders();
+        if (header(headers, "Set-Cookie") != null) return null;
+        CacheControl control = CacheControl.parse(header(headers, "Cache-Control"));
+        if (control.noStore() || control.noCache() || control.isPrivate() || control.lifetime() < 0) return null;
+        // Answers to authorized requests are meant for their user, unless the target declared them fit for everyone
+        if (request.getHeader("Authorization") != null && !control.isPublic() && control.sMaxAge() < 0) return null;
+        List<String> vary = new ArrayList<>();
+        List<String> varyHeader = header(headers, "Vary");
+        if (varyHeader != null) {
+            for (String value : varyHeader) {
+                for (String name : value.split(",")) {
+                    String trimmed = name.trim().toLowerCase(Locale.ROOT);
+                    if (trimmed.equals("*")) return null;
+                    if (!trimmed.isEmpty() && !vary.contains(trimmed)) vary.add(trimmed);
+                }
+            }
+        }
+        long age = 0;
+        List<String> ageHeader = header(headers, "Age");
+        if (ageHeader != null && !ageHeader.isEmpty()) {
+            try {
+                age = Math.max(Long.parseLong(ageHeader.get(0).trim()), 0);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        long lifetime = control.lifetime() - age;
+        if (lifetime <= 0 && control.staleWhileRevalidate() <= 0) return null;
+
+        BufferedResponse buffered = BufferedResponse.of(response, Server.responseCacheMaxEntrySize);
+        if (buffered == null) return null;
+        long now = System.nanoTime();
+        long freshUntil = now + TimeUnit.SECONDS.toNanos(Math.max(lifetime, 0));
+        String key = fullKey(primary, vary, request);
+        Entry entry = new Entry(primary, buffered, List.copyOf(vary), varyValues(vary, request), age, now, freshUntil,
+                freshUntil + TimeUnit.SECONDS.toNanos(control.staleWhileRevalidate()), buffered.getWeight() + key.length() * 2L);
+        if (entry.weight <= Server.responseCacheMaxEntrySize) {
+            put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Adds an entry to the cache, evicting the least recently used entries until the cache fits in its budget.
+     *
+     * @param key   The key the entry is cached under
+     * @param entry The entry to add
+     */
+    private static void put(@NotNull String key, @NotNull Entry entry) {
+        synchronized (cache) {
+            Entry previous = cache.put(key, entry);
+            if (previous != null) {
+                size -= previous.weight;
+                forget(previous);
+            }
+            size += entry.weight;
+            Variants known = variants.computeIfAbsent(entry.primary, primary -> new Variants());
+            known.names = entry.vary;
+            known.entries++;
+            Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+            while (size > Server.responseCacheSize && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                if (eldest == entry) continue;
+                iterator.remove();
+                size -= eldest.weight;
+                forget(eldest);
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Accounts for an entry that has left the cache, forgetting the headers its primary key varies on if it was the last entry of that key. The caller must hold the lock of the cache.
+     *
+     * @param entry The entry that has been removed
+     */
+    private static void forget(@NotNull Entry entry) {
+        Variants known = variants.get(entry.primary);
+        if (known != null && --known.entries <= 0) {
+            variants.remove(entry.primary);
+        }
+    }
+
+    /**
+     * Removes an entry from the cache, unless it has already been replaced.
+     *
+     * @param key   The key the entry is cached under
+     * @param entry The entry to remove
+     */
+    private static void remove(@NotNull String key, @NotNull Entry entry) {
+        synchronized (cache) {
+            if (cache.remove(key, entry)) {
+                size -= entry.weight;
+                forget(entry);
+            }
+        }
+    }
+
+    /**
+     * Builds the part of the key of a request that does not depend on the headers responses vary on: the method, the path and the query.
+     *
+     * @param request The request
+     * @return The primary key
+     */
+    private static @NotNull String primaryKey(@NotNull HttpRequest request) {
+        StringBuilder key = new StringBuilder(request.method().name()).append(' ').append(request.path());
+        appendQuery(key, request);
+        return key.toString();
+    }
+
+    /**
+     * Appends the query of a request to a key. The query is used as it was sent, as the parsed parameters lose repeated names and the difference between "a" and "a=", which would give different resources the same key.
+     *
+     * @param key     The key
+     * @param request The request
+     */
+    static void appendQuery(@NotNull StringBuilder key, @NotNull HttpRequest request) {
+        if (request.query() != null) {
+            key.append('?').append(request.query());
+        } else if (request.params() != null && !request.params().isEmpty()) {
+            // The request was built without its query string, so its parameters are all there is, in a fixed order
+            char separator = '?';
+            for (Map.Entry<String, String> param : new TreeMap<>(request.params()).entrySet()) {
+                key.append(separator).append(param.getKey()).append('=').append(param.getValue());
+                separator = '&';
+            }
+        }
+    }
+
+    /**
+     * Builds the full key of a request, adding the values of the headers responses vary on to its primary key.
+     *
+     * @param primary The primary key of the request
+     * @param vary    The names of the headers in lower case
+     * @param request The request
+     * @return The full key
+     */
+    private static @NotNull String fullKey(@NotNull String primary, @NotNull List<String> vary, @NotNull HttpRequest request) {
+        if (vary.isEmpty()) return primary;
+        StringBuilder key = new StringBuilder(primary);
+        for (String value : varyValues(vary, request)) {
+            key.append('\0').append(value);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the values of the headers responses vary on.
+     *
+     * @param vary    The names of the headers in lower case
+     * @param request The request
+     * @return The values, with an empty string for a missing header
+     */
+    private static @NotNull List<String> varyValues(@NotNull List<String> vary, @NotNull HttpRequest request) {
+        List<String> values = new ArrayList<>(vary.size());
+        for (String name : vary) {
+            String value = request.getHeader(name);
+            values.add(value == null ? "" : value.trim());
+        }
+        return values;
+    }
+
+    /**
+     * Gets the values of a response header, whatever the case of its name.
+     *
+     * @param headers The headers of the response
+     * @param name    The name of the header
+     * @return The values, or null if the response does not have the header
+     */
+    private static @Nullable List<String> header(@NotNull Map<String, List<String>> headers, @NotNull String name) {
+        List<String> values = headers.get(name);
+        if (values != null) return values;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Removes every response from the cache.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            variants.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Gets the number of requests that were served a response from the cache, including stale responses and responses shared with a request that was already loading them.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of requests that had to be answered by their route.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of responses that were removed from the cache to stay within its budget.
+     *
+     * @return The number of evictions
+     */
+    public static long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the estimated number of bytes currently held in the cache.
+     *
+     * @return The size of the cache in bytes
+     */
+    public static long getSize() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    /**
+     * Produces the response to a request when the cache cannot.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Produces the response to a request.
+         *
+         * @param request The request
+         * @return The response
+         * @throws InvocationTargetException If the route fails
+         */
+        @NotNull HttpResponse load(@NotNull HttpRequest request) throws InvocationTargetException;
+    }
+
+    /**
+     * A stored response, with the values of the headers it varies on and the times it goes stale and expires.
+     */
+    private static final class Entry {
+        private final String primary;
+        private final BufferedResponse response;
+        private final List<String> vary;
+        private final List<String> varyValues;
+        private final long age;
+        private final long storedAt;
+        private final long freshUntil;
+        private final long staleUntil;
+        private final long weight;
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        /**
+         * Creates a new entry.
+         *
+         * @param primary    The primary key the entry is stored under
+         * @param response   The response
+         * @param vary       The names of the headers the response varies on, in lower case
+         * @param varyValues The values those headers had in the request the response answered
+         * @param age        The age of the response when it was stored, in seconds
+         * @param storedAt   When the response was stored, as a value of {@link System#nanoTime()}
+         * @param freshUntil When the response goes stale
+         * @param staleUntil When the response may no longer be served, even while it is refreshed
+         * @param weight     The number of bytes of memory the entry holds
+         */
+        private Entry(String primary, BufferedResponse response, List<String> vary, List<String> varyValues, long age, long storedAt, long freshUntil, long staleUntil, long weight) {
+            this.primary = primary;
+            this.response = response;
+            this.vary = vary;
+            this.varyValues = varyValues;
+            this.age = age;
+            this.storedAt = storedAt;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+            this.weight = weight;
+        }
+
+        /**
+         * Checks whether the entry may answer a request, which is the case if the request has the same values for the headers the response varies on.
+         *
+         * @param request The request
+         * @return True if the entry may answer the request
+         */
+        private boolean matches(@NotNull HttpRequest request) {
+            return varyValues.equals(varyValues(vary, request));
+        }
+
+        /**
+         * Creates a copy of the stored response, with an Age header giving the time it has spent in caches.
+         *
+         * @param now The current time, as a value of {@link System#nanoTime()}
+         * @return The response
+         */
+        private @NotNull HttpResponse toResponse(long now) {
+            long seconds = age + TimeUnit.NANOSECONDS.toSeconds(Math.max(now - storedAt, 0));
+            return response.toBuilder().addHeader("Age", Long.toString(seconds)).build();
+        }
+    }
+
+    /**
+     * The headers the stored responses of a primary key vary on, and the number of responses stored under it. The count is only changed while holding the lock of the cache.
+     */
+    private static final class Variants {
+        private volatile List<String> names = List.of();
+        private int entries = 0;
+    }
+}
@@ -0,0 +1,176 @@
+package net.phoenix.server.http.cache;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.Route;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses identical requests that arrive while one of them is being answered into a single call of the route. The first request calls the route, and the requests that arrive before it returns wait for its response, which is buffered and copied to every one of them. Requests are identical if they have the same method, path and key: the query parameters and the values of the chosen headers. <br> <br>
+ * Only GET and HEAD requests are collapsed, as other methods are expected to act every time they are called. A response larger than {@link Server#responseCacheMaxEntrySize}, or of unknown length, cannot be shared, so the waiting requests call the route themselves, as do requests that have waited {@link Server#coalesceTimeout} milliseconds for a stalled call. If the route throws, every waiting request fails with the same exception. Nothing is kept once the call has returned; to keep responses, see {@link ResponseCache}.
+ */
+public class SingleFlight {
+    private final boolean query;
+    private final List<String> headers;
+    private final int maxWaiters;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a new group of collapsed calls.
+     *
+     * @param query      Whether the query parameters are part of the key, which they should be unless the route ignores them
+     * @param headers    The names of the request headers whose values are part of the key, such as "Accept-Language"
+     * @param maxWaiters The number of requests that may wait for a single call. Further identical requests are answered with 503 Service Unavailable, or 0 for no limit
+     */
+    public SingleFlight(boolean query, @NotNull List<String> headers, int maxWaiters) {
+        this.query = query;
+        this.headers = List.copyOf(headers);
+        this.maxWaiters = maxWaiters;
+    }
+
+    /**
+     * Answers a request, calling the loader only if no identical request is already being answered.
+     *
+     * @param request The request
+     * @param loader  Calls the route
+     * @return The response, which is a copy of the shared response if the call was collapsed
+     * @throws InvocationTargetException If the route throws, or its response could not be read to share it
+     */
+    public @NotNull HttpResponse run(@NotNull HttpRequest request, @NotNull ResponseCache.Loader loader) throws InvocationTargetException {
+        if (request.method() != HttpOpCode.GET && request.method() != HttpOpCode.HEAD) {
+            return loader.load(request);
+        }
+        String key = key(request);
+        Flight flight = new Flight();
+        Flight leader = flights.putIfAbsent(key, flight);
+        if (leader != null) {
+            return await(request, leader, loader);
+        }
+        BufferedResponse shared = null;
+        try {
+            HttpResponse response = loader.load(request);
+            shared = BufferedResponse.of(response, Server.responseCacheMaxEntrySize);
+            return shared == null ? response : shared.toResponse();
+        } catch (InvocationTargetException e) {
+            flight.result.completeExceptionally(e.getCause() == null ? e : e.getCause());
+            throw e;
+        } catch (IOException e) {
+            flight.result.completeExceptionally(e);
+            throw new InvocationTargetException(e);
+        } catch (RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+            flight.result.complete(shared);
+        }
+    }
+
+    /**
+     * Waits for the response of an identical request that is already calling the route.
+     *
+     * @param request The waiting request
+     * @param leader  The call to wait for
+     * @param loader  Calls the route if the response of the leader cannot be shared, or does not arrive within {@link Server#coalesceTimeout} milliseconds
+     * @return The response
+     * @throws InvocationTargetException If the route threw
+     */
+    private @NotNull HttpResponse await(@NotNull HttpRequest request, @NotNull Flight leader, @NotNull ResponseCache.Loader loader) throws InvocationTargetException {
+        int waiting = leader.waiters.incrementAndGet();
+        try {
+            if (maxWaiters > 0 && waiting > maxWaiters) {
+                rejected.increment();
+                Server.logger.logWarn("Rejected request for " + request.path() + " as " + maxWaiters + " identical requests are already waiting");
+                return Route.getError(503).build();
+            }
+            BufferedResponse shared;
+            try {
+                shared = leader.result.get(Server.coalesceTimeout, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new InvocationTargetException(e.getCause());
+            } catch (TimeoutException e) {
+                // The first call is stalled, so this request stops waiting for it and calls the route itself
+                Server.logger.logWarn("Stopped waiting for an identical request to " + request.path() + " after " + Server.coalesceTimeout + "ms");
+                return loader.load(request);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Route.getError(503).build();
+            }
+            if (shared == null) return loader.load(request);
+            collapsed.increment();
+            return shared.toResponse();
+        } finally {
+            leader.waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Builds the key of a request: its method and path, its query string if it is part of the key, and the values of the chosen headers.
+     *
+     * @param request The request
+     * @return The key
+     */
+    private @NotNull String key(@NotNull HttpRequest request) {
+        StringBuilder key = new StringBuilder(request.method().name()).append(' ').append(request.path());
+        if (query) {
+            ResponseCache.appendQuery(key, request);
+        }
+        for (String header : headers) {
+            String value = request.getHeader(header);
+            key.append('\0').append(value == null ? "" : value.trim());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the number of distinct calls currently in progress.
+     *
+     * @return The number of calls
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    /**
+     * Gets the number of requests that were answered with the response of an identical request instead of calling the route.
+     *
+     * @return The number of collapsed requests
+     */
+    public long getCollapsed() {
+        return collapsed.sum();
+    }
+
+    /**
+     * Gets the number of requests that were answered with 503 Service Unavailable because too many identical requests were already waiting.
+     *
+     * @return The number of rejected requests
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * A call of the route, and the requests waiting for it.
+     */
+    private static final class Flight {
+        // Completed with the shared response, or null if it could not be shared
+        private final CompletableFuture<BufferedResponse> result = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+    }
+}
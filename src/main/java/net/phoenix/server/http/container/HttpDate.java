@@ -0,0 +1,59 @@
+package net.phoenix.server.http.container;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Provides the current date in the format of the Date header. The header only has a resolution of one second, so the date is formatted once per second and shared by every response sent within it.
+ */
+public class HttpDate {
+    private static volatile Cached cached = new Cached(Long.MIN_VALUE, "", new byte[0]);
+
+    /**
+     * Gets the current date.
+     *
+     * @return The current date as an RFC 1123 date, such as "Sun, 6 Nov 1994 08:49:37 GMT"
+     */
+    public static @NotNull String now() {
+        return current().value();
+    }
+
+    /**
+     * Gets the encoded Date header for the current date, including the header name and the line break. The array is shared, so it must not be modified.
+     *
+     * @return The Date header
+     */
+    public static byte @NotNull [] nowHeader() {
+        return current().header();
+    }
+
+    /**
+     * Gets the cached date, formatting it again if the second has changed since it was last formatted. Threads that see the change at the same time may each format it, which is harmless.
+     *
+     * @return The date of the current second
+     */
+    private static @NotNull Cached current() {
+        long second = System.currentTimeMillis() / 1000;
+        Cached current = cached;
+        if (current.second() != second) {
+            String value = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochSecond(second).atZone(ZoneOffset.UTC));
+            current = new Cached(second, value, ("Date: " + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            cached = current;
+        }
+        return current;
+    }
+
+    /**
+     * The date of one second.
+     *
+     * @param second The number of seconds since the epoch
+     * @param value  The formatted date
+     * @param header The encoded Date header
+     */
+    private record Cached(long second, String value, byte[] header) {
+    }
+}
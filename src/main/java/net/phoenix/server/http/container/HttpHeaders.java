@@ -0,0 +1,148 @@
+package net.phoenix.server.http.container;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The headers of an incoming request, backed by the raw bytes they were read from. Header names and values are only converted to strings when they are looked up, so headers a route never reads cost nothing. Lookups are case-insensitive, and the map is read-only.
+ */
+public class HttpHeaders extends AbstractMap<String, String> {
+    private final byte[] data;
+    private final int[] offsets;
+    private final int count;
+    private final String[] names;
+    private final String[] values;
+    private @Nullable Set<Entry<String, String>> entrySet;
+
+    /**
+     * Creates a new set of headers. This constructor is used internally by the request parser.
+     *
+     * @param data    The raw header bytes
+     * @param offsets The start and end of each header name, followed by the start and end of its value, as four consecutive indexes into the data
+     * @param count   The number of headers
+     */
+    public HttpHeaders(byte @NotNull [] data, int @NotNull [] offsets, int count) {
+        this.data = data;
+        this.offsets = offsets;
+        this.count = count;
+        this.names = new String[count];
+        this.values = new String[count];
+    }
+
+    /**
+     * Finds the index of a header without materializing any header names.
+     *
+     * @param name The name of the header, matched case-insensitively
+     * @return The index of the first header with the name, or -1 if there is none
+     */
+    private int indexOf(@NotNull String name) {
+        final int length = name.length();
+        for (int i = 0; i < count; i++) {
+            int start = offsets[i * 4];
+            if (offsets[i * 4 + 1] - start != length) continue;
+            int j = 0;
+            while (j < length && toLowerCase(data[start + j]) == toLowerCase((byte) name.charAt(j))) {
+                j++;
+            }
+            if (j == length) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Converts an ASCII letter to lower case.
+     *
+     * @param b The byte to convert
+     * @return The lower case byte
+     */
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    /**
+     * Gets the name of a header, materializing it on first access.
+     *
+     * @param index The index of the header
+     * @return The name of the header
+     */
+    private @NotNull String name(int index) {
+        String name = names[index];
+        if (name == null) {
+            name = new String(data, offsets[index * 4], offsets[index * 4 + 1] - offsets[index * 4], StandardCharsets.ISO_8859_1);
+            names[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Gets the value of a header, materializing it on first access.
+     *
+     * @param index The index of the header
+     * @return The value of the header
+     */
+    private @NotNull String value(int index) {
+        String value = values[index];
+        if (value == null) {
+            value = new String(data, offsets[index * 4 + 2], offsets[index * 4 + 3] - offsets[index * 4 + 2], StandardCharsets.UTF_8);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public @Nullable String get(Object key) {
+        if (!(key instanceof String name)) return null;
+        int index = indexOf(name);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String name && indexOf(name) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public @NotNull Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public @NotNull Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<>() {
+                        private int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < count;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (index >= count) throw new NoSuchElementException();
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(name(index), value(index));
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+        return entrySet;
+    }
+}
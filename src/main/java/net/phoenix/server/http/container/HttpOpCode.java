@@ -1,6 +1,7 @@
 package net.phoenix.server.http.container;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * An enumeration of HTTP operation codes.
@@ -17,6 +18,8 @@ public enum HttpOpCode {
     TRACE,
     CONNECT;
 
+    private static final HttpOpCode[] VALUES = values();
+
     /**
      * Converts a string to an HttpOpCode.
      *
@@ -39,6 +42,25 @@ public enum HttpOpCode {
         };
     }
 
+    /**
+     * Converts the ASCII bytes of a method name to an HttpOpCode without creating a string.
+     *
+     * @param data   The array containing the method name
+     * @param offset The index of the first byte of the method name
+     * @param length The length of the method name
+     * @return The HttpOpCode, or null if the bytes are not a valid (or just not contained in this library) HTTP method
+     */
+    public static @Nullable HttpOpCode fromBytes(byte @NotNull [] data, int offset, int length) {
+        for (HttpOpCode opCode : VALUES) {
+            String name = opCode.name();
+            if (name.length() != length) continue;
+            int i = 0;
+            while (i < length && data[offset + i] == name.charAt(i)) i++;
+            if (i == length) return opCode;
+        }
+        return null;
+    }
+
     @Override
     public @NotNull String toString() {
         return this.name();
@@ -1,13 +1,55 @@
 package net.phoenix.server.http.container;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Represents an HTTP request.
  */
 @SuppressWarnings("unused")
-public record HttpRequest(HashMap<String, String> headers, HttpOpCode method, String path, String body,
-                          HashMap<String, String> params, String ip) {
+public record HttpRequest(Map<String, String> headers, HttpOpCode method, String path,
+                          HttpRequestBody requestBody,
+                          HashMap<String, String> params, String ip, String version,
+                          Map<String, String> pathParams, @Nullable String query) {
+
+    /**
+     * Creates a new request without path variables.
+     *
+     * @param headers     The headers of the request
+     * @param method      The HTTP method of the request
+     * @param path        The path of the request
+     * @param requestBody The body of the request
+     * @param params      The query parameters of the request
+     * @param ip          The IP address the request has originated from
+     * @param version     The HTTP version from the request line
+     */
+    public HttpRequest(Map<String, String> headers, HttpOpCode method, String path, HttpRequestBody requestBody,
+                       HashMap<String, String> params, String ip, String version) {
+        this(headers, method, path, requestBody, params, ip, version, Map.of(), null);
+    }
+
+    /**
+     * Creates a new request without a raw query string.
+     *
+     * @param headers     The headers of the request
+     * @param method      The HTTP method of the request
+     * @param path        The path of the request
+     * @param requestBody The body of the request
+     * @param params      The query parameters of the request
+     * @param ip          The IP address the request has originated from
+     * @param version     The HTTP version from the request line
+     * @param pathParams  The path variables captured by the route
+     */
+    public HttpRequest(Map<String, String> headers, HttpOpCode method, String path, HttpRequestBody requestBody,
+                       HashMap<String, String> params, String ip, String version, Map<String, String> pathParams) {
+        this(headers, method, path, requestBody, params, ip, version, pathParams, null);
+    }
 
     /**
      * Gets the headers of the request.
@@ -15,7 +57,7 @@ public record HttpRequest(HashMap<String, String> headers, HttpOpCode method, St
      * @return The headers of the request
      */
     @Override
-    public HashMap<String, String> headers() {
+    public Map<String, String> headers() {
         return headers;
     }
 
@@ -45,8 +87,37 @@ public record HttpRequest(HashMap<String, String> headers, HttpOpCode method, St
      * @return The body of the request
      */
     @Override
-    public String body() {
-        return body;
+    public HttpRequestBody requestBody() {
+        return requestBody;
+    }
+
+    /**
+     * Gets the body of the request decoded as a UTF-8 string. Large bodies should be read through {@link #bodyStream()} or {@link #bodyChannel()} instead.
+     *
+     * @return The body of the request
+     */
+    public @NotNull String body() {
+        return requestBody == null ? "" : requestBody.asString();
+    }
+
+    /**
+     * Opens a stream over the body of the request.
+     *
+     * @return A stream of the body's bytes
+     * @throws IOException If the body cannot be opened
+     */
+    public @NotNull InputStream bodyStream() throws IOException {
+        return (requestBody == null ? HttpRequestBody.EMPTY : requestBody).getInputStream();
+    }
+
+    /**
+     * Opens a channel over the body of the request.
+     *
+     * @return A channel of the body's bytes
+     * @throws IOException If the body cannot be opened
+     */
+    public @NotNull ReadableByteChannel bodyChannel() throws IOException {
+        return (requestBody == null ? HttpRequestBody.EMPTY : requestBody).getChannel();
     }
 
     /**
@@ -59,6 +130,46 @@ public record HttpRequest(HashMap<String, String> headers, HttpOpCode method, St
         return params;
     }
 
+    /**
+     * Gets the path variables of the request, captured by the route it was matched to. A route with the path "/users/{id}" captures "id", and a trailing wildcard such as "/files/*path" captures the rest of the path as "path".
+     *
+     * @return The path variables of the request
+     */
+    @Override
+    public Map<String, String> pathParams() {
+        return pathParams;
+    }
+
+    /**
+     * Gets a path variable of the request.
+     *
+     * @param name The name of the variable
+     * @return The value of the variable, or null if the route does not capture it
+     */
+    public @Nullable String getPathParam(@NotNull String name) {
+        return pathParams == null ? null : pathParams.get(name);
+    }
+
+    /**
+     * Creates a copy of this request with path variables. This is used internally once the request has been matched to a route.
+     *
+     * @param pathParams The path variables captured by the route
+     * @return The copy of this request
+     */
+    public @NotNull HttpRequest withPathParams(@NotNull Map<String, String> pathParams) {
+        return new HttpRequest(headers, method, path, requestBody, params, ip, version, pathParams, query);
+    }
+
+    /**
+     * Gets the query string of the request exactly as the client sent it, without the leading "?". Unlike {@link #params()}, it keeps repeated parameters, their order and the difference between "a" and "a=", so it is what a proxy forwards and what identifies the resource.
+     *
+     * @return The query string, or null if the target has no "?"
+     */
+    @Override
+    public @Nullable String query() {
+        return query;
+    }
+
     /**
      * Gets the IP address of the request.
      *
@@ -68,4 +179,45 @@ public record HttpRequest(HashMap<String, String> headers, HttpOpCode method, St
     public String ip() {
         return ip;
     }
+
+    /**
+     * Gets the HTTP version of the request.
+     *
+     * @return The HTTP version from the request line, for example "HTTP/1.1"
+     */
+    @Override
+    public String version() {
+        return version;
+    }
+
+    /**
+     * Gets a header of the request. Header names are matched case-insensitively.
+     *
+     * @param name The name of the header
+     * @return The value of the header, or null if the request does not contain it
+     */
+    public @Nullable String getHeader(@NotNull String name) {
+        if (headers == null) return null;
+        String value = headers.get(name);
+        if (value != null || headers instanceof HttpHeaders) return value;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the client asked for the connection to be kept open after this request. HTTP/1.1 connections are persistent unless the client sends "Connection: close", while HTTP/1.0 connections are only kept open if the client sends "Connection: keep-alive".
+     *
+     * @return True if the connection should be kept alive
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.0".equals(version)) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
 }
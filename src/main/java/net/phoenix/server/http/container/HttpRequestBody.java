@@ -0,0 +1,149 @@
+package net.phoenix.server.http.container;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The body of an HTTP request. Small bodies are held in memory, while large bodies are spooled to a temporary file by the server so they never have to be held in memory as a whole. Either way the body can be read as a string, or streamed through an {@link InputStream} or {@link ReadableByteChannel}.
+ */
+public class HttpRequestBody implements Closeable {
+    /**
+     * A body with no content.
+     */
+    public static final HttpRequestBody EMPTY = new HttpRequestBody(new byte[0], 0);
+
+    private final byte @Nullable [] data;
+    private final @Nullable Path file;
+    private final long length;
+    private @Nullable String string;
+
+    /**
+     * Creates a body held in memory.
+     *
+     * @param data   The bytes of the body
+     * @param length The number of bytes of the array that belong to the body
+     */
+    public HttpRequestBody(byte @NotNull [] data, int length) {
+        this.data = data;
+        this.file = null;
+        this.length = length;
+    }
+
+    /**
+     * Creates a body that has been spooled to a file. The file is deleted when the body is closed.
+     *
+     * @param file   The file containing the body
+     * @param length The length of the body
+     */
+    public HttpRequestBody(@NotNull Path file, long length) {
+        this.data = null;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * Creates a body from a string.
+     *
+     * @param body The body, which will be encoded as UTF-8
+     * @return The body
+     */
+    public static @NotNull HttpRequestBody of(@Nullable String body) {
+        if (body == null || body.isEmpty()) return EMPTY;
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        HttpRequestBody requestBody = new HttpRequestBody(bytes, bytes.length);
+        requestBody.string = body;
+        return requestBody;
+    }
+
+    /**
+     * Gets the length of the body.
+     *
+     * @return The number of bytes in the body
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Checks whether the body is held in memory.
+     *
+     * @return True if the body is held in memory, false if it has been spooled to a file
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Gets the body decoded as a UTF-8 string. For a body spooled to a file, this reads the whole file into memory.
+     *
+     * @return The body as a string
+     * @throws UncheckedIOException If the spooled body cannot be read
+     */
+    public @NotNull String asString() {
+        if (string == null) {
+            if (file == null) {
+                assert data != null;
+                string = new String(data, 0, (int) length, StandardCharsets.UTF_8);
+            } else {
+                try {
+                    string = Files.readString(file, StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return string;
+    }
+
+    /**
+     * Opens a stream over the body. Every call returns a new stream starting at the beginning of the body.
+     *
+     * @return A stream of the body's bytes
+     * @throws IOException If the spooled body cannot be opened
+     */
+    public @NotNull InputStream getInputStream() throws IOException {
+        if (file == null) {
+            assert data != null;
+            return new ByteArrayInputStream(data, 0, (int) length);
+        }
+        return Files.newInputStream(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Opens a channel over the body. Every call returns a new channel starting at the beginning of the body.
+     *
+     * @return A channel of the body's bytes
+     * @throws IOException If the spooled body cannot be opened
+     */
+    public @NotNull ReadableByteChannel getChannel() throws IOException {
+        if (file == null) {
+            return Channels.newChannel(getInputStream());
+        }
+        return FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Releases the body. A body spooled to a file has its file deleted.
+     *
+     * @throws IOException If the file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
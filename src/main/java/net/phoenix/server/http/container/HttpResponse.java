@@ -2,16 +2,10 @@ package net.phoenix.server.http.container;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Represents an HTTP response.
@@ -20,91 +14,24 @@ public record HttpResponse(Map<String, List<String>> responseHeaders, int status
                            Optional<Long> inputStreamLength) {
 
     /**
-     * Internally builds the header strings for the response.
+     * Gets the response as a string, as it would be sent to the client. This is meant for debugging, responses are written by {@link net.phoenix.server.http.ResponseEncoder}.
      *
-     * @param responseHeaders The headers to build
-     * @return A list of strings representing the headers
-     */
-    private static @NotNull List<String> buildHeaderStrings(final @NotNull Map<String, List<String>> responseHeaders) {
-        final List<String> responseHeadersList = new ArrayList<>();
-
-        responseHeaders.forEach((name, values) -> {
-            final StringBuilder valuesCombined = new StringBuilder();
-            values.forEach(valuesCombined::append);
-            valuesCombined.append(";");
-
-            responseHeadersList.add(name + ": " + valuesCombined + "\r\n");
-        });
-
-        return responseHeadersList;
-    }
-
-    /**
-     * Gets the body of the response. If it is a string, it will be written directly with the headers. If it is an InputStream, it will be written separately.
-     *
-     * @param entity The entity to get the response string from
-     * @return The body string
-     */
-    private static @NotNull Optional<String> getResponseString(final Object entity) {
-        if (entity instanceof String) {
-            try {
-                return Optional.of(entity.toString());
-            } catch (Exception ignored) {
-            }
-        }
-        return Optional.empty();
-    }
-
-    /**
-     * Writes the InputStream to the channel. This will be done in buffers of 2048 bytes. The InputStream will be closed after writing.
-     *
-     * @param channel The socket connection to write the InputStream to
-     * @throws IOException          If an I/O error occurs
-     * @throws ExecutionException   If an exception occurs during execution
-     * @throws InterruptedException If the current thread is interrupted
-     */
-    public void writeInputStream(final @NotNull AsynchronousSocketChannel channel) throws IOException, ExecutionException, InterruptedException {
-        if (entity.isPresent() && entity.get() instanceof InputStream entityStream) {
-            final byte[] buffer = new byte[2048];
-            int bytesRead;
-            while ((bytesRead = entityStream.read(buffer)) != -1) {
-                if (!channel.isOpen()) return;
-                channel.write(ByteBuffer.wrap(buffer, 0, bytesRead)).get();
-            }
-            entityStream.close();
-        }
-    }
-
-    /**
-     * Gets the request as a string.
-     *
-     * @return The status code
+     * @return The status line, headers and string entity of the response
      */
     @Override
     public @NotNull String toString() {
-        StringBuilder sb = new StringBuilder();
-
-        final int statusCode = statusCode();
-        final String statusCodeMeaning = HttpStatusCode.STATUS_CODES.get(statusCode);
-
-        final List<String> responseHeaders = buildHeaderStrings(responseHeaders());
-
-        sb.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusCodeMeaning).append("\r\n");
-
-        for (String header : responseHeaders) {
-            sb.append(header);
-        }
-
-        final Optional<String> entityString = entity().flatMap(HttpResponse::getResponseString);
-        if (entityString.isPresent()) {
-            final String encodedString = new String(entityString.get().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-            sb.append("Content-Length: ").append(encodedString.getBytes().length + inputStreamLength.orElse(0L)).append("\r\n");
-            sb.append("\r\n");
-            sb.append(encodedString);
-        } else {
-            sb.append("\r\n");
+        final String body = entity.orElse(null) instanceof String string ? string : "";
+        final StringBuilder sb = new StringBuilder();
+        sb.append(new String(HttpStatusCode.getStatusLine(statusCode), StandardCharsets.US_ASCII));
+        responseHeaders.forEach((name, values) -> {
+            if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")) return;
+            sb.append(name).append(": ").append(String.join(", ", values)).append("\r\n");
+        });
+        if (statusCode >= 200 && statusCode != 204 && statusCode != 304 && inputStreamLength.orElse(0L) < 0) {
+            sb.append("Transfer-Encoding: chunked\r\n");
+        } else if (statusCode >= 200 && statusCode != 204 && statusCode != 304) {
+            sb.append("Content-Length: ").append(body.getBytes(StandardCharsets.UTF_8).length + inputStreamLength.orElse(0L)).append("\r\n");
         }
-
-        return sb.toString();
+        return sb.append("\r\n").append(body).toString();
     }
 }
@@ -1,5 +1,8 @@
 package net.phoenix.server.http.container;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 /**
@@ -74,4 +77,22 @@ public record HttpStatusCode() {
             Map.entry(510, "Not Extended"),
             Map.entry(511, "Network Authentication Required")
     );
+    private static final byte[][] STATUS_LINES = new byte[600][];
+
+    static {
+        STATUS_CODES.forEach((code, message) -> STATUS_LINES[code] = ("HTTP/1.1 " + code + " " + message + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Gets the encoded status line of a response, including the line break. The lines of the status codes above are encoded once and shared, so the returned array must not be modified.
+     *
+     * @param statusCode The status code
+     * @return The status line, with an empty reason phrase if the status code is not known
+     */
+    public static byte @NotNull [] getStatusLine(int statusCode) {
+        if (statusCode >= 0 && statusCode < STATUS_LINES.length && STATUS_LINES[statusCode] != null) {
+            return STATUS_LINES[statusCode];
+        }
+        return ("HTTP/1.1 " + statusCode + " \r\n").getBytes(StandardCharsets.US_ASCII);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package net.phoenix.server.http.files;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The multipart/byteranges entity of a 206 Partial Content response to a request for several ranges of a file. Each range is sent as a slice of the file, preceded by its own part headers.
+ */
+public class ByteRangesEntity {
+    private final List<Object> parts = new ArrayList<>();
+    private final String boundary;
+    private long length = 0;
+
+    /**
+     * Creates a new multipart entity.
+     *
+     * @param boundary The boundary separating the parts
+     */
+    public ByteRangesEntity(@NotNull String boundary) {
+        this.boundary = boundary;
+    }
+
+    /**
+     * Adds a range of the file as the next part.
+     *
+     * @param slice       The slice of the file to send
+     * @param contentType The content type of the file
+     */
+    public void addRange(@NotNull FileEntity slice, @NotNull String contentType) {
+        long last = slice.getOffset() + slice.getLength() - 1;
+        addBytes("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: bytes " + slice.getOffset() + "-" + last + "/" + slice.getFileLength() + "\r\n\r\n");
+        parts.add(slice);
+        length += slice.getLength();
+    }
+
+    /**
+     * Adds the closing boundary. This must be called after the last range has been added.
+     */
+    public void finish() {
+        addBytes("\r\n--" + boundary + "--\r\n");
+    }
+
+    /**
+     * Adds raw text as the next part.
+     *
+     * @param text The text to add
+     */
+    private void addBytes(@NotNull String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        parts.add(ByteBuffer.wrap(bytes));
+        length += bytes.length;
+    }
+
+    /**
+     * Gets the parts of the entity in order. Each part is either a {@link ByteBuffer} or a {@link FileEntity}. The buffers are shared, so they have to be duplicated before they are written.
+     *
+     * @return The parts of the entity
+     */
+    public @NotNull List<Object> getParts() {
+        return parts;
+    }
+
+    /**
+     * Gets the boundary separating the parts.
+     *
+     * @return The boundary
+     */
+    public @NotNull String getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Gets the total length of the entity.
+     *
+     * @return The number of bytes the entity sends
+     */
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,266 @@
+package net.phoenix.server.http.files;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.HandlerExecutor;
+import net.phoenix.server.http.reflection.ExecutionMode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of the compressed representations of static files. A file is served from a precompressed sibling such as <code>app.js.br</code> or <code>app.js.gz</code> when one exists and is at least as new as the file itself, and is otherwise compressed once on the handler pool and held in memory. <br> <br>
+ * Entries are keyed by the path of the file and the encoding, and are recomputed when the modification time or length of the file changes. Files that do not shrink when compressed are remembered too, so they are not compressed again on every request. The cache is bounded by {@link Server#compressionCacheSize} and evicts the least recently used representations first.
+ */
+public class CompressedFileCache {
+    /**
+     * The largest file that is compressed on the fly. Larger files are only served compressed if they have a precompressed sibling.
+     */
+    public static final long MAX_COMPRESSED_FILE_SIZE = StaticFileCache.MAX_CACHED_FILE_SIZE;
+
+    private static final Map<String, Entry> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private static final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static long size = 0;
+
+    /**
+     * Gets a compressed representation of a file. Precompressed siblings are returned right away, while a file that has to be compressed is compressed on the handler pool, so the I/O thread serving a static file is never held up by it. Until that is done, the file itself is returned and should be sent uncompressed.
+     *
+     * @param file     The file to compress, which must not be a slice
+     * @param encoding The content coding: "br", "gzip" or "deflate"
+     * @return The compressed file, the file itself if it is still being compressed, or null if there is no worthwhile representation with the encoding
+     */
+    public static @Nullable FileEntity get(@NotNull FileEntity file, @NotNull String encoding) {
+        String key = file.getPath() + "\0" + encoding;
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null && entry.lastModified == file.getLastModified() && entry.length == file.getFileLength()) {
+            hits.increment();
+            return entry.entity;
+        }
+        misses.increment();
+        FileEntity sibling;
+        try {
+            sibling = sibling(file, encoding);
+        } catch (IOException e) {
+            Server.logger.logError("Failed to open the precompressed sibling of " + file.getPath() + " due to: " + e.getMessage());
+            return null;
+        }
+        if (sibling != null || encoding.equals("br") || file.getFileLength() < Server.compressionMinSize || file.getFileLength() > MAX_COMPRESSED_FILE_SIZE) {
+            put(key, new Entry(file.getLastModified(), file.getFileLength(), sibling));
+            return sibling;
+        }
+        if (pending.add(key)) {
+            try {
+                HandlerExecutor.execute(ExecutionMode.POOL, () -> compressInBackground(key, file, encoding));
+            } catch (RejectedExecutionException e) {
+                // The pool is saturated, so a later request will try again
+                pending.remove(key);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Finds a precompressed sibling of a file.
+     *
+     * @param file     The file
+     * @param encoding The content coding
+     * @return The sibling, or null if there is none for the encoding or it is older than the file
+     * @throws IOException If the sibling cannot be opened
+     */
+    private static @Nullable FileEntity sibling(@NotNull FileEntity file, @NotNull String encoding) throws IOException {
+        String extension = switch (encoding) {
+            case "br" -> ".br";
+            case "gzip" -> ".gz";
+            default -> null;
+        };
+        if (extension == null) return null;
+        File sibling = new File(file.getPath() + extension);
+        // A sibling older than the file was left behind by an earlier build, and would serve stale contents
+        if (sibling.isFile() && sibling.lastModified() >= file.getLastModified()) {
+            return new FileEntity(sibling);
+        }
+        return null;
+    }
+
+    /**
+     * Compresses a file on the handler pool and adds the result to the cache.
+     *
+     * @param key      The key the representation is cached under
+     * @param file     The file to compress
+     * @param encoding The content coding, either "gzip" or "deflate"
+     */
+    private static void compressInBackground(@NotNull String key, @NotNull FileEntity file, @NotNull String encoding) {
+        try {
+            put(key, new Entry(file.getLastModified(), file.getFileLength(), load(file, encoding)));
+        } catch (IOException e) {
+            Server.logger.logError("Failed to compress " + file.getPath() + " due to: " + e.getMessage());
+        } finally {
+            pending.remove(key);
+        }
+    }
+
+    /**
+     * Compresses a file into memory.
+     *
+     * @param file     The file to compress
+     * @param encoding The content coding, either "gzip" or "deflate"
+     * @return The compressed file, or null if it does not shrink when compressed
+     * @throws IOException If the file cannot be read
+     */
+    private static @Nullable FileEntity load(@NotNull FileEntity file, @NotNull String encoding) throws IOException {
+        byte[] data = new byte[(int) file.getFileLength()];
+        ByteBuffer cached = file.getCachedBuffer();
+        if (cached != null) {
+            cached.get(data);
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            try (FileChannel channel = file.open()) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) throw new IOException("File was truncated while it was being compressed");
+                }
+            }
+        }
+        byte[] compressed = compress(data, 0, data.length, encoding);
+        if (compressed.length >= data.length) {
+            return null;
+        }
+        ByteBuffer content = ByteBuffer.allocateDirect(compressed.length).put(compressed).flip().asReadOnlyBuffer();
+        return new FileEntity(file.getPath(), compressed.length, file.getLastModified(), content);
+    }
+
+    /**
+     * Compresses bytes with a content coding.
+     *
+     * @param data     The bytes to compress
+     * @param offset   The position of the first byte to compress
+     * @param length   The number of bytes to compress
+     * @param encoding The content coding, either "gzip" or "deflate"
+     * @return The compressed bytes
+     * @throws IllegalArgumentException If the encoding is not supported
+     */
+    public static byte @NotNull [] compress(byte @NotNull [] data, int offset, int length, @NotNull String encoding) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, length / 3));
+        try (OutputStream stream = switch (encoding) {
+            case "gzip" -> new GZIPOutputStream(bytes, 8192);
+            case "deflate" -> new DeflaterOutputStream(bytes);
+            default -> throw new IllegalArgumentException("Unsupported content coding " + encoding);
+        }) {
+            stream.write(data, offset, length);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Adds an entry to the cache, evicting the least recently used entries until the cache fits in its budget.
+     *
+     * @param key   The key the entry is cached under
+     * @param entry The entry to add
+     */
+    private static void put(@NotNull String key, @NotNull Entry entry) {
+        synchronized (cache) {
+            Entry previous = cache.put(key, entry);
+            if (previous != null) {
+                size -= previous.weight();
+            }
+            size += entry.weight();
+            Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+            while (size > Server.compressionCacheSize && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                if (eldest == entry) continue;
+                iterator.remove();
+                size -= eldest.weight();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes every compressed representation from the cache.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Gets the number of requests that were served a representation from the cache.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of requests that had to look for a sibling, or wait for the file to be compressed.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of representations that were removed from the cache to stay within its budget.
+     *
+     * @return The number of evictions
+     */
+    public static long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of bytes of compressed contents currently held in the cache.
+     *
+     * @return The size of the cache in bytes
+     */
+    public static long getSize() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    /**
+     * A compressed representation and the version of the file it was made from.
+     *
+     * @param lastModified The modification time of the file the representation was made from
+     * @param length       The length of the file the representation was made from
+     * @param entity       The representation, or null if the file has no worthwhile representation with the encoding
+     */
+    private record Entry(long lastModified, long length, @Nullable FileEntity entity) {
+        /**
+         * Gets the number of bytes of memory this entry holds.
+         *
+         * @return The length of the compressed contents, or 0 if they are read from a sibling file
+         */
+        private long weight() {
+            return entity == null || entity.getCachedBuffer() == null ? 0 : entity.getLength();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package net.phoenix.server.http.files;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file, or a slice of a file, to be sent as the entity of a response. The file is not opened until the response is written, at which point it is either served from its cached contents or read straight from a {@link FileChannel}.
+ */
+public class FileEntity {
+    private final Path path;
+    private final long offset;
+    private final long length;
+    private final long fileLength;
+    private final long lastModified;
+    private final @Nullable ByteBuffer content;
+
+    /**
+     * Creates a new file entity.
+     *
+     * @param file The file to send
+     * @throws FileNotFoundException If the file does not exist or is not a regular file
+     */
+    public FileEntity(@NotNull File file) throws FileNotFoundException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath() + " (No such file)");
+        }
+        this.path = file.toPath();
+        this.offset = 0;
+        this.length = file.length();
+        this.fileLength = length;
+        this.lastModified = file.lastModified();
+        this.content = null;
+    }
+
+    /**
+     * Creates a new file entity whose contents have already been loaded. This is used by the {@link StaticFileCache}.
+     *
+     * @param path         The path of the file
+     * @param length       The length of the file
+     * @param lastModified The modification time of the file
+     * @param content      The contents of the file, or null if it has to be streamed
+     */
+    FileEntity(@NotNull Path path, long length, long lastModified, @Nullable ByteBuffer content) {
+        this(path, 0, length, length, lastModified, content);
+    }
+
+    /**
+     * Creates a new file entity for a slice of a file.
+     *
+     * @param path         The path of the file
+     * @param offset       The position in the file the slice starts at
+     * @param length       The length of the slice
+     * @param fileLength   The length of the whole file
+     * @param lastModified The modification time of the file
+     * @param content      The contents of the whole file, or null if it has to be streamed
+     */
+    private FileEntity(@NotNull Path path, long offset, long length, long fileLength, long lastModified, @Nullable ByteBuffer content) {
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.content = content;
+    }
+
+    /**
+     * Creates an entity for a slice of this entity.
+     *
+     * @param offset The position the slice starts at, relative to the start of this entity
+     * @param length The length of the slice
+     * @return The slice
+     * @throws IndexOutOfBoundsException If the slice does not lie within this entity
+     */
+    public @NotNull FileEntity slice(long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Slice " + offset + "+" + length + " is outside of an entity of length " + this.length);
+        }
+        return new FileEntity(path, this.offset + offset, length, fileLength, lastModified, content);
+    }
+
+    /**
+     * Gets the path of the file.
+     *
+     * @return The path of the file
+     */
+    public @NotNull Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the number of bytes this entity sends.
+     *
+     * @return The length of the file, or of the slice
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the position in the file this entity starts at.
+     *
+     * @return The offset of the slice, or 0 for a whole file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the length of the whole file at the time the entity was created, even if this entity is a slice of it.
+     *
+     * @return The length of the file in bytes
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Gets the modification time of the file at the time the entity was created.
+     *
+     * @return The modification time in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Gets the cached contents of the file.
+     *
+     * @return A read-only buffer of the contents of this entity with its own position, or null if the file has to be streamed
+     */
+    public @Nullable ByteBuffer getCachedBuffer() {
+        if (content == null) return null;
+        ByteBuffer buffer = content.duplicate();
+        buffer.position((int) offset).limit((int) (offset + length));
+        return buffer;
+    }
+
+    /**
+     * Opens the file for streaming, positioned at the start of this entity.
+     *
+     * @return A channel to read the file from
+     * @throws IOException If the file cannot be opened
+     */
+    public @NotNull FileChannel open() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channel.position(offset);
+        return channel;
+    }
+}
@@ -0,0 +1,41 @@
+package net.phoenix.server.http.files;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A static file held by the {@link StaticFileCache}, together with the headers that are sent with it.
+ *
+ * @param path         The path of the file on disk
+ * @param length       The length of the file when it was cached
+ * @param lastModified The modification time of the file when it was cached
+ * @param etag         The strong entity tag of the file, including the surrounding quotes
+ * @param headers      The headers sent with the file: Content-Type, Content-Disposition, ETag and Last-Modified
+ * @param content      The contents of the file, or null if the file is too large to be held in memory
+ */
+public record StaticAsset(Path path, long length, long lastModified, String etag,
+                          Map<String, List<String>> headers, @Nullable ByteBuffer content) {
+
+    /**
+     * Creates an entity that sends this file. If the contents are cached, they are sent from memory without touching the file.
+     *
+     * @return The entity for a response
+     */
+    public @NotNull FileEntity toEntity() {
+        return new FileEntity(path, length, lastModified, content);
+    }
+
+    /**
+     * Gets the number of bytes of memory this asset holds.
+     *
+     * @return The length of the cached contents, or 0 if the contents are not cached
+     */
+    public long weight() {
+        return content == null ? 0 : length;
+    }
+}
@@ -0,0 +1,230 @@
+package net.phoenix.server.http.files;
+
+import net.phoenix.server.Server;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of the files in the static resources folder. Each entry holds the resolved file, its headers, and for files small enough its contents in a direct buffer, so a cached file is served without resolving the resource, probing its content type or opening it again. <br> <br>
+ * The cache is bounded by the total size of the contents it holds, and evicts the least recently used files first. Files are checked for changes at most once per {@link #REVALIDATE_INTERVAL} milliseconds, and are reloaded when their size or modification time has changed.
+ */
+public class StaticFileCache {
+    /**
+     * The largest file whose contents are held in memory. Larger files are still cached, but their contents are streamed from disk.
+     */
+    public static final long MAX_CACHED_FILE_SIZE = 1024 * 1024;
+    /**
+     * How often, in milliseconds, a cached file is checked for changes on disk.
+     */
+    public static final long REVALIDATE_INTERVAL = 1000;
+
+    private static final Map<String, Entry> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static long size = 0;
+
+    /**
+     * Gets a file from the static resources folder, loading it into the cache if it is not cached yet or has changed on disk.
+     *
+     * @param path The path of the file, relative to the static resources folder
+     * @return The cached file
+     * @throws IOException          If the file cannot be read
+     * @throws NullPointerException If the file does not exist
+     */
+    public static @NotNull StaticAsset get(@NotNull String path) throws IOException, NullPointerException {
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(path);
+        }
+        if (entry != null) {
+            long now = System.currentTimeMillis();
+            if (now - entry.checkedAt < REVALIDATE_INTERVAL) {
+                hits.increment();
+                return entry.asset;
+            }
+            File file = entry.asset.path().toFile();
+            if (file.isFile() && file.length() == entry.asset.length() && file.lastModified() == entry.asset.lastModified()) {
+                entry.checkedAt = now;
+                hits.increment();
+                return entry.asset;
+            }
+            remove(path, entry);
+        }
+        misses.increment();
+        StaticAsset asset = load(path);
+        put(path, new Entry(asset, System.currentTimeMillis()));
+        return asset;
+    }
+
+    /**
+     * Resolves and loads a file from the static resources folder.
+     *
+     * @param path The path of the file, relative to the static resources folder
+     * @return The loaded file
+     * @throws IOException          If the file cannot be read
+     * @throws NullPointerException If the file does not exist
+     */
+    @SuppressWarnings("StringEquality")
+    private static @NotNull StaticAsset load(@NotNull String path) throws IOException, NullPointerException {
+        URL resource = Server.clazz.getResource("/static/" + path);
+        if (resource == null) {
+            throw new NullPointerException("No static file at " + path);
+        }
+        File f = new File(resource.getFile());
+        if (!f.isFile()) {
+            throw new NullPointerException("No static file at " + path);
+        }
+        long length = f.length();
+        long lastModified = f.lastModified();
+        String type = Files.probeContentType(f.toPath());
+        if (type == null) {
+            type = "application/octet-stream";
+        }
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+
+        Map<String, List<String>> headers = Map.of(
+                "Content-Type", List.of(type),
+                "Content-Disposition", List.of(type.contains("text") || type == "application/javascript" ? "inline" : "attachment" + "; filename=" + path),
+                "ETag", List.of(etag),
+                "Accept-Ranges", List.of("bytes"),
+                "Last-Modified", List.of(DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)))
+        );
+
+        ByteBuffer content = null;
+        if (length <= MAX_CACHED_FILE_SIZE && length <= Server.staticCacheSize) {
+            content = ByteBuffer.allocateDirect((int) length);
+            try (FileChannel channel = FileChannel.open(f.toPath())) {
+                while (content.hasRemaining()) {
+                    if (channel.read(content) < 0) break;
+                }
+            }
+            if (content.hasRemaining()) {
+                // The file was truncated while it was being read, so it is streamed instead
+                content = null;
+            } else {
+                content = content.flip().asReadOnlyBuffer();
+            }
+        }
+        return new StaticAsset(f.toPath(), length, lastModified, etag, headers, content);
+    }
+
+    /**
+     * Adds an entry to the cache, evicting the least recently used entries until the cache fits in its budget.
+     *
+     * @param path  The path the entry is cached under
+     * @param entry The entry to add
+     */
+    private static void put(@NotNull String path, @NotNull Entry entry) {
+        synchronized (cache) {
+            Entry previous = cache.put(path, entry);
+            if (previous != null) {
+                size -= previous.asset.weight();
+            }
+            size += entry.asset.weight();
+            Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+            while (size > Server.staticCacheSize && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                if (eldest == entry) continue;
+                iterator.remove();
+                size -= eldest.asset.weight();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from the cache if it has not been replaced already.
+     *
+     * @param path  The path the entry is cached under
+     * @param entry The entry to remove
+     */
+    private static void remove(@NotNull String path, @NotNull Entry entry) {
+        synchronized (cache) {
+            if (cache.remove(path, entry)) {
+                size -= entry.asset.weight();
+            }
+        }
+    }
+
+    /**
+     * Removes every file from the cache.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Gets the number of requests that were served from the cache.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of requests that had to load the file from disk.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of files that were removed from the cache to stay within its budget.
+     *
+     * @return The number of evictions
+     */
+    public static long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of bytes of file contents currently held in the cache.
+     *
+     * @return The size of the cache in bytes
+     */
+    public static long getSize() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    /**
+     * A cached file and the last time it was checked for changes.
+     */
+    private static class Entry {
+        private final StaticAsset asset;
+        private volatile long checkedAt;
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param asset     The cached file
+         * @param checkedAt The time the file was last checked for changes
+         */
+        private Entry(StaticAsset asset, long checkedAt) {
+            this.asset = asset;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
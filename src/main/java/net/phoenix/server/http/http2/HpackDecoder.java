@@ -0,0 +1,152 @@
+package net.phoenix.server.http.http2;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the header blocks a client sends on one connection (RFC 7541). Blocks have to be decoded in the order they were sent, as each may change the dynamic table the following ones refer to. Names are decoded as ISO-8859-1 and values as UTF-8, as the headers of HTTP/1.1 requests are. This class is for internal use and should not be modified or used by the end user.
+ */
+public final class HpackDecoder {
+    private final HpackTable table;
+    private final int maxTableSize;
+    private byte[] data;
+    private int position;
+    private int end;
+
+    /**
+     * Creates a new decoder.
+     *
+     * @param maxTableSize The largest dynamic table the client may use, as announced in the SETTINGS_HEADER_TABLE_SIZE setting
+     */
+    public HpackDecoder(int maxTableSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+    }
+
+    /**
+     * Receives the fields of a decoded header block.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Receives a field.
+         *
+         * @param name  The name of the field, which for a request should be in lower case
+         * @param value The value of the field
+         * @param size  The size of the field as counted against SETTINGS_MAX_HEADER_LIST_SIZE: the octets of its name and value plus 32
+         */
+        void field(@NotNull String name, @NotNull String value, int size);
+    }
+
+    /**
+     * Decodes a header block.
+     *
+     * @param block  The array holding the block
+     * @param length The number of bytes of the block, starting at the beginning of the array
+     * @param sink   Receives the fields in order
+     * @throws HpackException If the block is malformed
+     */
+    public void decode(byte @NotNull [] block, int length, @NotNull Sink sink) throws HpackException {
+        data = block;
+        position = 0;
+        end = length;
+        boolean fieldSeen = false;
+        try {
+            while (position < end) {
+                int b = data[position] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    // Indexed field
+                    int index = readInteger(7);
+                    if (index == 0) throw new HpackException("Header field index 0");
+                    String name = table.name(index);
+                    String value = table.value(index);
+                    sink.field(name, value, size(name, value));
+                    fieldSeen = true;
+                } else if ((b & 0xE0) == 0x20) {
+                    // A size update is only allowed at the beginning of a block
+                    if (fieldSeen) throw new HpackException("Dynamic table size update after a header field");
+                    int size = readInteger(5);
+                    if (size > maxTableSize) throw new HpackException("Dynamic table size " + size + " exceeds " + maxTableSize);
+                    table.setMaxSize(size);
+                } else {
+                    // Literal field, with incremental indexing (01), without indexing (0000) or never indexed (0001)
+                    boolean indexing = (b & 0xC0) == 0x40;
+                    int index = readInteger(indexing ? 6 : 4);
+                    String name;
+                    int nameSize;
+                    if (index == 0) {
+                        byte[] octets = readString();
+                        name = new String(octets, StandardCharsets.ISO_8859_1);
+                        nameSize = octets.length;
+                    } else {
+                        name = table.name(index);
+                        nameSize = name.length();
+                    }
+                    byte[] octets = readString();
+                    String value = new String(octets, StandardCharsets.UTF_8);
+                    int size = nameSize + octets.length + HpackTable.ENTRY_OVERHEAD;
+                    if (indexing) table.add(name, value, size);
+                    sink.field(name, value, size);
+                    fieldSeen = true;
+                }
+            }
+        } finally {
+            data = null;
+        }
+    }
+
+    /**
+     * Measures a field already in the table, whose value was decoded from UTF-8.
+     *
+     * @param name  The name
+     * @param value The value
+     * @return The size of the field
+     */
+    private static int size(@NotNull String name, @NotNull String value) {
+        return name.length() + value.getBytes(StandardCharsets.UTF_8).length + HpackTable.ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Reads an integer with a prefix of some bits of the current byte (RFC 7541, section 5.1).
+     *
+     * @param prefix The number of bits of the prefix
+     * @return The integer
+     * @throws HpackException If the integer is truncated or does not fit in an int
+     */
+    private int readInteger(int prefix) throws HpackException {
+        int max = (1 << prefix) - 1;
+        int value = data[position++] & max;
+        if (value < max) return value;
+        int shift = 0;
+        while (true) {
+            if (position >= end) throw new HpackException("Truncated integer");
+            int b = data[position++] & 0xFF;
+            if (shift > 28 || (long) value + ((long) (b & 0x7F) << shift) > Integer.MAX_VALUE) {
+                throw new HpackException("Integer overflow");
+            }
+            value += (b & 0x7F) << shift;
+            shift += 7;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * Reads a string literal, which may be Huffman-encoded (RFC 7541, section 5.2).
+     *
+     * @return The octets of the string
+     * @throws HpackException If the string is truncated or its Huffman encoding is invalid
+     */
+    private byte @NotNull [] readString() throws HpackException {
+        if (position >= end) throw new HpackException("Truncated string");
+        boolean huffman = (data[position] & 0x80) != 0;
+        int length = readInteger(7);
+        if (length > end - position) throw new HpackException("Truncated string");
+        int start = position;
+        position += length;
+        if (huffman) return Huffman.decode(data, start, length);
+        byte[] octets = new byte[length];
+        System.arraycopy(data, start, octets, 0, length);
+        return octets;
+    }
+}
@@ -0,0 +1,123 @@
+package net.phoenix.server.http.http2;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Encodes the header blocks the server sends on one connection (RFC 7541). Blocks have to be sent in the order they were encoded, as each may add entries to the dynamic table the following ones refer to. <br> <br>
+ * Fields that repeat across responses, such as the content type or the server name, are added to the dynamic table, so they cost a single byte from the second response on. Fields that differ on nearly every response are sent as literals without indexing, so they do not push the repeating fields out of the table, and fields that may be secret, such as cookies, are marked as never to be indexed by intermediaries either. Literals are Huffman-encoded when that makes them shorter. This class is for internal use and should not be modified or used by the end user.
+ */
+public final class HpackEncoder {
+    /**
+     * The largest dynamic table the encoder uses, whatever larger size the client allows.
+     */
+    public static final int MAX_TABLE_SIZE = 4096;
+    private static final Set<String> UNINDEXED = Set.of("content-length", "etag", "last-modified", "age", "content-range", "location", "expires");
+    private static final Set<String> SENSITIVE = Set.of("set-cookie", "authorization", "cookie", "proxy-authorization");
+
+    private final HpackTable table = new HpackTable(MAX_TABLE_SIZE);
+    // The smallest table size and the last table size the client allowed since the last block, which the next block has to announce
+    private int smallestUpdate = -1;
+    private int pendingUpdate = -1;
+
+    /**
+     * Applies the SETTINGS_HEADER_TABLE_SIZE setting of the client. The new size of the table is announced at the beginning of the next block.
+     *
+     * @param size The largest dynamic table the client allows
+     */
+    public void setMaxTableSize(int size) {
+        int effective = Math.min(size, MAX_TABLE_SIZE);
+        if (effective == table.getMaxSize() && pendingUpdate < 0) return;
+        smallestUpdate = smallestUpdate < 0 ? effective : Math.min(smallestUpdate, effective);
+        pendingUpdate = effective;
+        table.setMaxSize(effective);
+    }
+
+    /**
+     * Starts a header block, announcing any change of the table size.
+     *
+     * @param out The stream the block is written to
+     */
+    public void begin(@NotNull ByteArrayOutputStream out) {
+        if (pendingUpdate < 0) return;
+        if (smallestUpdate < pendingUpdate) writeInteger(out, 0x20, 5, smallestUpdate);
+        writeInteger(out, 0x20, 5, pendingUpdate);
+        smallestUpdate = -1;
+        pendingUpdate = -1;
+    }
+
+    /**
+     * Encodes a field into the current header block.
+     *
+     * @param out   The stream the block is written to
+     * @param name  The name of the field, in lower case
+     * @param value The value of the field, which is sent as UTF-8
+     */
+    public void encode(@NotNull ByteArrayOutputStream out, @NotNull String name, @NotNull String value) {
+        byte[] octets = value.getBytes(StandardCharsets.UTF_8);
+        // The table holds values as they were sent, as ISO-8859-1 decodes every octet to one character
+        String stored = octets.length == value.length() ? value : new String(octets, StandardCharsets.ISO_8859_1);
+        boolean sensitive = SENSITIVE.contains(name);
+        if (!sensitive) {
+            int index = table.find(name, stored);
+            if (index > 0) {
+                writeInteger(out, 0x80, 7, index);
+                return;
+            }
+        }
+        int nameIndex = table.findName(name);
+        if (sensitive) {
+            writeInteger(out, 0x10, 4, nameIndex);
+        } else if (UNINDEXED.contains(name)) {
+            writeInteger(out, 0x00, 4, nameIndex);
+        } else {
+            writeInteger(out, 0x40, 6, nameIndex);
+            table.add(name, stored, name.length() + octets.length + HpackTable.ENTRY_OVERHEAD);
+        }
+        if (nameIndex == 0) writeString(out, name.getBytes(StandardCharsets.ISO_8859_1));
+        writeString(out, octets);
+    }
+
+    /**
+     * Writes a string literal, Huffman-encoded if that is shorter.
+     *
+     * @param out    The stream to write to
+     * @param octets The octets of the string
+     */
+    private static void writeString(@NotNull ByteArrayOutputStream out, byte @NotNull [] octets) {
+        int huffman = Huffman.encodedLength(octets);
+        if (huffman < octets.length) {
+            writeInteger(out, 0x80, 7, huffman);
+            Huffman.encode(octets, out);
+        } else {
+            writeInteger(out, 0x00, 7, octets.length);
+            out.write(octets, 0, octets.length);
+        }
+    }
+
+    /**
+     * Writes an integer with a prefix of some bits of the first byte (RFC 7541, section 5.1).
+     *
+     * @param out    The stream to write to
+     * @param flags  The bits of the first byte above the prefix
+     * @param prefix The number of bits of the prefix
+     * @param value  The integer, which must not be negative
+     */
+    private static void writeInteger(@NotNull ByteArrayOutputStream out, int flags, int prefix, int value) {
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,17 @@
+package net.phoenix.server.http.http2;
+
+/**
+ * Thrown when a header block cannot be decoded. The state of the decoder can no longer be trusted, so the connection has to be closed with a COMPRESSION_ERROR.
+ */
+public class HpackException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param message What was wrong with the header block
+     */
+    public HpackException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,201 @@
+package net.phoenix.server.http.http2;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The header table of HPACK (RFC 7541, section 2.3): the static table shared by every connection, followed by the dynamic table of one direction of one connection. Entries added to the dynamic table take the first dynamic index, and the oldest entries are evicted once the table outgrows its maximum size. This class is for internal use and should not be modified or used by the end user.
+ */
+final class HpackTable {
+    /**
+     * The overhead the size of every entry includes besides its name and value.
+     */
+    static final int ENTRY_OVERHEAD = 32;
+    private static final String[][] STATIC = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+            {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+            {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+            {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+            {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""}, {"content-location", ""}, {"content-range", ""},
+            {"content-type", ""}, {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""},
+            {"expires", ""}, {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+            {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""},
+            {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""},
+            {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""}, {"set-cookie", ""},
+            {"strict-transport-security", ""}, {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""}
+    };
+    /**
+     * The number of entries of the static table.
+     */
+    static final int STATIC_LENGTH = STATIC.length;
+    // The index of the first static entry with a name, and of the static entry with a name and value, joined by a NUL
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < STATIC.length; i++) {
+            STATIC_NAMES.putIfAbsent(STATIC[i][0], i + 1);
+            if (!STATIC[i][1].isEmpty()) STATIC_FIELDS.put(STATIC[i][0] + "\0" + STATIC[i][1], i + 1);
+        }
+    }
+
+    // The dynamic entries in a ring, the newest at head - 1
+    private String[] names = new String[16];
+    private String[] values = new String[16];
+    private int[] sizes = new int[16];
+    private int head = 0;
+    private int count = 0;
+    private int size = 0;
+    private int maxSize;
+
+    /**
+     * Creates a new table.
+     *
+     * @param maxSize The maximum size of the dynamic table
+     */
+    HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the name of an entry.
+     *
+     * @param index The index of the entry, starting at 1 with the static table
+     * @return The name
+     * @throws HpackException If there is no entry at the index
+     */
+    @NotNull String name(int index) throws HpackException {
+        if (index >= 1 && index <= STATIC_LENGTH) return STATIC[index - 1][0];
+        return names[slot(index)];
+    }
+
+    /**
+     * Gets the value of an entry.
+     *
+     * @param index The index of the entry, starting at 1 with the static table
+     * @return The value
+     * @throws HpackException If there is no entry at the index
+     */
+    @NotNull String value(int index) throws HpackException {
+        if (index >= 1 && index <= STATIC_LENGTH) return STATIC[index - 1][1];
+        return values[slot(index)];
+    }
+
+    /**
+     * Finds the position in the ring of a dynamic entry.
+     *
+     * @param index The index of the entry
+     * @return The position in the ring
+     * @throws HpackException If there is no entry at the index
+     */
+    private int slot(int index) throws HpackException {
+        int dynamic = index - STATIC_LENGTH - 1;
+        if (index < 1 || dynamic >= count) throw new HpackException("Header table has no entry " + index);
+        return Math.floorMod(head - 1 - dynamic, names.length);
+    }
+
+    /**
+     * Finds an entry with a name and value.
+     *
+     * @param name  The name
+     * @param value The value
+     * @return The index of the entry, or 0 if there is none
+     */
+    int find(@NotNull String name, @NotNull String value) {
+        Integer index = STATIC_FIELDS.get(name + "\0" + value);
+        if (index != null) return index;
+        for (int i = 0; i < count; i++) {
+            int slot = Math.floorMod(head - 1 - i, names.length);
+            if (names[slot].equals(name) && values[slot].equals(value)) return STATIC_LENGTH + 1 + i;
+        }
+        return 0;
+    }
+
+    /**
+     * Finds an entry with a name, preferring the static table, whose indexes never change.
+     *
+     * @param name The name
+     * @return The index of the entry, or 0 if there is none
+     */
+    int findName(@NotNull String name) {
+        Integer index = STATIC_NAMES.get(name);
+        if (index != null) return index;
+        for (int i = 0; i < count; i++) {
+            if (names[Math.floorMod(head - 1 - i, names.length)].equals(name)) return STATIC_LENGTH + 1 + i;
+        }
+        return 0;
+    }
+
+    /**
+     * Adds an entry to the dynamic table, evicting the oldest entries until it fits. An entry larger than the whole table empties it and is not added.
+     *
+     * @param name  The name
+     * @param value The value
+     * @param size  The size of the entry: the octets of its name and value plus {@link #ENTRY_OVERHEAD}
+     */
+    void add(@NotNull String name, @NotNull String value, int size) {
+        evict(maxSize - size);
+        if (size > maxSize) return;
+        if (count == names.length) {
+            int length = names.length * 2;
+            String[] newNames = new String[length];
+            String[] newValues = new String[length];
+            int[] newSizes = new int[length];
+            // The entries are unrolled oldest first
+            for (int i = 0; i < count; i++) {
+                int slot = Math.floorMod(head - count + i, names.length);
+                newNames[i] = names[slot];
+                newValues[i] = values[slot];
+                newSizes[i] = sizes[slot];
+            }
+            names = newNames;
+            values = newValues;
+            sizes = newSizes;
+            head = count;
+        }
+        names[head] = name;
+        values[head] = value;
+        sizes[head] = size;
+        head = (head + 1) % names.length;
+        count++;
+        this.size += size;
+    }
+
+    /**
+     * Changes the maximum size of the dynamic table, evicting entries that no longer fit.
+     *
+     * @param maxSize The new maximum size
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    /**
+     * Gets the maximum size of the dynamic table.
+     *
+     * @return The maximum size
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Evicts the oldest entries until the dynamic table is no larger than a size.
+     *
+     * @param target The size to shrink to
+     */
+    private void evict(int target) {
+        while (count > 0 && size > Math.max(target, 0)) {
+            int slot = Math.floorMod(head - count, names.length);
+            size -= sizes[slot];
+            names[slot] = null;
+            values[slot] = null;
+            count--;
+        }
+    }
+}
@@ -0,0 +1,1439 @@
+package net.phoenix.server.http.http2;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.BufferPool;
+import net.phoenix.server.http.HandlerExecutor;
+import net.phoenix.server.http.TimerWheel;
+import net.phoenix.server.http.builder.HttpRequestBuilder;
+import net.phoenix.server.http.container.HttpDate;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpRequestBody;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.processors.HttpRequestParser;
+import net.phoenix.server.http.processors.IncomingRequest;
+import net.phoenix.server.http.reflection.ExecutionMode;
+import net.phoenix.server.http.reflection.Route;
+import net.phoenix.server.http.reflection.RouteTree;
+import net.phoenix.server.logging.AccessLog;
+import net.phoenix.server.metrics.ServerMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP/2 connection over cleartext TCP (RFC 9113), either started with the connection preface by a client that knows the server speaks HTTP/2, or upgraded from an HTTP/1.1 request with "Upgrade: h2c". This class is for internal use and should not be modified or used by the end user. <br> <br>
+ * Every request is a stream of its own, and any number of streams, up to {@link Server#http2MaxConcurrentStreams}, are in progress at once on the connection. Each stream is routed through {@link IncomingRequest} exactly like an HTTP/1.1 request, running on the thread chosen by its route's execution mode, so a slow route does not hold up the others. <br> <br>
+ * A single read is outstanding at a time, and the frames it brings in are handled on the I/O thread. Responses are written by one writer at a time: frames other than DATA are written first, in the order they were queued, since header blocks have to reach the client in the order they were compressed, and the space left in each write is shared between the streams with data to send, one frame each in turn, as far as the flow-control windows of the client allow. A file or stream is only read once the client has room for it, and a proxied body only requests its next batch once the previous one has been written. <br> <br>
+ * Server push and stream priorities are not supported: the server never pushes, and priority signals are ignored in favour of sharing the connection evenly.
+ */
+public final class Http2Connection {
+    /**
+     * The connection preface every HTTP/2 client sends first.
+     */
+    public static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SWITCHING_PROTOCOLS = "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int FRAME_HEADER = 9;
+    // The largest frame the server accepts, and the largest header frame it sends, which no peer may refuse
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final int MAX_WINDOW = Integer.MAX_VALUE;
+    // The largest uncompressed header list accepted, counted as in SETTINGS_MAX_HEADER_LIST_SIZE. Larger requests are answered with 431
+    private static final int MAX_HEADER_LIST_SIZE = 16384;
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    // Fields that only make sense on a single HTTP/1.1 connection, which requests must not carry and responses do not send
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    private final AsynchronousSocketChannel channel;
+    private final String ip;
+    private final ByteBuffer input;
+    private @Nullable ByteBuffer output;
+    private final HpackDecoder decoder = new HpackDecoder(HpackEncoder.MAX_TABLE_SIZE);
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final Deque<Frame> control = new ArrayDeque<>();
+    private final List<Stream> sending = new ArrayList<>();
+    // The streams whose last frame is part of the write in progress
+    private final List<Stream> completed = new ArrayList<>();
+    private final int windowSize = Math.max(Server.http2WindowSize, DEFAULT_WINDOW);
+    private final long idleTimeout = Math.max(Server.keepAliveTimeout, Server.requestHeaderTimeout);
+    private int nextSending = 0;
+    private boolean prefaceReceived = false;
+    private int lastStreamId = 0;
+    private int requests = 0;
+    private int peerMaxFrameSize = MAX_FRAME_SIZE;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private long sendWindow = DEFAULT_WINDOW;
+    private long receiveWindow = DEFAULT_WINDOW;
+    private int unacknowledged = 0;
+    // The header block being received, which may span several frames, and the stream it opens or ends
+    private byte[] headerBlock = new byte[1024];
+    private int headerBlockLength = 0;
+    private @Nullable Stream headerStream;
+    private int continuationStream = 0;
+    private boolean headerEndStream = false;
+    private long lastFrame = System.nanoTime();
+    private @Nullable TimerWheel.Timeout idle;
+    private boolean woken = false;
+    private boolean reading = false;
+    private boolean writing = false;
+    // Whether a GOAWAY has been sent or received, after which no new streams are accepted and the connection closes once the last stream is done
+    private boolean goingAway = false;
+    private boolean closeAfterWrite = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a new connection.
+     *
+     * @param channel The socket channel of the connection
+     * @param ip      The IP address of the client
+     */
+    private Http2Connection(@NotNull AsynchronousSocketChannel channel, @NotNull String ip) {
+        this.channel = channel;
+        this.ip = ip;
+        this.input = BufferPool.acquire(Math.max(Server.config.readBufferSize(), MAX_FRAME_SIZE + FRAME_HEADER));
+        this.output = BufferPool.acquire(Math.max(Server.config.writeBufferSize(), MAX_FRAME_SIZE + FRAME_HEADER));
+    }
+
+    /**
+     * Starts speaking HTTP/2 on a connection that was accepted as HTTP/1.1. The server sends its settings at once, and the client's preface is expected next, possibly already among the bytes that have been read.
+     *
+     * @param channel  The socket channel of the connection
+     * @param ip       The IP address of the client
+     * @param leftover The bytes read from the connection that have not been processed yet, starting with the preface
+     * @param upgraded The request that asked for the upgrade, which is answered as stream 1, or null if the client started with the preface
+     * @param settings The settings the client sent in its HTTP2-Settings header, as decoded by {@link #parseUpgradeSettings(String)}, or null if there are none
+     */
+    public static void start(@NotNull AsynchronousSocketChannel channel, @NotNull String ip, @NotNull ByteBuffer leftover, @Nullable HttpRequest upgraded, byte @Nullable [] settings) {
+        Http2Connection connection = new Http2Connection(channel, ip);
+        connection.begin(leftover, upgraded, settings);
+    }
+
+    /**
+     * Decodes the HTTP2-Settings header of a request asking to upgrade to HTTP/2.
+     *
+     * @param header The value of the header, the payload of a SETTINGS frame in base64url
+     * @return The payload, or null if the header is not a valid SETTINGS payload, in which case the request must not be upgraded
+     */
+    public static byte @Nullable [] parseUpgradeSettings(@NotNull String header) {
+        byte[] settings;
+        try {
+            settings = Base64.getUrlDecoder().decode(header.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return settings.length % 6 == 0 ? settings : null;
+    }
+
+    /**
+     * Gets the response accepting a request's upgrade to HTTP/2, which is written before the server's settings.
+     *
+     * @return A new buffer holding the response
+     */
+    public static @NotNull ByteBuffer switchingProtocols() {
+        return ByteBuffer.wrap(SWITCHING_PROTOCOLS);
+    }
+
+    /**
+     * Sends the server's settings, answers the upgraded request if there is one, and processes the bytes already read.
+     *
+     * @param leftover The bytes read from the connection that have not been processed yet
+     * @param upgraded The request that asked for the upgrade, or null
+     * @param settings The settings of the client from its HTTP2-Settings header, or null
+     */
+    private void begin(@NotNull ByteBuffer leftover, @Nullable HttpRequest upgraded, byte @Nullable [] settings) {
+        Stream stream = null;
+        synchronized (this) {
+            ByteBuffer frame = newFrame(18, SETTINGS, 0, 0);
+            frame.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(Server.http2MaxConcurrentStreams);
+            frame.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(windowSize);
+            frame.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(MAX_HEADER_LIST_SIZE);
+            queue(frame.flip(), null);
+            if (windowSize > DEFAULT_WINDOW) {
+                windowUpdate(0, windowSize - DEFAULT_WINDOW);
+                receiveWindow = windowSize;
+            }
+            try {
+                if (settings != null) applySettings(ByteBuffer.wrap(settings));
+            } catch (ConnectionError e) {
+                connectionError(e);
+            }
+            if (upgraded != null && !closeAfterWrite) {
+                // The upgraded request is stream 1, which the client has already finished sending
+                stream = new Stream(1, peerInitialWindow, windowSize, ++requests);
+                lastStreamId = 1;
+                streams.put(1, stream);
+                stream.method = upgraded.method();
+                stream.path = upgraded.path();
+                stream.headers = upgraded.headers();
+                stream.remoteClosed = true;
+                stream.request = upgraded;
+            }
+            if (requests > 0 && requests >= Server.maxKeepAliveRequests) goAway();
+            input.put(leftover);
+            scheduleIdle(idleTimeout);
+        }
+        if (stream != null) dispatch(stream);
+        received();
+    }
+
+    /**
+     * Starts reading more data from the connection.
+     */
+    private void read() {
+        synchronized (this) {
+            if (closed || closeAfterWrite) return;
+            reading = true;
+        }
+        channel.read(input, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                synchronized (Http2Connection.this) {
+                    reading = false;
+                    if (closed) {
+                        BufferPool.release(input);
+                        return;
+                    }
+                }
+                if (result < 0) {
+                    close();
+                    return;
+                }
+                ServerMetrics.bytesReceived(result);
+                received();
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                synchronized (Http2Connection.this) {
+                    reading = false;
+                    if (closed) {
+                        BufferPool.release(input);
+                        return;
+                    }
+                }
+                Server.logger.logError("Failed to read HTTP/2 frames from client due to: " + exc.getMessage());
+                close();
+            }
+        });
+    }
+
+    /**
+     * Handles the frames read into the input buffer, starts the requests they complete, writes what they call for and goes back to reading.
+     */
+    private void received() {
+        List<Stream> ready = new ArrayList<>();
+        synchronized (this) {
+            if (closed) return;
+            lastFrame = System.nanoTime();
+            input.flip();
+            try {
+                frames(ready);
+            } catch (ConnectionError e) {
+                connectionError(e);
+            }
+            input.compact();
+        }
+        for (Stream stream : ready) {
+            dispatch(stream);
+        }
+        flush();
+        read();
+    }
+
+    /**
+     * Handles every complete frame in the input buffer, leaving a partial frame for the next read. The caller must hold the connection's lock.
+     *
+     * @param ready Collects the streams whose request is complete and has to be started
+     * @throws ConnectionError If the client broke the protocol in a way that ends the connection
+     */
+    private void frames(@NotNull List<Stream> ready) throws ConnectionError {
+        if (!prefaceReceived) {
+            int available = Math.min(input.remaining(), PREFACE.length);
+            for (int i = 0; i < available; i++) {
+                if (input.get(input.position() + i) != PREFACE[i]) throw new ConnectionError(PROTOCOL_ERROR, "Invalid connection preface");
+            }
+            if (available < PREFACE.length) return;
+            input.position(input.position() + PREFACE.length);
+            prefaceReceived = true;
+        }
+        while (input.remaining() >= FRAME_HEADER && !closeAfterWrite) {
+            int start = input.position();
+            int length = (input.get(start) & 0xFF) << 16 | (input.get(start + 1) & 0xFF) << 8 | input.get(start + 2) & 0xFF;
+            if (length > MAX_FRAME_SIZE) throw new ConnectionError(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds " + MAX_FRAME_SIZE + " bytes");
+            if (input.remaining() < FRAME_HEADER + length) return;
+            int type = input.get(start + 3) & 0xFF;
+            int flags = input.get(start + 4) & 0xFF;
+            int streamId = input.getInt(start + 5) & 0x7FFFFFFF;
+            input.position(start + FRAME_HEADER);
+            ByteBuffer payload = input.slice();
+            payload.limit(length);
+            input.position(start + FRAME_HEADER + length);
+            frame(type, flags, streamId, payload, ready);
+        }
+    }
+
+    /**
+     * Handles a single frame. The caller must hold the connection's lock.
+     *
+     * @param type     The type of the frame
+     * @param flags    The flags of the frame
+     * @param streamId The stream the frame belongs to, or 0 for the connection
+     * @param payload  The payload of the frame
+     * @param ready    Collects the streams whose request is complete
+     * @throws ConnectionError If the frame ends the connection
+     */
+    private void frame(int type, int flags, int streamId, @NotNull ByteBuffer payload, @NotNull List<Stream> ready) throws ConnectionError {
+        if (continuationStream != 0 && (type != CONTINUATION || streamId != continuationStream)) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Expected a CONTINUATION frame on stream " + continuationStream);
+        }
+        switch (type) {
+            case DATA -> data(flags, streamId, payload, ready);
+            case HEADERS -> headers(flags, streamId, payload, ready);
+            case CONTINUATION -> {
+                if (continuationStream == 0) throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION frame");
+                appendHeaderBlock(payload);
+                if ((flags & FLAG_END_HEADERS) != 0) headerBlockDone(ready);
+            }
+            case PRIORITY -> {
+                if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "PRIORITY frame on stream 0");
+                if (payload.remaining() != 5) resetStream(streamId, FRAME_SIZE_ERROR);
+            }
+            case RST_STREAM -> {
+                if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM frame on stream 0");
+                if (payload.remaining() != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "RST_STREAM frame of " + payload.remaining() + " bytes");
+                if (streamId > lastStreamId) throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM frame on idle stream " + streamId);
+                Stream stream = streams.get(streamId);
+                if (stream != null) cancel(stream);
+            }
+            case SETTINGS -> {
+                if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS frame on stream " + streamId);
+                if ((flags & FLAG_ACK) != 0) {
+                    if (payload.hasRemaining()) throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+                    return;
+                }
+                if (payload.remaining() % 6 != 0) throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS frame of " + payload.remaining() + " bytes");
+                applySettings(payload);
+                queue(newFrame(0, SETTINGS, FLAG_ACK, 0).flip(), null);
+            }
+            case PUSH_PROMISE -> throw new ConnectionError(PROTOCOL_ERROR, "Clients cannot push streams");
+            case PING -> {
+                if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "PING frame on stream " + streamId);
+                if (payload.remaining() != 8) throw new ConnectionError(FRAME_SIZE_ERROR, "PING frame of " + payload.remaining() + " bytes");
+                if ((flags & FLAG_ACK) == 0) {
+                    ByteBuffer frame = newFrame(8, PING, FLAG_ACK, 0);
+                    frame.put(payload);
+                    // Answering a ping does not wait behind the responses that are queued
+                    control.addFirst(new Frame(frame.flip(), null));
+                }
+            }
+            case GOAWAY -> {
+                if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "GOAWAY frame on stream " + streamId);
+                // The streams already opened are still answered, after which the connection is closed
+                goingAway = true;
+            }
+            case WINDOW_UPDATE -> {
+                if (payload.remaining() != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE frame of " + payload.remaining() + " bytes");
+                int increment = payload.getInt() & 0x7FFFFFFF;
+                if (streamId == 0) {
+                    if (increment == 0) throw new ConnectionError(PROTOCOL_ERROR, "WINDOW_UPDATE of 0 bytes");
+                    sendWindow += increment;
+                    if (sendWindow > MAX_WINDOW) throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window exceeds " + MAX_WINDOW + " bytes");
+                    return;
+                }
+                Stream stream = streams.get(streamId);
+                if (stream == null) return;
+                if (increment == 0) {
+                    reset(stream, PROTOCOL_ERROR);
+                    return;
+                }
+                stream.sendWindow += increment;
+                if (stream.sendWindow > MAX_WINDOW) reset(stream, FLOW_CONTROL_ERROR);
+            }
+            default -> {
+                // Frames of unknown types are ignored
+            }
+        }
+    }
+
+    /**
+     * Handles a DATA frame, adding its bytes to the body of its request.
+     *
+     * @param flags    The flags of the frame
+     * @param streamId The stream of the frame
+     * @param payload  The payload of the frame
+     * @param ready    Collects the streams whose request is complete
+     * @throws ConnectionError If the frame ends the connection
+     */
+    private void data(int flags, int streamId, @NotNull ByteBuffer payload, @NotNull List<Stream> ready) throws ConnectionError {
+        if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "DATA frame on stream 0");
+        int length = payload.remaining();
+        // Every byte counts against the connection window, even on streams that are gone or padding
+        receiveWindow -= length;
+        if (receiveWindow < 0) throw new ConnectionError(FLOW_CONTROL_ERROR, "Client exceeded the connection window");
+        unacknowledged += length;
+        if (unacknowledged >= windowSize / 2) {
+            windowUpdate(0, unacknowledged);
+            receiveWindow += unacknowledged;
+            unacknowledged = 0;
+        }
+        stripPadding(flags, payload);
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) throw new ConnectionError(PROTOCOL_ERROR, "DATA frame on idle stream " + streamId);
+            // The stream was reset while the client was still sending it
+            return;
+        }
+        if (stream.remoteClosed || stream.request != null) {
+            reset(stream, STREAM_CLOSED);
+            return;
+        }
+        stream.receiveWindow -= length;
+        if (stream.receiveWindow < 0) {
+            reset(stream, FLOW_CONTROL_ERROR);
+            return;
+        }
+        if (!stream.rejected) {
+            stream.received += payload.remaining();
+            if (stream.contentLength >= 0 && stream.received > stream.contentLength) {
+                reset(stream, PROTOCOL_ERROR);
+                return;
+            }
+            try {
+                assert stream.body != null;
+                stream.body.write(payload, payload.remaining());
+            } catch (HttpRequestParser.HttpParseException e) {
+                Server.logger.logError("Failed to read request body from " + ip + " due to: " + e.getMessage());
+                reject(stream, e.getStatusCode());
+            }
+        }
+        if ((flags & FLAG_END_STREAM) != 0) {
+            endOfRequest(stream, ready);
+            return;
+        }
+        stream.unacknowledged += length;
+        if (stream.unacknowledged >= windowSize / 2) {
+            windowUpdate(streamId, stream.unacknowledged);
+            stream.receiveWindow += stream.unacknowledged;
+            stream.unacknowledged = 0;
+        }
+    }
+
+    /**
+     * Handles a HEADERS frame, which opens a stream or carries the trailers ending its request.
+     *
+     * @param flags    The flags of the frame
+     * @param streamId The stream of the frame
+     * @param payload  The payload of the frame
+     * @param ready    Collects the streams whose request is complete
+     * @throws ConnectionError If the frame ends the connection
+     */
+    private void headers(int flags, int streamId, @NotNull ByteBuffer payload, @NotNull List<Stream> ready) throws ConnectionError {
+        if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "HEADERS frame on stream 0");
+        stripPadding(flags, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            if (payload.remaining() < 5) throw new ConnectionError(FRAME_SIZE_ERROR, "HEADERS frame too short for its priority");
+            payload.position(payload.position() + 5);
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId % 2 == 0) throw new ConnectionError(PROTOCOL_ERROR, "Client opened even-numbered stream " + streamId);
+            if (streamId <= lastStreamId) throw new ConnectionError(STREAM_CLOSED, "HEADERS frame on closed stream " + streamId);
+            stream = new Stream(streamId, peerInitialWindow, windowSize, 0);
+        } else if (stream.remoteClosed || stream.request != null) {
+            throw new ConnectionError(STREAM_CLOSED, "HEADERS frame on half-closed stream " + streamId);
+        } else if ((flags & FLAG_END_STREAM) == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Trailers on stream " + streamId + " do not end it");
+        }
+        headerStream = stream;
+        headerEndStream = (flags & FLAG_END_STREAM) != 0;
+        headerBlockLength = 0;
+        appendHeaderBlock(payload);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            headerBlockDone(ready);
+        } else {
+            continuationStream = streamId;
+        }
+    }
+
+    /**
+     * Adds a fragment to the header block being received.
+     *
+     * @param fragment The fragment
+     * @throws ConnectionError If the compressed block is far larger than any acceptable header list
+     */
+    private void appendHeaderBlock(@NotNull ByteBuffer fragment) throws ConnectionError {
+        int length = fragment.remaining();
+        if (headerBlockLength + length > MAX_HEADER_LIST_SIZE * 2) throw new ConnectionError(ENHANCE_YOUR_CALM, "Header block exceeds " + MAX_HEADER_LIST_SIZE * 2 + " bytes");
+        if (headerBlockLength + length > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length * 2, headerBlockLength + length));
+        }
+        fragment.get(headerBlock, headerBlockLength, length);
+        headerBlockLength += length;
+    }
+
+    /**
+     * Decodes a complete header block, opening its stream or ending its request. The block is decoded even if the stream is refused, as it may change the decoder's table.
+     *
+     * @param ready Collects the streams whose request is complete
+     * @throws ConnectionError If the block cannot be decoded
+     */
+    private void headerBlockDone(@NotNull List<Stream> ready) throws ConnectionError {
+        Stream stream = headerStream;
+        assert stream != null;
+        continuationStream = 0;
+        headerStream = null;
+        Fields fields = new Fields();
+        long start = System.nanoTime();
+        try {
+            decoder.decode(headerBlock, headerBlockLength, fields);
+        } catch (HpackException e) {
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+        stream.parseNanos += System.nanoTime() - start;
+        if (streams.get(stream.id) == stream) {
+            // Trailers, which carry nothing the routes use
+            if (fields.pseudo) {
+                reset(stream, PROTOCOL_ERROR);
+            } else {
+                endOfRequest(stream, ready);
+            }
+            return;
+        }
+        lastStreamId = stream.id;
+        // Streams opened after a GOAWAY are ignored, and the client retries them on a new connection
+        if (goingAway) return;
+        if (streams.size() >= Server.http2MaxConcurrentStreams) {
+            resetStream(stream.id, REFUSED_STREAM);
+            return;
+        }
+        stream.exchange = ++requests;
+        stream.requestStart = start;
+        streams.put(stream.id, stream);
+        if (requests >= Server.maxKeepAliveRequests) goAway();
+        if (fields.error != null || fields.method == null || fields.scheme == null || fields.path == null) {
+            Server.logger.logError("Malformed HTTP/2 request from " + ip + " due to: " + (fields.error != null ? fields.error : "missing pseudo-header"));
+            reset(stream, PROTOCOL_ERROR);
+            return;
+        }
+        String target = fields.path;
+        int query = target.indexOf('?');
+        stream.path = query < 0 ? target : target.substring(0, query);
+        stream.query = query < 0 ? null : target.substring(query + 1);
+        stream.headers = fields.headers;
+        if (fields.authority != null) fields.headers.putIfAbsent("host", fields.authority);
+        if (!stream.path.startsWith("/") && !stream.path.equals("*")) {
+            reset(stream, PROTOCOL_ERROR);
+            return;
+        }
+        try {
+            stream.method = HttpOpCode.fromString(fields.method);
+        } catch (IllegalArgumentException e) {
+            rejectWhole(stream, headerEndStream, 501, ready);
+            return;
+        }
+        if (fields.size > MAX_HEADER_LIST_SIZE) {
+            rejectWhole(stream, headerEndStream, 431, ready);
+            return;
+        }
+        String contentLength = fields.headers.get("content-length");
+        if (contentLength != null) {
+            try {
+                stream.contentLength = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                stream.contentLength = -2;
+            }
+            if (stream.contentLength < 0) {
+                reset(stream, PROTOCOL_ERROR);
+                return;
+            }
+            if (stream.contentLength > Server.maxBodySize) {
+                rejectWhole(stream, headerEndStream, 413, ready);
+                return;
+            }
+        }
+        if (headerEndStream) {
+            endOfRequest(stream, ready);
+        } else {
+            stream.body = new HttpRequestParser.BodyWriter(Server.maxBodySize);
+        }
+    }
+
+    /**
+     * Answers a stream whose request is refused as soon as its headers have been read.
+     *
+     * @param stream    The stream
+     * @param endStream Whether the headers ended the request
+     * @param status    The status code of the answer
+     * @param ready     Collects the streams whose request is complete
+     */
+    private void rejectWhole(@NotNull Stream stream, boolean endStream, int status, @NotNull List<Stream> ready) {
+        reject(stream, status);
+        if (endStream) endOfRequest(stream, ready);
+    }
+
+    /**
+     * Removes the padding of a DATA or HEADERS frame.
+     *
+     * @param flags   The flags of the frame
+     * @param payload The payload of the frame, whose limit is moved before the padding
+     * @throws ConnectionError If the padding is longer than the frame
+     */
+    private static void stripPadding(int flags, @NotNull ByteBuffer payload) throws ConnectionError {
+        if ((flags & FLAG_PADDED) == 0) return;
+        if (!payload.hasRemaining()) throw new ConnectionError(FRAME_SIZE_ERROR, "Padded frame without a pad length");
+        int padding = payload.get() & 0xFF;
+        if (padding > payload.remaining()) throw new ConnectionError(PROTOCOL_ERROR, "Padding exceeds the frame");
+        payload.limit(payload.limit() - padding);
+    }
+
+    /**
+     * Ends the request of a stream, which is started if it is complete and valid.
+     *
+     * @param stream The stream
+     * @param ready  Collects the streams whose request is complete
+     */
+    private void endOfRequest(@NotNull Stream stream, @NotNull List<Stream> ready) {
+        stream.remoteClosed = true;
+        if (stream.rejected) {
+            // The answer is already on its way, so the stream is done once it has been sent
+            if (stream.localClosed) remove(stream);
+            return;
+        }
+        if (stream.contentLength >= 0 && stream.received != stream.contentLength) {
+            reset(stream, PROTOCOL_ERROR);
+            return;
+        }
+        HttpRequestBody body = HttpRequestBody.EMPTY;
+        if (stream.body != null) {
+            try {
+                body = stream.body.finish();
+            } catch (HttpRequestParser.HttpParseException e) {
+                Server.logger.logError("Failed to read request body from " + ip + " due to: " + e.getMessage());
+                stream.body = null;
+                reject(stream, e.getStatusCode());
+                remove(stream);
+                return;
+            }
+            stream.body = null;
+        }
+        HttpRequestBuilder builder = new HttpRequestBuilder()
+                .setMethod(stream.method)
+                .setPath(stream.path)
+                .setVersion("HTTP/2.0")
+                .setIp(ip)
+                .setQuery(stream.query)
+                .setHeaders(stream.headers)
+                .setBody(body);
+        if (stream.query != null) HttpRequestParser.parseQuery(builder, stream.query);
+        stream.request = builder.build();
+        ready.add(stream);
+    }
+
+    /**
+     * Answers a stream with an error before its request has been routed, discarding the rest of its body.
+     *
+     * @param stream The stream
+     * @param status The status code of the answer
+     */
+    private void reject(@NotNull Stream stream, int status) {
+        stream.rejected = true;
+        if (stream.body != null) {
+            stream.body.discard();
+            stream.body = null;
+        }
+        stream.responseStart = System.nanoTime();
+        stream.requestNanos = stream.responseStart - stream.requestStart;
+        respond(stream, Route.getError(status).build());
+    }
+
+    /**
+     * Starts the request of a stream on the thread chosen by its route. This is called without holding the connection's lock, as a route that runs inline answers on this thread.
+     *
+     * @param stream The stream, whose request is complete
+     */
+    private void dispatch(@NotNull Stream stream) {
+        HttpRequest request = stream.request;
+        assert request != null;
+        long now = System.nanoTime();
+        ServerMetrics.parsed(stream.parseNanos);
+        RouteTree.Match<Route> match = IncomingRequest.match(request);
+        // Static files are served from the cache, so only route methods are moved off the I/O thread
+        ExecutionMode mode = match == null ? ExecutionMode.INLINE : match.value().getExecutionMode();
+        synchronized (this) {
+            stream.requestNanos = stream.requestStart == 0 ? 0 : now - stream.requestStart;
+            stream.responseStart = now;
+            stream.route = match == null ? ServerMetrics.STATIC_ROUTE : match.value().getPath();
+        }
+        try {
+            HandlerExecutor.execute(mode, () -> handle(stream, request, match));
+        } catch (RejectedExecutionException e) {
+            Server.logger.logError("Rejected request from " + ip + " as the handler pool is full");
+            closeBody(request);
+            respond(stream, Route.getError(503).build());
+        }
+    }
+
+    /**
+     * Runs the route of a request and answers its stream with the result.
+     *
+     * @param stream  The stream of the request
+     * @param request The request
+     * @param match   The route matched for the request, or null to serve a static file
+     */
+    private void handle(@NotNull Stream stream, @NotNull HttpRequest request, @Nullable RouteTree.Match<Route> match) {
+        HttpResponse response;
+        try {
+            response = IncomingRequest.processRequest(request, match);
+        } catch (RuntimeException e) {
+            Server.logger.logError("Failed to handle request from " + ip + " due to: " + e.getMessage());
+            response = Route.getError(500).build();
+        }
+        closeBody(request);
+        respond(stream, response);
+    }
+
+    /**
+     * Releases the body of a request once it has been handled.
+     *
+     * @param request The request
+     */
+    private static void closeBody(@NotNull HttpRequest request) {
+        try {
+            request.requestBody().close();
+        } catch (IOException e) {
+            Server.logger.logError("Failed to delete request body due to: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queues the headers of a response, and its body to be sent as the windows allow. A response to a stream that has been reset, or a connection that has been closed, is discarded.
+     *
+     * @param stream   The stream to answer
+     * @param response The response
+     */
+    private void respond(@NotNull Stream stream, @NotNull HttpResponse response) {
+        Object entity = response.entity().orElse(null);
+        synchronized (this) {
+            if (closed || stream.reset) {
+                ResponseBody.discard(entity);
+                return;
+            }
+            int status = response.statusCode();
+            String string = entity instanceof String value ? value : null;
+            Object other = string == null ? entity : null;
+            long streamLength = response.inputStreamLength().orElse(0L);
+            ResponseBody body = null;
+            if (stream.method != HttpOpCode.HEAD && status >= 200 && status != 204 && status != 304) {
+                body = ResponseBody.of(string, other, streamLength, this::wake);
+            } else {
+                ResponseBody.discard(other);
+            }
+            ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+            encodeHeaders(block, response, string, streamLength);
+            stream.status = status;
+            stream.writeStart = System.nanoTime();
+            queueHeaders(stream, block, body == null);
+            if (body != null) {
+                stream.response = body;
+                sending.add(stream);
+            }
+        }
+        // Requests refused while their frames are being read are written once all the frames have been handled
+        if (!Thread.holdsLock(this)) flush();
+    }
+
+    /**
+     * Encodes the headers of a response. The status comes first, names are sent in lower case, fields that only make sense on an HTTP/1.1 connection are left out, the length is sent when it is known, and Set-Cookie values are sent as separate fields.
+     *
+     * @param block        The stream the block is encoded into
+     * @param response     The response
+     * @param string       The string entity of the response, or null
+     * @param streamLength The length of the other entity, or -1 if it is not known
+     */
+    private void encodeHeaders(@NotNull ByteArrayOutputStream block, @NotNull HttpResponse response, @Nullable String string, long streamLength) {
+        int status = response.statusCode();
+        encoder.begin(block);
+        encoder.encode(block, ":status", Integer.toString(status));
+        for (Map.Entry<String, List<String>> header : response.responseHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (CONNECTION_HEADERS.contains(name) || name.equals("content-length") || name.equals("date")) continue;
+            if (name.equals("set-cookie")) {
+                for (String value : header.getValue()) {
+                    encoder.encode(block, name, value);
+                }
+                continue;
+            }
+            encoder.encode(block, name, String.join(", ", header.getValue()));
+        }
+        encoder.encode(block, "date", HttpDate.now());
+        if (status >= 200 && status != 204 && status != 304 && streamLength >= 0) {
+            long length = (string == null ? 0 : string.getBytes(StandardCharsets.UTF_8).length) + streamLength;
+            encoder.encode(block, "content-length", Long.toString(length));
+        }
+    }
+
+    /**
+     * Queues a header block as a HEADERS frame followed by as many CONTINUATION frames as it needs. The frames are queued together, so nothing is sent between them.
+     *
+     * @param stream    The stream the block belongs to
+     * @param block     The encoded block
+     * @param endStream Whether the block ends the response
+     */
+    private void queueHeaders(@NotNull Stream stream, @NotNull ByteArrayOutputStream block, boolean endStream) {
+        byte[] bytes = block.toByteArray();
+        int offset = 0;
+        int type = HEADERS;
+        do {
+            int length = Math.min(bytes.length - offset, MAX_FRAME_SIZE);
+            boolean last = offset + length == bytes.length;
+            int flags = (last ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+            ByteBuffer frame = newFrame(length, type, flags, stream.id);
+            frame.put(bytes, offset, length);
+            queue(frame.flip(), last && endStream ? stream : null);
+            stream.bytes += FRAME_HEADER + length;
+            offset += length;
+            type = CONTINUATION;
+        } while (offset < bytes.length);
+    }
+
+    /**
+     * Applies the settings of the client.
+     *
+     * @param payload The settings, six bytes each
+     * @throws ConnectionError If a setting has an invalid value
+     */
+    private void applySettings(@NotNull ByteBuffer payload) throws ConnectionError {
+        while (payload.remaining() >= 6) {
+            int id = payload.getShort() & 0xFFFF;
+            long value = payload.getInt() & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE -> encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                case SETTINGS_ENABLE_PUSH -> {
+                    if (value > 1) throw new ConnectionError(PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH " + value);
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if (value > MAX_WINDOW) throw new ConnectionError(FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE " + value);
+                    long delta = value - peerInitialWindow;
+                    peerInitialWindow = (int) value;
+                    for (Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                        if (stream.sendWindow > MAX_WINDOW) throw new ConnectionError(FLOW_CONTROL_ERROR, "Stream window exceeds " + MAX_WINDOW + " bytes");
+                    }
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) throw new ConnectionError(PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE " + value);
+                    peerMaxFrameSize = (int) value;
+                }
+                default -> {
+                    // SETTINGS_MAX_CONCURRENT_STREAMS only limits pushed streams, and SETTINGS_MAX_HEADER_LIST_SIZE is advisory
+                }
+            }
+        }
+    }
+
+    /**
+     * Resets a stream that was never opened, such as a refused one.
+     *
+     * @param streamId  The stream
+     * @param errorCode The reason
+     */
+    private void resetStream(int streamId, int errorCode) {
+        ByteBuffer frame = newFrame(4, RST_STREAM, 0, streamId);
+        frame.putInt(errorCode);
+        queue(frame.flip(), null);
+    }
+
+    /**
+     * Resets a stream, telling the client, and releases what it holds.
+     *
+     * @param stream    The stream
+     * @param errorCode The reason
+     */
+    private void reset(@NotNull Stream stream, int errorCode) {
+        resetStream(stream.id, errorCode);
+        cancel(stream);
+    }
+
+    /**
+     * Abandons a stream, releasing its request body and response. A route still running for it has its response discarded.
+     *
+     * @param stream The stream
+     */
+    private void cancel(@NotNull Stream stream) {
+        stream.reset = true;
+        if (stream.body != null) {
+            stream.body.discard();
+            stream.body = null;
+        }
+        if (stream.response != null) {
+            stream.response.close();
+            stream.response = null;
+        }
+        sending.remove(stream);
+        remove(stream);
+    }
+
+    /**
+     * Removes a stream that is done from the open streams.
+     *
+     * @param stream The stream
+     */
+    private void remove(@NotNull Stream stream) {
+        streams.remove(stream.id, stream);
+    }
+
+    /**
+     * Queues a WINDOW_UPDATE frame.
+     *
+     * @param streamId  The stream, or 0 for the connection
+     * @param increment The number of bytes the client may send in addition
+     */
+    private void windowUpdate(int streamId, int increment) {
+        ByteBuffer frame = newFrame(4, WINDOW_UPDATE, 0, streamId);
+        frame.putInt(increment);
+        queue(frame.flip(), null);
+    }
+
+    /**
+     * Starts closing the connection gracefully: the streams already opened are answered, and new ones are not accepted.
+     */
+    private void goAway() {
+        if (closeAfterWrite) return;
+        goingAway = true;
+        ByteBuffer frame = newFrame(8, GOAWAY, 0, 0);
+        frame.putInt(lastStreamId).putInt(NO_ERROR);
+        queue(frame.flip(), null);
+    }
+
+    /**
+     * Ends the connection because of an error, abandoning every stream. The connection is closed once the GOAWAY frame telling the client why has been written.
+     *
+     * @param error The error
+     */
+    private void connectionError(@NotNull ConnectionError error) {
+        if (closeAfterWrite) return;
+        Server.logger.logError("Closing HTTP/2 connection from " + ip + " due to: " + error.getMessage());
+        for (Stream stream : new ArrayList<>(streams.values())) {
+            cancel(stream);
+        }
+        control.clear();
+        goingAway = true;
+        closeAfterWrite = true;
+        ByteBuffer frame = newFrame(8, GOAWAY, 0, 0);
+        frame.putInt(lastStreamId).putInt(error.errorCode);
+        queue(frame.flip(), null);
+    }
+
+    /**
+     * Creates a frame with its header written, ready for its payload.
+     *
+     * @param length   The length of the payload
+     * @param type     The type of the frame
+     * @param flags    The flags of the frame
+     * @param streamId The stream of the frame, or 0 for the connection
+     * @return A buffer positioned after the header, with room for exactly the payload
+     */
+    private static @NotNull ByteBuffer newFrame(int length, int type, int flags, int streamId) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + length);
+        putFrameHeader(frame, length, type, flags, streamId);
+        return frame;
+    }
+
+    /**
+     * Writes the header of a frame.
+     *
+     * @param buffer   The buffer to write to, at its position
+     * @param length   The length of the payload
+     * @param type     The type of the frame
+     * @param flags    The flags of the frame
+     * @param streamId The stream of the frame, or 0 for the connection
+     */
+    private static void putFrameHeader(@NotNull ByteBuffer buffer, int length, int type, int flags, int streamId) {
+        buffer.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        buffer.put((byte) type).put((byte) flags).putInt(streamId);
+    }
+
+    /**
+     * Queues a frame other than DATA, to be written before any further DATA frames. The caller must hold the connection's lock.
+     *
+     * @param frame The frame, flipped for writing
+     * @param ends  The stream whose response the frame ends, or null
+     */
+    private void queue(@NotNull ByteBuffer frame, @Nullable Stream ends) {
+        control.add(new Frame(frame, ends));
+    }
+
+    /**
+     * Notes that a publisher has data for the writer, and starts the writer if it is idle.
+     */
+    private void wake() {
+        synchronized (this) {
+            woken = true;
+        }
+        flush();
+    }
+
+    /**
+     * Starts writing queued frames, unless a write is already in progress, in which case the frames are picked up once it completes.
+     */
+    private void flush() {
+        synchronized (this) {
+            if (writing || closed) return;
+            writing = true;
+        }
+        next();
+    }
+
+    /**
+     * Fills the output buffer with the next frames and writes it, or stops the writer if there is nothing to write. Closes the connection once it has nothing left to do after a GOAWAY.
+     */
+    private void next() {
+        boolean close;
+        synchronized (this) {
+            if (closed) {
+                writing = false;
+                releaseOutput();
+                return;
+            }
+            assert output != null;
+            if (fill(output)) {
+                write(output);
+                return;
+            }
+            writing = false;
+            close = closeAfterWrite || goingAway && streams.isEmpty();
+        }
+        if (close) close();
+    }
+
+    /**
+     * Writes the output buffer, giving the client as long as it would have to accept an HTTP/1.1 response of the same size.
+     *
+     * @param buffer The output buffer, flipped for writing
+     */
+    private void write(@NotNull ByteBuffer buffer) {
+        long timeout = Math.max((int) (buffer.remaining() / 51.2), 5000);
+        channel.write(buffer, timeout, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                if (buffer.hasRemaining()) {
+                    write(buffer);
+                    return;
+                }
+                written();
+                next();
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                boolean quiet;
+                synchronized (Http2Connection.this) {
+                    writing = false;
+                    quiet = closed;
+                    if (closed) releaseOutput();
+                }
+                if (exc instanceof InterruptedByTimeoutException) {
+                    Server.logger.logError("Response write operation timed out from client: " + ip);
+                } else if (!quiet) {
+                    Server.logger.logError("Failed to write response to client due to: " + exc.getMessage());
+                }
+                close();
+            }
+        });
+    }
+
+    /**
+     * Fills a buffer with the queued frames, then with DATA frames of the streams with data to send, one frame per stream in turn. DATA frames are only added once every other queued frame has been added, so nothing comes between the frames of a header block or before the headers of a response. The caller must hold the connection's lock.
+     *
+     * @param buffer The output buffer
+     * @return True if there is anything to write, in which case the buffer is flipped for writing
+     */
+    private boolean fill(@NotNull ByteBuffer buffer) {
+        buffer.clear();
+        while (!control.isEmpty()) {
+            Frame frame = control.peek();
+            if (frame.data.remaining() > buffer.remaining()) break;
+            buffer.put(frame.data);
+            control.poll();
+            if (frame.ends != null) completed.add(frame.ends);
+        }
+        if (control.isEmpty()) {
+            boolean progress;
+            do {
+                woken = false;
+                progress = false;
+                Stream[] round = sending.toArray(new Stream[0]);
+                for (int i = 0; i < round.length && buffer.remaining() > FRAME_HEADER; i++) {
+                    Stream stream = round[(nextSending + i) % round.length];
+                    if (stream.response == null) continue;
+                    progress |= dataFrame(buffer, stream);
+                }
+                if (round.length > 0) nextSending = (nextSending + 1) % round.length;
+            } while ((progress || woken) && buffer.remaining() > FRAME_HEADER && !sending.isEmpty());
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Adds the next DATA frame of a stream to a buffer, as large as the buffer, the frame size and both flow-control windows allow.
+     *
+     * @param buffer The output buffer
+     * @param stream The stream, which has a response body
+     * @return True if a frame was added
+     */
+    private boolean dataFrame(@NotNull ByteBuffer buffer, @NotNull Stream stream) {
+        ResponseBody body = stream.response;
+        assert body != null;
+        long window = Math.min(stream.sendWindow, sendWindow);
+        int max = (int) Math.min(Math.min(buffer.remaining() - FRAME_HEADER, peerMaxFrameSize), window);
+        int start = buffer.position();
+        int read;
+        if (max <= 0) {
+            // A body that has been read completely still has to be ended, which takes no window
+            if (!body.isFinished()) return false;
+            read = -1;
+        } else {
+            int limit = buffer.limit();
+            buffer.position(start + FRAME_HEADER).limit(start + FRAME_HEADER + max);
+            try {
+                read = body.read(buffer);
+            } catch (IOException e) {
+                Server.logger.logError("Failed to write response to client due to: " + e.getMessage());
+                buffer.limit(limit).position(start);
+                reset(stream, INTERNAL_ERROR);
+                return false;
+            }
+            buffer.limit(limit);
+            if (read == 0) {
+                buffer.position(start);
+                return false;
+            }
+        }
+        boolean end = read < 0 || body.isFinished();
+        int length = Math.max(read, 0);
+        int position = start + FRAME_HEADER + length;
+        buffer.position(start);
+        putFrameHeader(buffer, length, DATA, end ? FLAG_END_STREAM : 0, stream.id);
+        buffer.position(position);
+        stream.sendWindow -= length;
+        sendWindow -= length;
+        stream.bytes += FRAME_HEADER + length;
+        if (end) {
+            body.close();
+            stream.response = null;
+            sending.remove(stream);
+            completed.add(stream);
+        }
+        return true;
+    }
+
+    /**
+     * Finishes the streams whose last frame has just been written, recording them in the metrics and the access log. A stream whose request the client is still sending, which happens when it was refused early, is reset, since its answer does not need the rest.
+     */
+    private void written() {
+        List<Stream> done;
+        synchronized (this) {
+            if (completed.isEmpty()) return;
+            done = new ArrayList<>(completed);
+            completed.clear();
+            for (Stream stream : done) {
+                stream.localClosed = true;
+                if (!stream.remoteClosed && !stream.reset) {
+                    resetStream(stream.id, NO_ERROR);
+                    stream.reset = true;
+                }
+                remove(stream);
+            }
+        }
+        for (Stream stream : done) {
+            finished(stream);
+        }
+    }
+
+    /**
+     * Records an answered stream in the metrics and the access log.
+     *
+     * @param stream The stream
+     */
+    private void finished(@NotNull Stream stream) {
+        long now = System.nanoTime();
+        ServerMetrics.responded(stream.method, stream.route, stream.status, stream.bytes, now - stream.writeStart);
+        AccessLog accessLog = Server.accessLog;
+        if (accessLog == null) return;
+        Map<String, String> headers = stream.headers;
+        accessLog.log(ip, stream.method, stream.path, "HTTP/2.0", stream.status, stream.bytes, stream.requestNanos, now - stream.responseStart,
+                stream.exchange, headers == null ? null : headers.get("referer"), headers == null ? null : headers.get("user-agent"));
+    }
+
+    /**
+     * Schedules the next check for an idle connection on the shared timer wheel.
+     *
+     * @param delay The number of milliseconds until the check
+     */
+    private void scheduleIdle(long delay) {
+        idle = TimerWheel.shared().schedule(this::checkIdle, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the connection with a GOAWAY if the client has sent nothing for {@link Server#keepAliveTimeout} or {@link Server#requestHeaderTimeout} milliseconds, whichever is longer, while no request was being answered. A client trickling a request in on an otherwise quiet connection is closed the same way.
+     */
+    private void checkIdle() {
+        synchronized (this) {
+            if (closed || closeAfterWrite) return;
+            long idleNanos = System.nanoTime() - lastFrame;
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            boolean answering = writing || !sending.isEmpty();
+            for (Stream stream : streams.values()) {
+                if (stream.request != null || stream.rejected) {
+                    answering = true;
+                    break;
+                }
+            }
+            if (answering || idleNanos < timeoutNanos) {
+                scheduleIdle(answering ? idleTimeout : TimeUnit.NANOSECONDS.toMillis(timeoutNanos - idleNanos) + 1);
+                return;
+            }
+            for (Stream stream : new ArrayList<>(streams.values())) {
+                cancel(stream);
+            }
+            goAway();
+            closeAfterWrite = true;
+        }
+        flush();
+    }
+
+    /**
+     * Closes the connection, abandoning its streams. Pooled buffers still in use by a pending read or write are returned once it has failed.
+     */
+    private void close() {
+        boolean releaseInput;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            releaseInput = !reading;
+            if (!writing) releaseOutput();
+            if (idle != null) idle.cancel();
+            for (Stream stream : new ArrayList<>(streams.values())) {
+                cancel(stream);
+            }
+            for (Stream stream : sending) {
+                if (stream.response != null) stream.response.close();
+            }
+            sending.clear();
+            control.clear();
+            if (headerStream != null && headerStream.body != null) headerStream.body.discard();
+        }
+        ServerMetrics.connectionClosed();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Server.logger.logError("Failed to close connection due to: " + e.getMessage());
+        }
+        if (releaseInput) BufferPool.release(input);
+    }
+
+    /**
+     * Returns the output buffer to the pool. The caller must hold the connection's lock.
+     */
+    private void releaseOutput() {
+        if (output == null) return;
+        BufferPool.release(output);
+        output = null;
+    }
+
+    /**
+     * A frame other than DATA waiting to be written.
+     *
+     * @param data The whole frame
+     * @param ends The stream whose response the frame ends, or null
+     */
+    private record Frame(ByteBuffer data, @Nullable Stream ends) {
+    }
+
+    /**
+     * The state of a single request and its response. Guarded by the connection's lock.
+     */
+    private static final class Stream {
+        private final int id;
+        private long sendWindow;
+        private long receiveWindow;
+        private int unacknowledged = 0;
+        private int exchange;
+        private @Nullable HttpOpCode method;
+        private @Nullable String path;
+        private @Nullable String query;
+        private @Nullable Map<String, String> headers;
+        private long contentLength = -1;
+        private long received = 0;
+        private @Nullable HttpRequestParser.BodyWriter body;
+        private @Nullable HttpRequest request;
+        private @Nullable ResponseBody response;
+        // Whether the client has sent its whole request, and whether the whole response has been written
+        private boolean remoteClosed = false;
+        private boolean localClosed = false;
+        // Whether the request was answered with an error before it was complete
+        private boolean rejected = false;
+        private boolean reset = false;
+        // The timing and outcome of the exchange, for the metrics and the access log
+        private String route = ServerMetrics.NO_ROUTE;
+        private int status;
+        private long bytes = 0;
+        private long requestStart = 0;
+        private long parseNanos = 0;
+        private long requestNanos;
+        private long responseStart;
+        private long writeStart;
+
+        /**
+         * Creates a new stream.
+         *
+         * @param id            The identifier of the stream
+         * @param sendWindow    The number of bytes the server may send before the client acknowledges them
+         * @param receiveWindow The number of bytes the client may send before the server acknowledges them
+         * @param exchange      The number of the request on its connection, starting at 1
+         */
+        private Stream(int id, long sendWindow, long receiveWindow, int exchange) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+            this.receiveWindow = receiveWindow;
+            this.exchange = exchange;
+        }
+    }
+
+    /**
+     * Collects the fields of a decoded header block, checking the rules HTTP/2 adds to requests: pseudo-headers come first and appear once, names are in lower case, and fields of HTTP/1.1 connections are not sent. Cookies are joined with semicolons and other repeated fields with commas, as they would be on a single HTTP/1.1 line.
+     */
+    private static final class Fields implements HpackDecoder.Sink {
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private @Nullable String method;
+        private @Nullable String scheme;
+        private @Nullable String path;
+        private @Nullable String authority;
+        private @Nullable String error;
+        private boolean pseudo = false;
+        private boolean regular = false;
+        private int size = 0;
+
+        @Override
+        public void field(@NotNull String name, @NotNull String value, int size) {
+            this.size += size;
+            if (this.size > MAX_HEADER_LIST_SIZE || error != null) return;
+            if (name.startsWith(":")) {
+                pseudo = true;
+                if (regular) {
+                    error = "Pseudo-header " + name + " after regular fields";
+                    return;
+                }
+                switch (name) {
+                    case ":method" -> method = once(method, name, value);
+                    case ":scheme" -> scheme = once(scheme, name, value);
+                    case ":path" -> path = once(path, name, value);
+                    case ":authority" -> authority = once(authority, name, value);
+                    default -> error = "Unknown pseudo-header " + name;
+                }
+                return;
+            }
+            regular = true;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    error = "Field name " + name + " is not in lower case";
+                    return;
+                }
+            }
+            if (CONNECTION_HEADERS.contains(name) || name.equals("te") && !value.equals("trailers")) {
+                error = "Connection-specific field " + name;
+                return;
+            }
+            headers.merge(name, value, (first, second) -> first + (name.equals("cookie") ? "; " : ", ") + second);
+        }
+
+        /**
+         * Sets a pseudo-header that may only appear once.
+         *
+         * @param current The value already received, or null
+         * @param name    The name of the pseudo-header
+         * @param value   The value received
+         * @return The value to keep
+         */
+        private @Nullable String once(@Nullable String current, @NotNull String name, @NotNull String value) {
+            if (current != null) error = "Repeated pseudo-header " + name;
+            return value;
+        }
+    }
+
+    /**
+     * Thrown when the client breaks the protocol in a way that ends the connection.
+     */
+    private static final class ConnectionError extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int errorCode;
+
+        /**
+         * Creates a new connection error.
+         *
+         * @param errorCode The HTTP/2 error code sent to the client in the GOAWAY frame
+         * @param message   The reason, which is logged
+         */
+        private ConnectionError(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+    }
+}
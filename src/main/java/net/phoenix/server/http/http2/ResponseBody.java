@@ -0,0 +1,317 @@
+package net.phoenix.server.http.http2;
+
+import net.phoenix.server.http.ResponseWriter;
+import net.phoenix.server.http.files.ByteRangesEntity;
+import net.phoenix.server.http.files.FileEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * The entity of a response sent on an HTTP/2 stream, read a frame at a time as the flow-control windows allow. Strings, files and streams are read when the connection asks for data, while a publisher pushes its batches, which are held until they have been sent, and only the next batch is requested once they are. This class is for internal use and should not be modified or used by the end user.
+ */
+abstract class ResponseBody {
+    /**
+     * Creates the body of an entity.
+     *
+     * @param string The string entity, or null if there is none
+     * @param entity The other entity of the response, or null if there is none
+     * @param length The number of bytes of the other entity, or -1 if a publisher did not announce it
+     * @param wake   Called when a publisher has published data or ended, so the connection writes it
+     * @return The body, or null if the response has no entity
+     */
+    static @Nullable ResponseBody of(@Nullable String string, @Nullable Object entity, long length, @NotNull Runnable wake) {
+        if (entity instanceof Flow.Publisher<?> publisher) {
+            if (string == null) return new PublisherBody(publisher, wake);
+            return new PartsBody(List.of(ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8))), new PublisherBody(publisher, wake));
+        }
+        List<Object> parts = new ArrayList<>();
+        if (string != null && !string.isEmpty()) parts.add(ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8)));
+        if (entity instanceof FileEntity file) {
+            ByteBuffer cached = file.getCachedBuffer();
+            parts.add(cached != null ? cached : file);
+        } else if (entity instanceof ByteRangesEntity ranges) {
+            for (Object part : ranges.getParts()) {
+                if (part instanceof ByteBuffer buffer) {
+                    parts.add(buffer.duplicate());
+                } else if (part instanceof FileEntity file) {
+                    ByteBuffer cached = file.getCachedBuffer();
+                    parts.add(cached != null ? cached : file);
+                }
+            }
+        } else if (entity instanceof InputStream stream) {
+            parts.add(new StreamPart(stream, length));
+        }
+        return parts.isEmpty() ? null : new PartsBody(parts, null);
+    }
+
+    /**
+     * Discards an entity that will not be sent.
+     *
+     * @param entity The entity
+     */
+    static void discard(@Nullable Object entity) {
+        if (entity instanceof InputStream stream) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        } else if (entity instanceof Flow.Publisher<?> publisher) {
+            ResponseWriter.discard(publisher);
+        }
+    }
+
+    /**
+     * Reads the next bytes of the body.
+     *
+     * @param buffer The buffer to read into, up to its limit
+     * @return The number of bytes read, 0 if no data is available yet, or -1 if the body has ended
+     * @throws IOException If the body failed or ended before its announced length
+     */
+    abstract int read(@NotNull ByteBuffer buffer) throws IOException;
+
+    /**
+     * Checks whether the whole body has been read, so the frame carrying its last bytes can end the stream.
+     *
+     * @return True if no bytes are left
+     */
+    abstract boolean isFinished();
+
+    /**
+     * Releases what the body holds, such as an open file or the subscription to a publisher.
+     */
+    abstract void close();
+
+    /**
+     * An InputStream entity, which is read until the announced number of bytes.
+     *
+     * @param stream The stream
+     * @param length The number of bytes to read from it
+     */
+    private record StreamPart(InputStream stream, long length) {
+    }
+
+    /**
+     * A body made of buffers, files and streams, read one after the other, optionally followed by a publisher.
+     */
+    private static final class PartsBody extends ResponseBody {
+        private final Iterator<Object> parts;
+        private final @Nullable PublisherBody tail;
+        private @Nullable ByteBuffer current;
+        private @Nullable ReadableByteChannel source;
+        private long remaining;
+
+        /**
+         * Creates a new body.
+         *
+         * @param parts The parts, in order
+         * @param tail  A publisher sent after the parts, or null
+         */
+        private PartsBody(@NotNull List<Object> parts, @Nullable PublisherBody tail) {
+            this.parts = parts.iterator();
+            this.tail = tail;
+        }
+
+        @Override
+        int read(@NotNull ByteBuffer buffer) throws IOException {
+            int read = 0;
+            while (buffer.hasRemaining()) {
+                if (current != null && current.hasRemaining()) {
+                    int count = Math.min(current.remaining(), buffer.remaining());
+                    ByteBuffer slice = current.slice();
+                    slice.limit(count);
+                    buffer.put(slice);
+                    current.position(current.position() + count);
+                    read += count;
+                    continue;
+                }
+                current = null;
+                if (source != null && remaining > 0) {
+                    int limit = buffer.limit();
+                    buffer.limit((int) Math.min(limit, buffer.position() + remaining));
+                    int count;
+                    try {
+                        count = source.read(buffer);
+                    } finally {
+                        buffer.limit(limit);
+                    }
+                    if (count < 0) throw new EOFException("Entity ended " + remaining + " bytes early");
+                    remaining -= count;
+                    read += count;
+                    // A stream that has nothing yet is read again with the next frame
+                    if (count == 0) break;
+                    continue;
+                }
+                closeSource();
+                if (!parts.hasNext()) {
+                    if (tail == null) return read == 0 ? -1 : read;
+                    int count = tail.read(buffer);
+                    if (count < 0) return read == 0 ? -1 : read;
+                    return read + count;
+                }
+                Object part = parts.next();
+                if (part instanceof ByteBuffer next) {
+                    current = next;
+                } else if (part instanceof FileEntity file) {
+                    source = file.open();
+                    remaining = file.getLength();
+                } else if (part instanceof StreamPart stream) {
+                    source = Channels.newChannel(stream.stream());
+                    remaining = stream.length();
+                }
+            }
+            return read;
+        }
+
+        @Override
+        boolean isFinished() {
+            return (current == null || !current.hasRemaining()) && (source == null || remaining == 0) && !parts.hasNext() && (tail == null || tail.isFinished());
+        }
+
+        @Override
+        void close() {
+            closeSource();
+            while (parts.hasNext()) {
+                if (parts.next() instanceof StreamPart stream) discard(stream.stream());
+            }
+            if (tail != null) tail.close();
+        }
+
+        /**
+         * Closes the file or stream being read, if there is one.
+         */
+        private void closeSource() {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                }
+                source = null;
+            }
+        }
+    }
+
+    /**
+     * A publisher entity, which publishes lists of buffers. A batch is requested once the previous one has been sent.
+     */
+    private static final class PublisherBody extends ResponseBody implements Flow.Subscriber<List<ByteBuffer>> {
+        private final Runnable wake;
+        private final Deque<ByteBuffer> queue = new ArrayDeque<>();
+        private @Nullable Flow.Subscription subscription;
+        private @Nullable Throwable error;
+        private boolean requested = false;
+        private boolean ended = false;
+        private boolean cancelled = false;
+
+        /**
+         * Subscribes to a publisher.
+         *
+         * @param publisher The publisher
+         * @param wake      Called when data has been published or the publisher has ended
+         */
+        @SuppressWarnings("unchecked")
+        private PublisherBody(@NotNull Flow.Publisher<?> publisher, @NotNull Runnable wake) {
+            this.wake = wake;
+            ((Flow.Publisher<List<ByteBuffer>>) publisher).subscribe(this);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            boolean cancel;
+            synchronized (this) {
+                this.subscription = subscription;
+                cancel = cancelled;
+                if (!cancel) requested = true;
+            }
+            if (cancel) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> batch) {
+            synchronized (this) {
+                requested = false;
+                for (ByteBuffer buffer : batch) {
+                    if (buffer.hasRemaining()) queue.add(buffer);
+                }
+            }
+            wake.run();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            synchronized (this) {
+                error = throwable;
+                ended = true;
+            }
+            wake.run();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                ended = true;
+            }
+            wake.run();
+        }
+
+        @Override
+        int read(@NotNull ByteBuffer buffer) throws IOException {
+            Flow.Subscription request = null;
+            int read = 0;
+            synchronized (this) {
+                if (error != null) throw error instanceof IOException io ? io : new IOException(error);
+                while (buffer.hasRemaining() && !queue.isEmpty()) {
+                    ByteBuffer head = queue.peek();
+                    int count = Math.min(head.remaining(), buffer.remaining());
+                    ByteBuffer slice = head.slice();
+                    slice.limit(count);
+                    buffer.put(slice);
+                    head.position(head.position() + count);
+                    if (!head.hasRemaining()) queue.poll();
+                    read += count;
+                }
+                if (queue.isEmpty() && !ended && !requested && subscription != null) {
+                    requested = true;
+                    request = subscription;
+                }
+                if (read == 0 && queue.isEmpty() && ended) return -1;
+            }
+            // The next batch may be delivered on this thread, which only queues it and wakes the connection
+            if (request != null) request.request(1);
+            return read;
+        }
+
+        @Override
+        synchronized boolean isFinished() {
+            return ended && error == null && queue.isEmpty();
+        }
+
+        @Override
+        void close() {
+            Flow.Subscription cancel;
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+                cancel = ended ? null : subscription;
+            }
+            if (cancel != null) cancel.cancel();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package net.phoenix.server.http.processors;
+
+import net.phoenix.server.http.ResponseWriter;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+
+/**
+ * Evaluates the If-None-Match and If-Modified-Since preconditions of GET and HEAD requests. This class is used internally to turn responses the client already has into 304 Not Modified responses. It is not intended for use by the end user.
+ */
+public class ConditionalRequest {
+    /**
+     * The headers copied from a full response into the 304 response that replaces it, as listed by RFC 9110.
+     */
+    private static final List<String> NOT_MODIFIED_HEADERS = List.of("Cache-Control", "Content-Location", "Date", "ETag", "Expires", "Last-Modified", "Server", "Vary");
+
+    /**
+     * Checks whether the client's cached copy of a representation is still current.
+     *
+     * @param request      The request carrying the preconditions
+     * @param etag         The entity tag of the current representation, or null if it has none
+     * @param lastModified The modification time of the current representation in milliseconds since the epoch, or a negative value if it is unknown
+     * @return True if the client's copy is current and a 304 response should be sent
+     */
+    public static boolean isNotModified(@NotNull HttpRequest request, @Nullable String etag, long lastModified) {
+        if (request.method() != HttpOpCode.GET && request.method() != HttpOpCode.HEAD) return false;
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-Modified-Since is ignored when If-None-Match is present
+            return etag != null && matches(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince == null || lastModified < 0) return false;
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            // HTTP dates only have second precision
+            return lastModified / 1000 <= since / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replaces a 200 response with a 304 response if the request's preconditions show the client already has it. The preconditions are checked against the ETag and Last-Modified headers of the response, so any route can support conditional requests by setting them.
+     *
+     * @param request  The request carrying the preconditions
+     * @param response The response the route produced
+     * @return The response to send, which is either the original response or a 304 response without a body
+     */
+    public static @NotNull HttpResponse apply(@NotNull HttpRequest request, @NotNull HttpResponse response) {
+        if (response.statusCode() != 200) return response;
+        Map<String, List<String>> headers = response.responseHeaders();
+        List<String> etag = headers.get("ETag");
+        List<String> lastModified = headers.get("Last-Modified");
+        if (etag == null && lastModified == null) return response;
+        long modified = -1;
+        if (lastModified != null) {
+            try {
+                modified = ZonedDateTime.parse(lastModified.get(0), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+            }
+        }
+        if (!isNotModified(request, etag == null ? null : etag.get(0), modified)) return response;
+
+        if (response.entity().isPresent() && response.entity().get() instanceof InputStream stream) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        } else if (response.entity().isPresent() && response.entity().get() instanceof Flow.Publisher<?> publisher) {
+            ResponseWriter.discard(publisher);
+        }
+        Map<String, List<String>> notModifiedHeaders = new HashMap<>();
+        for (String name : NOT_MODIFIED_HEADERS) {
+            List<String> value = headers.get(name);
+            if (value != null) notModifiedHeaders.put(name, value);
+        }
+        return new HttpResponseBuilder().setHeaders(notModifiedHeaders).setStatusCode(304).build();
+    }
+
+    /**
+     * Compares an If-None-Match header against an entity tag using the weak comparison.
+     *
+     * @param ifNoneMatch The value of the If-None-Match header
+     * @param etag        The entity tag of the current representation
+     * @return True if any of the tags in the header match
+     */
+    private static boolean matches(@NotNull String ifNoneMatch, @NotNull String etag) {
+        String opaqueTag = stripWeak(etag);
+        int start = 0;
+        while (start < ifNoneMatch.length()) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if (end < 0) end = ifNoneMatch.length();
+            String tag = ifNoneMatch.substring(start, end).trim();
+            if (tag.equals("*") || stripWeak(tag).equals(opaqueTag)) return true;
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the weak indicator from an entity tag.
+     *
+     * @param tag The entity tag
+     * @return The opaque tag, including its quotes
+     */
+    private static @NotNull String stripWeak(@NotNull String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
@@ -0,0 +1,147 @@
+package net.phoenix.server.http.processors;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.files.CompressedFileCache;
+import net.phoenix.server.http.files.FileEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Negotiates the content coding of responses with the Accept-Encoding header of the request. This class is used internally to compress responses before they are sent. It is not intended for use by the end user. <br> <br>
+ * Files are served from a precompressed sibling or from the {@link CompressedFileCache}, and string bodies are compressed on every response. Only bodies of at least {@link Server#compressionMinSize} bytes with a content type listed in {@link Server#compressibleTypes} are compressed.
+ */
+public class ContentEncoding {
+    /**
+     * The content codings the server can produce, in order of preference. Brotli is only served from precompressed siblings, as the JDK has no Brotli encoder.
+     */
+    private static final List<String> ENCODINGS = List.of("br", "gzip", "deflate");
+
+    /**
+     * Replaces the body of a 200 response with a compressed representation the client accepts. Responses that can be compressed are marked with "Vary: Accept-Encoding" whether they are compressed or not, so caches keep the representations apart.
+     *
+     * @param request  The request carrying the Accept-Encoding header
+     * @param response The response the route produced
+     * @return The response to send, which is either the original response or a compressed response
+     */
+    public static @NotNull HttpResponse apply(@NotNull HttpRequest request, @NotNull HttpResponse response) {
+        Map<String, List<String>> headers = response.responseHeaders();
+        if (response.statusCode() != 200 || response.entity().isEmpty() || headers.containsKey("Content-Encoding")) return response;
+        List<String> contentType = headers.get("Content-Type");
+        if (contentType == null || !isCompressible(contentType.get(0))) return response;
+        Object entity = response.entity().get();
+        if (!(entity instanceof FileEntity) && !(entity instanceof String)) return response;
+
+        HttpResponseBuilder responseBuilder = new HttpResponseBuilder(response);
+        List<String> vary = headers.get("Vary");
+        if (vary == null) {
+            responseBuilder.addHeader("Vary", "Accept-Encoding");
+        } else if (vary.stream().noneMatch(value -> value.toLowerCase(Locale.ROOT).contains("accept-encoding"))) {
+            responseBuilder.addHeader("Vary", String.join(", ", vary) + ", Accept-Encoding");
+        }
+
+        Map<String, Double> accepted = parse(request.getHeader("Accept-Encoding"));
+        for (String encoding : ENCODINGS) {
+            if (!isAccepted(accepted, encoding)) continue;
+            if (entity instanceof FileEntity file) {
+                FileEntity compressed = CompressedFileCache.get(file, encoding);
+                if (compressed == null) continue;
+                // Still being compressed, so this response is sent uncompressed rather than with a less preferred coding
+                if (compressed == file) break;
+                responseBuilder.setEntity(compressed);
+            } else {
+                if (encoding.equals("br")) continue;
+                byte[] body = ((String) entity).getBytes(StandardCharsets.UTF_8);
+                if (body.length < Server.compressionMinSize) break;
+                byte[] compressed = CompressedFileCache.compress(body, 0, body.length, encoding);
+                if (compressed.length >= body.length) break;
+                responseBuilder.setEntity(new ByteArrayInputStream(compressed), compressed.length);
+            }
+            List<String> etag = headers.get("ETag");
+            if (etag != null) {
+                responseBuilder.setETag(tagFor(etag.get(0), encoding));
+            }
+            return responseBuilder.addHeader("Content-Encoding", encoding).build();
+        }
+        return responseBuilder.build();
+    }
+
+    /**
+     * Checks whether a content type is worth compressing.
+     *
+     * @param contentType The value of the Content-Type header
+     * @return True if the type is listed in {@link Server#compressibleTypes}
+     */
+    private static boolean isCompressible(@NotNull String contentType) {
+        String type = contentType.toLowerCase(Locale.ROOT);
+        for (String compressible : Server.compressibleTypes) {
+            if (compressible.endsWith("/") ? type.startsWith(compressible) : type.equals(compressible) || type.startsWith(compressible + ";")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Derives the entity tag of a compressed representation, which has to differ from that of the identity representation as their bytes differ.
+     *
+     * @param etag     The entity tag of the identity representation
+     * @param encoding The content coding of the compressed representation
+     * @return The entity tag of the compressed representation
+     */
+    private static @NotNull String tagFor(@NotNull String etag, @NotNull String encoding) {
+        if (!etag.endsWith("\"")) return etag + "-" + encoding;
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * Parses an Accept-Encoding header into the quality value of each coding.
+     *
+     * @param acceptEncoding The value of the header, or null if the request has none
+     * @return The quality of each coding listed, including "*"
+     */
+    private static @NotNull Map<String, Double> parse(@Nullable String acceptEncoding) {
+        Map<String, Double> accepted = new HashMap<>();
+        if (acceptEncoding == null) return accepted;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty()) continue;
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            accepted.put(name, quality);
+        }
+        return accepted;
+    }
+
+    /**
+     * Checks whether the client accepts a content coding.
+     *
+     * @param accepted The qualities parsed from the Accept-Encoding header
+     * @param encoding The content coding
+     * @return True if the coding, or the "*" wildcard, is listed with a non-zero quality
+     */
+    private static boolean isAccepted(@NotNull Map<String, Double> accepted, @NotNull String encoding) {
+        Double quality = accepted.get(encoding);
+        if (quality == null) quality = accepted.get("*");
+        return quality != null && quality > 0;
+    }
+}
@@ -0,0 +1,582 @@
+package net.phoenix.server.http.processors;
+
+import net.phoenix.server.http.builder.HttpRequestBuilder;
+import net.phoenix.server.http.container.HttpHeaders;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpRequestBody;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An incremental HTTP/1.x request parser. The parser works directly on the bytes read from the socket and keeps its state between reads, so a request may arrive split across any number of reads. Bodies are framed by Content-Length or chunked transfer encoding. One parser is used per connection. This class is used internally to process incoming HTTP requests. It is not intended for use by the end user.
+ */
+public class HttpRequestParser {
+    /**
+     * The maximum size of the request line and headers combined.
+     */
+    public static final int MAX_HEADER_SIZE = 8192;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+
+    /**
+     * The size up to which a request body is kept in memory. Larger bodies are spooled to a temporary file.
+     */
+    public static final int MAX_IN_MEMORY_BODY_SIZE = 64 * 1024;
+    private final String ip;
+    private final long maxBodySize;
+    private State state = State.REQUEST_LINE;
+    private byte[] data = new byte[512];
+    private int length = 0;
+    private int lineStart = 0;
+    private int headerLength = 0;
+    private int[] offsets = new int[64];
+    private int headerCount = 0;
+    private HttpOpCode method;
+    private String path;
+    private String query;
+    private String version;
+    private @Nullable BodyWriter body;
+    private long remaining = 0;
+    private boolean continueExpected = false;
+
+    /**
+     * Creates a new parser for a connection.
+     *
+     * @param ip          The IP address the requests originate from
+     * @param maxBodySize The largest request body that will be accepted, in bytes
+     */
+    public HttpRequestParser(String ip, long maxBodySize) {
+        this.ip = ip;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Feeds the readable bytes of the buffer into the parser. The buffer's position is advanced past every byte that was consumed. If a request is completed, any bytes after it are left in the buffer for the next call, which allows pipelined requests.
+     *
+     * @param buffer The buffer to read from, flipped for reading
+     * @return The completed request, or null if more data is needed
+     * @throws HttpParseException If the request is malformed
+     */
+    public @Nullable HttpRequest parse(@NotNull ByteBuffer buffer) throws HttpParseException {
+        while (buffer.hasRemaining()) {
+            if (state == State.BODY || state == State.CHUNK_DATA) {
+                assert body != null;
+                int count = (int) Math.min(buffer.remaining(), remaining);
+                body.write(buffer, count);
+                remaining -= count;
+                if (remaining > 0) continue;
+                if (state == State.BODY) {
+                    return complete();
+                }
+                state = State.CHUNK_DATA_END;
+                continue;
+            }
+            if (length == MAX_HEADER_SIZE) {
+                throw new HttpParseException(431, "Request headers exceed " + MAX_HEADER_SIZE + " bytes");
+            }
+            if (length == data.length) {
+                data = Arrays.copyOf(data, Math.min(data.length * 2, MAX_HEADER_SIZE));
+            }
+            // Copy as much as fits in one go, then hand back whatever follows the current part of the request
+            int count = Math.min(buffer.remaining(), data.length - length);
+            buffer.get(data, length, count);
+            int end = length + count;
+            while (length < end) {
+                if (data[length++] != LF) continue;
+                int lineEnd = length - 1;
+                if (lineEnd > lineStart && data[lineEnd - 1] == CR) lineEnd--;
+                if (state == State.REQUEST_LINE) {
+                    // Empty lines before the request line are ignored, as recommended by RFC 9112
+                    if (lineEnd > lineStart) {
+                        parseRequestLine(lineStart, lineEnd);
+                        state = State.HEADERS;
+                    }
+                    lineStart = length;
+                } else if (state == State.HEADERS && lineEnd > lineStart) {
+                    parseHeader(lineStart, lineEnd);
+                    lineStart = length;
+                } else {
+                    buffer.position(buffer.position() - (end - length));
+                    if (state == State.HEADERS) {
+                        headerLength = length;
+                        if (!startBody()) {
+                            return complete();
+                        }
+                    } else if (parseChunkLine(lineStart, lineEnd)) {
+                        return complete();
+                    }
+                    // Chunk framing lines are not kept, only the headers are
+                    length = headerLength;
+                    lineStart = length;
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decides how the body of the request is framed once all headers have been read.
+     *
+     * @return True if the request has a body that needs to be read, false if the request is complete
+     * @throws HttpParseException If the framing headers are invalid, or the body is larger than allowed
+     */
+    private boolean startBody() throws HttpParseException {
+        int transferEncoding = indexOfHeader("transfer-encoding");
+        int contentLength = indexOfHeader("content-length");
+        if (transferEncoding >= 0) {
+            if (contentLength >= 0) {
+                throw new HttpParseException(400, "Both Content-Length and Transfer-Encoding were sent");
+            }
+            if (!valueEqualsIgnoreCase(transferEncoding, "chunked")) {
+                throw new HttpParseException(501, "Unsupported Transfer-Encoding");
+            }
+            body = new BodyWriter(maxBodySize);
+            state = State.CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = parseLength(contentLength);
+            if (remaining > maxBodySize) {
+                throw new HttpParseException(413, "Request body of " + remaining + " bytes exceeds the limit of " + maxBodySize + " bytes");
+            }
+            if (remaining == 0) return false;
+            body = new BodyWriter(maxBodySize);
+            state = State.BODY;
+        } else {
+            return false;
+        }
+        int expect = indexOfHeader("expect");
+        continueExpected = expect >= 0 && valueEqualsIgnoreCase(expect, "100-continue");
+        return true;
+    }
+
+    /**
+     * Parses a line of the chunked body framing: a chunk size, the line ending after a chunk, or a trailer.
+     *
+     * @param start The index of the first byte of the line
+     * @param end   The index after the last byte of the line
+     * @return True if the last chunk and trailers have been read and the request is complete
+     * @throws HttpParseException If the line is malformed, or the body is larger than allowed
+     */
+    private boolean parseChunkLine(int start, int end) throws HttpParseException {
+        switch (state) {
+            case CHUNK_SIZE -> {
+                long size = 0;
+                int i = start;
+                for (; i < end && data[i] != ';' && data[i] != SP && data[i] != '\t'; i++) {
+                    int digit = Character.digit(data[i], 16);
+                    if (digit < 0) throw new HttpParseException(400, "Invalid chunk size");
+                    size = size * 16 + digit;
+                    if (size > maxBodySize) {
+                        throw new HttpParseException(413, "Request body exceeds the limit of " + maxBodySize + " bytes");
+                    }
+                }
+                if (i == start) throw new HttpParseException(400, "Invalid chunk size");
+                if (size == 0) {
+                    state = State.TRAILERS;
+                } else {
+                    remaining = size;
+                    state = State.CHUNK_DATA;
+                }
+            }
+            case CHUNK_DATA_END -> {
+                if (end != start) throw new HttpParseException(400, "Chunk data is longer than its size");
+                state = State.CHUNK_SIZE;
+            }
+            case TRAILERS -> {
+                // Trailer fields are discarded, the request ends at the first empty line
+                return end == start;
+            }
+            default -> throw new IllegalStateException("Unexpected parser state " + state);
+        }
+        return false;
+    }
+
+    /**
+     * Parses the request line, for example "GET /index.html?a=b HTTP/1.1".
+     *
+     * @param start The index of the first byte of the line
+     * @param end   The index after the last byte of the line
+     * @throws HttpParseException If the request line is malformed
+     */
+    private void parseRequestLine(int start, int end) throws HttpParseException {
+        int methodEnd = indexOf(SP, start, end);
+        int targetEnd = methodEnd < 0 ? -1 : indexOf(SP, methodEnd + 1, end);
+        if (methodEnd <= start || targetEnd <= methodEnd + 1) {
+            throw new HttpParseException(400, "Malformed request line");
+        }
+        method = HttpOpCode.fromBytes(data, start, methodEnd - start);
+        if (method == null) {
+            throw new HttpParseException(501, "Unsupported HTTP method");
+        }
+        int queryStart = indexOf((byte) '?', methodEnd + 1, targetEnd);
+        int pathEnd = queryStart < 0 ? targetEnd : queryStart;
+        path = new String(data, methodEnd + 1, pathEnd - methodEnd - 1, StandardCharsets.UTF_8);
+        query = queryStart < 0 ? null : new String(data, queryStart + 1, targetEnd - queryStart - 1, StandardCharsets.UTF_8);
+        version = new String(data, targetEnd + 1, end - targetEnd - 1, StandardCharsets.ISO_8859_1);
+        if (!version.equals("HTTP/1.1") && !version.equals("HTTP/1.0")) {
+            throw new HttpParseException(505, "Unsupported HTTP version " + version);
+        }
+    }
+
+    /**
+     * Records the position of a header name and value. The header is not converted into strings until it is used.
+     *
+     * @param start The index of the first byte of the line
+     * @param end   The index after the last byte of the line
+     * @throws HttpParseException If the header is malformed
+     */
+    private void parseHeader(int start, int end) throws HttpParseException {
+        int colon = indexOf((byte) ':', start, end);
+        if (colon <= start) {
+            throw new HttpParseException(400, "Malformed header line");
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && (data[valueStart] == SP || data[valueStart] == '\t')) valueStart++;
+        int valueEnd = end;
+        while (valueEnd > valueStart && (data[valueEnd - 1] == SP || data[valueEnd - 1] == '\t')) valueEnd--;
+        if (headerCount * 4 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        int i = headerCount * 4;
+        offsets[i] = start;
+        offsets[i + 1] = colon;
+        offsets[i + 2] = valueStart;
+        offsets[i + 3] = valueEnd;
+        headerCount++;
+    }
+
+    /**
+     * Finds a header of the current request.
+     *
+     * @param name The lower case name of the header
+     * @return The index of the header, or -1 if the request does not contain it
+     */
+    private int indexOfHeader(@NotNull String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (nameEquals(i, name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the value of a header as a length.
+     *
+     * @param index The index of the header
+     * @return The length
+     * @throws HttpParseException If the header is not a valid length
+     */
+    private long parseLength(int index) throws HttpParseException {
+        long value = 0;
+        int start = offsets[index * 4 + 2];
+        int end = offsets[index * 4 + 3];
+        if (start == end) throw new HttpParseException(400, "Invalid Content-Length");
+        for (int j = start; j < end; j++) {
+            byte b = data[j];
+            if (b < '0' || b > '9') throw new HttpParseException(400, "Invalid Content-Length");
+            value = value * 10 + (b - '0');
+            if (value > maxBodySize) {
+                throw new HttpParseException(413, "Request body exceeds the limit of " + maxBodySize + " bytes");
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Compares a header value against a lower case value without allocating.
+     *
+     * @param index The index of the header
+     * @param value The lower case value to compare to
+     * @return True if the values are equal, ignoring case
+     */
+    private boolean valueEqualsIgnoreCase(int index, @NotNull String value) {
+        return equalsIgnoreCase(offsets[index * 4 + 2], offsets[index * 4 + 3], value);
+    }
+
+    /**
+     * Compares a header name against a lower case name without allocating.
+     *
+     * @param index The index of the header
+     * @param name  The lower case name to compare to
+     * @return True if the names are equal, ignoring case
+     */
+    private boolean nameEquals(int index, @NotNull String name) {
+        return equalsIgnoreCase(offsets[index * 4], offsets[index * 4 + 1], name);
+    }
+
+    /**
+     * Compares a range of the parsed data against a lower case ASCII string.
+     *
+     * @param start The index of the first byte to compare
+     * @param end   The index after the last byte to compare
+     * @param value The lower case string to compare to
+     * @return True if the range is equal to the string, ignoring case
+     */
+    private boolean equalsIgnoreCase(int start, int end, @NotNull String value) {
+        if (end - start != value.length()) return false;
+        for (int j = 0; j < value.length(); j++) {
+            byte b = data[start + j];
+            if (b >= 'A' && b <= 'Z') b += 32;
+            if (b != value.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds a byte in the parsed data.
+     *
+     * @param b     The byte to find
+     * @param start The index to start searching from
+     * @param end   The index to stop searching at
+     * @return The index of the byte, or -1 if it was not found
+     */
+    private int indexOf(byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the completed request and resets the parser for the next request on the connection.
+     *
+     * @return The completed request
+     * @throws HttpParseException If a spooled body cannot be finished
+     */
+    private @NotNull HttpRequest complete() throws HttpParseException {
+        HttpRequestBuilder requestBuilder = new HttpRequestBuilder()
+                .setMethod(method)
+                .setPath(path)
+                .setVersion(version)
+                .setIp(ip)
+                .setQuery(query)
+                .setHeaders(new HttpHeaders(Arrays.copyOf(data, headerLength), Arrays.copyOf(offsets, headerCount * 4), headerCount))
+                .setBody(body == null ? HttpRequestBody.EMPTY : body.finish());
+        body = null;
+        if (query != null) {
+            parseQuery(requestBuilder, query);
+        }
+        reset();
+        return requestBuilder.build();
+    }
+
+    /**
+     * Parses the query string into url parameters. This is also used for the requests of HTTP/2 streams, whose target arrives as a single field.
+     *
+     * @param requestBuilder The builder to add the parameters to
+     * @param query          The query string, without the leading "?"
+     */
+    public static void parseQuery(@NotNull HttpRequestBuilder requestBuilder, @NotNull String query) {
+        int start = 0;
+        while (start < query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0) end = query.length();
+            if (end > start) {
+                int equals = query.indexOf('=', start);
+                if (equals < 0 || equals > end) {
+                    requestBuilder.addParam(query.substring(start, end), "");
+                } else {
+                    requestBuilder.addParam(query.substring(start, equals), query.substring(equals + 1, end));
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Resets the parser so it can read the next request.
+     */
+    private void reset() {
+        state = State.REQUEST_LINE;
+        length = 0;
+        lineStart = 0;
+        headerCount = 0;
+        method = null;
+        path = null;
+        query = null;
+        version = null;
+        headerLength = 0;
+        remaining = 0;
+        continueExpected = false;
+    }
+
+    /**
+     * Checks whether the parser is part way through a request.
+     *
+     * @return True if some bytes of a request have been consumed but the request is not complete yet
+     */
+    public boolean isInProgress() {
+        return length > 0;
+    }
+
+    /**
+     * Checks whether the parser has read the headers of a request and is reading its body.
+     *
+     * @return True if the body of a request is being read
+     */
+    public boolean isReadingBody() {
+        return state != State.REQUEST_LINE && state != State.HEADERS;
+    }
+
+    /**
+     * Checks whether the client is waiting for a "100 Continue" response before sending the body. This only returns true once per request.
+     *
+     * @return True if the client sent "Expect: 100-continue" and is waiting to send the body
+     */
+    public boolean takeContinueExpected() {
+        boolean expected = continueExpected;
+        continueExpected = false;
+        return expected;
+    }
+
+    /**
+     * Discards a partially read request, deleting any body that has been spooled to disk. This should be called when the connection is closed.
+     */
+    public void discard() {
+        if (body != null) {
+            body.discard();
+            body = null;
+        }
+        reset();
+    }
+
+    /**
+     * The part of the request the parser is currently reading.
+     */
+    private enum State {
+        REQUEST_LINE,
+        HEADERS,
+        BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_DATA_END,
+        TRAILERS
+    }
+
+    /**
+     * Collects the body of a request. The body is kept in memory until it grows past {@link #MAX_IN_MEMORY_BODY_SIZE}, after which it is spooled to a temporary file. HTTP/2 streams use one writer each for the DATA frames of their request.
+     */
+    public static class BodyWriter {
+        private final long maxBodySize;
+        private byte[] data = new byte[1024];
+        private long length = 0;
+        private @Nullable Path file;
+        private @Nullable FileChannel channel;
+
+        /**
+         * Creates a new body writer.
+         *
+         * @param maxBodySize The largest body that will be accepted, in bytes
+         */
+        public BodyWriter(long maxBodySize) {
+            this.maxBodySize = maxBodySize;
+        }
+
+        /**
+         * Appends bytes from the buffer to the body.
+         *
+         * @param buffer The buffer to read from
+         * @param count  The number of bytes to append
+         * @throws HttpParseException If the body grows larger than allowed, or cannot be spooled to disk
+         */
+        public void write(@NotNull ByteBuffer buffer, int count) throws HttpParseException {
+            if (length + count > maxBodySize) {
+                throw new HttpParseException(413, "Request body exceeds the limit of " + maxBodySize + " bytes");
+            }
+            try {
+                if (channel == null && length + count > MAX_IN_MEMORY_BODY_SIZE) {
+                    file = Files.createTempFile("request-body-", ".tmp");
+                    channel = FileChannel.open(file, StandardOpenOption.WRITE);
+                    channel.write(ByteBuffer.wrap(data, 0, (int) length));
+                    data = null;
+                }
+                if (channel != null) {
+                    ByteBuffer slice = buffer.slice();
+                    slice.limit(count);
+                    while (slice.hasRemaining()) {
+                        channel.write(slice);
+                    }
+                    buffer.position(buffer.position() + count);
+                } else {
+                    if (length + count > data.length) {
+                        data = Arrays.copyOf(data, (int) Math.min(Math.max(data.length * 2, length + count), MAX_IN_MEMORY_BODY_SIZE));
+                    }
+                    buffer.get(data, (int) length, count);
+                }
+            } catch (IOException e) {
+                discard();
+                throw new HttpParseException(500, "Failed to spool request body due to: " + e.getMessage());
+            }
+            length += count;
+        }
+
+        /**
+         * Finishes the body.
+         *
+         * @return The completed body
+         * @throws HttpParseException If the spooled body cannot be written
+         */
+        public @NotNull HttpRequestBody finish() throws HttpParseException {
+            if (channel == null) {
+                return new HttpRequestBody(data, (int) length);
+            }
+            assert file != null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                discard();
+                throw new HttpParseException(500, "Failed to spool request body due to: " + e.getMessage());
+            }
+            return new HttpRequestBody(file, length);
+        }
+
+        /**
+         * Discards the body, deleting the spooled file if there is one.
+         */
+        public void discard() {
+            try {
+                if (channel != null) channel.close();
+                if (file != null) Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Thrown when an incoming request cannot be parsed.
+     */
+    public static class HttpParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int statusCode;
+
+        /**
+         * Creates a new parse exception.
+         *
+         * @param statusCode The status code that should be returned to the client
+         * @param message    The reason the request could not be parsed
+         */
+        public HttpParseException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * Gets the status code that should be returned to the client.
+         *
+         * @return The status code
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+}
@@ -4,11 +4,15 @@ import net.phoenix.server.Server;
 import net.phoenix.server.http.container.HttpRequest;
 import net.phoenix.server.http.container.HttpResponse;
 import net.phoenix.server.http.reflection.Route;
+import net.phoenix.server.http.reflection.RouteTree;
 import net.phoenix.server.http.reflection.Router;
+import net.phoenix.server.metrics.ServerMetrics;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
 
 import static net.phoenix.server.http.reflection.Route.getError;
 import static net.phoenix.server.http.reflection.Route.getFile;
@@ -25,15 +29,69 @@ public class IncomingRequest {
      * @return The response to send back to the client
      */
     public static HttpResponse processRequest(@NotNull HttpRequest request) {
+        return processRequest(request, match(request));
+    }
+
+    /**
+     * Processes an incoming HTTP request that has already been matched to its route. This method should not be called, edited, or otherwise used or modified by the end user in any situation.
+     *
+     * @param request The request to process
+     * @param match   The route matched by {@link #match(HttpRequest)}
+     * @return The response to send back to the client
+     */
+    public static HttpResponse processRequest(@NotNull HttpRequest request, @Nullable RouteTree.Match<Route> match) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse response = route(request, match);
+            // Cached routes store their responses with the content coding already applied
+            if (match == null || !match.value().isCached()) {
+                response = ContentEncoding.apply(request, response);
+            }
+            return RangeRequest.apply(request, ConditionalRequest.apply(request, response));
+        } finally {
+            ServerMetrics.handled(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Matches an incoming HTTP request to its route, so the server can decide where to run it before processing it.
+     *
+     * @param request The request to match
+     * @return The route and its path variables, or null if the request is for a static file or is rejected
+     */
+    public static @Nullable RouteTree.Match<Route> match(@NotNull HttpRequest request) {
+        if (request.path().contains("..")) return null;
+        return Router.route(request.method(), path(request));
+    }
+
+    /**
+     * Gets the path of a request without its query string.
+     *
+     * @param request The request
+     * @return The path
+     */
+    private static @NotNull String path(@NotNull HttpRequest request) {
+        String path = request.path();
+        int query = path.indexOf('?');
+        return query < 0 ? path : path.substring(0, query);
+    }
+
+    /**
+     * Routes an incoming HTTP request to its route or static file.
+     *
+     * @param request The request to route
+     * @param match   The route matched for the request, or null to serve a static file
+     * @return The response produced for the request
+     */
+    private static HttpResponse route(@NotNull HttpRequest request, @Nullable RouteTree.Match<Route> match) {
         try {
             if (request.path().contains("..")) {
                 Server.logger.logError("Illegal path traversal containing \"../\" detected from " + request.ip());
                 return getError(403).build();
             }
-            Route r = Router.route(request.method().toString(), request.path().split("\\?")[0]);
-            if (r == null) {
+            if (match == null) {
                 try {
-                    return getFile(request.path().split("\\?")[0]).build();
+                    return getFile(path(request)).build();
                 } catch (IOException e) {
                     Server.logger.logError("Failed to process request due to: " + e.getMessage());
                     return getError(404).build();
@@ -41,9 +99,8 @@ public class IncomingRequest {
                     return getError(404).build();
                 }
             }
-            Server.logger.logConnection(request.ip(), request.path());
-
-            return r.route(request);
+            Map<String, String> pathParams = match.params();
+            return match.value().route(pathParams.isEmpty() ? request : request.withPathParams(pathParams));
         } catch (IllegalAccessException | InvocationTargetException e) {
             Server.logger.logError("Failed to process request due to: " + e.getMessage());
             throw new RuntimeException(e);
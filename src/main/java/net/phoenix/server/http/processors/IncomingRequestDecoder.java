@@ -7,7 +7,10 @@ import org.jetbrains.annotations.NotNull;
 
 /**
  * A class that processes incoming HTTP requests. This class is used internally to process incoming HTTP requests. It is not intended for use by the end user.
+ *
+ * @deprecated Replaced by {@link HttpRequestParser}, which parses requests incrementally without decoding them into a string first. This decoder is kept as the baseline for the request parsing benchmark.
  */
+@Deprecated
 public class IncomingRequestDecoder {
 
     /**
@@ -24,6 +27,9 @@ public class IncomingRequestDecoder {
         String path = requestLine[1];
         requestBuilder.setMethod(HttpOpCode.fromString(requestLine[0]));
         requestBuilder.setPath(path);
+        if (requestLine.length > 2) {
+            requestBuilder.setVersion(requestLine[2]);
+        }
         for (int i = 1; i < headerData.length - 1; i++) {
             String[] header = headerData[i].split(": ");
             if (headerData[i].isEmpty()) {
@@ -0,0 +1,133 @@
+package net.phoenix.server.http.processors;
+
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.files.ByteRangesEntity;
+import net.phoenix.server.http.files.FileEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serves the byte ranges requested through the Range header of GET requests for files. This class is used internally to turn full file responses into 206 Partial Content responses. It is not intended for use by the end user.
+ */
+public class RangeRequest {
+    /**
+     * The maximum number of ranges served in a single response. Requests for more ranges are answered with the whole file.
+     */
+    public static final int MAX_RANGES = 16;
+
+    /**
+     * Replaces a 200 response carrying a file with a 206 response containing the ranges requested by the client. A single range is sent as a slice of the file, several ranges as a multipart/byteranges entity, and ranges that lie entirely outside the file result in a 416 response.
+     *
+     * @param request  The request carrying the Range header
+     * @param response The response the route produced
+     * @return The response to send, which is either the original response or a partial response
+     */
+    public static @NotNull HttpResponse apply(@NotNull HttpRequest request, @NotNull HttpResponse response) {
+        if (response.statusCode() != 200 || !(response.entity().orElse(null) instanceof FileEntity file)) return response;
+        HttpResponseBuilder responseBuilder = new HttpResponseBuilder(response).addHeader("Accept-Ranges", "bytes");
+
+        String range = request.getHeader("Range");
+        if (range == null || request.method() != HttpOpCode.GET || !ifRangeMatches(request, response)) {
+            return responseBuilder.build();
+        }
+        long length = file.getLength();
+        List<long[]> ranges = parse(range, length);
+        if (ranges == null) {
+            // Invalid or excessive ranges are ignored, and the whole file is sent
+            return responseBuilder.build();
+        }
+        if (ranges.isEmpty()) {
+            return new HttpResponseBuilder().setStatusCode(416).addHeader("Content-Range", "bytes */" + length).build();
+        }
+
+        responseBuilder.setStatusCode(206);
+        if (ranges.size() == 1) {
+            long[] only = ranges.get(0);
+            return responseBuilder
+                    .addHeader("Content-Range", "bytes " + only[0] + "-" + only[1] + "/" + length)
+                    .setEntity(file.slice(only[0], only[1] - only[0] + 1))
+                    .build();
+        }
+        List<String> contentType = response.responseHeaders().get("Content-Type");
+        String type = contentType == null ? "application/octet-stream" : contentType.get(0);
+        ByteRangesEntity entity = new ByteRangesEntity(Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime()));
+        for (long[] slice : ranges) {
+            entity.addRange(file.slice(slice[0], slice[1] - slice[0] + 1), type);
+        }
+        entity.finish();
+        return responseBuilder
+                .addHeader("Content-Type", "multipart/byteranges; boundary=" + entity.getBoundary())
+                .setEntity(entity)
+                .build();
+    }
+
+    /**
+     * Checks the If-Range precondition. A range request is only honoured if the client's copy is the current one, otherwise the whole file has to be sent.
+     *
+     * @param request  The request carrying the If-Range header
+     * @param response The response carrying the ETag and Last-Modified of the file
+     * @return True if there is no If-Range header, or it matches the current representation
+     */
+    private static boolean ifRangeMatches(@NotNull HttpRequest request, @NotNull HttpResponse response) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            List<String> etag = response.responseHeaders().get("ETag");
+            // If-Range requires the strong comparison, so a weak tag never matches
+            return etag != null && !ifRange.startsWith("W/") && !etag.get(0).startsWith("W/") && etag.get(0).equals(ifRange);
+        }
+        List<String> lastModified = response.responseHeaders().get("Last-Modified");
+        return lastModified != null && lastModified.get(0).equals(ifRange);
+    }
+
+    /**
+     * Parses a Range header into the ranges that overlap the file.
+     *
+     * @param range  The value of the Range header
+     * @param length The length of the file
+     * @return The first and last byte of each satisfiable range, an empty list if none are satisfiable, or null if the header is invalid or asks for too many ranges
+     */
+    private static @Nullable List<long[]> parse(@NotNull String range, long length) {
+        if (!range.startsWith("bytes=")) return null;
+        List<long[]> ranges = new ArrayList<>();
+        int count = 0;
+        int start = 6;
+        while (start <= range.length()) {
+            int end = range.indexOf(',', start);
+            if (end < 0) end = range.length();
+            String spec = range.substring(start, end).trim();
+            start = end + 1;
+            if (spec.isEmpty()) continue;
+            if (++count > MAX_RANGES) return null;
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            try {
+                long first;
+                long last;
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) continue;
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                    if (first < 0 || last < first) return null;
+                    last = Math.min(last, length - 1);
+                }
+                if (first >= length) continue;
+                ranges.add(new long[]{first, last});
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return count == 0 ? null : ranges;
+    }
+}
@@ -0,0 +1,21 @@
+package net.phoenix.server.http.proxy;
+
+import net.phoenix.server.http.reflection.Route;
+
+/**
+ * How a proxy route with several targets picks the target of a request. Whichever policy is chosen, targets that have been ejected by the health checks are skipped while other targets are available.
+ */
+public enum LoadBalancing {
+    /**
+     * Send requests to the targets in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * Send each request to the target with the fewest requests in progress, weighed by how quickly the target has been answering, so a target that slows down receives fewer requests before it fails outright.
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * Send requests with the same key to the same target, where the key is the header named by {@link Route.ProxyRoute#hashHeader()}, or the path if the header is not set. Targets are placed on a hash ring, so a target leaving or rejoining only moves the keys it owns.
+     */
+    CONSISTENT_HASH
+}
@@ -0,0 +1,328 @@
+package net.phoenix.server.http.proxy;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.Route;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forwards requests to the targets of proxy routes. Every target has a single {@link HttpClient}, created the first time the target is used and shared by every request to it, so connections to the target are pooled and reused instead of being opened for each request. <br> <br>
+ * Requests are forwarded by an {@link UpstreamGroup}, which picks the target and records the outcome. The request body is streamed to the target, and the body of the answer is streamed to the client as it arrives, with the status and end-to-end headers of the target, so neither body is ever held in memory as a whole. Hop-by-hop headers, which only describe a single connection, are not forwarded in either direction. This class is for internal use and should not be modified or used by the end user.
+ */
+public class ReverseProxy {
+    // Headers that describe a single connection (RFC 9110, section 7.6.1), along with those the HttpClient sets itself and refuses to be given
+    private static final Set<String> REQUEST_EXCLUDED = Set.of("connection", "keep-alive", "proxy-connection", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length", "expect", "http2-settings");
+    private static final Set<String> RESPONSE_EXCLUDED = Set.of("connection", "keep-alive", "proxy-connection", "proxy-authenticate", "te", "trailer", "transfer-encoding", "upgrade", "content-length");
+    // Header names whose usual spelling does not follow the capitalisation rule of canonicalName
+    private static final Map<String, String> HEADER_NAMES = Map.of("etag", "ETag", "www-authenticate", "WWW-Authenticate", "content-md5", "Content-MD5", "x-xss-protection", "X-XSS-Protection");
+    private static final Map<String, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Sends a request to a target and waits for its status and headers.
+     *
+     * @param request The request to forward
+     * @param target  The URL of the target
+     * @return The answer of the target, whose body has not been read yet
+     * @throws IOException              If the target cannot be reached or does not answer in time
+     * @throws InterruptedException     If the thread is interrupted while waiting
+     * @throws IllegalArgumentException If the target and path do not form a valid URL
+     */
+    static java.net.http.HttpResponse<Flow.Publisher<List<ByteBuffer>>> send(@NotNull HttpRequest request, @NotNull String target) throws IOException, InterruptedException {
+        return client(target).send(toUpstream(request, target), info -> hasBody(request, info.statusCode())
+                ? java.net.http.HttpResponse.BodySubscribers.ofPublisher()
+                : java.net.http.HttpResponse.BodySubscribers.replacing(null));
+    }
+
+    /**
+     * Logs a request that could not be forwarded and builds the response to it: 504 Gateway Timeout if the target did not answer in time, and 502 Bad Gateway otherwise.
+     *
+     * @param target The URL of the target
+     * @param e      The reason the request could not be forwarded
+     * @return The error response
+     */
+    static @NotNull HttpResponse failure(@NotNull String target, @NotNull Exception e) {
+        Server.logger.logError("Failed to proxy request to " + target + " due to: " + reason(e));
+        return Route.getError(e instanceof HttpTimeoutException ? 504 : 502).build();
+    }
+
+    /**
+     * Describes why forwarding a request failed. Some failures, such as a refused connection, carry no message.
+     *
+     * @param e The exception
+     * @return The message of the exception, or its name if it has none
+     */
+    private static @NotNull String reason(@NotNull Exception e) {
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    /**
+     * Gets the client of a target, creating it the first time the target is used. Targets on the same scheme, host and port share a client, and so share its connections.
+     *
+     * @param target The URL of the target
+     * @return The client
+     * @throws IllegalArgumentException If the target is not a valid URL
+     */
+    public static @NotNull HttpClient client(@NotNull String target) {
+        URI uri = URI.create(target);
+        String origin = uri.getScheme() + "://" + uri.getRawAuthority();
+        HttpClient client = CLIENTS.get(origin);
+        if (client == null) {
+            client = CLIENTS.computeIfAbsent(origin, key -> HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    .connectTimeout(Duration.ofMillis(Server.proxyConnectTimeout))
+                    .build());
+        }
+        return client;
+    }
+
+    /**
+     * Builds the request sent to the target.
+     *
+     * @param request The request to forward
+     * @param target  The URL of the target
+     * @return The request for the target
+     * @throws IllegalArgumentException If the target and path do not form a valid URL
+     */
+    private static java.net.http.HttpRequest toUpstream(@NotNull HttpRequest request, @NotNull String target) {
+        StringBuilder uri = new StringBuilder(target).append(request.path());
+        // The query is forwarded exactly as it was sent, as the parsed parameters lose repeated names, their order and empty values
+        if (request.query() != null) {
+            uri.append('?').append(request.query());
+        }
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(URI.create(uri.toString()))
+                .timeout(Duration.ofMillis(Server.proxyTimeout));
+
+        Set<String> excluded = connectionHeaders(request.getHeader("Connection"), REQUEST_EXCLUDED);
+        for (Map.Entry<String, String> header : request.headers().entrySet()) {
+            String name = header.getKey();
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (excluded.contains(lower) || lower.startsWith("x-forwarded-")) continue;
+            builder.header(name, header.getValue());
+        }
+        String client = clientAddress(request.ip());
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        builder.header("X-Forwarded-For", forwardedFor == null ? client : forwardedFor + ", " + client);
+        builder.header("X-Forwarded-Proto", "http");
+        String host = request.getHeader("Host");
+        if (host != null) builder.header("X-Forwarded-Host", host);
+
+        long length = request.requestBody() == null ? 0 : request.requestBody().length();
+        java.net.http.HttpRequest.BodyPublisher body;
+        if (length == 0) {
+            body = java.net.http.HttpRequest.BodyPublishers.noBody();
+        } else {
+            // The body stays available until the response has been produced, so it can be streamed straight from memory or its spool file
+            body = java.net.http.HttpRequest.BodyPublishers.fromPublisher(java.net.http.HttpRequest.BodyPublishers.ofInputStream(() -> {
+                try {
+                    return request.bodyStream();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }), length);
+        }
+        return builder.method(request.method().name(), body).build();
+    }
+
+    /**
+     * Converts the answer of a target into a response, keeping its status and end-to-end headers.
+     *
+     * @param upstream The answer of the target
+     * @param finished Run once the body of the answer has been streamed, has failed or has been cancelled, or at once if the answer has no body
+     * @return The response, streaming the body of the answer
+     */
+    static @NotNull HttpResponse toResponse(@NotNull java.net.http.HttpResponse<Flow.Publisher<List<ByteBuffer>>> upstream, @NotNull Runnable finished) {
+        Map<String, List<String>> upstreamHeaders = upstream.headers().map();
+        List<String> connection = upstreamHeaders.get("connection");
+        Set<String> excluded = connectionHeaders(connection == null ? null : String.join(",", connection), RESPONSE_EXCLUDED);
+        Map<String, List<String>> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : upstreamHeaders.entrySet()) {
+            String name = header.getKey();
+            if (name.startsWith(":") || excluded.contains(name.toLowerCase(Locale.ROOT))) continue;
+            headers.put(canonicalName(name), header.getValue());
+        }
+        HttpResponseBuilder builder = new HttpResponseBuilder().setStatusCode(upstream.statusCode()).addHeaders(headers);
+        Flow.Publisher<List<ByteBuffer>> body = upstream.body();
+        if (body != null) {
+            builder.setEntity(new TrackedBody(body, finished), upstream.headers().firstValueAsLong("Content-Length").orElse(-1));
+        } else {
+            finished.run();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks whether the answer to a request has a body to forward. The answers to HEAD requests and 1xx, 204 and 304 answers never have one.
+     *
+     * @param request The request
+     * @param status  The status code of the answer
+     * @return True if the answer has a body
+     */
+    private static boolean hasBody(@NotNull HttpRequest request, int status) {
+        return request.method() != HttpOpCode.HEAD && status >= 200 && status != 204 && status != 304;
+    }
+
+    /**
+     * Collects the headers that must not be forwarded: the given hop-by-hop headers, and any header the Connection header lists as specific to the connection.
+     *
+     * @param connection The value of the Connection header, or null if there is none
+     * @param hopByHop   The hop-by-hop headers in lower case
+     * @return The names of the headers in lower case
+     */
+    private static @NotNull Set<String> connectionHeaders(String connection, @NotNull Set<String> hopByHop) {
+        if (connection == null) return hopByHop;
+        Set<String> excluded = new HashSet<>(hopByHop);
+        for (String token : connection.split(",")) {
+            String name = token.trim().toLowerCase(Locale.ROOT);
+            if (!name.isEmpty()) excluded.add(name);
+        }
+        return excluded;
+    }
+
+    /**
+     * Extracts the address of the client from the remote address of its connection.
+     *
+     * @param ip The remote address, such as "/127.0.0.1:50000"
+     * @return The address without the leading slash and the port, such as "127.0.0.1"
+     */
+    private static @NotNull String clientAddress(@NotNull String ip) {
+        int start = ip.startsWith("/") ? 1 : 0;
+        int port = ip.lastIndexOf(':');
+        return ip.substring(start, port > start ? port : ip.length());
+    }
+
+    /**
+     * Spells a header name the way the server spells it, so headers of the target replace the server's own, such as Date and Server, and are found by the processors that read them, such as ETag. The HttpClient gives header names in lower case.
+     *
+     * @param name The name of the header
+     * @return The name with the first letter of every word capitalised, or its usual spelling
+     */
+    private static @NotNull String canonicalName(@NotNull String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        String known = HEADER_NAMES.get(lower);
+        if (known != null) return known;
+        char[] chars = lower.toCharArray();
+        boolean start = true;
+        for (int i = 0; i < chars.length; i++) {
+            if (start) chars[i] = Character.toUpperCase(chars[i]);
+            start = chars[i] == '-';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Streams the body of an answer and tells once it has ended, whether it has been streamed entirely, has failed or has been cancelled, such as when the response is discarded or the client goes away.
+     */
+    private static final class TrackedBody implements Flow.Publisher<List<ByteBuffer>> {
+        private final Flow.Publisher<List<ByteBuffer>> body;
+        private final Runnable finished;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        /**
+         * Creates a new body.
+         *
+         * @param body     The body of the answer
+         * @param finished Run once the body has ended
+         */
+        private TrackedBody(@NotNull Flow.Publisher<List<ByteBuffer>> body, @NotNull Runnable finished) {
+            this.body = body;
+            this.finished = finished;
+        }
+
+        /**
+         * Subscribes to the body of the answer, passing its batches and its end on to the subscriber.
+         *
+         * @param subscriber The subscriber
+         */
+        @Override
+        public void subscribe(Flow.Subscriber<? super List<ByteBuffer>> subscriber) {
+            body.subscribe(new Flow.Subscriber<>() {
+                /**
+                 * Invoked when the subscription starts. Hands the subscriber a subscription that also ends the body when cancelled.
+                 *
+                 * @param subscription The subscription
+                 */
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriber.onSubscribe(new Flow.Subscription() {
+                        /**
+                         * Requests more batches.
+                         *
+                         * @param n The number of batches
+                         */
+                        @Override
+                        public void request(long n) {
+                            subscription.request(n);
+                        }
+
+                        /**
+                         * Cancels the subscription, ending the body.
+                         */
+                        @Override
+                        public void cancel() {
+                            subscription.cancel();
+                            end();
+                        }
+                    });
+                }
+
+                /**
+                 * Invoked with the next batch of the body.
+                 *
+                 * @param batch The buffers of the batch
+                 */
+                @Override
+                public void onNext(List<ByteBuffer> batch) {
+                    subscriber.onNext(batch);
+                }
+
+                /**
+                 * Invoked when the body fails.
+                 *
+                 * @param throwable The cause of the failure
+                 */
+                @Override
+                public void onError(Throwable throwable) {
+                    end();
+                    subscriber.onError(throwable);
+                }
+
+                /**
+                 * Invoked once the body has been streamed entirely.
+                 */
+                @Override
+                public void onComplete() {
+                    end();
+                    subscriber.onComplete();
+                }
+            });
+        }
+
+        /**
+         * Runs the callback the first time the body ends.
+         */
+        private void end() {
+            if (ended.compareAndSet(false, true)) finished.run();
+        }
+    }
+}
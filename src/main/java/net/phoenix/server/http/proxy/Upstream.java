@@ -0,0 +1,168 @@
+package net.phoenix.server.http.proxy;
+
+import net.phoenix.server.Server;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A target of a proxy route, along with what is known about its state: the requests in progress, how quickly it has been answering, and whether the health checks have taken it out of rotation. <br> <br>
+ * A target is ejected passively after {@link Server#proxyMaxFailures} consecutive failed requests, for {@link Server#proxyEjectionTime} milliseconds, and actively while its health check fails.
+ */
+public class Upstream {
+    // The weight of a new latency sample in the moving average, as a power of two
+    private static final int LATENCY_SHIFT = 3;
+
+    private final String target;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong latency = new AtomicLong();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long ejectedUntil = 0;
+    private volatile boolean ejected = false;
+    private volatile boolean healthy = true;
+
+    /**
+     * Creates a new upstream.
+     *
+     * @param target The URL of the target
+     */
+    public Upstream(@NotNull String target) {
+        this.target = target;
+    }
+
+    /**
+     * Gets the URL of the target.
+     *
+     * @return The URL of the target
+     */
+    public @NotNull String getTarget() {
+        return target;
+    }
+
+    /**
+     * Checks whether requests may be sent to the target, which is the case unless its health check fails or it has been ejected for failing requests.
+     *
+     * @param now The current time, as a value of {@link System#nanoTime()}
+     * @return True if the target is available
+     */
+    public boolean isAvailable(long now) {
+        return healthy && (!ejected || now - ejectedUntil >= 0);
+    }
+
+    /**
+     * Records a request being sent to the target.
+     */
+    void started() {
+        outstanding.incrementAndGet();
+        requests.increment();
+    }
+
+    /**
+     * Records the end of a request sent to the target, once the body of its answer has been streamed, or at once if the request failed or the answer has no body.
+     */
+    void released() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Records the outcome of a request sent to the target, once it has answered with its status and headers. A success ends a passive ejection, and the failure that reaches {@link Server#proxyMaxFailures} consecutive failures starts one, as does any failure of a target whose ejection has just ended.
+     *
+     * @param nanos  The time until the target answered with its status and headers, or failed
+     * @param failed Whether the request failed, because the target could not be reached, did not answer in time or answered with 502, 503 or 504
+     */
+    void answered(long nanos, boolean failed) {
+        long sample = Math.max(nanos, 0);
+        latency.updateAndGet(average -> average == 0 ? sample : average + ((sample - average) >> LATENCY_SHIFT));
+        if (!failed) {
+            consecutiveFailures.set(0);
+            if (ejected) {
+                ejected = false;
+                Server.logger.logInfo("Proxy target " + target + " is answering again");
+            }
+            return;
+        }
+        failures.increment();
+        // A target that fails again right after its ejection has ended is ejected again at once
+        if (ejected || consecutiveFailures.incrementAndGet() >= Server.proxyMaxFailures && Server.proxyMaxFailures > 0) {
+            consecutiveFailures.set(0);
+            ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Server.proxyEjectionTime);
+            ejected = true;
+            Server.logger.logWarn("Ejected proxy target " + target + " for " + Server.proxyEjectionTime + "ms as its requests are failing");
+        }
+    }
+
+    /**
+     * Records the result of a health check. The target is taken out of rotation while its checks fail.
+     *
+     * @param passed Whether the check passed
+     */
+    void checked(boolean passed) {
+        if (passed == healthy) return;
+        healthy = passed;
+        if (passed) {
+            Server.logger.logInfo("Proxy target " + target + " passed its health check");
+        } else {
+            Server.logger.logWarn("Proxy target " + target + " failed its health check");
+        }
+    }
+
+    /**
+     * Weighs how busy the target is, for {@link LoadBalancing#LEAST_OUTSTANDING}: the requests in progress, including those whose body is still being streamed, counting the one being placed, times the average time the target takes to answer.
+     *
+     * @return The load of the target, where lower is better
+     */
+    double getLoad() {
+        return (outstanding.get() + 1) * (double) Math.max(latency.get(), 1);
+    }
+
+    /**
+     * Gets the number of requests sent to the target whose answer has not been received yet, including answers whose body is still being streamed to the client.
+     *
+     * @return The number of requests in progress
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Gets the moving average of the time the target takes to answer with its status and headers.
+     *
+     * @param unit The unit to return the time in
+     * @return The average time, or 0 if no request has been sent yet
+     */
+    public long getLatency(@NotNull TimeUnit unit) {
+        return unit.convert(latency.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the number of requests sent to the target.
+     *
+     * @return The number of requests
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Gets the number of requests to the target that failed.
+     *
+     * @return The number of failed requests
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Checks whether the target passed its last health check.
+     *
+     * @return True if the target is healthy, or has no health check
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+}
@@ -0,0 +1,293 @@
+package net.phoenix.server.http.proxy;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.TimerWheel;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.Route;
+import net.phoenix.server.metrics.ServerMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpConnectTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The targets of a proxy route, and the policy spreading requests over them. Requests go to the targets the health checks consider available; if none is available, they are spread over all targets anyway, as a target that may have recovered is better than no answer at all. <br> <br>
+ * A request that could not be connected to its target never reached it, so it is retried once on another target, whatever its method. Failures after the request has been sent are not retried, as the target may have acted on the request. <br> <br>
+ * Groups are created by proxy routes, but can also be created directly, for example to forward requests from a standard route: <br> <br>
+ * <code>
+ * private static final UpstreamGroup BACKENDS = new UpstreamGroup(List.of("http://10.0.0.1:8080", "http://10.0.0.2:8080"), LoadBalancing.LEAST_OUTSTANDING, null, "/health"); <br>
+ * return BACKENDS.forward(request);
+ * </code>
+ */
+public class UpstreamGroup {
+    // The points each target has on the hash ring, so keys are spread evenly even between a few targets
+    private static final int VIRTUAL_NODES = 100;
+
+    private final Upstream[] upstreams;
+    private final LoadBalancing balancing;
+    private final @Nullable String hashHeader;
+    private final AtomicInteger next = new AtomicInteger();
+    // The points of the targets on the hash ring, sorted, with the index of their target in the lowest 16 bits
+    private final long[] ring;
+    // The next health check of every target, or null if the targets are not checked
+    private final TimerWheel.Timeout @Nullable [] checks;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new group of targets, and starts their health checks if a health check path is given.
+     *
+     * @param targets     The URLs of the targets
+     * @param balancing   How the target of a request is picked
+     * @param hashHeader  The header whose value is hashed by {@link LoadBalancing#CONSISTENT_HASH}, or null or empty to hash the path
+     * @param healthCheck The path requested from every target every {@link Server#proxyHealthCheckInterval} milliseconds to check it, or null or empty for no active health checks. A target is healthy while the path answers with a status below 400
+     * @throws IllegalArgumentException If there are no targets, or more than 65535
+     */
+    public UpstreamGroup(@NotNull List<String> targets, @NotNull LoadBalancing balancing, @Nullable String hashHeader, @Nullable String healthCheck) {
+        if (targets.isEmpty() || targets.size() > 0xFFFF) throw new IllegalArgumentException("A proxy route needs between 1 and 65535 targets");
+        this.upstreams = targets.stream().map(Upstream::new).toArray(Upstream[]::new);
+        this.balancing = balancing;
+        this.hashHeader = hashHeader == null || hashHeader.isEmpty() ? null : hashHeader;
+        if (balancing == LoadBalancing.CONSISTENT_HASH) {
+            long[] points = new long[upstreams.length * VIRTUAL_NODES];
+            for (int i = 0; i < upstreams.length; i++) {
+                for (int node = 0; node < VIRTUAL_NODES; node++) {
+                    points[i * VIRTUAL_NODES + node] = hash(upstreams[i].getTarget() + "#" + node) & ~0xFFFFL | i;
+                }
+            }
+            Arrays.sort(points);
+            this.ring = points;
+        } else {
+            this.ring = new long[0];
+        }
+        if (healthCheck != null && !healthCheck.isEmpty()) {
+            this.checks = new TimerWheel.Timeout[upstreams.length];
+            for (int i = 0; i < upstreams.length; i++) {
+                scheduleCheck(i, healthCheck);
+            }
+        } else {
+            this.checks = null;
+        }
+    }
+
+    /**
+     * Stops the health checks of the targets. Requests can still be forwarded, but the health of the targets is no longer checked.
+     */
+    public void close() {
+        closed = true;
+        if (checks == null) return;
+        synchronized (checks) {
+            for (TimerWheel.Timeout check : checks) {
+                if (check != null) check.cancel();
+            }
+        }
+    }
+
+    /**
+     * Forwards a request to a target picked by the policy of the group. The outcome is recorded on the target, so the health checks and the {@link LoadBalancing#LEAST_OUTSTANDING} policy can use it. The request counts as outstanding on its target until the body of the answer has been streamed, or discarded.
+     *
+     * @param request The request to forward
+     * @return The response of the target, or 502 Bad Gateway or 504 Gateway Timeout if no target could answer it
+     */
+    public @NotNull HttpResponse forward(@NotNull HttpRequest request) {
+        Upstream upstream = select(request, null);
+        boolean retried = false;
+        while (true) {
+            upstream.started();
+            long start = System.nanoTime();
+            boolean streaming = false;
+            try {
+                java.net.http.HttpResponse<Flow.Publisher<List<ByteBuffer>>> answer = ReverseProxy.send(request, upstream.getTarget());
+                int status = answer.statusCode();
+                answered(upstream, start, status == 502 || status == 503 || status == 504);
+                HttpResponse response = ReverseProxy.toResponse(answer, upstream::released);
+                streaming = true;
+                return response;
+            } catch (ConnectException | HttpConnectTimeoutException e) {
+                answered(upstream, start, true);
+                Upstream other = retried ? upstream : select(request, upstream);
+                if (other == upstream) return ReverseProxy.failure(upstream.getTarget(), e);
+                Server.logger.logWarn("Retrying request on proxy target " + other.getTarget() + " as " + upstream.getTarget() + " could not be reached");
+                upstream = other;
+                retried = true;
+            } catch (IOException | UncheckedIOException e) {
+                answered(upstream, start, true);
+                return ReverseProxy.failure(upstream.getTarget(), e);
+            } catch (IllegalArgumentException e) {
+                answered(upstream, start, false);
+                return ReverseProxy.failure(upstream.getTarget(), e);
+            } catch (InterruptedException e) {
+                answered(upstream, start, false);
+                Thread.currentThread().interrupt();
+                return Route.getError(502).build();
+            } finally {
+                // Otherwise the target stays busy until the body of its answer has been streamed
+                if (!streaming) upstream.released();
+            }
+        }
+    }
+
+    /**
+     * Picks the target of a request. Available targets are preferred, and if none is available, any target is picked.
+     *
+     * @param request  The request
+     * @param excluded A target not to pick, such as one that has just failed the request, or null
+     * @return The target, which is the excluded target only if it is the only one
+     */
+    public @NotNull Upstream select(@NotNull HttpRequest request, @Nullable Upstream excluded) {
+        long now = System.nanoTime();
+        Upstream upstream = pick(request, now, excluded, true);
+        if (upstream == null) upstream = pick(request, now, excluded, false);
+        // Nothing may be picked only if the excluded target is the only one
+        return upstream == null ? upstreams[0] : upstream;
+    }
+
+    /**
+     * Gets the targets of the group.
+     *
+     * @return The targets, in the order they were given
+     */
+    public @NotNull List<Upstream> getUpstreams() {
+        return List.of(upstreams);
+    }
+
+    /**
+     * Picks a target by the policy of the group.
+     *
+     * @param request   The request
+     * @param now       The current time, as a value of {@link System#nanoTime()}
+     * @param excluded  A target not to pick, or null
+     * @param available Whether only available targets may be picked
+     * @return The target, or null if no target may be picked
+     */
+    private @Nullable Upstream pick(@NotNull HttpRequest request, long now, @Nullable Upstream excluded, boolean available) {
+        int count = upstreams.length;
+        switch (balancing) {
+            case ROUND_ROBIN -> {
+                int start = next.getAndIncrement();
+                for (int i = 0; i < count; i++) {
+                    Upstream upstream = upstreams[Math.floorMod(start + i, count)];
+                    if (usable(upstream, now, excluded, available)) return upstream;
+                }
+                return null;
+            }
+            case LEAST_OUTSTANDING -> {
+                // Starting from a different target every time spreads ties, such as between idle targets
+                int start = next.getAndIncrement();
+                Upstream best = null;
+                double bestLoad = Double.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    Upstream upstream = upstreams[Math.floorMod(start + i, count)];
+                    if (!usable(upstream, now, excluded, available)) continue;
+                    double load = upstream.getLoad();
+                    if (load < bestLoad) {
+                        best = upstream;
+                        bestLoad = load;
+                    }
+                }
+                return best;
+            }
+            case CONSISTENT_HASH -> {
+                String key = hashHeader == null ? null : request.getHeader(hashHeader);
+                long hash = hash(key == null ? request.path() : key);
+                int index = Arrays.binarySearch(ring, hash);
+                if (index < 0) index = -index - 1;
+                // The key belongs to the first point at or after its hash, and then to the next points around the ring
+                for (int i = 0; i < ring.length; i++) {
+                    Upstream upstream = upstreams[(int) (ring[(index + i) % ring.length] & 0xFFFF)];
+                    if (usable(upstream, now, excluded, available)) return upstream;
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a target may be picked.
+     *
+     * @param upstream  The target
+     * @param now       The current time, as a value of {@link System#nanoTime()}
+     * @param excluded  A target not to pick, or null
+     * @param available Whether only available targets may be picked
+     * @return True if the target may be picked
+     */
+    private static boolean usable(@NotNull Upstream upstream, long now, @Nullable Upstream excluded, boolean available) {
+        return upstream != excluded && (!available || upstream.isAvailable(now));
+    }
+
+    /**
+     * Records the outcome of a request on its target and in the metrics.
+     *
+     * @param upstream The target
+     * @param start    When the request was sent, as a value of {@link System#nanoTime()}
+     * @param failed   Whether the request failed
+     */
+    private static void answered(@NotNull Upstream upstream, long start, boolean failed) {
+        long nanos = System.nanoTime() - start;
+        upstream.answered(nanos, failed);
+        ServerMetrics.upstreamAnswered(upstream.getTarget(), nanos, failed);
+    }
+
+    /**
+     * Schedules the next health check of a target on the shared timer wheel. The check is sent asynchronously, so the wheel's thread never waits for the target, and the following check is scheduled once it completes, unless the group has been closed.
+     *
+     * @param index The index of the target
+     * @param path  The path to request
+     */
+    private void scheduleCheck(int index, @NotNull String path) {
+        assert checks != null;
+        Upstream upstream = upstreams[index];
+        synchronized (checks) {
+            if (closed) return;
+            checks[index] = TimerWheel.shared().schedule(() -> {
+                java.net.http.HttpRequest check;
+                try {
+                    check = java.net.http.HttpRequest.newBuilder(URI.create(upstream.getTarget() + path))
+                            .timeout(Duration.ofMillis(Server.proxyConnectTimeout + Server.proxyHealthCheckInterval))
+                            .GET().build();
+                } catch (IllegalArgumentException e) {
+                    Server.logger.logError("Failed to check proxy target " + upstream.getTarget() + " due to: " + e.getMessage());
+                    return;
+                }
+                ReverseProxy.client(upstream.getTarget()).sendAsync(check, java.net.http.HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((answer, failure) -> {
+                            upstream.checked(failure == null && answer.statusCode() < 400);
+                            scheduleCheck(index, path);
+                        });
+            }, Server.proxyHealthCheckInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Hashes a key onto the ring, spreading similar keys, such as paths that only differ in their last character, over the whole ring.
+     *
+     * @param key The key
+     * @return The hash of the key
+     */
+    private static long hash(@NotNull String key) {
+        // FNV-1a, followed by the finalizer of MurmurHash3, as FNV alone leaves similar keys close together
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
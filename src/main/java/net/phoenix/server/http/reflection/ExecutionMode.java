@@ -0,0 +1,25 @@
+package net.phoenix.server.http.reflection;
+
+import net.phoenix.server.Server;
+
+/**
+ * Where the method of a route is run. Whichever mode is chosen, reading requests and writing responses stays on the threads of the server socket; only the route method itself is moved.
+ */
+public enum ExecutionMode {
+    /**
+     * Use {@link Server#defaultExecutionMode}.
+     */
+    DEFAULT,
+    /**
+     * Run each request on its own virtual thread, so routes can block on databases or remote services without tying up a platform thread. On runtimes without virtual threads, this falls back to {@link #POOL}.
+     */
+    VIRTUAL,
+    /**
+     * Run requests on a bounded pool of platform threads of {@link Server#handlerThreads} threads. Requests that arrive while the pool and its queue are full are answered with 503 Service Unavailable.
+     */
+    POOL,
+    /**
+     * Run requests on the I/O thread that read them. This has the least overhead, but must only be used for routes that never block, as a blocking route stalls every other connection served by the thread.
+     */
+    INLINE
+}
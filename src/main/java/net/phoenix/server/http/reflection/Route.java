@@ -2,13 +2,20 @@ package net.phoenix.server.http.reflection;
 
 import net.phoenix.server.Server;
 import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.cache.ResponseCache;
+import net.phoenix.server.http.cache.SingleFlight;
 import net.phoenix.server.http.container.HttpOpCode;
 import net.phoenix.server.http.container.HttpRequest;
 import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.files.StaticAsset;
+import net.phoenix.server.http.files.StaticFileCache;
+import net.phoenix.server.http.processors.ContentEncoding;
+import net.phoenix.server.http.proxy.LoadBalancing;
+import net.phoenix.server.http.proxy.UpstreamGroup;
+import net.phoenix.server.metrics.ServerMetrics;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -16,11 +23,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.http.HttpClient;
-import java.nio.file.Files;
-import java.util.Objects;
+import java.util.List;
 
 /**
  * A class that represents a route.
@@ -28,29 +31,87 @@ import java.util.Objects;
 @SuppressWarnings("ClassEscapesDefinedScope")
 public class Route {
 
-    private static @Nullable Method method = null;
-    private static @Nullable Type type = null;
-    private static @Nullable ProxyRoute proxyRoute = null;
+    private final @Nullable Method method;
+    private final @Nullable Type type;
+    private final @Nullable ProxyRoute proxyRoute;
+    private final @Nullable RouteInvoker invoker;
+    private final @Nullable UpstreamGroup upstreams;
+    private final @Nullable SingleFlight singleFlight;
+    private final ExecutionMode executionMode;
+    private final boolean cached;
     private final String path;
 
     /**
      * Creates a new route.
      *
-     * @param method The method of the route
-     * @param path   The path of the route
-     * @param type   The type of the route
+     * @param method     The method of the route
+     * @param path       The path of the route
+     * @param type       The type of the route
+     * @param proxyRoute The proxy route annotation, or null for a standard route
+     * @throws IllegalArgumentException If the method of a standard route cannot be used as a route
      */
     public Route(@Nullable Method method, String path, @Nullable Type type, @Nullable ProxyRoute proxyRoute) {
-        Route.method = method;
+        this(method, path, type, proxyRoute, null);
+    }
+
+    /**
+     * Creates a new route with an invoker that has already been created, such as a method reference from a generated {@link RouteRegistry}.
+     *
+     * @param method     The method of the route
+     * @param path       The path of the route
+     * @param type       The type of the route
+     * @param proxyRoute The proxy route annotation, or null for a standard route
+     * @param invoker    The invoker of a standard route, or null to create one from the method
+     * @throws IllegalArgumentException If the method of a standard route cannot be used as a route
+     */
+    Route(@Nullable Method method, String path, @Nullable Type type, @Nullable ProxyRoute proxyRoute, @Nullable RouteInvoker invoker) {
+        this.method = method;
         this.path = path;
-        Route.type = type;
-        Route.proxyRoute = proxyRoute;
+        this.type = type;
+        this.proxyRoute = proxyRoute;
+        StandardRoute standardRoute = type == Type.STANDARD && method != null ? method.getAnnotation(StandardRoute.class) : null;
+        if (standardRoute != null) {
+            this.executionMode = standardRoute.execution();
+            this.cached = standardRoute.cache();
+        } else {
+            this.executionMode = proxyRoute == null ? ExecutionMode.DEFAULT : proxyRoute.execution();
+            this.cached = proxyRoute != null && proxyRoute.cache();
+        }
+        if (invoker != null) {
+            this.invoker = invoker;
+        } else if (type == Type.STANDARD && method != null) {
+            try {
+                this.invoker = RouteInvoker.of(method);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Route method " + method + " is not accessible", e);
+            }
+        } else {
+            this.invoker = null;
+        }
+        this.upstreams = type == Type.PROXY && proxyRoute != null
+                ? new UpstreamGroup(List.of(proxyRoute.target()), proxyRoute.balancing(), proxyRoute.hashHeader(), proxyRoute.healthCheck())
+                : null;
+        Coalesce coalesce = type == Type.STANDARD && method != null ? method.getAnnotation(Coalesce.class) : null;
+        this.singleFlight = coalesce == null ? null : new SingleFlight(coalesce.query(), List.of(coalesce.headers()), coalesce.maxWaiters());
     }
 
+    /**
+     * Creates a new standard route.
+     *
+     * @param method The method of the route
+     * @param path   The path of the route
+     * @param type   The type of the route
+     * @throws IllegalArgumentException If the method cannot be used as a route
+     */
     public Route(@Nullable Method method, String path, @Nullable Type type) {
-        Route.method = method;
-        this.path = path;
-        Route.type = type;
+        this(method, path, type, null);
+    }
+
+    /**
+     * Releases what the route holds once the server stops, which are the health checks of the targets of a proxy route.
+     */
+    public void close() {
+        if (upstreams != null) upstreams.close();
     }
 
     /**
@@ -60,22 +121,20 @@ public class Route {
      * @return The response from the target
      */
     @SuppressWarnings("DataFlowIssue")
-    private static HttpResponse proxyRoute(@NotNull HttpRequest request) {
-        HttpClient client = HttpClient.newHttpClient();
-        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder();
-        try {
-            builder.uri(new URI(proxyRoute.target() + request.path()));
-        } catch (URISyntaxException e) {
-            throw new RuntimeException(e);
-        }
-        builder.method(proxyRoute.opCode().toString(), java.net.http.HttpRequest.BodyPublishers.ofString(request.body()));
-        request.headers().forEach(builder::header);
-        java.net.http.HttpRequest req = builder.build();
-        try {
-            return client.send(req, java.net.http.HttpResponse.BodyHandlers.ofString()).body().isEmpty() ? getError(404).build() : new HttpResponseBuilder().setEntity(client.send(req, java.net.http.HttpResponse.BodyHandlers.ofString()).body()).setStatusCode(200).build();
-        } catch (IOException | InterruptedException e) {
-            return getError(404).build();
-        }
+    private HttpResponse proxyRoute(@NotNull HttpRequest request) {
+        return upstreams.forward(request);
+    }
+
+    /**
+     * Produces the response to a request by proxying it or calling the method of the route.
+     *
+     * @param request The request to route
+     * @return The response to send back to the client
+     * @throws InvocationTargetException If the target method throws an exception
+     */
+    private @NotNull HttpResponse load(@NotNull HttpRequest request) throws InvocationTargetException {
+        if (getType() == Type.PROXY) return proxyRoute(request);
+        return singleFlight == null ? standardRoute(request) : singleFlight.run(request, this::standardRoute);
     }
 
     /**
@@ -84,13 +143,27 @@ public class Route {
      * @param request The request to route
      * @return The response to send back to the client
      * @throws InvocationTargetException If the target method throws an exception
-     * @throws IllegalAccessException    If the target method is inaccessible
      */
     @SuppressWarnings("DataFlowIssue")
-    private static HttpResponse standardRoute(@NotNull HttpRequest request) throws InvocationTargetException, IllegalAccessException {
-        HttpResponse response;
+    private HttpResponse standardRoute(@NotNull HttpRequest request) throws InvocationTargetException {
+        Object r;
+        try {
+            r = invoker.invoke(request);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+        return toResponse(request, r);
+    }
 
-        Object r = method.invoke(null, request);
+    /**
+     * Converts the value returned by a route method into a response. A response is sent as it is, and a string is treated as the path of a static file.
+     *
+     * @param request The request the method was called for
+     * @param r       The value returned by the method
+     * @return The response to send back to the client
+     */
+    private static HttpResponse toResponse(@NotNull HttpRequest request, @Nullable Object r) {
+        HttpResponse response;
         if (r instanceof HttpResponse) {
             response = (HttpResponse) r;
             if (response.statusCode() != 200) {
@@ -129,22 +202,19 @@ public class Route {
     }
 
     /**
-     * Gets a file from the resources' folder.
+     * Gets a file from the resources' folder. Files are served through the {@link StaticFileCache}, so repeated requests for the same file do not touch the disk.
      *
      * @param path The path to the file
      * @return The response containing the file
      * @throws IOException          If an I/O error occurs
      * @throws NullPointerException If the file does not exist
      */
-    @SuppressWarnings("StringEquality")
     public static @NotNull HttpResponseBuilder getFile(String path) throws IOException, NullPointerException {
-        File f = new File(Objects.requireNonNull(Server.clazz.getResource("/static/" + path)).getFile());
-        String type = Files.probeContentType(f.toPath());
+        StaticAsset asset = StaticFileCache.get(path);
         HttpResponseBuilder responseBuilder = new HttpResponseBuilder();
         responseBuilder.setStatusCode(200);
-        responseBuilder.addHeader("Content-Type", type);
-        responseBuilder.addHeader("Content-Disposition", type.contains("text") || type == "application/javascript" ? "inline" : "attachment" + "; filename=" + path);
-        responseBuilder.setEntity(f);
+        responseBuilder.addHeaders(asset.headers());
+        responseBuilder.setEntity(asset.toEntity());
         return responseBuilder;
     }
 
@@ -166,6 +236,33 @@ public class Route {
         return path;
     }
 
+    /**
+     * Gets the invoker that calls the method of the route.
+     *
+     * @return The invoker, or null for a proxy route
+     */
+    public @Nullable RouteInvoker getInvoker() {
+        return invoker;
+    }
+
+    /**
+     * Gets where the method of the route runs.
+     *
+     * @return The execution mode chosen by the route, or {@link Server#defaultExecutionMode} if it did not choose one
+     */
+    public @NotNull ExecutionMode getExecutionMode() {
+        return executionMode == ExecutionMode.DEFAULT ? Server.defaultExecutionMode : executionMode;
+    }
+
+    /**
+     * Gets the collapsed calls of the route, if its method is annotated with {@link Coalesce}.
+     *
+     * @return The collapsed calls, or null if identical requests each call the method
+     */
+    public @Nullable SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
     /**
      * Gets the type of the route.
      *
@@ -176,18 +273,31 @@ public class Route {
     }
 
     /**
-     * Routes the request to the appropriate method.
+     * Checks whether the responses of the route are kept in the shared {@link ResponseCache}.
+     *
+     * @return True if the route is cached
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Routes the request to the appropriate method. The responses of a cached route are given their content coding before they are stored, so the compressed representation is stored once, under the Accept-Encoding header it varies on, instead of being compressed again on every hit.
      *
      * @param request The request to route
      * @return The response to send back to the client
      * @throws InvocationTargetException If the target method throws an exception
-     * @throws IllegalAccessException    If the target method is inaccessible
+     * @throws IllegalAccessException    Never thrown, as routes are made accessible when they are generated; kept for compatibility
      */
     public HttpResponse route(@NotNull HttpRequest request) throws InvocationTargetException, IllegalAccessException {
-        if (getType() == Type.PROXY) {
-            return proxyRoute(request);
-        } else {
-            return standardRoute(request);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            HttpResponse response = cached ? ResponseCache.get(request, loaded -> ContentEncoding.apply(loaded, load(loaded))) : load(request);
+            failed = false;
+            return response;
+        } finally {
+            ServerMetrics.routed(path, System.nanoTime() - start, failed);
         }
     }
 
@@ -201,9 +311,49 @@ public class Route {
     public @interface ProxyRoute {
         String path() default "";
 
-        String target();
+        /**
+         * The URLs of the servers requests are forwarded to, such as "http://localhost:8081". The path and query of a request are appended to the URL of its target. A single target can be given as a plain string.
+         *
+         * @return The targets of the route
+         */
+        String[] target();
 
         HttpOpCode opCode() default HttpOpCode.GET;
+
+        /**
+         * How the target of a request is picked when the route has several targets.
+         *
+         * @return The load balancing policy of the route
+         */
+        LoadBalancing balancing() default LoadBalancing.ROUND_ROBIN;
+
+        /**
+         * The header whose value decides the target of a request under {@link LoadBalancing#CONSISTENT_HASH}, such as a session or user header. Requests without the header, or every request if this is empty, are hashed by their path.
+         *
+         * @return The name of the header
+         */
+        String hashHeader() default "";
+
+        /**
+         * The path requested from every target every {@link Server#proxyHealthCheckInterval} milliseconds, such as "/health". A target answering with a status of 400 or more, or not answering, receives no requests until it passes a check again. If this is empty, targets are only ejected for failing requests.
+         *
+         * @return The health check path
+         */
+        String healthCheck() default "";
+
+        /**
+         * Where the request is forwarded from. Forwarding waits for the target to answer, so proxy routes must not run {@link ExecutionMode#INLINE}.
+         *
+         * @return The execution mode of the route
+         */
+        ExecutionMode execution() default ExecutionMode.DEFAULT;
+
+        /**
+         * Whether the answers of the targets are kept in the shared {@link ResponseCache}, for as long as their Cache-Control header allows a shared cache to.
+         *
+         * @return True if the route is cached
+         */
+        boolean cache() default false;
     }
 
     @Retention(RetentionPolicy.RUNTIME)
@@ -229,6 +379,56 @@ public class Route {
          * @return The HTTP method of the route
          */
         HttpOpCode opCode() default HttpOpCode.GET;
+
+        /**
+         * Where the method of the route runs. Routes that block, for example on a database or a remote service, should run on virtual threads or the handler pool, while short non-blocking routes can run inline on the I/O thread.
+         *
+         * @return The execution mode of the route
+         */
+        ExecutionMode execution() default ExecutionMode.DEFAULT;
+
+        /**
+         * Whether the responses of the route are kept in the shared {@link ResponseCache}. Only responses whose Cache-Control header gives a max-age or s-maxage are stored, so the method decides how long each of its responses may be reused, for example with "Cache-Control: max-age=60, stale-while-revalidate=30".
+         *
+         * @return True if the route is cached
+         */
+        boolean cache() default false;
+    }
+
+    /**
+     * Collapses identical GET and HEAD requests to a standard route that arrive while one of them is being answered into a single call of its method, whose response is sent to all of them. This suits expensive methods whose answer does not depend on who asks, such as a page built from a slow query, which would otherwise run once per request whenever many clients ask for it at once. <br> <br>
+     * Requests are identical if they have the same path and, depending on the annotation, the same query parameters and values of the chosen headers: <br> <br>
+     * <code>
+     * &#64;Route.StandardRoute(path = "/report")<br>
+     * &#64;Route.Coalesce(headers = "Accept-Language", maxWaiters = 500)<br>
+     * public static HttpResponse report(HttpRequest request)
+     * </code>
+     *
+     * @see SingleFlight
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface Coalesce {
+        /**
+         * Whether requests with different query parameters are told apart. Only routes that ignore their query parameters should turn this off.
+         *
+         * @return True if the query parameters are part of the key
+         */
+        boolean query() default true;
+
+        /**
+         * The names of the request headers whose values tell requests apart, such as "Accept-Language" for a route that answers in the language of the client.
+         *
+         * @return The names of the headers
+         */
+        String[] headers() default {};
+
+        /**
+         * The number of requests that may wait for a single call of the method. Further identical requests are answered with 503 Service Unavailable, so a stalled method cannot pile up requests without bound. 0 means no limit.
+         *
+         * @return The maximum number of waiting requests
+         */
+        int maxWaiters() default 1000;
     }
 
 
@@ -0,0 +1,59 @@
+package net.phoenix.server.http.reflection;
+
+import net.phoenix.server.http.container.HttpRequest;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Calls the method behind a route. Invokers are created once, when the routes are generated, so a request does not go through {@link Method#invoke(Object, Object...)} with its access checks and argument boxing. <br> <br>
+ * Where possible the invoker is a class spun by {@link LambdaMetafactory}, which calls the route method directly and can be inlined by the JIT like any other call. Otherwise it falls back to a {@link MethodHandle} adapted to this interface's signature.
+ */
+@FunctionalInterface
+public interface RouteInvoker {
+
+    /**
+     * Creates an invoker for a route method.
+     *
+     * @param method The route method, which must be static and take a single {@link HttpRequest}
+     * @return An invoker that calls the method
+     * @throws IllegalArgumentException If the method cannot be used as a route
+     * @throws IllegalAccessException   If the method is not accessible
+     */
+    static @NotNull RouteInvoker of(@NotNull Method method) throws IllegalArgumentException, IllegalAccessException {
+        if (!Modifier.isStatic(method.getModifiers())) {
+            throw new IllegalArgumentException("Route method " + method + " must be static");
+        }
+        if (method.getParameterCount() != 1 || method.getParameterTypes()[0] != HttpRequest.class) {
+            throw new IllegalArgumentException("Route method " + method + " must take a single HttpRequest");
+        }
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+        MethodHandle handle = lookup.unreflect(method);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "invoke",
+                    MethodType.methodType(RouteInvoker.class),
+                    MethodType.methodType(Object.class, HttpRequest.class),
+                    handle, handle.type());
+            return (RouteInvoker) site.getTarget().invoke();
+        } catch (Throwable e) {
+            // Lookups without full privilege access, such as those across modules, cannot spin lambda classes
+            MethodHandle adapted = handle.asType(MethodType.methodType(Object.class, HttpRequest.class));
+            return request -> (Object) adapted.invokeExact(request);
+        }
+    }
+
+    /**
+     * Calls the route method.
+     *
+     * @param request The request to pass to the method
+     * @return The value returned by the method
+     * @throws Throwable Any exception thrown by the method
+     */
+    Object invoke(@NotNull HttpRequest request) throws Throwable;
+}
@@ -0,0 +1,15 @@
+package net.phoenix.server.http.reflection;
+
+/**
+ * A table of routes generated at compile time. The route processor in the <code>processor</code> module generates an implementation of this interface listing every {@link Route.StandardRoute} and {@link Route.ProxyRoute} method of the {@link WebHandler} classes it compiles, and registers it as a service. <br> <br>
+ * When a registry is found on the classpath, {@link Router#generateRoutes()} loads the routes from it instead of scanning the classpath for handlers.
+ */
+public interface RouteRegistry {
+
+    /**
+     * Registers the routes of this registry through {@link Router#registerStandardRoute} and {@link Router#registerProxyRoute}.
+     *
+     * @throws ReflectiveOperationException If a route method cannot be found
+     */
+    void registerRoutes() throws ReflectiveOperationException;
+}
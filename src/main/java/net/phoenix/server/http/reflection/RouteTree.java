@@ -0,0 +1,354 @@
+package net.phoenix.server.http.reflection;
+
+import net.phoenix.server.http.container.HttpOpCode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A radix tree mapping path patterns to values, with a separate value per HTTP method at every node. Paths are matched character by character against the tree, so a lookup never builds a key string, and its cost depends on the length of the path rather than the number of routes. <br> <br>
+ * Patterns may contain path variables and a trailing wildcard: <br>
+ * <code>/users/{id}</code> matches <code>/users/42</code>, capturing "42" as "id". A variable matches one or more characters up to the next "/". <br>
+ * <code>/files/*path</code> matches <code>/files/a/b.txt</code>, capturing "a/b.txt" as "path". A wildcard matches the rest of the path, including nothing, and must end the pattern. A bare "*" is captured as "*". <br> <br>
+ * Static text takes precedence over variables, and variables over wildcards, so <code>/users/me</code> is matched before <code>/users/{id}</code>. If the more specific branch has no value for the request's method, the next branch is tried.
+ *
+ * @param <T> The type of the values stored in the tree
+ */
+public class RouteTree<T> {
+    private static final int METHODS = HttpOpCode.values().length;
+
+    private final Node root = new Node("");
+    private int maxParams = 0;
+    private int size = 0;
+
+    /**
+     * Adds a value to the tree.
+     *
+     * @param opCode  The HTTP method the value is stored for
+     * @param pattern The path pattern
+     * @param value   The value
+     * @return The value previously stored for the method and pattern, or null if there was none
+     * @throws IllegalArgumentException If the pattern is malformed, or uses a different variable name than an existing pattern at the same position
+     */
+    public @Nullable T put(@NotNull HttpOpCode opCode, @NotNull String pattern, @NotNull T value) throws IllegalArgumentException {
+        Node node = root;
+        int params = 0;
+        int i = 0;
+        final int length = pattern.length();
+        while (i < length) {
+            char c = pattern.charAt(i);
+            if (c == '{') {
+                int end = pattern.indexOf('}', i);
+                if (end < 0 || end == i + 1) throw new IllegalArgumentException("Malformed path variable in " + pattern);
+                node = node.paramChild(pattern.substring(i + 1, end), pattern);
+                params++;
+                i = end + 1;
+            } else if (c == '*') {
+                String name = i == length - 1 ? "*" : pattern.substring(i + 1);
+                if (name.indexOf('/') >= 0 || name.indexOf('{') >= 0) {
+                    throw new IllegalArgumentException("Wildcard must end the pattern " + pattern);
+                }
+                node = node.wildcardChild(name, pattern);
+                params++;
+                i = length;
+            } else {
+                int end = i;
+                while (end < length && pattern.charAt(end) != '{' && pattern.charAt(end) != '*') end++;
+                Node child = node.staticChild(c);
+                if (child == null) {
+                    child = new Node(pattern.substring(i, end));
+                    node.addStatic(child);
+                    i = end;
+                } else {
+                    int common = 0;
+                    int limit = Math.min(child.text.length(), end - i);
+                    while (common < limit && child.text.charAt(common) == pattern.charAt(i + common)) common++;
+                    if (common < child.text.length()) {
+                        child = node.split(child, common);
+                    }
+                    i += common;
+                }
+                node = child;
+            }
+        }
+        maxParams = Math.max(maxParams, params);
+        @SuppressWarnings("unchecked")
+        T previous = (T) node.values[opCode.ordinal()];
+        node.values[opCode.ordinal()] = value;
+        if (previous == null) size++;
+        return previous;
+    }
+
+    /**
+     * Finds the value stored for a method and path.
+     *
+     * @param opCode The HTTP method of the request
+     * @param path   The path of the request, without the query string
+     * @return The value and the captured path variables, or null if no pattern matches the path for the method
+     */
+    public @Nullable Match<T> get(@NotNull HttpOpCode opCode, @NotNull String path) {
+        int[] bounds = maxParams == 0 ? null : new int[maxParams * 2];
+        Node[] captured = maxParams == 0 ? null : new Node[maxParams];
+        Node node = find(root, path, 0, opCode.ordinal(), bounds, captured, 0);
+        if (node == null) return null;
+        @SuppressWarnings("unchecked")
+        T value = (T) node.values[opCode.ordinal()];
+        return new Match<>(value, path, bounds, captured, node.depth);
+    }
+
+    /**
+     * Removes every value from the tree.
+     */
+    public void clear() {
+        root.indices = new char[0];
+        root.children = new Node[0];
+        root.param = null;
+        root.wildcard = null;
+        Arrays.fill(root.values, null);
+        maxParams = 0;
+        size = 0;
+    }
+
+    /**
+     * Gets the number of values stored in the tree, counting each method of a pattern separately.
+     *
+     * @return The number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Matches the rest of a path against the descendants of a node.
+     *
+     * @param node     The node that has already been matched
+     * @param path     The path
+     * @param i        The index in the path after the node
+     * @param method   The ordinal of the HTTP method
+     * @param bounds   The start and end index of each captured variable
+     * @param captured The node that captured each variable
+     * @param depth    The number of variables captured so far
+     * @return The node holding the value, or null if nothing below this node matches
+     */
+    private @Nullable Node find(@NotNull Node node, @NotNull String path, int i, int method, int[] bounds, Node[] captured, int depth) {
+        final int length = path.length();
+        while (true) {
+            if (i == length) {
+                if (node.values[method] != null) return node;
+                return node.wildcard == null ? null : wildcard(node.wildcard, path, i, method, bounds, captured, depth);
+            }
+            Node child = node.staticChild(path.charAt(i));
+            if (child != null && !path.startsWith(child.text, i)) child = null;
+            if (node.param == null && node.wildcard == null) {
+                // Only the static branch can match, so it is followed without recursing
+                if (child == null) return null;
+                i += child.text.length();
+                node = child;
+                continue;
+            }
+            if (child != null) {
+                Node found = find(child, path, i + child.text.length(), method, bounds, captured, depth);
+                if (found != null) return found;
+            }
+            if (node.param != null) {
+                int end = path.indexOf('/', i);
+                if (end < 0) end = length;
+                if (end > i) {
+                    bounds[depth * 2] = i;
+                    bounds[depth * 2 + 1] = end;
+                    captured[depth] = node.param;
+                    Node found = find(node.param, path, end, method, bounds, captured, depth + 1);
+                    if (found != null) return found;
+                }
+            }
+            return node.wildcard == null ? null : wildcard(node.wildcard, path, i, method, bounds, captured, depth);
+        }
+    }
+
+    /**
+     * Matches the rest of a path against a wildcard node.
+     *
+     * @param node     The wildcard node
+     * @param path     The path
+     * @param i        The index in the path the wildcard starts at
+     * @param method   The ordinal of the HTTP method
+     * @param bounds   The start and end index of each captured variable
+     * @param captured The node that captured each variable
+     * @param depth    The number of variables captured so far
+     * @return The wildcard node, or null if it has no value for the method
+     */
+    private static @Nullable Node wildcard(@NotNull Node node, @NotNull String path, int i, int method, int[] bounds, Node[] captured, int depth) {
+        if (node.values[method] == null) return null;
+        bounds[depth * 2] = i;
+        bounds[depth * 2 + 1] = path.length();
+        captured[depth] = node;
+        return node;
+    }
+
+    /**
+     * A node of the tree. A static node matches its text exactly, a variable node matches up to the next "/", and a wildcard node matches the rest of the path.
+     */
+    private static final class Node {
+        private String text;
+        private char[] indices = new char[0];
+        private Node[] children = new Node[0];
+        private @Nullable Node param;
+        private @Nullable Node wildcard;
+        private final Object[] values = new Object[METHODS];
+        // The number of variables captured on the path to this node, including its own
+        private int depth;
+
+        /**
+         * Creates a new node.
+         *
+         * @param text The static text of the node, or the variable name for variable and wildcard nodes
+         */
+        private Node(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Finds the static child starting with a character.
+         *
+         * @param c The first character of the child's text
+         * @return The child, or null if there is none
+         */
+        private @Nullable Node staticChild(char c) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        /**
+         * Adds a static child.
+         *
+         * @param child The child, whose text must not start with the same character as an existing child
+         */
+        private void addStatic(@NotNull Node child) {
+            child.depth = depth;
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            indices[indices.length - 1] = child.text.charAt(0);
+            children[children.length - 1] = child;
+        }
+
+        /**
+         * Splits a static child so its first characters become a node of their own.
+         *
+         * @param child  The child to split
+         * @param common The number of characters to keep in the new node
+         * @return The new node, which holds the rest of the child as its only static child
+         */
+        private @NotNull Node split(@NotNull Node child, int common) {
+            Node head = new Node(child.text.substring(0, common));
+            head.depth = child.depth;
+            child.text = child.text.substring(common);
+            head.indices = new char[]{child.text.charAt(0)};
+            head.children = new Node[]{child};
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) children[i] = head;
+            }
+            return head;
+        }
+
+        /**
+         * Gets or creates the variable child.
+         *
+         * @param name    The name of the variable
+         * @param pattern The pattern being added, for error messages
+         * @return The variable child
+         * @throws IllegalArgumentException If the existing variable child has a different name
+         */
+        private @NotNull Node paramChild(@NotNull String name, @NotNull String pattern) {
+            if (param == null) {
+                param = new Node(name);
+                param.depth = depth + 1;
+            } else if (!param.text.equals(name)) {
+                throw new IllegalArgumentException("Path variable {" + name + "} in " + pattern + " conflicts with {" + param.text + "}");
+            }
+            return param;
+        }
+
+        /**
+         * Gets or creates the wildcard child.
+         *
+         * @param name    The name the rest of the path is captured as
+         * @param pattern The pattern being added, for error messages
+         * @return The wildcard child
+         * @throws IllegalArgumentException If the existing wildcard child has a different name
+         */
+        private @NotNull Node wildcardChild(@NotNull String name, @NotNull String pattern) {
+            if (wildcard == null) {
+                wildcard = new Node(name);
+                wildcard.depth = depth + 1;
+            } else if (!wildcard.text.equals(name)) {
+                throw new IllegalArgumentException("Wildcard *" + name + " in " + pattern + " conflicts with *" + wildcard.text);
+            }
+            return wildcard;
+        }
+
+    }
+
+    /**
+     * The result of a lookup: the value found, and the path variables captured on the way. The variables are only converted to strings when they are requested.
+     *
+     * @param <T> The type of the value
+     */
+    public static final class Match<T> {
+        private final T value;
+        private final String path;
+        private final int[] bounds;
+        private final Node[] captured;
+        private final int count;
+        private @Nullable Map<String, String> params;
+
+        /**
+         * Creates a new match.
+         *
+         * @param value    The value found
+         * @param path     The path that was matched
+         * @param bounds   The start and end index of each captured variable
+         * @param captured The node that captured each variable
+         * @param count    The number of captured variables
+         */
+        private Match(T value, String path, int[] bounds, Node[] captured, int count) {
+            this.value = value;
+            this.path = path;
+            this.bounds = bounds;
+            this.captured = captured;
+            this.count = count;
+        }
+
+        /**
+         * Gets the value found.
+         *
+         * @return The value stored for the pattern and method
+         */
+        public T value() {
+            return value;
+        }
+
+        /**
+         * Gets the captured path variables.
+         *
+         * @return The value of each variable and wildcard by name, or an empty map if the pattern has none
+         */
+        public @NotNull Map<String, String> params() {
+            if (params == null) {
+                if (count == 0) {
+                    params = Map.of();
+                } else {
+                    params = new HashMap<>(count * 2);
+                    for (int i = 0; i < count; i++) {
+                        params.put(captured[i].text, path.substring(bounds[i * 2], bounds[i * 2 + 1]));
+                    }
+                }
+            }
+            return params;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package net.phoenix.server.http.reflection;
 
 import net.phoenix.server.Server;
+import net.phoenix.server.http.container.HttpOpCode;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -17,12 +19,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.stream.Collectors;
 
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class Router {
 
     private final static Map<String, Route> routes = new HashMap<>();
+    private final static RouteTree<Route> tree = new RouteTree<>();
 
     /**
      * Generates routes for the server.
@@ -32,6 +37,8 @@ public class Router {
      * @throws ClassNotFoundException If the class is not found
      */
     public static void generateRoutes() throws IOException, URISyntaxException, ClassNotFoundException {
+        if (loadRegistries()) return;
+
         List<Class> classes;
         try {
             classes = getClasses(Server.clazz.getPackage().getName());
@@ -53,6 +60,59 @@ public class Router {
         }
     }
 
+    /**
+     * Loads the routes from the registries generated by the route processor.
+     *
+     * @return True if at least one registry was found, false if the classpath has to be scanned instead
+     */
+    private static boolean loadRegistries() {
+        boolean found = false;
+        try {
+            for (RouteRegistry registry : ServiceLoader.load(RouteRegistry.class, Server.clazz.getClassLoader())) {
+                Server.logger.logDebug("Loading routes from " + registry.getClass().getName());
+                registry.registerRoutes();
+                found = true;
+            }
+        } catch (ReflectiveOperationException | LinkageError | ServiceConfigurationError e) {
+            // A registry out of step with the compiled handlers is ignored, and the classpath is scanned instead
+            Server.logger.logError("Failed to load generated routes due to: " + e.getMessage());
+            routes.clear();
+            tree.clear();
+            return false;
+        }
+        return found;
+    }
+
+    /**
+     * Registers a standard route. This is called by generated {@link RouteRegistry} classes.
+     *
+     * @param opCode  The HTTP method of the route
+     * @param path    The full path of the route
+     * @param method  The method to run when a request is received
+     * @param invoker An invoker calling the method, or null to create one from the method
+     * @throws IllegalArgumentException If the route collapses its calls and runs {@link ExecutionMode#INLINE}
+     */
+    public static void registerStandardRoute(final @NotNull String opCode, final @NotNull String path, final @NotNull Method method, final @Nullable RouteInvoker invoker) {
+        checkCoalesce(opCode, path, method);
+        try {
+            register(opCode, path, new Route(method, path, Route.Type.STANDARD, null, invoker));
+        } catch (IllegalArgumentException e) {
+            Server.logger.logError("Failed to add route " + opCode + " " + path + " due to: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Registers a proxy route. This is called by generated {@link RouteRegistry} classes.
+     *
+     * @param opCode The HTTP method of the route
+     * @param path   The full path of the route
+     * @param method The method annotated with {@link Route.ProxyRoute}
+     * @throws IllegalArgumentException If the route runs {@link ExecutionMode#INLINE}
+     */
+    public static void registerProxyRoute(final @NotNull String opCode, final @NotNull String path, final @NotNull Method method) {
+        addRoute(opCode, path, method, method.getAnnotation(Route.ProxyRoute.class));
+    }
+
     /**
      * Gets the routes that have been generated.
      *
@@ -67,10 +127,35 @@ public class Router {
      *
      * @param opCode The HTTP method of the request
      * @param path   The path of the request
-     * @return The method to run
+     * @return The method to run, or null if no route matches
+     */
+    public static @Nullable Route route(@NotNull String opCode, @NotNull String path) {
+        RouteTree.Match<Route> match = route(HttpOpCode.fromString(opCode), path);
+        return match == null ? null : match.value();
+    }
+
+    /**
+     * Routes an incoming request to the correct method, capturing the path variables of the route.
+     *
+     * @param opCode The HTTP method of the request
+     * @param path   The path of the request, without the query string
+     * @return The route and its path variables, or null if no route matches
+     */
+    public static @Nullable RouteTree.Match<Route> route(@NotNull HttpOpCode opCode, @NotNull String path) {
+        return tree.get(opCode, path);
+    }
+
+    /**
+     * Adds a route to the lookup map and the route tree.
+     *
+     * @param opCode The HTTP method of the route
+     * @param path   The path pattern of the route
+     * @param route  The route
+     * @throws IllegalArgumentException If the path pattern is malformed or conflicts with an existing route
      */
-    public static Route route(@NotNull String opCode, @NotNull String path) {
-        return routes.get(opCode.concat(" ").concat(path));
+    private static void register(final @NotNull String opCode, final @NotNull String path, final @NotNull Route route) {
+        tree.put(HttpOpCode.fromString(opCode), path, route);
+        routes.put(opCode.concat(" ").concat(path), route);
     }
 
     /**
@@ -79,9 +164,30 @@ public class Router {
      * @param opCode The HTTP method of the route
      * @param route  The path of the route
      * @param runner The method to run when a request is received
+     * @throws IllegalArgumentException If the route collapses its calls and runs {@link ExecutionMode#INLINE}
      */
     private static void addRoute(final @NotNull String opCode, final @NotNull String route, final Method runner) {
-        routes.put(opCode.concat(" ").concat(route), new Route(runner, route, Route.Type.STANDARD));
+        checkCoalesce(opCode, route, runner);
+        try {
+            register(opCode, route, new Route(runner, route, Route.Type.STANDARD));
+        } catch (IllegalArgumentException e) {
+            Server.logger.logError("Failed to add route " + opCode + " " + route + " due to: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rejects a standard route that collapses its calls with {@link Route.Coalesce} but runs {@link ExecutionMode#INLINE}, as its waiting requests would block I/O threads until the first call returns.
+     *
+     * @param opCode The HTTP method of the route
+     * @param path   The path of the route
+     * @param method The method of the route
+     * @throws IllegalArgumentException If the route collapses its calls and runs INLINE
+     */
+    private static void checkCoalesce(final @NotNull String opCode, final @NotNull String path, final @NotNull Method method) {
+        Route.StandardRoute standardRoute = method.getAnnotation(Route.StandardRoute.class);
+        if (standardRoute != null && standardRoute.execution() == ExecutionMode.INLINE && method.isAnnotationPresent(Route.Coalesce.class)) {
+            throw new IllegalArgumentException("Route " + opCode + " " + path + " must not run INLINE, as coalesced requests wait for the first call");
+        }
     }
 
     /**
@@ -91,9 +197,17 @@ public class Router {
      * @param route      The path of the route
      * @param runner     The method to run when a request is received
      * @param proxyRoute The proxy route annotation
+     * @throws IllegalArgumentException If the route runs {@link ExecutionMode#INLINE}, as forwarding would block an I/O thread until the target answers
      */
     private static void addRoute(final @NotNull String opCode, final @NotNull String route, final Method runner, final Route.ProxyRoute proxyRoute) {
-        routes.put(opCode.concat(" ").concat(route), new Route(runner, route, Route.Type.PROXY, proxyRoute));
+        if (proxyRoute.execution() == ExecutionMode.INLINE) {
+            throw new IllegalArgumentException("Proxy route " + opCode + " " + route + " must not run INLINE, as forwarding waits for the target");
+        }
+        try {
+            register(opCode, route, new Route(runner, route, Route.Type.PROXY, proxyRoute));
+        } catch (IllegalArgumentException e) {
+            Server.logger.logError("Failed to add route " + opCode + " " + route + " due to: " + e.getMessage());
+        }
     }
 
     /**
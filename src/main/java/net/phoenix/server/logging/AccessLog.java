@@ -0,0 +1,244 @@
+package net.phoenix.server.logging;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.logging.container.AccessEntry;
+import net.phoenix.server.logging.container.AccessLogFormat;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The access log, which records every response the server writes in one of the {@link AccessLogFormat}s. <br> <br>
+ * Like the {@link Logger}, the access log never formats or writes on the thread that records a request: the I/O thread fills a slot of a lock-free ring buffer and returns, and a writer thread of its own formats the entries in batches and writes each batch to a {@link RollingFile} at once. Requests are never held up by the access log, so entries that do not fit in the buffer are dropped and counted.
+ */
+public class AccessLog {
+    /**
+     * The number of entries the ring buffer holds.
+     */
+    public static final int DEFAULT_CAPACITY = 16384;
+    private static final int BATCH_SIZE = 512;
+    private static final byte[] BINARY_HEADER = {'P', 'X', 'A', 'L', 1};
+    private static final DateTimeFormatter COMMON_TIME = DateTimeFormatter.ofPattern("'['dd/MMM/yyyy:HH:mm:ss Z']'", Locale.ENGLISH).withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter JSON_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    private final AccessLogFormat format;
+    private final RollingFile file;
+    private final LogBuffer<AccessEntry> buffer;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder logged = new LongAdder();
+    private volatile boolean sleeping = false;
+    private volatile boolean stopping = false;
+
+    // Only used by the writer thread
+    private final StringBuilder text = new StringBuilder(64 * 1024);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(256 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long timestampSecond = Long.MIN_VALUE;
+    private String timestamp = "";
+    private long reportedDrops = 0;
+
+    /**
+     * Creates a new access log and starts its writer thread.
+     *
+     * @param path     The path of the current log file
+     * @param format   The format the entries are written in
+     * @param maxSize  The size in bytes at which the file is rotated, or 0 to never rotate it by size
+     * @param interval The number of milliseconds after which the file is rotated, or 0 to never rotate it by age
+     * @param compress Whether rotated files are compressed with gzip
+     * @param capacity The number of entries the ring buffer holds, which is rounded up to a power of two
+     */
+    public AccessLog(@NotNull Path path, @NotNull AccessLogFormat format, long maxSize, long interval, boolean compress, int capacity) {
+        this.format = format;
+        this.file = new RollingFile(path, maxSize, interval, compress, format == AccessLogFormat.BINARY ? BINARY_HEADER : null);
+        this.buffer = new LogBuffer<>(capacity, AccessEntry::new);
+        this.writer = new Thread(this::write, "Access-Log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a response.
+     *
+     * @param client            The address of the client
+     * @param method            The method of the request, or null if the request could not be parsed
+     * @param path              The path of the request, or null if the request could not be parsed
+     * @param protocol          The protocol of the request, or null if the request could not be parsed
+     * @param status            The status code of the response
+     * @param bytes             The number of bytes sent, including the headers
+     * @param requestNanos      The number of nanoseconds taken to read the request
+     * @param responseNanos     The number of nanoseconds from the end of the request to the end of the response
+     * @param connectionRequest The number of the request on its connection, starting at 1
+     * @param referer           The Referer header of the request, or null if there is none
+     * @param userAgent         The User-Agent header of the request, or null if there is none
+     */
+    public void log(String client, @Nullable HttpOpCode method, @Nullable String path, @Nullable String protocol, int status, long bytes,
+                    long requestNanos, long responseNanos, int connectionRequest, @Nullable String referer, @Nullable String userAgent) {
+        if (stopping) return;
+        long position = buffer.claim();
+        if (position < 0) {
+            dropped.increment();
+            return;
+        }
+        buffer.get(position).set(System.currentTimeMillis(), client, method, path, protocol, status, bytes,
+                requestNanos / 1000, responseNanos / 1000, connectionRequest, referer, userAgent);
+        buffer.publish(position);
+        if (sleeping) LockSupport.unpark(writer);
+    }
+
+    /**
+     * Gets the format the entries are written in.
+     *
+     * @return The format
+     */
+    public @NotNull AccessLogFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Gets the number of entries written so far.
+     *
+     * @return The number of entries written
+     */
+    public long getLogged() {
+        return logged.sum();
+    }
+
+    /**
+     * Gets the number of entries dropped so far because the buffer was full.
+     *
+     * @return The number of entries dropped
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Shuts down the access log, waiting for the buffered entries to be written. Entries recorded afterwards are discarded.
+     */
+    public void shutdown() {
+        if (stopping) return;
+        stopping = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The loop of the writer thread, which drains the buffer in batches until the access log is shut down.
+     */
+    private void write() {
+        while (true) {
+            AccessEntry entry = buffer.peek();
+            if (entry == null) {
+                reportDrops();
+                if (stopping && buffer.peek() == null) break;
+                file.rotateIfExpired(System.currentTimeMillis());
+                sleeping = true;
+                // Producers publish without a fence, so the wait is bounded in case a wake-up is missed
+                if (buffer.peek() == null && !stopping) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                sleeping = false;
+                continue;
+            }
+            int count = 0;
+            for (; count < BATCH_SIZE && entry != null; count++) {
+                if (format == AccessLogFormat.BINARY) {
+                    if (bytes.remaining() < AccessEntry.MAX_BINARY_RECORD) flushBinary();
+                    entry.writeBinary(bytes);
+                } else {
+                    String timestamp = timestamp(entry.getTime());
+                    if (format == AccessLogFormat.JSON) {
+                        entry.formatJson(text, timestamp);
+                    } else {
+                        entry.formatLine(text, timestamp, format == AccessLogFormat.COMBINED);
+                    }
+                }
+                entry.clear();
+                buffer.release();
+                entry = buffer.peek();
+            }
+            if (format == AccessLogFormat.BINARY) {
+                flushBinary();
+            } else {
+                flushText();
+            }
+            logged.add(count);
+        }
+        file.close();
+    }
+
+    /**
+     * Formats the second of an entry for the text formats, reusing the previous result while the second has not changed.
+     *
+     * @param time The time in milliseconds since the epoch
+     * @return The formatted second
+     */
+    private @NotNull String timestamp(long time) {
+        long second = Math.floorDiv(time, 1000);
+        if (second != timestampSecond) {
+            timestampSecond = second;
+            timestamp = (format == AccessLogFormat.JSON ? JSON_TIME : COMMON_TIME).format(Instant.ofEpochSecond(second));
+        }
+        return timestamp;
+    }
+
+    /**
+     * Writes the binary records in the buffer to the file.
+     */
+    private void flushBinary() {
+        bytes.flip();
+        file.write(bytes);
+        bytes.clear();
+    }
+
+    /**
+     * Encodes the formatted lines into the buffer and writes them to the file.
+     */
+    private void flushText() {
+        if (text.isEmpty()) return;
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        boolean done = false;
+        while (!done) {
+            CoderResult result = encoder.encode(chars, bytes, true);
+            if (result.isUnderflow()) {
+                encoder.flush(bytes);
+                done = true;
+            }
+            bytes.flip();
+            file.write(bytes);
+            bytes.clear();
+        }
+        text.setLength(0);
+    }
+
+    /**
+     * Logs how many entries were dropped since the last report.
+     */
+    private void reportDrops() {
+        long total = dropped.sum();
+        if (total == reportedDrops) return;
+        Server.logger.logWarn("Dropped " + (total - reportedDrops) + " access log entries as the access log buffer was full");
+        reportedDrops = total;
+    }
+}
@@ -0,0 +1,119 @@
+package net.phoenix.server.logging;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded lock-free ring buffer of log entries, with many producers and a single consumer. Every slot has a sequence number that says whose turn it is: a producer claims the next position with a compare-and-set, fills the slot and publishes it by advancing the slot's sequence, and the consumer reads slots in order once they are published, then hands them back to the producers of the next lap. The slots are allocated once and filled in place, so logging allocates nothing. This class is for internal use and should not be modified or used by the end user.
+ *
+ * @param <T> The type of the slots
+ */
+public class LogBuffer<T> {
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param capacity The number of entries the buffer holds, which is rounded up to a power of two
+     * @param slot     Creates the slots, which are reused for every lap of the ring
+     */
+    public LogBuffer(int capacity, @NotNull Supplier<T> slot) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = slot.get();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Claims the next slot for a producer, which must fill it with {@link #get(long)} and then {@link #publish(long)} it.
+     *
+     * @return The position of the claimed slot, or -1 if the buffer is full
+     */
+    public long claim() {
+        long position = tail.get();
+        while (true) {
+            long sequence = sequences.get((int) (position & mask));
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) return position;
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds the entry of the previous lap
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Gets the slot at a claimed position.
+     *
+     * @param position The position returned by {@link #claim()}
+     * @return The slot to fill
+     */
+    @SuppressWarnings("unchecked")
+    public @NotNull T get(long position) {
+        return (T) slots[(int) (position & mask)];
+    }
+
+    /**
+     * Publishes a filled slot to the consumer.
+     *
+     * @param position The position returned by {@link #claim()}
+     */
+    public void publish(long position) {
+        sequences.lazySet((int) (position & mask), position + 1);
+    }
+
+    /**
+     * Gets the next entry, if it has been published. Only the consumer may call this, and it must call {@link #release()} once it is done with the entry.
+     *
+     * @return The next entry, or null if there is none yet
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable T peek() {
+        long position = head;
+        int index = (int) (position & mask);
+        return sequences.get(index) == position + 1 ? (T) slots[index] : null;
+    }
+
+    /**
+     * Hands the entry returned by {@link #peek()} back to the producers. The consumer should clear any references it holds first, so they do not outlive the entry.
+     */
+    public void release() {
+        long position = head;
+        sequences.lazySet((int) (position & mask), position + slots.length);
+        head = position + 1;
+    }
+
+    /**
+     * Gets the number of entries in the buffer, which may be out of date by the time it is used.
+     *
+     * @return The number of entries claimed by producers and not yet released by the consumer
+     */
+    public int size() {
+        return (int) Math.max(tail.get() - head, 0);
+    }
+
+    /**
+     * Gets the number of entries the buffer holds.
+     *
+     * @return The capacity
+     */
+    public int capacity() {
+        return slots.length;
+    }
+}
@@ -1,27 +1,74 @@
 package net.phoenix.server.logging;
 
 import net.phoenix.server.logging.container.Log;
+import net.phoenix.server.logging.container.OverflowPolicy;
 import net.phoenix.server.logging.container.Priority;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A logger implementation.
+ * A logger implementation. <br> <br>
+ * Logging is asynchronous: the logging thread only checks the priority and places the message in a lock-free ring buffer, and a single writer thread formats the messages and writes them in batches, with one console flush and one file write per batch. What happens when the buffer is full is decided by the {@link OverflowPolicy}.
  */
 public class Logger {
+    /**
+     * The number of logs the ring buffer holds.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+    // The largest number of logs formatted into one write
+    private static final int BATCH_SIZE = 256;
+    private static final String PROCESS_ID = String.valueOf(ProcessHandle.current().pid());
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("MM/dd/yyyy-HH:mm:ss").withZone(ZoneId.systemDefault());
 
     private final PrintStream out;
     private final String threadName;
-    private final @NotNull PrintStream logFile;
-    private final @NotNull PrintStream accessLogs;
+    private final @Nullable FileChannel logFile;
+    private final File accessFile;
+    private final LogBuffer<Log> buffer;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong sampled = new AtomicLong();
+    private volatile @NotNull Priority level = Priority.DEBUG;
+    private volatile @NotNull OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private volatile int sampleRate = 10;
+    private volatile boolean sleeping = false;
+    private volatile boolean stopping = false;
+
+    // Only used by the writer thread, and by the logging threads once it has finished
+    private final StringBuilder console = new StringBuilder(8192);
+    private final StringBuilder file = new StringBuilder(8192);
+    private final StringBuilder access = new StringBuilder(8192);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long timestampSecond = Long.MIN_VALUE;
+    private String timestamp = "";
+    private long reportedDrops = 0;
+    // The access file is only created once something is logged to it
+    private @Nullable FileChannel accessLogs;
+    private boolean accessOpened = false;
 
     public Logger(PrintStream out) {
         this(out, Thread.currentThread().getName(), new File("./logs/" + DateFormat.getDateInstance(DateFormat.DEFAULT, Locale.ENGLISH).format(new Date()).replace(" ", "-").replace(",", "").toLowerCase() + ".log"), new File("./logs/access-log-" + DateFormat.getDateInstance(DateFormat.DEFAULT, Locale.ENGLISH).format(new Date()).replace(",", "").replace(" ", "-").toLowerCase() + ".log"));
@@ -36,22 +83,38 @@ public class Logger {
      * @param accessLogs The file to log access logs to
      */
     public Logger(PrintStream out, String threadName, @NotNull File logFile, @NotNull File accessLogs) {
+        this(out, threadName, logFile, accessLogs, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new logger.
+     *
+     * @param out        The output stream to log to
+     * @param threadName The name of the thread that is logging
+     * @param logFile    The file to log to
+     * @param accessLogs The file to log access logs to
+     * @param capacity   The number of logs the ring buffer holds, which is rounded up to a power of two
+     */
+    public Logger(PrintStream out, String threadName, @NotNull File logFile, @NotNull File accessLogs, int capacity) {
         this.out = out;
         this.threadName = threadName;
         this.logFile = processFile(logFile);
-        this.accessLogs = processFile(accessLogs);
-        Runtime.getRuntime().addShutdownHook(new Thread(this.logFile::close));
-        Runtime.getRuntime().addShutdownHook(new Thread(this.accessLogs::close));
+        this.accessFile = accessLogs;
+        this.buffer = new LogBuffer<>(capacity, Log::new);
+        this.writer = new Thread(this::write, "Logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
     }
 
     /**
      * Processes a file.
      *
      * @param toProcess The file to process
-     * @return The processed file
+     * @return The channel to write to the file, or null if the file cannot be opened
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    private PrintStream processFile(File toProcess) {
+    private @Nullable FileChannel processFile(File toProcess) {
         try {
             if (toProcess.exists()) {
                 int i = 1;
@@ -62,24 +125,78 @@ public class Logger {
             }
             toProcess.createNewFile();
         } catch (IOException e) {
-            logException(e);
+            out.println("Failed to create log file due to: " + e.getMessage());
         }
         try {
-            return new PrintStream(new FileOutputStream(toProcess, false));
-        } catch (FileNotFoundException e) {
-            logException(e);
-            throw new RuntimeException(e);
+            return FileChannel.open(toProcess.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            out.println("Failed to open log file due to: " + e.getMessage());
+            return null;
         }
     }
 
+    /**
+     * Sets the lowest priority that is logged. Messages below it are discarded before they reach the buffer.
+     *
+     * @param level The lowest priority to log
+     */
+    public void setLevel(@NotNull Priority level) {
+        this.level = level;
+    }
+
+    /**
+     * Gets the lowest priority that is logged.
+     *
+     * @return The lowest priority to log
+     */
+    public @NotNull Priority getLevel() {
+        return level;
+    }
+
+    /**
+     * Checks whether messages of a priority are logged. Messages that are expensive to build should only be built when this returns true.
+     *
+     * @param priority The priority
+     * @return True if messages of the priority are logged
+     */
+    public boolean isEnabled(@NotNull Priority priority) {
+        return priority.ordinal() >= level.ordinal();
+    }
+
+    /**
+     * Sets what happens to messages when the buffer is full.
+     *
+     * @param overflowPolicy The overflow policy
+     */
+    public void setOverflowPolicy(@NotNull OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the share of debug and info messages kept by {@link OverflowPolicy#SAMPLE} once the buffer is three quarters full.
+     *
+     * @param sampleRate One in this many messages is kept
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(sampleRate, 1);
+    }
+
+    /**
+     * Gets the number of messages that were discarded because the buffer was full.
+     *
+     * @return The number of dropped messages
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
     /**
      * Logs a raw message to the output stream and the log file.
      *
      * @param message The message to log
      */
     public void logRaw(String message) {
-        out.println(message);
-        logFile.println(message);
+        log(Priority.INFO, message, threadName, Log.TARGET_RAW);
     }
 
     /**
@@ -88,7 +205,7 @@ public class Logger {
      * @param message The message to log
      */
     public void logDebug(String message) {
-        new Log(Priority.DEBUG, message, threadName).send(out, logFile);
+        if (isEnabled(Priority.DEBUG)) log(Priority.DEBUG, message, threadName, Log.TARGET_LOG);
     }
 
     /**
@@ -97,7 +214,7 @@ public class Logger {
      * @param message The message to log
      */
     public void logInfo(String message) {
-        new Log(Priority.INFO, message, threadName).send(out, logFile);
+        if (isEnabled(Priority.INFO)) log(Priority.INFO, message, threadName, Log.TARGET_LOG);
     }
 
     /**
@@ -106,7 +223,7 @@ public class Logger {
      * @param message The message to log
      */
     public void logWarn(String message) {
-        new Log(Priority.WARN, message, threadName).send(out, logFile);
+        if (isEnabled(Priority.WARN)) log(Priority.WARN, message, threadName, Log.TARGET_LOG);
     }
 
     /**
@@ -115,7 +232,7 @@ public class Logger {
      * @param message The message to log
      */
     public void logError(String message) {
-        new Log(Priority.ERROR, message, threadName).send(out, logFile);
+        log(Priority.ERROR, message, threadName, Log.TARGET_LOG);
     }
 
     /**
@@ -124,25 +241,213 @@ public class Logger {
      * @param e The exception to log
      */
     public void logException(@NotNull Exception e) {
-        new Log(Priority.ERROR, e.getMessage(), threadName).send(out, logFile);
+        log(Priority.ERROR, e.getMessage(), threadName, Log.TARGET_LOG);
     }
 
     /**
-     * Logs a connection.
+     * Logs a connection to the logger's access file, which is only created once this is used. Requests served by the server are recorded by the {@link AccessLog} instead.
      *
      * @param ip   The IP address of the connection
      * @param path The path of the connection
      */
     public void logConnection(String ip, String path) {
-        new Log(Priority.INFO, "Connection from " + ip + " to " + path, "server-thread").send(accessLogs);
+        if (isEnabled(Priority.INFO)) log(Priority.INFO, "Connection from " + ip + " to " + path, "server-thread", Log.TARGET_ACCESS);
     }
 
     /**
-     * Shuts down the logger.
+     * Places a message in the buffer, applying the overflow policy if it is full. Once the logger has been shut down, messages are printed to the output stream directly.
+     *
+     * @param priority     The priority of the message
+     * @param message      The message
+     * @param loggerThread The thread that logged the message
+     * @param target       Where the message is written, one of the TARGET constants of {@link Log}
+     */
+    private void log(@NotNull Priority priority, String message, String loggerThread, int target) {
+        long time = System.currentTimeMillis();
+        if (stopping) {
+            logDirectly(priority, message, loggerThread, target, time);
+            return;
+        }
+        OverflowPolicy policy = overflowPolicy;
+        boolean sampling = policy == OverflowPolicy.SAMPLE && priority.ordinal() < Priority.WARN.ordinal();
+        if (sampling && buffer.size() > buffer.capacity() / 4 * 3 && sampled.getAndIncrement() % sampleRate != 0) {
+            dropped.increment();
+            return;
+        }
+        long position;
+        while ((position = buffer.claim()) < 0) {
+            if (policy == OverflowPolicy.DROP || sampling || stopping) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+        buffer.get(position).set(priority, message, loggerThread, target, time);
+        buffer.publish(position);
+        if (sleeping) LockSupport.unpark(writer);
+    }
+
+    /**
+     * The loop of the writer thread, which drains the buffer in batches until the logger is shut down.
+     */
+    private void write() {
+        while (true) {
+            Log log = buffer.peek();
+            if (log == null) {
+                reportDrops();
+                if (stopping && buffer.peek() == null) break;
+                sleeping = true;
+                // Producers publish without a fence, so the wait is bounded in case a wake-up is missed
+                if (buffer.peek() == null && !stopping) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                sleeping = false;
+                continue;
+            }
+            for (int i = 0; i < BATCH_SIZE && log != null; i++) {
+                String timestamp = timestamp(log.getTime());
+                if (log.getTarget() == Log.TARGET_ACCESS) {
+                    log.formatFile(access, timestamp, PROCESS_ID);
+                } else {
+                    log.formatConsole(console, timestamp, PROCESS_ID);
+                    log.formatFile(file, timestamp, PROCESS_ID);
+                }
+                log.clear();
+                buffer.release();
+                log = buffer.peek();
+            }
+            flush();
+        }
+        // The files stay open for messages logged while the process exits
+        flush();
+    }
+
+    /**
+     * Writes a message logged after shutdown directly, once the writer thread has finished.
+     *
+     * @param priority     The priority of the message
+     * @param message      The message
+     * @param loggerThread The name of the logging thread
+     * @param target       The target of the message
+     * @param time         The time the message was logged
+     */
+    private synchronized void logDirectly(@NotNull Priority priority, String message, String loggerThread, int target, long time) {
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log log = new Log();
+        log.set(priority, message, loggerThread, target, time);
+        String timestamp = TIMESTAMP.format(Instant.ofEpochMilli(time));
+        if (writer.isAlive()) {
+            // The writer still owns the batch buffers, so only the console is written
+            StringBuilder line = new StringBuilder();
+            log.formatConsole(line, timestamp, PROCESS_ID);
+            out.print(line);
+            out.flush();
+            return;
+        }
+        if (target == Log.TARGET_ACCESS) {
+            log.formatFile(access, timestamp, PROCESS_ID);
+        } else {
+            log.formatConsole(console, timestamp, PROCESS_ID);
+            log.formatFile(file, timestamp, PROCESS_ID);
+        }
+        flush();
+    }
+
+    /**
+     * Writes the formatted batch to the console and the files.
+     */
+    private void flush() {
+        if (!console.isEmpty()) {
+            out.print(console);
+            out.flush();
+            console.setLength(0);
+        }
+        writeTo(logFile, file);
+        if (!access.isEmpty() && !accessOpened) {
+            accessOpened = true;
+            accessLogs = processFile(accessFile);
+        }
+        writeTo(accessLogs, access);
+    }
+
+    /**
+     * Encodes text into the write buffer and writes it to a file.
+     *
+     * @param channel The file to write to, or null if it could not be opened
+     * @param text    The text, which is cleared afterwards
+     */
+    private void writeTo(@Nullable FileChannel channel, @NotNull StringBuilder text) {
+        if (text.isEmpty()) return;
+        try {
+            if (channel == null) return;
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            boolean done = false;
+            while (!done) {
+                CoderResult result = encoder.encode(chars, bytes, true);
+                if (result.isUnderflow()) {
+                    encoder.flush(bytes);
+                    done = true;
+                }
+                bytes.flip();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                bytes.clear();
+            }
+        } catch (IOException e) {
+            out.println("Failed to write log file due to: " + e.getMessage());
+        } finally {
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Logs how many messages were dropped since the last report.
+     */
+    private void reportDrops() {
+        long total = dropped.sum();
+        if (total == reportedDrops) return;
+        long count = total - reportedDrops;
+        reportedDrops = total;
+        Log log = new Log();
+        log.set(Priority.WARN, "Dropped " + count + " log messages as the log buffer was full", threadName, Log.TARGET_LOG, System.currentTimeMillis());
+        String timestamp = timestamp(log.getTime());
+        log.formatConsole(console, timestamp, PROCESS_ID);
+        log.formatFile(file, timestamp, PROCESS_ID);
+        flush();
+    }
+
+    /**
+     * Formats a time, reusing the previous result while the second has not changed.
+     *
+     * @param time The time in milliseconds since the epoch
+     * @return The formatted time
+     */
+    private @NotNull String timestamp(long time) {
+        long second = Math.floorDiv(time, 1000);
+        if (second != timestampSecond) {
+            timestampSecond = second;
+            timestamp = TIMESTAMP.format(Instant.ofEpochSecond(second));
+        }
+        return timestamp;
+    }
+
+    /**
+     * Shuts down the logger, waiting for the buffered messages to be written. Messages logged afterwards are written directly by the logging thread.
      */
     public void shutdown() {
-        logFile.close();
-        accessLogs.close();
+        if (stopping) return;
+        stopping = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
 }
@@ -0,0 +1,191 @@
+package net.phoenix.server.logging;
+
+import net.phoenix.server.Server;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A file that is rotated once it reaches a size or an age. The current file keeps its name, and a rotated file is renamed with the time it was rotated at, such as "access-20261018-004237.log", and then optionally compressed with gzip. Compression runs on a thread of its own, so the thread writing the file only renames it. This class is for internal use and should not be modified or used by the end user.
+ */
+public class RollingFile {
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
+
+    private final Path path;
+    private final long maxSize;
+    private final long interval;
+    private final boolean compress;
+    private final byte @Nullable [] header;
+    private @Nullable FileChannel channel;
+    private long size;
+    private long opened;
+
+    /**
+     * Creates a new rolling file and opens it, appending to it if it exists.
+     *
+     * @param path     The path of the current file
+     * @param maxSize  The size in bytes at which the file is rotated, or 0 to never rotate it by size
+     * @param interval The number of milliseconds after which the file is rotated, or 0 to never rotate it by age
+     * @param compress Whether rotated files are compressed with gzip
+     * @param header   The bytes every new file starts with, or null for none
+     */
+    public RollingFile(@NotNull Path path, long maxSize, long interval, boolean compress, byte @Nullable [] header) {
+        this.path = path;
+        this.maxSize = maxSize;
+        this.interval = interval;
+        this.compress = compress;
+        this.header = header;
+        open();
+    }
+
+    /**
+     * Writes to the file, rotating it first if it has reached its size or age.
+     *
+     * @param buffer The bytes to write, which are consumed
+     */
+    public void write(@NotNull ByteBuffer buffer) {
+        if ((maxSize > 0 && size >= maxSize) || isExpired(System.currentTimeMillis())) rotate();
+        if (channel == null) {
+            buffer.position(buffer.limit());
+            return;
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            buffer.position(buffer.limit());
+            Server.logger.logError("Failed to write " + path + " due to: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rotates the file if it has reached its age, so an idle file is rotated on time too.
+     *
+     * @param now The current time in milliseconds since the epoch
+     */
+    public void rotateIfExpired(long now) {
+        if (isExpired(now) && size > (header == null ? 0 : header.length)) rotate();
+    }
+
+    /**
+     * Closes the file.
+     */
+    public void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Server.logger.logError("Failed to close " + path + " due to: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Checks whether the file has reached its age.
+     *
+     * @param now The current time in milliseconds since the epoch
+     * @return True if the file should be rotated
+     */
+    private boolean isExpired(long now) {
+        return interval > 0 && now - opened >= interval;
+    }
+
+    /**
+     * Opens the current file, creating its directory if needed.
+     */
+    private void open() {
+        opened = System.currentTimeMillis();
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            size = channel.size();
+            if (size == 0 && header != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(header);
+                while (buffer.hasRemaining()) {
+                    size += channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            channel = null;
+            Server.logger.logError("Failed to open " + path + " due to: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Renames the current file with the time it is rotated at, hands it to the compression thread if enabled, and opens a new file.
+     */
+    private void rotate() {
+        close();
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        String stamp = SUFFIX.format(Instant.now());
+        Path rotated = path.resolveSibling(base + "-" + stamp + extension);
+        for (int i = 1; Files.exists(rotated) || Files.exists(rotated.resolveSibling(rotated.getFileName() + ".gz")); i++) {
+            rotated = path.resolveSibling(base + "-" + stamp + "-" + i + extension);
+        }
+        try {
+            Files.move(path, rotated);
+            if (compress) {
+                Path target = rotated;
+                Compressor.EXECUTOR.execute(() -> compress(target));
+            }
+        } catch (IOException e) {
+            Server.logger.logError("Failed to rotate " + path + " due to: " + e.getMessage());
+        }
+        open();
+    }
+
+    /**
+     * Compresses a rotated file with gzip and deletes the original. The compressed file is written under a temporary name first, so a partly written archive is never mistaken for a finished one.
+     *
+     * @param file The rotated file
+     */
+    private static void compress(@NotNull Path file) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".gz.tmp");
+        try {
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+                in.transferTo(out);
+            }
+            Files.move(temporary, file.resolveSibling(file.getFileName() + ".gz"), StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(file);
+        } catch (IOException e) {
+            Server.logger.logError("Failed to compress " + file + " due to: " + e.getMessage());
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Holds the thread that compresses rotated files, created the first time a file is rotated.
+     */
+    private static class Compressor {
+        private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Log-Compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+}
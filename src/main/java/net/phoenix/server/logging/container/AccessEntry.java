@@ -0,0 +1,267 @@
+package net.phoenix.server.logging.container;
+
+import net.phoenix.server.http.container.HttpOpCode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents a request recorded in the access log. Entries are slots of the access log's ring buffer, which are filled by the I/O thread that finished writing the response and formatted later by the access log's writer thread, so the request path only copies a few fields.
+ */
+public class AccessEntry {
+    /**
+     * The largest number of bytes of a single string written in the binary format. Longer strings are cut off.
+     */
+    public static final int MAX_BINARY_STRING = 8192;
+    /**
+     * The largest size of a record in the binary format, including its length.
+     */
+    public static final int MAX_BINARY_RECORD = 2 + 31 + 5 * (2 + MAX_BINARY_STRING);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private long time;
+    private @Nullable String client;
+    private @Nullable HttpOpCode method;
+    private @Nullable String path;
+    private @Nullable String protocol;
+    private int status;
+    private long bytes;
+    private long requestMicros;
+    private long responseMicros;
+    private int connectionRequest;
+    private @Nullable String referer;
+    private @Nullable String userAgent;
+
+    /**
+     * Fills the entry.
+     *
+     * @param time              The time the response was written, in milliseconds since the epoch
+     * @param client            The address of the client, as given by {@link java.net.InetSocketAddress#toString()}
+     * @param method            The method of the request, or null if the request could not be parsed
+     * @param path              The path of the request, or null if the request could not be parsed
+     * @param protocol          The protocol of the request, or null if the request could not be parsed
+     * @param status            The status code of the response
+     * @param bytes             The number of bytes sent, including the headers
+     * @param requestMicros     The number of microseconds from the first byte of the request to the end of its headers, or of its body if it was read before the route ran
+     * @param responseMicros    The number of microseconds from the end of the request to the end of the response
+     * @param connectionRequest The number of the request on its connection, starting at 1
+     * @param referer           The Referer header of the request, or null if there is none
+     * @param userAgent         The User-Agent header of the request, or null if there is none
+     */
+    public void set(long time, String client, @Nullable HttpOpCode method, @Nullable String path, @Nullable String protocol, int status, long bytes,
+                    long requestMicros, long responseMicros, int connectionRequest, @Nullable String referer, @Nullable String userAgent) {
+        this.time = time;
+        this.client = client;
+        this.method = method;
+        this.path = path;
+        this.protocol = protocol;
+        this.status = status;
+        this.bytes = bytes;
+        this.requestMicros = requestMicros;
+        this.responseMicros = responseMicros;
+        this.connectionRequest = connectionRequest;
+        this.referer = referer;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Empties the entry, so the slot does not keep the request's strings alive.
+     */
+    public void clear() {
+        client = null;
+        method = null;
+        path = null;
+        protocol = null;
+        referer = null;
+        userAgent = null;
+    }
+
+    /**
+     * Gets the time of the entry.
+     *
+     * @return The time the response was written, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Formats the entry in the Common or Combined Log Format.
+     *
+     * @param out       The builder to append the line to
+     * @param timestamp The formatted second of the entry, such as "[18/Oct/2026:00:42:37 +0000]"
+     * @param combined  Whether to add the referer and user agent
+     */
+    public void formatLine(@NotNull StringBuilder out, @NotNull String timestamp, boolean combined) {
+        appendHost(out);
+        out.append(" - - ").append(timestamp).append(" \"");
+        if (method == null) {
+            out.append('-');
+        } else {
+            out.append(method).append(' ');
+            appendEscaped(out, path);
+            out.append(' ');
+            appendEscaped(out, protocol);
+        }
+        out.append("\" ").append(status).append(' ');
+        if (bytes == 0) {
+            out.append('-');
+        } else {
+            out.append(bytes);
+        }
+        if (combined) {
+            out.append(" \"");
+            appendEscaped(out, referer);
+            out.append("\" \"");
+            appendEscaped(out, userAgent);
+            out.append('"');
+        }
+        out.append(' ').append(requestMicros).append(' ').append(responseMicros).append(' ').append(connectionRequest).append('\n');
+    }
+
+    /**
+     * Formats the entry as a line of JSON.
+     *
+     * @param out       The builder to append the line to
+     * @param timestamp The formatted second of the entry in UTC, such as "2026-10-18T00:42:37"
+     */
+    public void formatJson(@NotNull StringBuilder out, @NotNull String timestamp) {
+        int millis = (int) Math.floorMod(time, 1000L);
+        out.append("{\"time\":\"").append(timestamp).append('.')
+                .append((char) ('0' + millis / 100)).append((char) ('0' + millis / 10 % 10)).append((char) ('0' + millis % 10)).append("Z\",\"client\":\"");
+        appendHost(out);
+        out.append("\",\"method\":");
+        appendJson(out, method == null ? null : method.name());
+        out.append(",\"path\":");
+        appendJson(out, path);
+        out.append(",\"protocol\":");
+        appendJson(out, protocol);
+        out.append(",\"status\":").append(status)
+                .append(",\"bytes\":").append(bytes)
+                .append(",\"requestMicros\":").append(requestMicros)
+                .append(",\"responseMicros\":").append(responseMicros)
+                .append(",\"connectionRequest\":").append(connectionRequest)
+                .append(",\"referer\":");
+        appendJson(out, referer);
+        out.append(",\"userAgent\":");
+        appendJson(out, userAgent);
+        out.append("}\n");
+    }
+
+    /**
+     * Writes the entry as a binary record, laid out as described by {@link AccessLogFormat#BINARY}.
+     *
+     * @param out The buffer to write to, which must have room for {@link #MAX_BINARY_RECORD} bytes
+     */
+    public void writeBinary(@NotNull ByteBuffer out) {
+        int start = out.position();
+        out.putShort((short) 0);
+        out.putLong(time);
+        out.put((byte) (method == null ? 255 : method.ordinal()));
+        out.putShort((short) status);
+        out.putLong(bytes);
+        out.putInt((int) Math.min(requestMicros, Integer.MAX_VALUE));
+        out.putInt((int) Math.min(responseMicros, Integer.MAX_VALUE));
+        out.putInt(connectionRequest);
+        putString(out, client);
+        putString(out, path);
+        putString(out, protocol);
+        putString(out, referer);
+        putString(out, userAgent);
+        out.putShort(start, (short) (out.position() - start - 2));
+    }
+
+    /**
+     * Appends the client's address without the leading slash, the port and the brackets around IPv6 addresses.
+     *
+     * @param out The builder to append to
+     */
+    private void appendHost(@NotNull StringBuilder out) {
+        if (client == null) {
+            out.append('-');
+            return;
+        }
+        int start = client.indexOf('/') + 1;
+        int end = client.lastIndexOf(':');
+        if (end < start || client.indexOf(']', start) > end) end = client.length();
+        if (start < end && client.charAt(start) == '[' && client.charAt(end - 1) == ']') {
+            start++;
+            end--;
+        }
+        out.append(client, start, end);
+    }
+
+    /**
+     * Appends a quoted field of the Common Log Format, escaping quotes, backslashes and control characters as Apache does, so a client cannot forge log lines.
+     *
+     * @param out   The builder to append to
+     * @param value The value, or null for "-"
+     */
+    private static void appendEscaped(@NotNull StringBuilder out, @Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            out.append('-');
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7F) {
+                out.append("\\x").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Appends a JSON string.
+     *
+     * @param out   The builder to append to
+     * @param value The value, or null for a JSON null
+     */
+    private static void appendJson(@NotNull StringBuilder out, @Nullable String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Writes a string of a binary record as its length and UTF-8 bytes.
+     *
+     * @param out   The buffer to write to
+     * @param value The value, or null for a missing value
+     */
+    private static void putString(@NotNull ByteBuffer out, @Nullable String value) {
+        if (value == null) {
+            out.putShort((short) 0xFFFF);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_BINARY_STRING);
+        out.putShort((short) length);
+        out.put(bytes, 0, length);
+    }
+}
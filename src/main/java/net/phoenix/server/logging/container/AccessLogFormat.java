@@ -0,0 +1,49 @@
+package net.phoenix.server.logging.container;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The formats the access log can be written in. Every format records the client, the request line, the status, the number of bytes sent including the headers, the time taken to read the request and to handle and write the response in microseconds, and the number of the request on its connection, which is above 1 when a kept-alive connection is reused.
+ */
+public enum AccessLogFormat {
+    /**
+     * The Common Log Format, followed by the request time, the response time and the request number: <br>
+     * <code>127.0.0.1 - - [18/Oct/2026:00:42:37 +0000] "GET /api/hello HTTP/1.1" 200 154 312 1045 1</code>
+     */
+    COMMON(".log"),
+    /**
+     * The Combined Log Format, which adds the referer and user agent to the Common Log Format, followed by the request time, the response time and the request number: <br>
+     * <code>127.0.0.1 - - [18/Oct/2026:00:42:37 +0000] "GET /api/hello HTTP/1.1" 200 154 "-" "curl/8.5.0" 312 1045 1</code>
+     */
+    COMBINED(".log"),
+    /**
+     * One JSON object per line: <br>
+     * <code>{"time":"2026-10-18T00:42:37.123Z","client":"127.0.0.1","method":"GET","path":"/api/hello","protocol":"HTTP/1.1","status":200,"bytes":154,"requestMicros":312,"responseMicros":1045,"connectionRequest":1,"referer":null,"userAgent":"curl/8.5.0"}</code>
+     */
+    JSON(".jsonl"),
+    /**
+     * Fixed-width big-endian records, which are the cheapest to write and the smallest to keep. Every file starts with the magic bytes "PXAL" and a version byte of 1, followed by records of: <br>
+     * a 2-byte length of the rest of the record, an 8-byte time in milliseconds since the epoch, a 1-byte method ordinal of {@link net.phoenix.server.http.container.HttpOpCode} or 255 if the request could not be parsed, a 2-byte status, an 8-byte number of bytes sent, 4-byte request and response times in microseconds, a 4-byte request number, and then the client, path, protocol, referer and user agent, each as a 2-byte length and UTF-8 bytes, with a length of 65535 for a missing value.
+     */
+    BINARY(".bin");
+
+    private final String extension;
+
+    /**
+     * Creates a new format.
+     *
+     * @param extension The extension of the files written in the format
+     */
+    AccessLogFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Gets the extension of the files written in the format.
+     *
+     * @return The extension, including the dot
+     */
+    public @NotNull String getExtension() {
+        return extension;
+    }
+}
@@ -1,78 +1,122 @@
 package net.phoenix.server.logging.container;
 
 import org.jetbrains.annotations.NotNull;
-
-import java.awt.*;
-import java.io.PrintStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import org.jetbrains.annotations.Nullable;
 
 /**
- * Represents a log.
+ * Represents a log. Logs are slots of the logger's ring buffer, which are filled by the thread that logs a message and formatted later by the logger's writer thread, so nothing is formatted on the logging thread and no log object is allocated per message.
  */
 public class Log {
-    private final Priority priority;
-    private final String message;
-    private final @NotNull String timestamp;
-    private final String loggerThread;
-    private final @NotNull String processId;
-    private Color color;
+    /**
+     * The log is written to the console and the log file.
+     */
+    public static final int TARGET_LOG = 0;
+    /**
+     * The log is written to the access log only.
+     */
+    public static final int TARGET_ACCESS = 1;
+    /**
+     * The message is written to the console and the log file as it is, without a timestamp or priority.
+     */
+    public static final int TARGET_RAW = 2;
+
+    private static final String[] COLORS = {color(255, 255, 10), color(0, 255, 0), color(255, 255, 0), color(255, 0, 0)};
+    private static final String RESET = "\033[0;0m";
+
+    private @Nullable Priority priority;
+    private @Nullable String message;
+    private @Nullable String loggerThread;
+    private int target;
+    private long time;
 
     /**
-     * Creates a new log.
+     * Fills the log.
      *
      * @param priority     The priority of the log
      * @param message      The message of the log
      * @param loggerThread The thread that logged the message
+     * @param target       Where the log is written, one of the TARGET constants
+     * @param time         The time the message was logged, in milliseconds since the epoch
      */
-    public Log(Priority priority, String message, String loggerThread) {
+    public void set(@NotNull Priority priority, String message, String loggerThread, int target, long time) {
         this.priority = priority;
         this.message = message;
-        this.timestamp = new SimpleDateFormat("MM/dd/yyyy-HH:mm:ss").format(new Date());
         this.loggerThread = loggerThread;
-        this.processId = String.valueOf(ProcessHandle.current().pid());
-        if (priority == Priority.DEBUG) {
-            this.color = new Color(255, 255, 10);
-        } else if (priority == Priority.INFO) {
-            this.color = new Color(0, 255, 0);
-        } else if (priority == Priority.WARN) {
-            this.color = new Color(255, 255, 0);
-        } else if (priority == Priority.ERROR) {
-            this.color = new Color(255, 0, 0);
-        }
+        this.target = target;
+        this.time = time;
     }
 
     /**
-     * Generates the ANSI escape code for the color.
+     * Empties the log, so the slot does not keep the message alive.
+     */
+    public void clear() {
+        priority = null;
+        message = null;
+        loggerThread = null;
+    }
+
+    /**
+     * Gets where the log is written.
      *
-     * @param r The red value of the color
-     * @param g The green value of the color
-     * @param b The blue value of the color
-     * @return An ANSI escape code for the color
+     * @return One of the TARGET constants
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the time the message was logged.
+     *
+     * @return The time in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Formats the log for the console, with the message in the color of its priority.
+     *
+     * @param out       The builder to append the line to
+     * @param timestamp The formatted time the log is written at
+     * @param processId The ID of the process
      */
-    private String get_color_escape(int r, int g, int b) {
-        return String.format("\033[%s;2;%s;%s;%sm", "38", r, g, b);
+    public void formatConsole(@NotNull StringBuilder out, @NotNull String timestamp, @NotNull String processId) {
+        assert priority != null;
+        if (target == TARGET_RAW) {
+            out.append(message).append(System.lineSeparator());
+            return;
+        }
+        out.append('[').append(timestamp).append("] [").append(loggerThread).append(": ").append(processId).append("] [")
+                .append(priority).append("] ").append(COLORS[priority.ordinal()]).append(message).append(RESET).append(System.lineSeparator());
     }
 
     /**
-     * Sends the log to an output stream.
+     * Formats the log for a file.
      *
-     * @param out The output stream to send the log to
+     * @param out       The builder to append the line to
+     * @param timestamp The formatted time the log is written at
+     * @param processId The ID of the process, which is only included in the access log
      */
-    public void send(@NotNull PrintStream out) {
-        out.println("[" + timestamp + "] " + "[" + loggerThread + ": " + processId + "] [" + priority + "] " + message);
-        out.flush();
+    public void formatFile(@NotNull StringBuilder out, @NotNull String timestamp, @NotNull String processId) {
+        assert priority != null;
+        if (target == TARGET_RAW) {
+            out.append(message).append(System.lineSeparator());
+            return;
+        }
+        out.append('[').append(timestamp).append("] [").append(loggerThread);
+        if (target == TARGET_ACCESS) out.append(": ").append(processId);
+        out.append("] [").append(priority).append("] ").append(message).append(System.lineSeparator());
     }
 
     /**
-     * Sends the log to an output stream and a log file.
+     * Generates the ANSI escape code for the color.
      *
-     * @param out     The output stream to send the log to
-     * @param logFile The log file to write the log to
+     * @param r The red value of the color
+     * @param g The green value of the color
+     * @param b The blue value of the color
+     * @return An ANSI escape code for the color
      */
-    public void send(@NotNull PrintStream out, @NotNull PrintStream logFile) {
-        out.println("[" + timestamp + "] " + "[" + loggerThread + ": " + processId + "] " + "[" + priority + "] " + get_color_escape(color.getRed(), color.getGreen(), color.getBlue()) + message + "\033[0;0m");
-        logFile.println("[" + timestamp + "] [" + loggerThread + "] [" + priority + "] " + message);
-        out.flush();
+    private static @NotNull String color(int r, int g, int b) {
+        return "\033[38;2;" + r + ";" + g + ";" + b + "m";
     }
 }
@@ -0,0 +1,19 @@
+package net.phoenix.server.logging.container;
+
+/**
+ * What the logger does with a message when its ring buffer is full, because messages are logged faster than they can be written.
+ */
+public enum OverflowPolicy {
+    /**
+     * The logging thread waits until there is room, so no message is lost, at the cost of stalling requests while the writer catches up.
+     */
+    BLOCK,
+    /**
+     * Messages that do not fit are discarded and counted, so logging never stalls.
+     */
+    DROP,
+    /**
+     * Once the buffer is three quarters full, only one in every sample rate debug and info messages is kept, and the rest are discarded and counted. Warnings and errors wait for room as with {@link #BLOCK}.
+     */
+    SAMPLE
+}
@@ -0,0 +1,35 @@
+package net.phoenix.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, such as the number of requests served. Counting is spread over the cells of a {@link LongAdder}, so threads incrementing the same counter do not contend on a single value.
+ */
+public class Counter {
+    private final LongAdder value = new LongAdder();
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Adds to the count.
+     *
+     * @param amount The amount to add, which must not be negative
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * Gets the count.
+     *
+     * @return The count, which may miss increments made while it is read
+     */
+    public long get() {
+        return value.sum();
+    }
+}
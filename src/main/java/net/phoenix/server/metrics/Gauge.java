@@ -0,0 +1,42 @@
+package net.phoenix.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A value that goes up and down, such as the number of open connections. Like a {@link Counter}, it is spread over the cells of a {@link LongAdder}, so threads opening and closing connections do not contend on a single value.
+ */
+public class Gauge {
+    private final LongAdder value = new LongAdder();
+
+    /**
+     * Adds one to the value.
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Subtracts one from the value.
+     */
+    public void decrement() {
+        value.decrement();
+    }
+
+    /**
+     * Adds to the value.
+     *
+     * @param amount The amount to add, which may be negative
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @return The value, which may miss changes made while it is read
+     */
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,346 @@
+package net.phoenix.server.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * A registry of named metrics, which writes them in the Prometheus text exposition format. <br> <br>
+ * Metrics are registered once, usually in a static field, and then updated without going through the registry: <br> <br>
+ * <code>
+ * private static final Counter ORDERS = MetricsRegistry.shared().counter("shop_orders_total", "Orders placed"); <br>
+ * ORDERS.increment();
+ * </code> <br> <br>
+ * A metric with labels is registered as a {@link Family}, whose series are created the first time their label values are used. Looking a series up builds a key from its label values, so series used on every request should be looked up once and kept.
+ */
+public class MetricsRegistry {
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    private final Map<String, Family<?>> families = new LinkedHashMap<>();
+
+    /**
+     * Gets the registry the server's metrics are registered in, which is the one exposed by the metrics route.
+     *
+     * @return The shared registry
+     */
+    public static @NotNull MetricsRegistry shared() {
+        return Shared.REGISTRY;
+    }
+
+    /**
+     * Registers a counter without labels, or gets the one registered under the name.
+     *
+     * @param name The name of the counter, which should end with "_total"
+     * @param help The description of the counter
+     * @return The counter
+     * @throws IllegalArgumentException If the name is invalid or registered as another kind of metric
+     */
+    public @NotNull Counter counter(@NotNull String name, @NotNull String help) {
+        return counters(name, help).labels();
+    }
+
+    /**
+     * Registers a family of counters, or gets the one registered under the name.
+     *
+     * @param name       The name of the counters, which should end with "_total"
+     * @param help       The description of the counters
+     * @param labelNames The names of the labels that tell the counters apart
+     * @return The family of counters
+     * @throws IllegalArgumentException If the name is invalid or registered as another kind of metric
+     */
+    public @NotNull Family<Counter> counters(@NotNull String name, @NotNull String help, @NotNull String... labelNames) {
+        return register(name, help, Type.COUNTER, Counter.class, labelNames, Counter::new);
+    }
+
+    /**
+     * Registers a gauge without labels, or gets the one registered under the name.
+     *
+     * @param name The name of the gauge
+     * @param help The description of the gauge
+     * @return The gauge
+     * @throws IllegalArgumentException If the name is invalid or registered as another kind of metric
+     */
+    public @NotNull Gauge gauge(@NotNull String name, @NotNull String help) {
+        return gauges(name, help).labels();
+    }
+
+    /**
+     * Registers a family of gauges, or gets the one registered under the name.
+     *
+     * @param name       The name of the gauges
+     * @param help       The description of the gauges
+     * @param labelNames The names of the labels that tell the gauges apart
+     * @return The family of gauges
+     * @throws IllegalArgumentException If the name is invalid or registered as another kind of metric
+     */
+    public @NotNull Family<Gauge> gauges(@NotNull String name, @NotNull String help, @NotNull String... labelNames) {
+        return register(name, help, Type.GAUGE, Gauge.class, labelNames, Gauge::new);
+    }
+
+    /**
+     * Registers a gauge whose value is read when the metrics are written, such as the size of a pool that already keeps its own count. The value must be cheap to read and must not block.
+     *
+     * @param name  The name of the gauge
+     * @param help  The description of the gauge
+     * @param value Reads the value
+     * @throws IllegalArgumentException If the name is invalid or already registered
+     */
+    public void gauge(@NotNull String name, @NotNull String help, @NotNull DoubleSupplier value) {
+        Family<DoubleSupplier> family = register(name, help, Type.GAUGE, DoubleSupplier.class, new String[0], () -> value);
+        if (family.labels() != value) throw new IllegalArgumentException("Metric " + name + " is already registered");
+    }
+
+    /**
+     * Registers a histogram of durations without labels, or gets the one registered under the name.
+     *
+     * @param name The name of the histogram, which should end with "_seconds"
+     * @param help The description of the histogram
+     * @return The histogram
+     * @throws IllegalArgumentException If the name is invalid or registered as another kind of metric
+     */
+    public @NotNull Histogram histogram(@NotNull String name, @NotNull String help) {
+        return histograms(name, help).labels();
+    }
+
+    /**
+     * Registers a family of histograms of durations, or gets the one registered under the name.
+     *
+     * @param name       The name of the histograms, which should end with "_seconds"
+     * @param help       The description of the histograms
+     * @param labelNames The names of the labels that tell the histograms apart
+     * @return The family of histograms
+     * @throws IllegalArgumentException If the name is invalid or registered as another kind of metric
+     */
+    public @NotNull Family<Histogram> histograms(@NotNull String name, @NotNull String help, @NotNull String... labelNames) {
+        return register(name, help, Type.HISTOGRAM, Histogram.class, labelNames, Histogram::new);
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format, in the order they were registered.
+     *
+     * @param out The builder to append to
+     */
+    public void write(@NotNull StringBuilder out) {
+        List<Family<?>> snapshot;
+        synchronized (families) {
+            snapshot = new ArrayList<>(families.values());
+        }
+        for (Family<?> family : snapshot) {
+            family.write(out);
+        }
+    }
+
+    /**
+     * Registers a family, or gets the one registered under the name.
+     *
+     * @param name       The name of the family
+     * @param help       The description of the family
+     * @param type       The kind of metric
+     * @param kind       The class of the series
+     * @param labelNames The names of the labels
+     * @param factory    Creates the series
+     * @param <T>        The type of the series
+     * @return The family
+     * @throws IllegalArgumentException If the name is invalid or registered as another kind of metric
+     */
+    @SuppressWarnings("unchecked")
+    private <T> @NotNull Family<T> register(@NotNull String name, @NotNull String help, @NotNull Type type, @NotNull Class<T> kind, @NotNull String[] labelNames, @NotNull Supplier<T> factory) {
+        if (!NAME.matcher(name).matches()) throw new IllegalArgumentException("Invalid metric name " + name);
+        for (String label : labelNames) {
+            if (!NAME.matcher(label).matches() || label.startsWith("__") || label.equals("le")) {
+                throw new IllegalArgumentException("Invalid label name " + label + " of " + name);
+            }
+        }
+        synchronized (families) {
+            Family<?> existing = families.get(name);
+            if (existing != null) {
+                if (existing.kind != kind || existing.labelNames.length != labelNames.length) {
+                    throw new IllegalArgumentException("Metric " + name + " is already registered as a different metric");
+                }
+                return (Family<T>) existing;
+            }
+            Family<T> family = new Family<>(name, help, type, kind, labelNames, factory);
+            families.put(name, family);
+            return family;
+        }
+    }
+
+    /**
+     * The kinds of metric, as named in the exposition format.
+     */
+    private enum Type {
+        COUNTER,
+        GAUGE,
+        HISTOGRAM
+    }
+
+    /**
+     * The series of a metric, told apart by the values of its labels.
+     *
+     * @param <T> The type of the series
+     */
+    public static final class Family<T> {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Class<T> kind;
+        private final String[] labelNames;
+        private final Supplier<T> factory;
+        private final Map<String, Series<T>> series = new ConcurrentHashMap<>();
+
+        /**
+         * Creates a new family.
+         *
+         * @param name       The name of the family
+         * @param help       The description of the family
+         * @param type       The kind of metric
+         * @param kind       The class of the series
+         * @param labelNames The names of the labels
+         * @param factory    Creates the series
+         */
+        private Family(String name, String help, Type type, Class<T> kind, String[] labelNames, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.kind = kind;
+            this.labelNames = labelNames.clone();
+            this.factory = factory;
+        }
+
+        /**
+         * Gets the series with the given label values, creating it the first time.
+         *
+         * @param labelValues The value of every label, in the order the labels were registered
+         * @return The series
+         * @throws IllegalArgumentException If the number of values does not match the number of labels
+         */
+        public @NotNull T labels(@NotNull String... labelValues) {
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException("Metric " + name + " has " + labelNames.length + " labels, not " + labelValues.length);
+            }
+            String key = labelValues.length == 0 ? "" : labelValues.length == 1 ? labelValues[0] : String.join("\u0000", labelValues);
+            Series<T> found = series.get(key);
+            if (found == null) {
+                found = series.computeIfAbsent(key, k -> new Series<>(labelValues.clone(), factory.get()));
+            }
+            return found.metric;
+        }
+
+        /**
+         * Writes the family in the exposition format.
+         *
+         * @param out The builder to append to
+         */
+        private void write(@NotNull StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ');
+            for (int i = 0; i < help.length(); i++) {
+                char c = help.charAt(i);
+                if (c == '\\') {
+                    out.append("\\\\");
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append("\n# TYPE ").append(name).append(' ').append(type.name().toLowerCase()).append('\n');
+            for (Series<T> entry : series.values()) {
+                Object metric = entry.metric;
+                if (metric instanceof Counter counter) {
+                    sample(out, name, entry.labelValues, null, counter.get());
+                } else if (metric instanceof Gauge gauge) {
+                    sample(out, name, entry.labelValues, null, gauge.get());
+                } else if (metric instanceof DoubleSupplier supplier) {
+                    sample(out, name, entry.labelValues, null, supplier.getAsDouble());
+                } else if (metric instanceof Histogram histogram) {
+                    long[] counts = histogram.exposedCounts();
+                    for (int i = 0; i < Histogram.BOUNDARIES.length; i++) {
+                        sample(out, name + "_bucket", entry.labelValues, Histogram.BOUNDARY_LABELS[i], counts[i]);
+                    }
+                    long count = counts[counts.length - 1];
+                    sample(out, name + "_bucket", entry.labelValues, "+Inf", count);
+                    sample(out, name + "_sum", entry.labelValues, null, histogram.getSum() / 1e9);
+                    sample(out, name + "_count", entry.labelValues, null, count);
+                }
+            }
+        }
+
+        /**
+         * Writes one sample.
+         *
+         * @param out         The builder to append to
+         * @param name        The name of the sample
+         * @param labelValues The label values of the series
+         * @param le          The boundary of a histogram bucket, or null for other samples
+         * @param value       The value
+         */
+        private void sample(@NotNull StringBuilder out, @NotNull String name, @NotNull String[] labelValues, String le, double value) {
+            out.append(name);
+            if (labelValues.length > 0 || le != null) {
+                out.append('{');
+                for (int i = 0; i < labelValues.length; i++) {
+                    if (i > 0) out.append(',');
+                    out.append(labelNames[i]).append("=\"");
+                    escape(out, labelValues[i]);
+                    out.append('"');
+                }
+                if (le != null) {
+                    if (labelValues.length > 0) out.append(',');
+                    out.append("le=\"").append(le).append('"');
+                }
+                out.append('}');
+            }
+            out.append(' ');
+            if (Double.isInfinite(value)) {
+                out.append(value > 0 ? "+Inf" : "-Inf");
+            } else if (value == (long) value) {
+                out.append((long) value);
+            } else {
+                out.append(value);
+            }
+            out.append('\n');
+        }
+
+        /**
+         * Appends a label value, escaping backslashes, quotes and line breaks.
+         *
+         * @param out   The builder to append to
+         * @param value The label value
+         */
+        private static void escape(@NotNull StringBuilder out, @NotNull String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\' -> out.append("\\\\");
+                    case '"' -> out.append("\\\"");
+                    case '\n' -> out.append("\\n");
+                    default -> out.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * A single series of a family.
+     *
+     * @param labelValues The label values of the series
+     * @param metric      The metric holding the values of the series
+     * @param <T>         The type of the metric
+     */
+    private record Series<T>(String[] labelValues, T metric) {
+    }
+
+    /**
+     * Holds the shared registry, created the first time it is used.
+     */
+    private static class Shared {
+        private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+    }
+}
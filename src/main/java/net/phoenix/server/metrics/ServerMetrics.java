@@ -0,0 +1,233 @@
+package net.phoenix.server.metrics;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.BufferPool;
+import net.phoenix.server.http.TimerWheel;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.cache.ResponseCache;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.ExecutionMode;
+import net.phoenix.server.http.reflection.Route;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metrics the server records about itself, registered in the {@link MetricsRegistry#shared() shared registry}. The server calls the recording methods from its request path, and they do nothing when {@link Server#metricsEnabled} is off. This class is for internal use and should not be modified or used by the end user, apart from {@link #scrape(HttpRequest)}, which is the route exposing the metrics.
+ */
+public class ServerMetrics {
+    /**
+     * The route label of requests for static files.
+     */
+    public static final String STATIC_ROUTE = "static";
+    /**
+     * The route label of requests that could not be parsed or routed.
+     */
+    public static final String NO_ROUTE = "none";
+
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.shared();
+    private static final Counter CONNECTIONS = REGISTRY.counter("phoenix_connections_total", "Connections accepted.");
+    private static final Gauge OPEN_CONNECTIONS = REGISTRY.gauge("phoenix_connections_open", "Connections currently open.");
+    private static final Counter BYTES_RECEIVED = REGISTRY.counter("phoenix_received_bytes_total", "Bytes read from clients.");
+    private static final Counter BYTES_SENT = REGISTRY.counter("phoenix_sent_bytes_total", "Bytes written to clients, including headers.");
+    private static final MetricsRegistry.Family<Counter> REQUESTS = REGISTRY.counters("phoenix_requests_total", "Responses written, by request method, route pattern and status.", "method", "route", "status");
+    private static final Histogram PARSE_TIME = REGISTRY.histogram("phoenix_request_parse_seconds", "Time spent parsing a request, not counting the time waiting for its bytes.");
+    private static final Histogram HANDLE_TIME = REGISTRY.histogram("phoenix_request_handle_seconds", "Time from a parsed request to its response being ready, including routes, static files and compression.");
+    private static final Histogram WRITE_TIME = REGISTRY.histogram("phoenix_response_write_seconds", "Time taken to write a response to the socket.");
+    private static final MetricsRegistry.Family<Histogram> ROUTE_TIME = REGISTRY.histograms("phoenix_route_duration_seconds", "Time spent in route methods, by route pattern.", "route");
+    private static final MetricsRegistry.Family<Counter> ROUTE_ERRORS = REGISTRY.counters("phoenix_route_errors_total", "Route methods that threw, by route pattern.", "route");
+    private static final MetricsRegistry.Family<Histogram> UPSTREAM_TIME = REGISTRY.histograms("phoenix_upstream_duration_seconds", "Time taken by proxy targets to answer with their status and headers, by target.", "upstream");
+    private static final MetricsRegistry.Family<Counter> UPSTREAM_ERRORS = REGISTRY.counters("phoenix_upstream_errors_total", "Proxied requests that failed, by target.", "upstream");
+    private static final MetricsRegistry.Family<Counter> RESPONSE_CACHE_LOOKUPS = REGISTRY.counters("phoenix_response_cache_lookups_total", "Requests to cached routes, by whether the response cache answered them: hit, stale, coalesced or miss.", "result");
+    // The request counters of every route, so a request does not build a label key
+    private static final Map<String, RouteCounters> ROUTE_COUNTERS = new ConcurrentHashMap<>();
+
+    static {
+        REGISTRY.gauge("phoenix_buffer_pool_outstanding", "Pooled buffers acquired and not yet released.", BufferPool::getOutstanding);
+        REGISTRY.gauge("phoenix_buffer_pool_idle_bytes", "Bytes of idle buffers kept for reuse.", BufferPool::getIdleBytes);
+        REGISTRY.gauge("phoenix_timeouts_pending", "Connection deadlines scheduled on the timer wheel.", () -> TimerWheel.shared().getPending());
+        REGISTRY.gauge("phoenix_log_messages_dropped", "Log messages dropped because the log buffer was full.", () -> Server.logger == null ? 0 : Server.logger.getDropped());
+        REGISTRY.gauge("phoenix_access_log_entries_dropped", "Access log entries dropped because the access log buffer was full.", () -> Server.accessLog == null ? 0 : Server.accessLog.getDropped());
+        REGISTRY.gauge("phoenix_response_cache_bytes", "Estimated bytes of responses held by the response cache.", ResponseCache::getSize);
+    }
+
+    /**
+     * Records an accepted connection.
+     */
+    public static void connectionOpened() {
+        if (!Server.metricsEnabled) return;
+        CONNECTIONS.increment();
+        OPEN_CONNECTIONS.increment();
+    }
+
+    /**
+     * Records a closed connection. Must be called once for every connection recorded by {@link #connectionOpened()}.
+     */
+    public static void connectionClosed() {
+        if (!Server.metricsEnabled) return;
+        OPEN_CONNECTIONS.decrement();
+    }
+
+    /**
+     * Records bytes read from a client.
+     *
+     * @param bytes The number of bytes
+     */
+    public static void bytesReceived(long bytes) {
+        if (Server.metricsEnabled) BYTES_RECEIVED.add(bytes);
+    }
+
+    /**
+     * Records the time spent parsing a request.
+     *
+     * @param nanos The time in nanoseconds
+     */
+    public static void parsed(long nanos) {
+        if (Server.metricsEnabled) PARSE_TIME.record(nanos);
+    }
+
+    /**
+     * Records the time taken to produce a response.
+     *
+     * @param nanos The time in nanoseconds
+     */
+    public static void handled(long nanos) {
+        if (Server.metricsEnabled) HANDLE_TIME.record(nanos);
+    }
+
+    /**
+     * Records the time spent in a route method.
+     *
+     * @param route  The pattern of the route
+     * @param nanos  The time in nanoseconds
+     * @param failed Whether the method threw
+     */
+    public static void routed(@NotNull String route, long nanos, boolean failed) {
+        if (!Server.metricsEnabled) return;
+        ROUTE_TIME.labels(route).record(nanos);
+        if (failed) ROUTE_ERRORS.labels(route).increment();
+    }
+
+    /**
+     * Records a request forwarded to the target of a proxy route.
+     *
+     * @param upstream The URL of the target
+     * @param nanos    The time until the target answered with its status and headers, or failed, in nanoseconds
+     * @param failed   Whether the request failed
+     */
+    public static void upstreamAnswered(@NotNull String upstream, long nanos, boolean failed) {
+        if (!Server.metricsEnabled) return;
+        UPSTREAM_TIME.labels(upstream).record(nanos);
+        if (failed) UPSTREAM_ERRORS.labels(upstream).increment();
+    }
+
+    /**
+     * Records a request to a route whose responses are cached.
+     *
+     * @param result How the cache answered: "hit", "stale", "coalesced" or "miss"
+     */
+    public static void responseCacheLookup(@NotNull String result) {
+        if (!Server.metricsEnabled) return;
+        RESPONSE_CACHE_LOOKUPS.labels(result).increment();
+    }
+
+    /**
+     * Records a written response.
+     *
+     * @param method The method of the request, or null if the request could not be parsed
+     * @param route  The pattern of the route, {@link #STATIC_ROUTE} or {@link #NO_ROUTE}
+     * @param status The status code of the response
+     * @param bytes  The number of bytes written, including the headers
+     * @param nanos  The time taken to write the response in nanoseconds
+     */
+    public static void responded(@Nullable HttpOpCode method, @NotNull String route, int status, long bytes, long nanos) {
+        if (!Server.metricsEnabled) return;
+        BYTES_SENT.add(bytes);
+        WRITE_TIME.record(nanos);
+        RouteCounters counters = ROUTE_COUNTERS.get(route);
+        if (counters == null) counters = ROUTE_COUNTERS.computeIfAbsent(route, RouteCounters::new);
+        counters.get(method, status).increment();
+    }
+
+    /**
+     * Exposes the metrics in the Prometheus text exposition format. The server registers this as a route at {@link Server#metricsPath} when that is set.
+     *
+     * @param request The request
+     * @return The metrics
+     */
+    @Route.StandardRoute(execution = ExecutionMode.INLINE)
+    public static HttpResponse scrape(HttpRequest request) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        REGISTRY.write(out);
+        return new HttpResponseBuilder().setStatusCode(200)
+                .addHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+                .addHeader("Cache-Control", "no-store")
+                .setEntity(out.toString()).build();
+    }
+
+    /**
+     * The request counters of a route, one for every method and status seen. A route only ever sees a few of them, so they are kept in a small array that is searched linearly and copied when a new one is added.
+     */
+    private static final class RouteCounters {
+        private final String route;
+        private volatile Entry[] entries = new Entry[0];
+
+        /**
+         * Creates the counters of a route.
+         *
+         * @param route The pattern of the route
+         */
+        private RouteCounters(String route) {
+            this.route = route;
+        }
+
+        /**
+         * Gets the counter of a method and status, creating it the first time.
+         *
+         * @param method The method of the request, or null if the request could not be parsed
+         * @param status The status code of the response
+         * @return The counter
+         */
+        private @NotNull Counter get(@Nullable HttpOpCode method, int status) {
+            int key = (method == null ? 0 : method.ordinal() + 1) << 16 | status & 0xFFFF;
+            for (Entry entry : entries) {
+                if (entry.key == key) return entry.counter;
+            }
+            return add(key, method, status);
+        }
+
+        /**
+         * Adds the counter of a method and status.
+         *
+         * @param key    The key of the method and status
+         * @param method The method of the request, or null if the request could not be parsed
+         * @param status The status code of the response
+         * @return The counter
+         */
+        private synchronized @NotNull Counter add(int key, @Nullable HttpOpCode method, int status) {
+            Entry[] entries = this.entries;
+            for (Entry entry : entries) {
+                if (entry.key == key) return entry.counter;
+            }
+            Counter counter = REQUESTS.labels(method == null ? "-" : method.name(), route, Integer.toString(status));
+            Entry[] grown = Arrays.copyOf(entries, entries.length + 1);
+            grown[entries.length] = new Entry(key, counter);
+            this.entries = grown;
+            return counter;
+        }
+
+        /**
+         * The counter of a method and status.
+         *
+         * @param key     The method ordinal plus one, or 0 for an unparsed request, in the upper bits, and the status in the lower 16 bits
+         * @param counter The counter
+         */
+        private record Entry(int key, Counter counter) {
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package net.phoenix.server.http.http2;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests {@link HpackDecoder} against the examples of RFC 7541, Appendix C, and round trips through {@link HpackEncoder}, including blocks that evict entries from the dynamic table.
+ */
+class HpackTest {
+    private static final List<String> FIRST_REQUEST = List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com");
+    private static final List<String> SECOND_REQUEST = List.of(":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com", "cache-control: no-cache");
+    private static final List<String> THIRD_REQUEST = List.of(":method: GET", ":scheme: https", ":path: /index.html", ":authority: www.example.com", "custom-key: custom-value");
+    private static final List<String> FIRST_RESPONSE = List.of(":status: 302", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com");
+    private static final List<String> SECOND_RESPONSE = List.of(":status: 307", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:21 GMT", "location: https://www.example.com");
+    private static final List<String> THIRD_RESPONSE = List.of(":status: 200", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:22 GMT", "location: https://www.example.com",
+            "content-encoding: gzip", "set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+
+    /**
+     * The single fields of C.2: a literal with indexing, which later blocks can refer to, a literal without indexing, a never indexed literal and an indexed field.
+     */
+    @Test
+    void decodesFieldRepresentations() throws HpackException {
+        HpackDecoder decoder = new HpackDecoder(4096);
+        assertEquals(List.of("custom-key: custom-header"), decode(decoder, "400a637573746f6d2d6b65790d637573746f6d2d686561646572"));
+        assertEquals(List.of(":path: /sample/path"), decode(decoder, "040c2f73616d706c652f70617468"));
+        assertEquals(List.of("password: secret"), decode(decoder, "100870617373776f726406736563726574"));
+        assertEquals(List.of(":method: GET"), decode(decoder, "82"));
+        assertEquals(List.of("custom-key: custom-header"), decode(decoder, "be"));
+    }
+
+    /**
+     * The requests of C.3, whose literals are not Huffman-encoded, decoded in order with one decoder.
+     */
+    @Test
+    void decodesRequestsWithoutHuffman() throws HpackException {
+        HpackDecoder decoder = new HpackDecoder(4096);
+        assertEquals(FIRST_REQUEST, decode(decoder, "828684410f7777772e6578616d706c652e636f6d"));
+        assertEquals(SECOND_REQUEST, decode(decoder, "828684be58086e6f2d6361636865"));
+        assertEquals(THIRD_REQUEST, decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+    }
+
+    /**
+     * The requests of C.4, which are those of C.3 with Huffman-encoded literals.
+     */
+    @Test
+    void decodesRequestsWithHuffman() throws HpackException {
+        HpackDecoder decoder = new HpackDecoder(4096);
+        assertEquals(FIRST_REQUEST, decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"));
+        assertEquals(SECOND_REQUEST, decode(decoder, "828684be5886a8eb10649cbf"));
+        assertEquals(THIRD_REQUEST, decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"));
+    }
+
+    /**
+     * The responses of C.5, decoded with a table of 256 bytes, so the second and third responses evict the oldest entries.
+     */
+    @Test
+    void decodesResponsesWithoutHuffman() throws HpackException {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertEquals(FIRST_RESPONSE, decode(decoder, "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d546e1768747470733a2f2f7777772e6578616d706c652e636f6d"));
+        assertEquals(SECOND_RESPONSE, decode(decoder, "4803333037c1c0bf"));
+        assertEquals(THIRD_RESPONSE, decode(decoder, "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a04677a69707738666f6f3d4153444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d6167653d333630303b2076657273696f6e3d31"));
+    }
+
+    /**
+     * The responses of C.6, which are those of C.5 with Huffman-encoded literals.
+     */
+    @Test
+    void decodesResponsesWithHuffman() throws HpackException {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertEquals(FIRST_RESPONSE, decode(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3"));
+        assertEquals(SECOND_RESPONSE, decode(decoder, "4883640effc1c0bf"));
+        assertEquals(THIRD_RESPONSE, decode(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"));
+    }
+
+    /**
+     * Fields that repeat are sent as a single index from the second block on, and every kind of field decodes to what was encoded.
+     */
+    @Test
+    void roundTripIndexesRepeatedFields() throws HpackException {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(HpackEncoder.MAX_TABLE_SIZE);
+        List<String> fields = List.of(":status: 200", "content-type: text/html", "server: phoenix", "content-length: 123", "set-cookie: id=1", "x-greeting: gr\u00fc\u00dfe");
+
+        byte[] first = encode(encoder, fields);
+        assertEquals(fields, decode(decoder, first));
+        byte[] second = encode(encoder, fields);
+        assertEquals(fields, decode(decoder, second));
+        assertTrue(second.length < first.length / 2, "second block took " + second.length + " bytes, first " + first.length);
+    }
+
+    /**
+     * A field evicted from a small table is sent as a literal again, and the decoder evicts the same entries as the encoder.
+     */
+    @Test
+    void roundTripEvictsOldEntries() throws HpackException {
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.setMaxTableSize(100);
+        HpackDecoder decoder = new HpackDecoder(HpackEncoder.MAX_TABLE_SIZE);
+        String first = "x-first: " + "a".repeat(60);
+        String second = "x-second: " + "b".repeat(50);
+
+        assertEquals(List.of(first), decode(decoder, encode(encoder, List.of(first))));
+        byte[] indexed = encode(encoder, List.of(first));
+        assertEquals(1, indexed.length, "indexed field");
+        assertEquals(List.of(first), decode(decoder, indexed));
+        assertEquals(List.of(second), decode(decoder, encode(encoder, List.of(second))));
+        byte[] again = encode(encoder, List.of(first));
+        assertTrue(again.length > 1, "evicted field was sent as an index");
+        assertEquals(List.of(first), decode(decoder, again));
+        assertEquals(List.of(second, first), decode(decoder, encode(encoder, List.of(second, first))));
+    }
+
+    /**
+     * Shrinking the table to nothing is announced at the start of the next block, after which nothing is indexed.
+     */
+    @Test
+    void roundTripAnnouncesTableSizeUpdate() throws HpackException {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(HpackEncoder.MAX_TABLE_SIZE);
+        List<String> fields = List.of("content-type: text/plain", "server: phoenix");
+        decode(decoder, encode(encoder, fields));
+
+        encoder.setMaxTableSize(0);
+        byte[] shrunk = encode(encoder, fields);
+        assertEquals(0x20, shrunk[0] & 0xFF, "size update");
+        assertEquals(fields, decode(decoder, shrunk));
+        byte[] next = encode(encoder, fields);
+        assertEquals(shrunk.length - 1, next.length);
+        assertEquals(fields, decode(decoder, next));
+    }
+
+    /**
+     * Many blocks of fields drawn from a small set, through a table so small that entries are evicted all the time, decode to what was encoded.
+     */
+    @Test
+    void roundTripRandomBlocks() throws HpackException {
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.setMaxTableSize(256);
+        HpackDecoder decoder = new HpackDecoder(HpackEncoder.MAX_TABLE_SIZE);
+        String[] names = {"content-type", "cache-control", "x-request-id", "vary", "x-custom", "etag", "set-cookie"};
+        Random random = new Random(7541);
+        for (int block = 0; block < 500; block++) {
+            List<String> fields = new ArrayList<>();
+            int count = 1 + random.nextInt(8);
+            for (int i = 0; i < count; i++) {
+                fields.add(names[random.nextInt(names.length)] + ": " + "v".repeat(random.nextInt(40)) + random.nextInt(20));
+            }
+            assertEquals(fields, decode(decoder, encode(encoder, fields)), "block " + block);
+        }
+    }
+
+    /**
+     * An integer that does not fit in 31 bits, or that ends with the block, is rejected.
+     */
+    @Test
+    void rejectsMalformedIntegers() {
+        HpackException overflow = assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "ffffffffff7f"));
+        assertEquals("Integer overflow", overflow.getMessage());
+        HpackException truncated = assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "ff80"));
+        assertEquals("Truncated integer", truncated.getMessage());
+    }
+
+    /**
+     * A string longer than what is left of the block, or missing entirely, is rejected.
+     */
+    @Test
+    void rejectsTruncatedStrings() {
+        assertEquals("Truncated string", assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "00056162")).getMessage());
+        assertEquals("Truncated string", assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "4001610378")).getMessage());
+        assertEquals("Truncated string", assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "00")).getMessage());
+        assertEquals("Truncated string", assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "0001")).getMessage());
+    }
+
+    /**
+     * Indices outside the tables, and table size updates that are too large or come after a field, are rejected.
+     */
+    @Test
+    void rejectsInvalidIndicesAndSizeUpdates() {
+        assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "80"));
+        assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "be"));
+        assertThrows(HpackException.class, () -> decode(new HpackDecoder(256), "3fe11f"));
+        assertThrows(HpackException.class, () -> decode(new HpackDecoder(4096), "8220"));
+    }
+
+    /**
+     * Encodes a header block.
+     *
+     * @param encoder The encoder
+     * @param fields  The fields, as "name: value"
+     * @return The block
+     */
+    private static byte[] encode(HpackEncoder encoder, List<String> fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.begin(out);
+        for (String field : fields) {
+            int separator = field.indexOf(": ");
+            encoder.encode(out, field.substring(0, separator), field.substring(separator + 2));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a header block given in hexadecimal.
+     *
+     * @param decoder The decoder
+     * @param hex     The block
+     * @return The fields, as "name: value"
+     * @throws HpackException If the block is malformed
+     */
+    private static List<String> decode(HpackDecoder decoder, String hex) throws HpackException {
+        return decode(decoder, HexFormat.of().parseHex(hex));
+    }
+
+    /**
+     * Decodes a header block.
+     *
+     * @param decoder The decoder
+     * @param block   The block
+     * @return The fields, as "name: value"
+     * @throws HpackException If the block is malformed
+     */
+    private static List<String> decode(HpackDecoder decoder, byte[] block) throws HpackException {
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, block.length, (name, value, size) -> fields.add(name + ": " + value));
+        return fields;
+    }
+}
@@ -0,0 +1,417 @@
+package net.phoenix.server.http.http2;
+
+import net.phoenix.server.Server;
+import net.phoenix.server.http.builder.HttpResponseBuilder;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.http.reflection.Router;
+import net.phoenix.server.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests the frames {@link Http2Connection} exchanges with a client over a loopback socket: the flow-control windows in both directions, and header blocks split across CONTINUATION frames.
+ */
+class Http2ConnectionTest {
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final int BIG_BODY = 100_000;
+    // How long the server has to stay silent for a test to conclude it is waiting for the client
+    private static final int QUIET = 500;
+
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final HpackDecoder decoder = new HpackDecoder(HpackEncoder.MAX_TABLE_SIZE);
+    private final Map<Integer, List<String>> responseHeaders = new HashMap<>();
+    private final Map<Integer, ByteArrayOutputStream> bodies = new HashMap<>();
+    private final Map<Integer, Boolean> ended = new HashMap<>();
+    private AsynchronousServerSocketChannel listener;
+    private Socket client;
+    private DataInputStream in;
+    private OutputStream out;
+    private int windowSize;
+
+    @BeforeAll
+    static void registerRoutes() throws NoSuchMethodException {
+        if (Server.logger == null) Server.logger = new Logger(System.out);
+        Router.registerStandardRoute("GET", "/h2/hello", Http2ConnectionTest.class.getDeclaredMethod("hello", HttpRequest.class), Http2ConnectionTest::hello);
+        Router.registerStandardRoute("GET", "/h2/big", Http2ConnectionTest.class.getDeclaredMethod("big", HttpRequest.class), Http2ConnectionTest::big);
+        Router.registerStandardRoute("POST", "/h2/echo", Http2ConnectionTest.class.getDeclaredMethod("echo", HttpRequest.class), Http2ConnectionTest::echo);
+    }
+
+    @BeforeEach
+    void connect() throws Exception {
+        // The server announces the default windows, so a test can exceed them with a few frames
+        windowSize = Server.http2WindowSize;
+        Server.http2WindowSize = 0;
+        listener = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Future<AsynchronousSocketChannel> accepted = listener.accept();
+        client = new Socket(InetAddress.getLoopbackAddress(), ((InetSocketAddress) listener.getLocalAddress()).getPort());
+        Http2Connection.start(accepted.get(5, TimeUnit.SECONDS), "/127.0.0.1:50000", ByteBuffer.allocate(0), null, null);
+        in = new DataInputStream(client.getInputStream());
+        out = client.getOutputStream();
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        client.close();
+        listener.close();
+        Server.http2WindowSize = windowSize;
+    }
+
+    /**
+     * A response larger than the windows of the client is sent only as far as the stream window, then the connection window allow, and finished once both are opened.
+     */
+    @Test
+    void responseIsHeldToFlowControlWindows() throws IOException {
+        handshake(1000);
+        request(1, "GET", "/h2/big", true);
+        assertEquals(1000, receive(1), "bytes within the initial stream window");
+        assertEquals(List.of(":status: 200"), responseHeaders.get(1).subList(0, 1));
+
+        windowUpdate(1, 5000);
+        assertEquals(5000, receive(1), "bytes within the opened stream window");
+        windowUpdate(1, 1 << 20);
+        assertEquals(DEFAULT_WINDOW - 6000, receive(1), "bytes within the connection window");
+        assertFalse(ended.getOrDefault(1, false), "stream ended before the connection window was opened");
+
+        windowUpdate(0, 1 << 20);
+        assertEquals(BIG_BODY - DEFAULT_WINDOW, receive(1), "bytes after the connection window was opened");
+        assertTrue(ended.getOrDefault(1, false), "stream was not ended");
+    }
+
+    /**
+     * A request body larger than the initial windows of the server is received, as the server reopens the stream and connection windows once half of each has been used.
+     */
+    @Test
+    void requestBodyReopensWindows() throws IOException {
+        handshake(-1);
+        request(1, "POST", "/h2/echo", false);
+        byte[] chunk = new byte[16384];
+        frame(DATA, 0, 1, chunk);
+        frame(DATA, 0, 1, chunk);
+        Map<Integer, Integer> increments = new HashMap<>();
+        while (increments.size() < 2) {
+            Frame update = await(WINDOW_UPDATE);
+            increments.merge(update.stream, ByteBuffer.wrap(update.payload).getInt(), Integer::sum);
+        }
+        assertEquals(Map.of(0, 2 * 16384, 1, 2 * 16384), increments);
+
+        frame(DATA, 0, 1, chunk);
+        frame(DATA, 0, 1, chunk);
+        frame(DATA, FLAG_END_STREAM, 1, new byte[100]);
+        receive(1);
+        assertEquals(String.valueOf(4 * 16384 + 100), bodies.get(1).toString(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A WINDOW_UPDATE that grows the window of a stream past 2^31-1 bytes resets the stream with FLOW_CONTROL_ERROR, while the connection stays usable.
+     */
+    @Test
+    void streamWindowOverflowResetsStream() throws IOException {
+        handshake(-1);
+        request(1, "POST", "/h2/echo", false);
+        windowUpdate(1, Integer.MAX_VALUE);
+        Frame reset = await(RST_STREAM);
+        assertEquals(1, reset.stream);
+        assertEquals(FLOW_CONTROL_ERROR, ByteBuffer.wrap(reset.payload).getInt());
+
+        request(3, "GET", "/h2/hello", true);
+        receive(3);
+        assertEquals("hello", bodies.get(3).toString(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A WINDOW_UPDATE that grows the connection window past 2^31-1 bytes ends the connection with FLOW_CONTROL_ERROR.
+     */
+    @Test
+    void windowOverflowIsConnectionError() throws IOException {
+        handshake(-1);
+        windowUpdate(0, Integer.MAX_VALUE);
+        assertEquals(FLOW_CONTROL_ERROR, goAwayError());
+    }
+
+    /**
+     * A header block split across a HEADERS frame and two CONTINUATION frames is decoded as one request.
+     */
+    @Test
+    void headerBlockSpansContinuationFrames() throws IOException {
+        handshake(-1);
+        byte[] block = block("GET", "/h2/hello");
+        int third = block.length / 3;
+        frame(HEADERS, FLAG_END_STREAM, 1, Arrays.copyOfRange(block, 0, third));
+        frame(CONTINUATION, 0, 1, Arrays.copyOfRange(block, third, 2 * third));
+        frame(CONTINUATION, FLAG_END_HEADERS, 1, Arrays.copyOfRange(block, 2 * third, block.length));
+        receive(1);
+        assertEquals(":status: 200", responseHeaders.get(1).get(0));
+        assertEquals("hello", bodies.get(1).toString(StandardCharsets.US_ASCII));
+        assertTrue(ended.getOrDefault(1, false), "stream was not ended");
+    }
+
+    /**
+     * Any frame other than a CONTINUATION of the same stream in the middle of a header block ends the connection with PROTOCOL_ERROR.
+     */
+    @Test
+    void frameInsideHeaderBlockIsConnectionError() throws IOException {
+        handshake(-1);
+        byte[] block = block("GET", "/h2/hello");
+        frame(HEADERS, FLAG_END_STREAM, 1, Arrays.copyOfRange(block, 0, 2));
+        frame(PING, 0, 0, new byte[8]);
+        assertEquals(PROTOCOL_ERROR, goAwayError());
+    }
+
+    /**
+     * A CONTINUATION frame that does not follow a header block ends the connection with PROTOCOL_ERROR.
+     */
+    @Test
+    void unexpectedContinuationIsConnectionError() throws IOException {
+        handshake(-1);
+        frame(CONTINUATION, FLAG_END_HEADERS, 1, block("GET", "/h2/hello"));
+        assertEquals(PROTOCOL_ERROR, goAwayError());
+    }
+
+    /**
+     * Sends the preface and the settings of the client, and acknowledges the settings of the server.
+     *
+     * @param initialWindow The initial stream window of the client, or -1 to keep the default
+     * @throws IOException If the socket fails
+     */
+    private void handshake(int initialWindow) throws IOException {
+        out.write(Http2Connection.PREFACE);
+        ByteBuffer settings = ByteBuffer.allocate(initialWindow < 0 ? 0 : 6);
+        if (initialWindow >= 0) settings.putShort((short) 0x4).putInt(initialWindow);
+        frame(SETTINGS, 0, 0, settings.array());
+        Frame frame = next(5000);
+        assertNotNull(frame, "server sent no settings");
+        assertEquals(SETTINGS, frame.type);
+        frame(SETTINGS, FLAG_ACK, 0, new byte[0]);
+    }
+
+    /**
+     * Sends a request as a single HEADERS frame.
+     *
+     * @param stream    The stream of the request
+     * @param method    The method
+     * @param path      The path
+     * @param endStream Whether the request has no body
+     * @throws IOException If the socket fails
+     */
+    private void request(int stream, String method, String path, boolean endStream) throws IOException {
+        frame(HEADERS, FLAG_END_HEADERS | (endStream ? FLAG_END_STREAM : 0), stream, block(method, path));
+    }
+
+    /**
+     * Encodes the header block of a request.
+     *
+     * @param method The method
+     * @param path   The path
+     * @return The block
+     */
+    private byte[] block(String method, String path) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.begin(block);
+        encoder.encode(block, ":method", method);
+        encoder.encode(block, ":scheme", "http");
+        encoder.encode(block, ":path", path);
+        encoder.encode(block, ":authority", "localhost");
+        return block.toByteArray();
+    }
+
+    /**
+     * Sends a WINDOW_UPDATE frame.
+     *
+     * @param stream    The stream, or 0 for the connection
+     * @param increment The number of bytes the window grows by
+     * @throws IOException If the socket fails
+     */
+    private void windowUpdate(int stream, int increment) throws IOException {
+        frame(WINDOW_UPDATE, 0, stream, ByteBuffer.allocate(4).putInt(increment).array());
+    }
+
+    /**
+     * Sends a frame.
+     *
+     * @param type    The type of the frame
+     * @param flags   The flags of the frame
+     * @param stream  The stream of the frame, or 0 for the connection
+     * @param payload The payload
+     * @throws IOException If the socket fails
+     */
+    private void frame(int type, int flags, int stream, byte[] payload) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(9 + payload.length);
+        frame.put((byte) (payload.length >>> 16)).put((byte) (payload.length >>> 8)).put((byte) payload.length);
+        frame.put((byte) type).put((byte) flags).putInt(stream).put(payload);
+        out.write(frame.array());
+        out.flush();
+    }
+
+    /**
+     * Receives frames until the server falls silent or ends a stream, collecting the headers and body of every stream.
+     *
+     * @param stream The stream whose bytes are counted
+     * @return The number of bytes of DATA received on the stream
+     * @throws IOException If the socket fails or the server closes the connection
+     */
+    private int receive(int stream) throws IOException {
+        int received = 0;
+        Frame frame;
+        while ((frame = next(QUIET)) != null) {
+            if (frame.type == HEADERS) {
+                List<String> fields = new ArrayList<>();
+                try {
+                    decoder.decode(frame.payload, frame.payload.length, (name, value, size) -> fields.add(name + ": " + value));
+                } catch (HpackException e) {
+                    fail("server sent an invalid header block: " + e.getMessage());
+                }
+                responseHeaders.put(frame.stream, fields);
+            } else if (frame.type == DATA) {
+                bodies.computeIfAbsent(frame.stream, id -> new ByteArrayOutputStream()).write(frame.payload);
+                if (frame.stream == stream) received += frame.payload.length;
+            } else if (frame.type == GOAWAY || frame.type == RST_STREAM) {
+                fail("server sent frame " + frame.type + " with error " + ByteBuffer.wrap(frame.payload).getInt(frame.type == GOAWAY ? 4 : 0));
+            }
+            if ((frame.type == HEADERS || frame.type == DATA) && (frame.flags & FLAG_END_STREAM) != 0) {
+                ended.put(frame.stream, true);
+                if (frame.stream == stream) break;
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Receives frames until one of a type arrives.
+     *
+     * @param type The type of the frame
+     * @return The frame
+     * @throws IOException If the socket fails or the server closes the connection first
+     */
+    private Frame await(int type) throws IOException {
+        Frame frame;
+        while ((frame = next(5000)) != null) {
+            if (frame.type == type) return frame;
+        }
+        return fail("no frame of type " + type + " arrived");
+    }
+
+    /**
+     * Receives frames until a GOAWAY, and checks that the server then closes the connection.
+     *
+     * @return The error code of the GOAWAY frame
+     * @throws IOException If the socket fails
+     */
+    private int goAwayError() throws IOException {
+        Frame goAway = await(GOAWAY);
+        client.setSoTimeout(5000);
+        assertEquals(-1, in.read(), "connection was left open");
+        return ByteBuffer.wrap(goAway.payload).getInt(4);
+    }
+
+    /**
+     * Reads the next frame, skipping the acknowledgements of the settings of the client.
+     *
+     * @param timeout The number of milliseconds to wait for the frame to start
+     * @return The frame, or null if none started in time
+     * @throws IOException If the socket fails or the server closes the connection
+     */
+    private Frame next(int timeout) throws IOException {
+        while (true) {
+            client.setSoTimeout(timeout);
+            int first;
+            try {
+                first = in.read();
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+            if (first < 0) throw new IOException("Server closed the connection");
+            client.setSoTimeout(5000);
+            int length = first << 16 | in.readUnsignedShort();
+            int type = in.readUnsignedByte();
+            int flags = in.readUnsignedByte();
+            int stream = in.readInt() & 0x7FFFFFFF;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (type == SETTINGS && (flags & FLAG_ACK) != 0) continue;
+            return new Frame(type, flags, stream, payload);
+        }
+    }
+
+    /**
+     * Answers with a short body.
+     *
+     * @param request The request
+     * @return The response
+     */
+    private static HttpResponse hello(HttpRequest request) {
+        return new HttpResponseBuilder().setStatusCode(200).setEntity("hello").build();
+    }
+
+    /**
+     * Answers with a body larger than the default flow-control windows.
+     *
+     * @param request The request
+     * @return The response
+     */
+    private static HttpResponse big(HttpRequest request) {
+        return new HttpResponseBuilder().setStatusCode(200).setEntity("x".repeat(BIG_BODY)).build();
+    }
+
+    /**
+     * Answers with the length of the request body.
+     *
+     * @param request The request
+     * @return The response
+     */
+    private static HttpResponse echo(HttpRequest request) {
+        return new HttpResponseBuilder().setStatusCode(200).setEntity(String.valueOf(request.requestBody().length())).build();
+    }
+
+    /**
+     * A frame received from the server.
+     *
+     * @param type    The type
+     * @param flags   The flags
+     * @param stream  The stream, or 0 for the connection
+     * @param payload The payload
+     */
+    private record Frame(int type, int flags, int stream, byte[] payload) {
+    }
+}
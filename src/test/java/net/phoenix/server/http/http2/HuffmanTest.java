@@ -0,0 +1,83 @@
+package net.phoenix.server.http.http2;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the Huffman code of {@link Huffman} against the strings of RFC 7541, Appendix C, and with every octet.
+ */
+class HuffmanTest {
+
+    /**
+     * The literals of C.4 and C.6 encode to the octets given there, and decode back.
+     */
+    @Test
+    void encodesExampleStrings() throws HpackException {
+        assertCode("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertCode("no-cache", "a8eb10649cbf");
+        assertCode("custom-key", "25a849e95ba97d7f");
+        assertCode("custom-value", "25a849e95bb8e8b4bf");
+        assertCode("302", "6402");
+        assertCode("private", "aec3771a4b");
+        assertCode("Mon, 21 Oct 2013 20:13:21 GMT", "d07abe941054d444a8200595040b8166e082a62d1bff");
+        assertCode("https://www.example.com", "9d29ad171863c78f0b97c8e9ae82ae43d3");
+    }
+
+    /**
+     * Every octet, including those with codes of up to 30 bits, survives a round trip, and the measured length matches the encoding.
+     */
+    @Test
+    void roundTripEveryOctet() throws HpackException {
+        byte[] data = new byte[512];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Huffman.encode(data, out);
+        assertEquals(Huffman.encodedLength(data), out.size());
+        assertArrayEquals(data, Huffman.decode(out.toByteArray(), 0, out.size()));
+    }
+
+    /**
+     * A string may be decoded from the middle of an array.
+     */
+    @Test
+    void decodesWithOffset() throws HpackException {
+        byte[] data = HexFormat.of().parseHex("0000a8eb10649cbf00");
+        assertArrayEquals("no-cache".getBytes(StandardCharsets.US_ASCII), Huffman.decode(data, 2, 6));
+    }
+
+    /**
+     * The end-of-string code, padding with zeros and padding longer than 7 bits are rejected.
+     */
+    @Test
+    void rejectsInvalidEncodings() {
+        assertThrows(HpackException.class, () -> Huffman.decode(HexFormat.of().parseHex("ffffffff"), 0, 4));
+        assertThrows(HpackException.class, () -> Huffman.decode(HexFormat.of().parseHex("18"), 0, 1));
+        assertThrows(HpackException.class, () -> Huffman.decode(HexFormat.of().parseHex("1fff"), 0, 2));
+    }
+
+    /**
+     * Checks that a string encodes to the given octets, and that they decode to the string.
+     *
+     * @param string  The string
+     * @param encoded The octets, in hexadecimal
+     * @throws HpackException If the octets cannot be decoded
+     */
+    private static void assertCode(String string, String encoded) throws HpackException {
+        byte[] data = string.getBytes(StandardCharsets.US_ASCII);
+        byte[] expected = HexFormat.of().parseHex(encoded);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Huffman.encode(data, out);
+        assertArrayEquals(expected, out.toByteArray());
+        assertEquals(expected.length, Huffman.encodedLength(data));
+        assertArrayEquals(data, Huffman.decode(expected, 0, expected.length));
+    }
+}
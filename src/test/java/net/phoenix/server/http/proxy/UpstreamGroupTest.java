@@ -0,0 +1,440 @@
+package net.phoenix.server.http.proxy;
+
+import com.sun.net.httpserver.HttpServer;
+import net.phoenix.server.Server;
+import net.phoenix.server.http.ResponseWriter;
+import net.phoenix.server.http.builder.HttpRequestBuilder;
+import net.phoenix.server.http.cache.BufferedResponse;
+import net.phoenix.server.http.container.HttpOpCode;
+import net.phoenix.server.http.container.HttpRequest;
+import net.phoenix.server.http.container.HttpResponse;
+import net.phoenix.server.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the load balancing policies and the ejection of failing targets of {@link UpstreamGroup} against stub backends on the loopback interface.
+ */
+class UpstreamGroupTest {
+    private final List<Stub> stubs = new ArrayList<>();
+    private final List<UpstreamGroup> groups = new ArrayList<>();
+    private int maxFailures;
+    private int ejectionTime;
+    private int healthCheckInterval;
+
+    @BeforeAll
+    static void createLogger() {
+        if (Server.logger == null) Server.logger = new Logger(System.out);
+    }
+
+    @BeforeEach
+    void saveSettings() {
+        maxFailures = Server.proxyMaxFailures;
+        ejectionTime = Server.proxyEjectionTime;
+        healthCheckInterval = Server.proxyHealthCheckInterval;
+    }
+
+    @AfterEach
+    void stopStubs() {
+        for (UpstreamGroup group : groups) {
+            group.close();
+        }
+        for (Stub stub : stubs) {
+            stub.release.countDown();
+            stub.server.stop(0);
+        }
+        Server.proxyMaxFailures = maxFailures;
+        Server.proxyEjectionTime = ejectionTime;
+        Server.proxyHealthCheckInterval = healthCheckInterval;
+    }
+
+    /**
+     * Round robin sends the same number of requests to every target.
+     */
+    @Test
+    void roundRobinSpreadsRequestsEvenly() throws IOException {
+        UpstreamGroup group = group(LoadBalancing.ROUND_ROBIN, null, stub("a"), stub("b"), stub("c"));
+        for (int i = 0; i < 30; i++) {
+            assertEquals(200, forward(group, null).statusCode());
+        }
+        for (Stub stub : stubs) {
+            assertEquals(10, stub.requests.get(), "requests sent to " + stub.name);
+        }
+    }
+
+    /**
+     * Least outstanding prefers the target that answers faster, once both have answered once.
+     */
+    @Test
+    void leastOutstandingPrefersFasterTarget() throws IOException {
+        Stub slow = stub("slow");
+        Stub fast = stub("fast");
+        slow.delay = 200;
+        UpstreamGroup group = group(LoadBalancing.LEAST_OUTSTANDING, null, slow, fast);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(200, forward(group, null).statusCode());
+        }
+        assertTrue(slow.requests.get() <= 2, "slow target received " + slow.requests.get() + " requests");
+        assertTrue(fast.requests.get() >= 18, "fast target received " + fast.requests.get() + " requests");
+    }
+
+    /**
+     * Least outstanding counts a request whose body is still being streamed, so further requests go to the other target until the body has been read or discarded.
+     */
+    @Test
+    void leastOutstandingCountsStreamingBodies() throws IOException {
+        Stub first = stub("first");
+        Stub second = stub("second");
+        first.delay = 100;
+        second.delay = 100;
+        UpstreamGroup group = group(LoadBalancing.LEAST_OUTSTANDING, null, first, second);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(200, forward(group, null).statusCode());
+        }
+
+        HttpResponse streaming = group.forward(request("/stream", null));
+        assertEquals(200, streaming.statusCode());
+        Upstream busy = group.getUpstreams().stream().filter(upstream -> upstream.getOutstanding() == 1).findFirst().orElse(null);
+        assertNotNull(busy, "no target counts the body being streamed");
+        Stub streamer = busy.getTarget().equals(first.target()) ? first : second;
+        for (int i = 0; i < 6; i++) {
+            assertNotEquals(streamer.name, body(forward(group, null)), "target streaming a body");
+        }
+
+        streamer.release.countDown();
+        BufferedResponse read = BufferedResponse.of(streaming, 1024);
+        assertNotNull(read, "streamed body could not be buffered");
+        assertEquals(streamer.name, body(read.toResponse()));
+        assertEquals(0, busy.getOutstanding());
+
+        HttpResponse discarded = group.forward(request("/stream", null));
+        assertEquals(1, group.getUpstreams().stream().mapToInt(Upstream::getOutstanding).sum());
+        ResponseWriter.discard((Flow.Publisher<?>) discarded.entity().orElseThrow());
+        assertEquals(0, group.getUpstreams().stream().mapToInt(Upstream::getOutstanding).sum());
+    }
+
+    /**
+     * Consistent hashing sends every request with the same key to the same target, and only moves the keys of a target that fails.
+     */
+    @Test
+    void consistentHashKeepsKeysOnTheirTarget() throws IOException {
+        Server.proxyMaxFailures = 1;
+        Server.proxyEjectionTime = 60000;
+        UpstreamGroup group = group(LoadBalancing.CONSISTENT_HASH, "X-User", stub("a"), stub("b"), stub("c"));
+        Map<String, String> owners = new HashMap<>();
+        for (int user = 0; user < 30; user++) {
+            owners.put("user-" + user, body(forward(group, "user-" + user)));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (Map.Entry<String, String> owner : owners.entrySet()) {
+                assertEquals(owner.getValue(), body(forward(group, owner.getKey())), "target of " + owner.getKey());
+            }
+        }
+
+        Stub failed = stubs.stream().filter(stub -> owners.containsValue(stub.name)).findFirst().orElseThrow();
+        failed.server.stop(0);
+        for (Map.Entry<String, String> owner : owners.entrySet()) {
+            HttpResponse response = forward(group, owner.getKey());
+            assertEquals(200, response.statusCode(), "status for " + owner.getKey());
+            String target = body(response);
+            if (owner.getValue().equals(failed.name)) {
+                assertFalse(target.equals(failed.name), "key of the stopped target was not moved");
+            } else {
+                assertEquals(owner.getValue(), target, "target of " + owner.getKey() + " after another target failed");
+            }
+        }
+    }
+
+    /**
+     * A target answering with 503 is ejected after the configured number of failures, and receives requests again once its ejection has ended and it answers.
+     */
+    @Test
+    void failingTargetIsEjectedAndRecovers() throws IOException {
+        Server.proxyMaxFailures = 2;
+        Server.proxyEjectionTime = 300;
+        Stub healthy = stub("healthy");
+        Stub failing = stub("failing");
+        failing.status = 503;
+        UpstreamGroup group = group(LoadBalancing.ROUND_ROBIN, null, healthy, failing);
+        Upstream upstream = group.getUpstreams().get(1);
+
+        for (int i = 0; i < 4; i++) {
+            forward(group, null);
+        }
+        assertEquals(2, failing.requests.get());
+        assertFalse(upstream.isAvailable(System.nanoTime()));
+        for (int i = 0; i < 6; i++) {
+            assertEquals(200, forward(group, null).statusCode());
+        }
+        assertEquals(2, failing.requests.get(), "requests sent to the ejected target");
+
+        failing.status = 200;
+        await(() -> upstream.isAvailable(System.nanoTime()), 2000);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(200, forward(group, null).statusCode());
+        }
+        assertEquals(4, failing.requests.get(), "requests sent to the recovered target");
+        assertEquals(2, upstream.getFailures());
+    }
+
+    /**
+     * A request that cannot connect to its target is retried on another target, and the unreachable target is ejected.
+     */
+    @Test
+    void unreachableTargetIsRetriedAndEjected() throws IOException {
+        Server.proxyMaxFailures = 2;
+        Server.proxyEjectionTime = 60000;
+        Stub healthy = stub("healthy");
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        UpstreamGroup group = track(new UpstreamGroup(List.of("http://127.0.0.1:" + closedPort, healthy.target()), LoadBalancing.ROUND_ROBIN, null, null));
+        Upstream unreachable = group.getUpstreams().get(0);
+
+        for (int i = 0; i < 6; i++) {
+            HttpResponse response = forward(group, null);
+            assertEquals(200, response.statusCode());
+            assertEquals("healthy", body(response));
+        }
+        assertEquals(6, healthy.requests.get());
+        assertEquals(2, unreachable.getFailures(), "attempts on the unreachable target");
+        assertFalse(unreachable.isAvailable(System.nanoTime()));
+    }
+
+    /**
+     * A target failing its health check receives no requests until it passes a check again.
+     */
+    @Test
+    void healthCheckEjectsAndRestoresTarget() throws IOException {
+        Server.proxyHealthCheckInterval = 50;
+        Stub healthy = stub("healthy");
+        Stub unhealthy = stub("unhealthy");
+        unhealthy.healthStatus = 500;
+        UpstreamGroup group = track(new UpstreamGroup(List.of(healthy.target(), unhealthy.target()), LoadBalancing.ROUND_ROBIN, null, "/health"));
+        Upstream upstream = group.getUpstreams().get(1);
+
+        await(() -> !upstream.isHealthy(), 2000);
+        for (int i = 0; i < 6; i++) {
+            assertEquals("healthy", body(forward(group, null)));
+        }
+        assertEquals(0, unhealthy.requests.get());
+
+        unhealthy.healthStatus = 200;
+        await(upstream::isHealthy, 2000);
+        for (int i = 0; i < 6; i++) {
+            forward(group, null);
+        }
+        assertEquals(3, unhealthy.requests.get());
+    }
+
+    /**
+     * Closing a group stops the health checks of its targets.
+     */
+    @Test
+    void closeStopsHealthChecks() throws IOException, InterruptedException {
+        Server.proxyHealthCheckInterval = 50;
+        Stub stub = stub("checked");
+        UpstreamGroup group = track(new UpstreamGroup(List.of(stub.target()), LoadBalancing.ROUND_ROBIN, null, "/health"));
+        await(() -> stub.checks.get() >= 2, 2000);
+
+        group.close();
+        // A check already sent when the group was closed may still arrive
+        Thread.sleep(150);
+        int checks = stub.checks.get();
+        Thread.sleep(300);
+        assertEquals(checks, stub.checks.get(), "health checks after the group was closed");
+    }
+
+    /**
+     * Starts a stub backend, which answers every request with its name. Requests to /stream get the first letter of the name at once, and the rest once the stub is released.
+     *
+     * @param name The name of the stub
+     * @return The stub
+     * @throws IOException If the stub cannot be started
+     */
+    private Stub stub(String name) throws IOException {
+        Stub stub = new Stub(name, HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0));
+        stub.server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }));
+        stub.server.createContext("/", exchange -> {
+            try (exchange) {
+                try (InputStream body = exchange.getRequestBody()) {
+                    body.readAllBytes();
+                }
+                boolean health = exchange.getRequestURI().getPath().equals("/health");
+                if (health) {
+                    stub.checks.incrementAndGet();
+                } else {
+                    stub.requests.incrementAndGet();
+                    if (stub.delay > 0) Thread.sleep(stub.delay);
+                }
+                byte[] answer = stub.name.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(health ? stub.healthStatus : stub.status, answer.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    if (exchange.getRequestURI().getPath().equals("/stream")) {
+                        out.write(answer, 0, 1);
+                        out.flush();
+                        stub.release.await();
+                        out.write(answer, 1, answer.length - 1);
+                    } else {
+                        out.write(answer);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stub.server.start();
+        stubs.add(stub);
+        return stub;
+    }
+
+    /**
+     * Creates a group of stubs without health checks.
+     *
+     * @param balancing  The policy of the group
+     * @param hashHeader The header hashed by consistent hashing, or null
+     * @param targets    The stubs
+     * @return The group
+     */
+    private UpstreamGroup group(LoadBalancing balancing, String hashHeader, Stub... targets) {
+        List<String> urls = new ArrayList<>();
+        for (Stub target : targets) {
+            urls.add(target.target());
+        }
+        return track(new UpstreamGroup(urls, balancing, hashHeader, null));
+    }
+
+    /**
+     * Remembers a group, so it is closed once the test ends.
+     *
+     * @param group The group
+     * @return The group
+     */
+    private UpstreamGroup track(UpstreamGroup group) {
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * Forwards a GET request through a group.
+     *
+     * @param group The group
+     * @param user  The value of the X-User header, or null to send none
+     * @return The response, with its body read into memory
+     * @throws IOException If the body of the response cannot be read
+     */
+    private static HttpResponse forward(UpstreamGroup group, String user) throws IOException {
+        BufferedResponse response = BufferedResponse.of(group.forward(request("/item", user)), 1024);
+        assertTrue(response != null, "response could not be buffered");
+        return response.toResponse();
+    }
+
+    /**
+     * Builds a GET request.
+     *
+     * @param path The path of the request
+     * @param user The value of the X-User header, or null to send none
+     * @return The request
+     */
+    private static HttpRequest request(String path, String user) {
+        HttpRequestBuilder builder = new HttpRequestBuilder().setMethod(HttpOpCode.GET).setPath(path).setIp("/127.0.0.1:50000").setHeaders(new HashMap<>());
+        if (user != null) builder.addHeader("X-User", user);
+        return builder.build();
+    }
+
+    /**
+     * Reads the body of a buffered response.
+     *
+     * @param response The response returned by {@link #forward(UpstreamGroup, String)}
+     * @return The body, which is the name of the stub that answered
+     * @throws IOException If the body cannot be read
+     */
+    private static String body(HttpResponse response) throws IOException {
+        Object entity = response.entity().orElse(null);
+        if (entity instanceof String string) return string;
+        if (entity instanceof InputStream stream) return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        return "";
+    }
+
+    /**
+     * Waits for a condition to hold.
+     *
+     * @param condition The condition
+     * @param timeout   The number of milliseconds to wait at most
+     */
+    private static void await(BooleanSupplier condition, long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition did not hold within " + timeout + "ms");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A stub backend and what it has been asked.
+     */
+    private static final class Stub {
+        private final String name;
+        private final HttpServer server;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger checks = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile int status = 200;
+        private volatile int healthStatus = 200;
+        private volatile long delay = 0;
+
+        /**
+         * Creates a new stub.
+         *
+         * @param name   The name the stub answers with
+         * @param server The server of the stub
+         */
+        private Stub(String name, HttpServer server) {
+            this.name = name;
+            this.server = server;
+        }
+
+        /**
+         * Gets the URL of the stub.
+         *
+         * @return The URL, without a trailing slash
+         */
+        private String target() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+    }
+}